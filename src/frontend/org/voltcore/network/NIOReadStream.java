@@ -63,8 +63,7 @@ public class NIOReadStream {
     }
 
     int getInt() {
-        // TODO: Optimize?
-        byte[] intbytes = new byte[4];
+        final byte[] intbytes = m_intBytes;
         getBytes(intbytes);
         int output = 0;
         for (int i = 0; i < intbytes.length; ++i) {
@@ -74,6 +73,47 @@ public class NIOReadStream {
         return output;
     }
 
+    /**
+     * Read the int stored offset bytes into the available data without consuming anything.
+     * Lets a handler find the message boundaries in the buffered data before copying it out.
+     */
+    int peekInt(int offset) {
+        if (offset < 0 || m_totalAvailable - offset < 4) {
+            throw new IllegalStateException("Requested 4 bytes at offset " + offset + "; only have "
+                    + m_totalAvailable + " bytes");
+        }
+
+        int output = 0;
+        int bytesPeeked = 0;
+        for (BBContainer c : m_readBBContainers) {
+            final ByteBuffer b = c.b();
+            bytesPeeked = peekBytes(b, b.position(), b.limit(), offset, bytesPeeked);
+            if (bytesPeeked == 4) {
+                break;
+            }
+            offset = Math.max(0, offset - b.remaining());
+        }
+        if (bytesPeeked < 4) {
+            // The rest is in the buffer being filled, which hasn't been flipped
+            bytesPeeked = peekBytes(m_poolBBContainer.b(), 0, m_poolBBContainer.b().position(),
+                                    offset, bytesPeeked);
+        }
+        assert bytesPeeked == 4;
+        for (int i = 0; i < m_intBytes.length; ++i) {
+            output <<= 8;
+            output |= (m_intBytes[i]) & 0xff;
+        }
+        return output;
+    }
+
+    // Copy the bytes of [start + offset, end) still needed to finish an int into m_intBytes
+    private int peekBytes(ByteBuffer b, int start, int end, int offset, int bytesPeeked) {
+        for (int i = start + offset; i < end && bytesPeeked < 4; i++) {
+            m_intBytes[bytesPeeked++] = b.get(i);
+        }
+        return bytesPeeked;
+    }
+
     /**
      * Move all bytes in current read buffers to output array, free read buffers
      * back to thread local memory pool.
@@ -184,6 +224,7 @@ public class NIOReadStream {
 
     private final ArrayDeque<BBContainer> m_readBBContainers = new ArrayDeque<BBContainer>();
     private BBContainer m_poolBBContainer = null;
+    private final byte[] m_intBytes = new byte[4];
     private int m_totalAvailable = 0;
     private long m_bytesRead = 0;
     private long m_lastBytesRead = 0;
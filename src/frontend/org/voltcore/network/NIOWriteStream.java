@@ -24,6 +24,7 @@ import java.nio.channels.SelectionKey;
 import java.util.ArrayDeque;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.DeferredSerialization;
 import org.voltcore.utils.EstTime;
 
@@ -65,6 +66,17 @@ public class NIOWriteStream extends NIOWriteStreamBase implements WriteStream {
 
     private final int m_maxQueuedWritesBeforeBackpressure = 100;
 
+    /**
+     * Most bytes handed to the channel in one gathering write, the buffer count is
+     * also capped to stay well under IOV_MAX
+     */
+    static final int GATHERING_WRITE_BYTES = Integer.getInteger("NETWORK_GATHERING_WRITE_BYTES", 256 * 1024);
+    static final int MAX_GATHERED_BUFFERS = 64;
+
+    int m_gatheringWriteBytes = GATHERING_WRITE_BYTES;
+    private final BBContainer[] m_gatheredContainers = new BBContainer[MAX_GATHERED_BUFFERS];
+    private final ByteBuffer[] m_gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
     private final Runnable m_offBackPressureCallback;
     private final Runnable m_onBackPressureCallback;
 
@@ -313,9 +325,10 @@ public class NIOWriteStream extends NIOWriteStreamBase implements WriteStream {
 
     /**
      * Does the work of queueing addititional buffers that have been serialized
-     * and choosing between gathering and regular writes to the channel. Also splits up very large
-     * writes of HeapByteBuffers into many smaller writes so Java doesn't allocate a monster DirectByteBuffer
-     * that will never be freed
+     * and choosing between gathering and regular writes to the channel. Up to
+     * m_gatheringWriteBytes of queued buffers are handed to the channel in a single
+     * gathering write. Buffers that weren't reached are returned to the queue
+     * unflipped so later messages can still be appended to the last one.
      * @param channel
      * @return
      * @throws IOException
@@ -333,26 +346,73 @@ public class NIOWriteStream extends NIOWriteStreamBase implements WriteStream {
                     return bytesWritten;
                 }
 
-                ByteBuffer buffer = null;
                 if (m_currentWriteBuffer == null) {
                     m_currentWriteBuffer = m_queuedBuffers.poll();
-                    buffer = m_currentWriteBuffer.b();
-                    buffer.flip();
-                } else {
-                    buffer = m_currentWriteBuffer.b();
+                    m_currentWriteBuffer.b().flip();
+                }
+                m_gatheredContainers[0] = m_currentWriteBuffer;
+                m_gatheredBuffers[0] = m_currentWriteBuffer.b();
+                int gathered = 1;
+                long gatheredBytes = m_gatheredBuffers[0].remaining();
+                while (gathered < MAX_GATHERED_BUFFERS && gatheredBytes < m_gatheringWriteBytes) {
+                    final BBContainer next = m_queuedBuffers.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    next.b().flip();
+                    m_gatheredContainers[gathered] = next;
+                    m_gatheredBuffers[gathered] = next.b();
+                    gatheredBytes += next.b().remaining();
+                    gathered++;
                 }
 
-                rc = channel.write(buffer);
-
-                //Discard the buffer back to a pool if no data remains
-                if (buffer.hasRemaining()) {
+                try {
+                    if (gathered == 1) {
+                        rc = channel.write(m_gatheredBuffers[0]);
+                    } else {
+                        rc = channel.write(m_gatheredBuffers, 0, gathered);
+                    }
+                } catch (IOException e) {
+                    //Put the gathered buffers back so shutdown discards them and releases their bytes,
+                    //the first one is still the current buffer
+                    for (int ii = gathered - 1; ii > 0; ii--) {
+                        final ByteBuffer buffer = m_gatheredBuffers[ii];
+                        buffer.position(buffer.limit());
+                        buffer.limit(buffer.capacity());
+                        m_queuedBuffers.offerFirst(m_gatheredContainers[ii]);
+                        m_gatheredContainers[ii] = null;
+                        m_gatheredBuffers[ii] = null;
+                    }
+                    m_gatheredContainers[0] = null;
+                    m_gatheredBuffers[0] = null;
+                    throw e;
+                }
+                m_writeCalls++;
+
+                //Discard buffers back to a pool if no data remains, the first one
+                //with data left becomes the current buffer and the rest go back
+                m_currentWriteBuffer = null;
+                for (int ii = gathered - 1; ii >= 0; ii--) {
+                    final BBContainer cont = m_gatheredContainers[ii];
+                    final ByteBuffer buffer = m_gatheredBuffers[ii];
+                    m_gatheredContainers[ii] = null;
+                    m_gatheredBuffers[ii] = null;
+                    if (!buffer.hasRemaining()) {
+                        cont.discard();
+                        m_messagesWritten++;
+                    } else if (ii == 0 || !m_gatheredBuffers[ii - 1].hasRemaining()) {
+                        m_currentWriteBuffer = cont;
+                    } else {
+                        // Untouched, undo the flip so it can be appended to again
+                        buffer.position(buffer.limit());
+                        buffer.limit(buffer.capacity());
+                        m_queuedBuffers.offerFirst(cont);
+                    }
+                }
+                if (m_currentWriteBuffer != null) {
                     if (!m_hadBackPressure) {
                         backpressureStarted();
                     }
-                } else {
-                    m_currentWriteBuffer.discard();
-                    m_currentWriteBuffer = null;
-                    m_messagesWritten++;
                 }
                 bytesWritten += rc;
 
@@ -49,6 +49,9 @@ public abstract class NIOWriteStreamBase {
 
     protected long m_bytesWritten = 0;
     protected long m_messagesWritten = 0;
+    // Calls to write on the channel, and messages serialized for writing
+    protected long m_writeCalls = 0;
+    protected long m_messagesSerialized = 0;
 
     /*
      * Used to provide incremental reads of the amount of
@@ -58,7 +61,12 @@ public abstract class NIOWriteStreamBase {
      */
     private long m_lastBytesWritten = 0;
     private long m_lastMessagesWritten = 0;
+    private long m_lastWriteCalls = 0;
+    private long m_lastMessagesSerialized = 0;
 
+    /**
+     * @return bytes written, messages written, write calls and messages serialized
+     */
     long[] getBytesAndMessagesWritten(boolean interval) {
         if (interval) {
             final long bytesWrittenThisTime = m_bytesWritten - m_lastBytesWritten;
@@ -66,12 +74,23 @@ public abstract class NIOWriteStreamBase {
 
             final long messagesWrittenThisTime = m_messagesWritten - m_lastMessagesWritten;
             m_lastMessagesWritten = m_messagesWritten;
-            return new long[] { bytesWrittenThisTime, messagesWrittenThisTime };
+
+            final long writeCallsThisTime = m_writeCalls - m_lastWriteCalls;
+            m_lastWriteCalls = m_writeCalls;
+
+            final long messagesSerializedThisTime = m_messagesSerialized - m_lastMessagesSerialized;
+            m_lastMessagesSerialized = m_messagesSerialized;
+            return new long[] { bytesWrittenThisTime, messagesWrittenThisTime,
+                                writeCallsThisTime, messagesSerializedThisTime };
         } else {
-            return new long[] {m_bytesWritten, m_messagesWritten};
+            return new long[] {m_bytesWritten, m_messagesWritten, m_writeCalls, m_messagesSerialized};
         }
     }
 
+    long getBytesWritten() {
+        return m_bytesWritten;
+    }
+
     /*
      * Return the number of messages waiting to be written to the network
      */
@@ -106,10 +125,14 @@ public abstract class NIOWriteStreamBase {
             processedWrites++;
             final int serializedSize = ds.getSerializedSize();
             if (serializedSize == DeferredSerialization.EMPTY_MESSAGE_LENGTH) continue;
+            m_messagesSerialized++;
             BBContainer outCont = m_queuedBuffers.peekLast();
             ByteBuffer outbuf = null;
-            if (outCont == null || !outCont.b().hasRemaining()) {
-                outCont = pool.acquire();
+            final boolean fitsOneBuffer = pool.canSatisfy(serializedSize);
+            // Start a buffer sized for the message rather than staging it on the heap if possible
+            if (outCont == null || !outCont.b().hasRemaining() ||
+                    (fitsOneBuffer && outCont.b().remaining() < serializedSize)) {
+                outCont = fitsOneBuffer ? pool.acquire(serializedSize) : pool.acquire();
                 outCont.b().clear();
                 m_queuedBuffers.offer(outCont);
             }
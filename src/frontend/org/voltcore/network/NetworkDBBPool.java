@@ -22,6 +22,12 @@ import java.util.ArrayDeque;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 
+/**
+ * Network thread facing view of the direct buffers used for reads and for
+ * serializing writes. By default buffers come from the process wide
+ * SizeClassedDBBPool; the fixed size constructor keeps a private free list so
+ * tests can force small buffers.
+ */
 public class NetworkDBBPool {
 
     private final ArrayDeque<BBContainer> m_buffers = new ArrayDeque<BBContainer>();
@@ -30,22 +36,24 @@ public class NetworkDBBPool {
 
     private final int m_numBuffers;
     private final int m_allocationSize;
-    public NetworkDBBPool(int numBuffers) {
-        m_numBuffers = numBuffers;
-        m_allocationSize = SIZE;
-    }
+    private final SizeClassedDBBPool m_shared;
 
     NetworkDBBPool(int numBuffers, int allocSize) {
         m_numBuffers = numBuffers;
         m_allocationSize = allocSize;
+        m_shared = null;
     }
 
     public NetworkDBBPool() {
         m_numBuffers = LIMIT;
         m_allocationSize = SIZE;
+        m_shared = SizeClassedDBBPool.INSTANCE;
     }
 
     BBContainer acquire() {
+       if (m_shared != null) {
+           return m_shared.acquire(m_allocationSize);
+       }
        final BBContainer cont = m_buffers.poll();
        if (cont == null) {
            final BBContainer originContainer = DBBPool.allocateDirect(m_allocationSize);
@@ -71,7 +79,36 @@ public class NetworkDBBPool {
        };
     }
 
+    /**
+     * Acquire a buffer with room for at least minSize bytes, callers must check
+     * canSatisfy first.
+     */
+    BBContainer acquire(int minSize) {
+        assert canSatisfy(minSize);
+        return m_shared.acquire(Math.max(minSize, m_allocationSize));
+    }
+
+    /**
+     * @return true if acquire(size) can return a single buffer of that size
+     */
+    boolean canSatisfy(int size) {
+        return m_shared != null && size <= SizeClassedDBBPool.MAX_BUFFER_SIZE;
+    }
+
+    /**
+     * Called on the network thread that will use this pool
+     */
+    void enableThreadCache() {
+        if (m_shared != null) {
+            m_shared.enableThreadCache();
+        }
+    }
+
     void clear() {
+        if (m_shared != null) {
+            m_shared.releaseThreadCache();
+            return;
+        }
         BBContainer cont = null;
         while ((cont = m_buffers.poll()) != null) {
             cont.discard();
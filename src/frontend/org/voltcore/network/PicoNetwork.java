@@ -98,7 +98,7 @@ public class PicoNetwork implements Runnable, Connection, IOStatsIntf
     private static final VoltLogger networkLog = new VoltLogger("NETWORK");
 
     private final Selector m_selector;
-    private final NetworkDBBPool m_pool = new NetworkDBBPool(64);
+    private final NetworkDBBPool m_pool = new NetworkDBBPool();
     private final NIOReadStream m_readStream = new NIOReadStream();
     private final PicoNIOWriteStream m_writeStream = new PicoNIOWriteStream();
     private final ConcurrentLinkedQueue<Runnable> m_tasks = new ConcurrentLinkedQueue<Runnable>();
@@ -173,6 +173,7 @@ public class PicoNetwork implements Runnable, Connection, IOStatsIntf
     @Override
     public void run() {
         m_verbotenThreads.add(Thread.currentThread().getId());
+        m_pool.enableThreadCache();
         try {
             m_ih.starting(this);
             m_ih.started(this);
@@ -386,7 +387,9 @@ public class PicoNetwork implements Runnable, Connection, IOStatsIntf
                                     read,
                                     messagesRead,
                                     writeInfo[0],
-                                    writeInfo[1]}));
+                                    writeInfo[1],
+                                    writeInfo[2],
+                                    writeInfo[3]}));
             retval.put(
                     -1L,
                     Pair.of(
@@ -395,7 +398,9 @@ public class PicoNetwork implements Runnable, Connection, IOStatsIntf
                                     read,
                                     messagesRead,
                                     writeInfo[0],
-                                    writeInfo[1] }));
+                                    writeInfo[1],
+                                    writeInfo[2],
+                                    writeInfo[3] }));
             return retval;
     }
 
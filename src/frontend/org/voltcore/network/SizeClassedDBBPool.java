@@ -0,0 +1,307 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.network;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+
+/**
+ * Direct buffers in power of two size classes from 4KB to 4MB, shared by all
+ * network threads. Network threads enable a small cache per size class so the
+ * common acquire/discard on the same thread doesn't touch shared state, and
+ * spill into a bounded shared depot that other threads can draw from. Other
+ * threads only use the depot, so buffers they discard can't pile up in caches
+ * nobody releases. Buffers beyond both limits are freed.
+ *
+ * Setting NETWORK_DBB_LEAK_DETECTION records where each buffer was acquired and
+ * reports containers that were garbage collected without being discarded. The
+ * leaked buffer itself is recovered into the pool.
+ */
+public class SizeClassedDBBPool {
+    private static final VoltLogger networkLog = new VoltLogger("NETWORK");
+
+    public static final int MIN_CLASS_SHIFT = 12;
+    public static final int MAX_CLASS_SHIFT = 22;
+    public static final int NUM_CLASSES = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+    public static final int MAX_BUFFER_SIZE = 1 << MAX_CLASS_SHIFT;
+
+    private static final int THREAD_CACHE_BYTES = Integer.getInteger("NETWORK_DBB_THREAD_CACHE_BYTES", 1024 * 1024);
+    private static final int SHARED_BYTES = Integer.getInteger("NETWORK_DBB_SHARED_BYTES", 16 * 1024 * 1024);
+    private static final boolean LEAK_DETECTION = Boolean.getBoolean("NETWORK_DBB_LEAK_DETECTION");
+
+    public static final SizeClassedDBBPool INSTANCE =
+            new SizeClassedDBBPool(THREAD_CACHE_BYTES, SHARED_BYTES, LEAK_DETECTION);
+
+    /** Counters for one size class, all of them are approximate when read concurrently */
+    public static class ClassStats {
+        public final int size;
+        public final long hits;
+        public final long misses;
+        public final long outstanding;
+        public final long pooled;
+        public final long leaked;
+
+        ClassStats(int size, long hits, long misses, long outstanding, long pooled, long leaked) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.outstanding = outstanding;
+            this.pooled = pooled;
+            this.leaked = leaked;
+        }
+    }
+
+    private static class SizeClass {
+        final int m_index;
+        final int m_size;
+        final int m_threadCacheLimit;
+        final int m_sharedLimit;
+        final ConcurrentLinkedQueue<BBContainer> m_shared = new ConcurrentLinkedQueue<BBContainer>();
+        final AtomicInteger m_sharedCount = new AtomicInteger();
+        // Buffers sitting in thread caches, reported as pooled along with the depot
+        final AtomicInteger m_cachedCount = new AtomicInteger();
+        final AtomicLong m_hits = new AtomicLong();
+        final AtomicLong m_misses = new AtomicLong();
+        final AtomicLong m_outstanding = new AtomicLong();
+        final AtomicLong m_leaked = new AtomicLong();
+
+        SizeClass(int index, int threadCacheBytes, int sharedBytes) {
+            m_index = index;
+            m_size = 1 << (index + MIN_CLASS_SHIFT);
+            m_threadCacheLimit = Math.max(1, threadCacheBytes / m_size);
+            m_sharedLimit = Math.max(2, sharedBytes / m_size);
+        }
+    }
+
+    /*
+     * Keeps the origin buffer and the acquisition site of an outstanding container.
+     * Only reachable from m_outstandingLeakRefs until the container is discarded.
+     */
+    private static class LeakRef extends WeakReference<BBContainer> {
+        final BBContainer m_origin;
+        final SizeClass m_class;
+        final Throwable m_acquiredBy;
+
+        LeakRef(BBContainer cont, BBContainer origin, SizeClass sc, ReferenceQueue<BBContainer> queue) {
+            super(cont, queue);
+            m_origin = origin;
+            m_class = sc;
+            m_acquiredBy = new Throwable("Acquired by \"" + Thread.currentThread().getName() + "\"");
+        }
+    }
+
+    private final SizeClass[] m_classes = new SizeClass[NUM_CLASSES];
+    // null for threads that haven't enabled a cache
+    private final ThreadLocal<ArrayDeque<BBContainer>[]> m_threadCaches = new ThreadLocal<ArrayDeque<BBContainer>[]>();
+
+    private final boolean m_leakDetection;
+    private final ReferenceQueue<BBContainer> m_leakQueue = new ReferenceQueue<BBContainer>();
+    private final Set<LeakRef> m_outstandingLeakRefs =
+            java.util.Collections.newSetFromMap(new ConcurrentHashMap<LeakRef, Boolean>());
+
+    SizeClassedDBBPool(int threadCacheBytes, int sharedBytes, boolean leakDetection) {
+        for (int ii = 0; ii < NUM_CLASSES; ii++) {
+            m_classes[ii] = new SizeClass(ii, threadCacheBytes, sharedBytes);
+        }
+        m_leakDetection = leakDetection;
+    }
+
+    /**
+     * Give the calling thread its own cache per size class. Called by network threads
+     * when they start, which must call releaseThreadCache when they stop.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void enableThreadCache() {
+        if (m_threadCaches.get() != null) {
+            return;
+        }
+        final ArrayDeque<BBContainer>[] caches = new ArrayDeque[NUM_CLASSES];
+        for (int ii = 0; ii < NUM_CLASSES; ii++) {
+            caches[ii] = new ArrayDeque<BBContainer>();
+        }
+        m_threadCaches.set(caches);
+    }
+
+    /**
+     * Index of the smallest class holding size bytes, sizes above the largest
+     * class map to the largest class.
+     */
+    static int classIndex(int size) {
+        if (size <= (1 << MIN_CLASS_SHIFT)) {
+            return 0;
+        }
+        if (size >= MAX_BUFFER_SIZE) {
+            return NUM_CLASSES - 1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * Acquire a cleared buffer of at least minSize bytes, or of MAX_BUFFER_SIZE bytes
+     * if minSize is larger than that. Safe to call from any thread, and the container
+     * may be discarded from any thread.
+     */
+    public BBContainer acquire(int minSize) {
+        if (m_leakDetection) {
+            reclaimLeaks();
+        }
+        final SizeClass sc = m_classes[classIndex(minSize)];
+        final ArrayDeque<BBContainer>[] caches = m_threadCaches.get();
+        BBContainer origin = caches == null ? null : caches[sc.m_index].poll();
+        if (origin != null) {
+            sc.m_cachedCount.decrementAndGet();
+        } else {
+            origin = sc.m_shared.poll();
+            if (origin != null) {
+                sc.m_sharedCount.decrementAndGet();
+            }
+        }
+        if (origin == null) {
+            sc.m_misses.incrementAndGet();
+            origin = allocateOrigin(sc.m_size);
+        } else {
+            sc.m_hits.incrementAndGet();
+        }
+        sc.m_outstanding.incrementAndGet();
+        origin.b().clear();
+        return new PooledContainer(origin, sc);
+    }
+
+    /**
+     * Allocate a new buffer for a size class, tests override it with buffers
+     * that can stay in the pool when it is collected.
+     */
+    BBContainer allocateOrigin(int size) {
+        return DBBPool.allocateDirect(size);
+    }
+
+    private class PooledContainer extends BBContainer {
+        private final BBContainer m_origin;
+        private final SizeClass m_class;
+        private final LeakRef m_leakRef;
+
+        PooledContainer(BBContainer origin, SizeClass sc) {
+            super(origin.b());
+            m_origin = origin;
+            m_class = sc;
+            if (m_leakDetection) {
+                m_leakRef = new LeakRef(this, origin, sc, m_leakQueue);
+                m_outstandingLeakRefs.add(m_leakRef);
+            } else {
+                m_leakRef = null;
+            }
+        }
+
+        @Override
+        public void discard() {
+            checkDoubleFree();
+            if (m_leakRef != null) {
+                m_leakRef.clear();
+                if (!m_outstandingLeakRefs.remove(m_leakRef)) {
+                    // Already recovered as a leak
+                    return;
+                }
+            }
+            release(m_origin, m_class);
+        }
+    }
+
+    private void release(BBContainer origin, SizeClass sc) {
+        sc.m_outstanding.decrementAndGet();
+        final ArrayDeque<BBContainer>[] caches = m_threadCaches.get();
+        if (caches != null && caches[sc.m_index].size() < sc.m_threadCacheLimit) {
+            caches[sc.m_index].push(origin);
+            sc.m_cachedCount.incrementAndGet();
+        } else if (sc.m_sharedCount.incrementAndGet() <= sc.m_sharedLimit) {
+            sc.m_shared.offer(origin);
+        } else {
+            sc.m_sharedCount.decrementAndGet();
+            origin.discard();
+        }
+    }
+
+    /**
+     * Report cont as if it had been garbage collected without being discarded.
+     * Lets tests check the recovery with a container they can still discard,
+     * memcheck builds exit when an undiscarded container is finalized.
+     */
+    void leakForTest(BBContainer cont) {
+        ((PooledContainer)cont).m_leakRef.enqueue();
+    }
+
+    private void reclaimLeaks() {
+        LeakRef ref;
+        while ((ref = (LeakRef)m_leakQueue.poll()) != null) {
+            if (!m_outstandingLeakRefs.remove(ref)) {
+                continue;
+            }
+            ref.m_class.m_leaked.incrementAndGet();
+            networkLog.error("A " + ref.m_class.m_size + " byte network buffer was garbage collected " +
+                    "without being discarded, recovering it into the pool", ref.m_acquiredBy);
+            release(ref.m_origin, ref.m_class);
+        }
+    }
+
+    /**
+     * Move the calling thread's cached buffers to the shared depot, or free them
+     * if it is full. Called by network threads when they shut down.
+     */
+    public void releaseThreadCache() {
+        final ArrayDeque<BBContainer>[] caches = m_threadCaches.get();
+        if (caches == null) {
+            return;
+        }
+        for (int ii = 0; ii < NUM_CLASSES; ii++) {
+            final SizeClass sc = m_classes[ii];
+            BBContainer origin;
+            while ((origin = caches[ii].poll()) != null) {
+                sc.m_cachedCount.decrementAndGet();
+                if (sc.m_sharedCount.incrementAndGet() <= sc.m_sharedLimit) {
+                    sc.m_shared.offer(origin);
+                } else {
+                    sc.m_sharedCount.decrementAndGet();
+                    origin.discard();
+                }
+            }
+        }
+        m_threadCaches.remove();
+    }
+
+    public ClassStats[] getStats() {
+        if (m_leakDetection) {
+            reclaimLeaks();
+        }
+        ClassStats[] stats = new ClassStats[NUM_CLASSES];
+        for (int ii = 0; ii < NUM_CLASSES; ii++) {
+            final SizeClass sc = m_classes[ii];
+            stats[ii] = new ClassStats(sc.m_size, sc.m_hits.get(), sc.m_misses.get(),
+                    sc.m_outstanding.get(), sc.m_sharedCount.get() + sc.m_cachedCount.get(), sc.m_leaked.get());
+        }
+        return stats;
+    }
+}
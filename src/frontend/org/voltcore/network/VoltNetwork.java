@@ -80,8 +80,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import jsr166y.ThreadLocalRandom;
@@ -108,6 +110,20 @@ class VoltNetwork implements Runnable, IOStatsIntf
 
     private final NinjaKeySet m_ninjaSelectedKeys;
 
+    // When not null ports hand decoded messages to this executor instead of
+    // handling them on the network thread
+    final Executor m_handoffExecutor;
+
+    /*
+     * Bytes read and written by this network's ports, turned into a smoothed
+     * rate once per window so the pool can place connections by load
+     */
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private long m_bytesTransferred = 0;
+    private long m_rateWindowStart = System.nanoTime();
+    private volatile long m_byteRate = 0;
+    private volatile long m_byteRateTimestamp = m_rateWindowStart;
+
     /**
      * Start this VoltNetwork's thread;
      */
@@ -121,6 +137,11 @@ class VoltNetwork implements Runnable, IOStatsIntf
      * and runOnce should be called periodically
      **/
     VoltNetwork(int networkId, String coreBindId, String networkName) {
+        this(networkId, coreBindId, networkName, null);
+    }
+
+    VoltNetwork(int networkId, String coreBindId, String networkName, Executor handoffExecutor) {
+        m_handoffExecutor = handoffExecutor;
         m_thread = new Thread(this, "Volt " + networkName + " Network - " + networkId);
         networkThreadName = new String("Volt " + networkName + " Network - " + networkId);
         m_thread.setDaemon(true);
@@ -136,6 +157,7 @@ class VoltNetwork implements Runnable, IOStatsIntf
 
     VoltNetwork( Selector s) {
         m_thread = null;
+        m_handoffExecutor = null;
         m_selector = s;
         m_coreBindId = null;
         networkThreadName = new String("Test Selector Thread");
@@ -291,6 +313,7 @@ class VoltNetwork implements Runnable, IOStatsIntf
             // Goal is to remove client dependency on this class in the medium term.
             //PosixJNAAffinity.INSTANCE.setAffinity(m_coreBindId);
         }
+        m_pool.enableThreadCache();
         try {
             while (m_shouldStop == false) {
                 try {
@@ -324,6 +347,8 @@ class VoltNetwork implements Runnable, IOStatsIntf
                         while ((task = m_tasks.poll()) != null) {
                             task.run();
                         }
+
+                        updateByteRate();
                     }
                 } catch (Throwable ex) {
                     ex.printStackTrace();
@@ -399,6 +424,7 @@ class VoltNetwork implements Runnable, IOStatsIntf
     }
 
     private void callPort(final VoltPort port) {
+        final long bytesBefore = port.bytesTransferred();
         try {
             port.lockForHandlingWork();
             port.getKey().interestOps(0);
@@ -420,10 +446,37 @@ class VoltNetwork implements Runnable, IOStatsIntf
                 networkLog.error( "VoltPort died due to an unexpected exception", e);
             }
         } finally {
+            m_bytesTransferred += port.bytesTransferred() - bytesBefore;
             installInterests(port);
         }
     }
 
+    private void updateByteRate() {
+        final long now = System.nanoTime();
+        final long elapsed = now - m_rateWindowStart;
+        if (elapsed < RATE_WINDOW_NANOS) {
+            return;
+        }
+        final long rate = (long)(m_bytesTransferred / (elapsed / (double)TimeUnit.SECONDS.toNanos(1)));
+        // Weight the previous rate so one quiet window doesn't look idle
+        m_byteRate = (m_byteRate + rate) / 2;
+        m_byteRateTimestamp = now;
+        m_bytesTransferred = 0;
+        m_rateWindowStart = now;
+    }
+
+    /**
+     * Smoothed bytes per second read and written by this network. The rate is
+     * only refreshed while the network thread is active, a stale rate means the
+     * thread has been blocked in select and is idle.
+     */
+    long byteRate() {
+        if (System.nanoTime() - m_byteRateTimestamp > 4 * RATE_WINDOW_NANOS) {
+            return 0;
+        }
+        return m_byteRate;
+    }
+
     /** Set the selected interest set on the port and run it. */
     protected void invokeCallbacks(ThreadLocalRandom r) {
         final Set<SelectionKey> selectedKeys = m_selector.selectedKeys();
@@ -489,6 +542,8 @@ class VoltNetwork implements Runnable, IOStatsIntf
         long totalMessagesRead = 0;
         long totalWritten = 0;
         long totalMessagesWritten = 0;
+        long totalWriteCalls = 0;
+        long totalMessagesSerialized = 0;
         for (VoltPort p : m_ports) {
             final long read = p.readStream().getBytesRead(interval);
             final long writeInfo[] = p.writeStream().getBytesAndMessagesWritten(interval);
@@ -497,6 +552,8 @@ class VoltNetwork implements Runnable, IOStatsIntf
             totalMessagesRead += messagesRead;
             totalWritten += writeInfo[0];
             totalMessagesWritten += writeInfo[1];
+            totalWriteCalls += writeInfo[2];
+            totalMessagesSerialized += writeInfo[3];
             retval.put(
                     p.connectionId(),
                     Pair.of(
@@ -505,7 +562,9 @@ class VoltNetwork implements Runnable, IOStatsIntf
                                     read,
                                     messagesRead,
                                     writeInfo[0],
-                                    writeInfo[1] }));
+                                    writeInfo[1],
+                                    writeInfo[2],
+                                    writeInfo[3] }));
         }
         retval.put(
                 -1L,
@@ -515,7 +574,9 @@ class VoltNetwork implements Runnable, IOStatsIntf
                                 totalRead,
                                 totalMessagesRead,
                                 totalWritten,
-                                totalMessagesWritten }));
+                                totalMessagesWritten,
+                                totalWriteCalls,
+                                totalMessagesSerialized }));
         return retval;
     }
 
@@ -29,12 +29,14 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.Pair;
 
 public class VoltNetworkPool {
@@ -45,7 +47,15 @@ public class VoltNetworkPool {
 
     private static final VoltLogger m_logger = new VoltLogger(VoltNetworkPool.class.getName());
 
+    // Place new connections on the network moving the fewest bytes instead of the one with the fewest ports
+    private static final boolean BALANCE_BY_BYTES = Boolean.valueOf(System.getProperty("NETWORK_BALANCE_BY_BYTES", "true"));
+    // Byte rates closer than this are considered equal and the port count breaks the tie
+    private static final long MIN_RATE_DIFFERENCE = 1024 * 1024;
+    // Number of worker threads handling messages decoded by the network threads, 0 handles them inline
+    private static final int HANDOFF_THREADS = Integer.getInteger("NETWORK_HANDOFF_THREADS", 0);
+
     private final VoltNetwork m_networks[];
+    private final ExecutorService m_handoffExecutor;
     private final AtomicLong m_nextNetwork = new AtomicLong();
     public final String m_poolName;
 
@@ -54,22 +64,37 @@ public class VoltNetworkPool {
     }
 
     public VoltNetworkPool(int numThreads, int startThreadId, Queue<String> coreBindIds, String poolName) {
+        this(numThreads, startThreadId, coreBindIds, poolName, HANDOFF_THREADS);
+    }
+
+    /**
+     * @param handoffThreads number of threads handling messages decoded by the network
+     * threads so that those only do I/O, 0 to handle messages on the network threads
+     */
+    public VoltNetworkPool(int numThreads, int startThreadId, Queue<String> coreBindIds, String poolName,
+                           int handoffThreads) {
         m_poolName = poolName;
         if (numThreads < 1) {
             throw new IllegalArgumentException("Must specify a positive number of threads");
         }
+        if (handoffThreads > 0) {
+            m_handoffExecutor = CoreUtils.getListeningExecutorService(
+                    "Volt " + poolName + " Network Worker", handoffThreads);
+        } else {
+            m_handoffExecutor = null;
+        }
         if (coreBindIds == null || coreBindIds.isEmpty()) {
             m_networks = new VoltNetwork[numThreads];
             for (int ii = 0; ii < numThreads; ii++) {
                 // Adding startThreadId avoids unnecessary polling for non-Server VoltNetworkPools
-                m_networks[ii] = new VoltNetwork(ii+startThreadId, null, poolName);
+                m_networks[ii] = new VoltNetwork(ii+startThreadId, null, poolName, m_handoffExecutor);
             }
         } else {
             final int coreBindIdsSize = coreBindIds.size();
             m_networks = new VoltNetwork[coreBindIdsSize];
             for (int ii = 0; ii < coreBindIdsSize; ii++) {
                 // Adding startThreadId avoids unnecessary polling for non-Server VoltNetworkPools
-                m_networks[ii] = new VoltNetwork(ii+startThreadId, coreBindIds.poll(), poolName);
+                m_networks[ii] = new VoltNetwork(ii+startThreadId, coreBindIds.poll(), poolName, m_handoffExecutor);
             }
         }
     }
@@ -84,6 +109,9 @@ public class VoltNetworkPool {
         for (VoltNetwork vn : m_networks) {
             vn.shutdown();
         }
+        if (m_handoffExecutor != null) {
+            m_handoffExecutor.shutdown();
+        }
     }
 
     public Connection registerChannel(
@@ -102,13 +130,31 @@ public class VoltNetworkPool {
         //Then do a load based policy which is a little racy
         for (int ii = 0; ii < m_networks.length; ii++) {
             if (m_networks[ii] == vn) continue;
-            if (vn.numPorts() > m_networks[ii].numPorts()) {
+            if (isLessLoaded(m_networks[ii], vn)) {
                 vn = m_networks[ii];
             }
         }
         return vn.registerChannel(channel, handler, interestOps, dns);
     }
 
+    /**
+     * A few bulk loading connections can saturate one network thread while
+     * others with more, but idle, connections have nothing to do. Compare by
+     * recent byte rate first and only fall back to the port count when the
+     * rates are close.
+     */
+    static boolean isLessLoaded(VoltNetwork candidate, VoltNetwork current) {
+        if (BALANCE_BY_BYTES) {
+            final long candidateRate = candidate.byteRate();
+            final long currentRate = current.byteRate();
+            final long threshold = Math.max(MIN_RATE_DIFFERENCE, Math.max(candidateRate, currentRate) / 10);
+            if (Math.abs(candidateRate - currentRate) > threshold) {
+                return candidateRate < currentRate;
+            }
+        }
+        return candidate.numPorts() < current.numPorts();
+    }
+
     public List<Long> getThreadIds() {
         ArrayList<Long> ids = new ArrayList<Long>();
         for (VoltNetwork vn : m_networks) {
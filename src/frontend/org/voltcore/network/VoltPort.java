@@ -23,6 +23,8 @@ import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -36,6 +38,13 @@ public class VoltPort implements Connection
 
     private static final VoltLogger networkLog = new VoltLogger("NETWORK");
 
+    /*
+     * Reads from a port stop once this many handed off messages are waiting for
+     * a worker, and resume when the backlog falls to the low watermark
+     */
+    private static final int HANDOFF_HIGH_WATERMARK = Integer.getInteger("NETWORK_HANDOFF_HIGH_WATERMARK", 1024);
+    private static final int HANDOFF_LOW_WATERMARK = HANDOFF_HIGH_WATERMARK / 2;
+
     private final NetworkDBBPool m_pool;
 
     /** The currently selected operations on this port. */
@@ -74,6 +83,15 @@ public class VoltPort implements Connection
     private long m_messagesRead = 0;
     private long m_lastMessagesRead = 0;
 
+    /*
+     * Messages decoded by the network thread waiting to be handled by a worker.
+     * Handled in order by at most one worker at a time.
+     */
+    private final Executor m_handoffExecutor;
+    private final ArrayDeque<ByteBuffer> m_handoffQueue;
+    private boolean m_handoffScheduled = false;
+    private volatile boolean m_handoffBackpressure = false;
+
     /*
      * This variable will be changed to the actual hostname some time later. It
      * is not guaranteed on how long it will take to do the reverse DNS lookup.
@@ -97,6 +115,8 @@ public class VoltPort implements Connection
         m_remoteSocketAddress = remoteAddress;
         m_remoteSocketAddressString = remoteAddress.getAddress().getHostAddress();
         m_pool = pool;
+        m_handoffExecutor = network == null ? null : network.m_handoffExecutor;
+        m_handoffQueue = m_handoffExecutor == null ? null : new ArrayDeque<ByteBuffer>();
         m_remoteHostAndAddressAndPort = "/" + m_remoteSocketAddressString + ":" + m_remoteSocketAddress.getPort();
         m_toString = super.toString() + ":" + m_remoteHostAndAddressAndPort;
     }
@@ -175,7 +195,11 @@ public class VoltPort implements Connection
                      */
                     try {
                         while ((message = m_handler.retrieveNextMessage( readStream() )) != null) {
-                            m_handler.handleMessage( message, this);
+                            if (m_handoffExecutor == null) {
+                                m_handler.handleMessage( message, this);
+                            } else {
+                                handOff(message);
+                            }
                             m_messagesRead++;
                         }
                     }
@@ -199,6 +223,74 @@ public class VoltPort implements Connection
         }
     }
 
+    private void handOff(ByteBuffer message) {
+        synchronized (m_handoffQueue) {
+            m_handoffQueue.add(message);
+            if (m_handoffQueue.size() >= HANDOFF_HIGH_WATERMARK) {
+                // Picked up when interests are installed after this run
+                m_handoffBackpressure = true;
+            }
+            if (m_handoffScheduled) {
+                return;
+            }
+            m_handoffScheduled = true;
+        }
+        m_handoffExecutor.execute(m_handoffRunner);
+    }
+
+    private final Runnable m_handoffRunner = new Runnable() {
+        @Override
+        public void run() {
+            for (;;) {
+                final ByteBuffer message;
+                boolean resumeReads = false;
+                synchronized (m_handoffQueue) {
+                    message = m_handoffQueue.poll();
+                    if (message == null) {
+                        m_handoffScheduled = false;
+                        return;
+                    }
+                    if (m_handoffBackpressure && m_handoffQueue.size() <= HANDOFF_LOW_WATERMARK) {
+                        m_handoffBackpressure = false;
+                        resumeReads = true;
+                    }
+                }
+                if (resumeReads) {
+                    synchronized (m_lock) {
+                        // A running port installs its interests when it finishes
+                        if (!m_running) {
+                            m_network.addToChangeList(VoltPort.this);
+                        }
+                    }
+                }
+                if (m_alreadyStopped || m_isDead) {
+                    continue;
+                }
+                try {
+                    m_handler.handleMessage(message, VoltPort.this);
+                } catch (Exception e) {
+                    networkLog.error("VoltPort died due to an unexpected exception handling a message", e);
+                    die();
+                    synchronized (m_lock) {
+                        if (!m_running) {
+                            m_network.addToChangeList(VoltPort.this);
+                        }
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Total bytes read from and written to the channel, only valid on the network thread.
+     */
+    long bytesTransferred() {
+        if (m_readStream == null) {
+            return 0;
+        }
+        return m_readStream.getBytesRead(false) + m_writeStream.getBytesWritten();
+    }
+
     private final int fillReadStream(int maxBytes) throws IOException {
         if ( maxBytes == 0 || m_isShuttingDown)
             return 0;
@@ -282,6 +374,9 @@ public class VoltPort implements Connection
 
     /** Report the operations the network should next select */
     int interestOps() {
+        if (m_handoffBackpressure) {
+            return m_interestOps & ~SelectionKey.OP_READ;
+        }
         return m_interestOps;
     }
 
@@ -363,7 +458,7 @@ public class VoltPort implements Connection
         m_handler.stopping(this);
     }
 
-    private boolean m_alreadyStopped = false;
+    private volatile boolean m_alreadyStopped = false;
 
     /**
      * Called when unregistration is complete and the Connection can no
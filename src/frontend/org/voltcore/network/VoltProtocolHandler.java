@@ -38,8 +38,12 @@ public abstract class VoltProtocolHandler implements InputHandler {
     /** serial number of this VoltPort */
     private final long m_connectionId;
     private int m_nextLength;
+    /** Complete messages copied from the read stream in one go that haven't been retrieved yet */
+    private ByteBuffer m_batch;
 
     private static int MAX_MESSAGE_LENGTH = 52428800;
+    /** Stop adding messages to a coalesced read past this size so one slow handler can't pin a large array */
+    private static final int MAX_BATCH_LENGTH = 1024 * 256;
 
     public VoltProtocolHandler() {
         m_sequenceId = 0;
@@ -61,6 +65,17 @@ public abstract class VoltProtocolHandler implements InputHandler {
          */
         ByteBuffer result = null;
 
+        if (m_batch != null) {
+            // Messages already copied out of the read stream, only whole messages are in here
+            final int length = m_batch.getInt();
+            result = sliceMessage(m_batch, length);
+            if (!m_batch.hasRemaining()) {
+                m_batch = null;
+            }
+            m_sequenceId++;
+            return result;
+        }
+
         if (m_nextLength == 0 && inputStream.dataAvailable() > (Integer.SIZE/8)) {
             m_nextLength = inputStream.getInt();
             if (m_nextLength < 1) {
@@ -76,6 +91,19 @@ public abstract class VoltProtocolHandler implements InputHandler {
             assert m_nextLength > 0;
         }
         if (m_nextLength > 0 && inputStream.dataAvailable() >= m_nextLength) {
+            if (coalesceReads()) {
+                final int batchLength = wholeMessagesAvailable(inputStream);
+                if (batchLength > m_nextLength) {
+                    // Copy every complete message out with one allocation and hand out slices
+                    final ByteBuffer batch = ByteBuffer.allocate(batchLength);
+                    inputStream.getBytes(batch.array());
+                    result = sliceMessage(batch, m_nextLength);
+                    m_batch = batch;
+                    m_nextLength = 0;
+                    m_sequenceId++;
+                    return result;
+                }
+            }
             result = ByteBuffer.allocate(m_nextLength);
             // Copy read buffers to result, move read buffers back to memory pool
             inputStream.getBytes(result.array());
@@ -85,6 +113,43 @@ public abstract class VoltProtocolHandler implements InputHandler {
         return result;
     }
 
+    /**
+     * Whether several messages that arrived in one read may be handed to the handler as
+     * slices of a single buffer rather than each in its own. Message buffers then share
+     * a backing array, so handlers that opt in must not assume an array offset of 0.
+     */
+    protected boolean coalesceReads() {
+        return false;
+    }
+
+    /*
+     * Walk the lengths of the messages following the current one and return how many
+     * bytes of complete messages, starting with the current one, are buffered.
+     * Stops at a bad length and leaves it for the regular path to report.
+     */
+    private int wholeMessagesAvailable(final NIOReadStream inputStream) {
+        final int available = inputStream.dataAvailable();
+        int end = m_nextLength;
+        while (available - end > (Integer.SIZE/8) && end < MAX_BATCH_LENGTH) {
+            final int length = inputStream.peekInt(end);
+            if (length < 1 || length > MAX_MESSAGE_LENGTH ||
+                    available - end - (Integer.SIZE/8) < length) {
+                break;
+            }
+            end += (Integer.SIZE/8) + length;
+        }
+        return end;
+    }
+
+    private static ByteBuffer sliceMessage(ByteBuffer batch, int length) {
+        final int limit = batch.limit();
+        batch.limit(batch.position() + length);
+        final ByteBuffer message = batch.slice();
+        batch.position(batch.limit());
+        batch.limit(limit);
+        return message;
+    }
+
     @Override
     public void started(Connection c) {
     }
@@ -0,0 +1,207 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive longs to objects. Keys are never
+ * boxed and nothing is allocated per put, get or remove once the table is large
+ * enough. Uses linear probing with backward shift deletion so there are no
+ * tombstones to clean up. Null values are not allowed, an empty slot is one
+ * whose value is null. Not thread safe.
+ */
+public class LongObjectHashMap<V> {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] m_keys;
+    private Object[] m_values;
+    private int m_mask;
+    private int m_shift;
+    private int m_size = 0;
+    private int m_resizeThreshold;
+
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of entries that fit without resizing
+     */
+    public LongObjectHashMap(int expectedSize) {
+        allocate(Math.max(4, Integer.highestOneBit(Math.max(1, (int)(expectedSize / LOAD_FACTOR)) - 1) << 1));
+    }
+
+    private void allocate(int capacity) {
+        m_keys = new long[capacity];
+        m_values = new Object[capacity];
+        m_mask = capacity - 1;
+        m_shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        m_resizeThreshold = (int)(capacity * LOAD_FACTOR);
+    }
+
+    /*
+     * Fibonacci hashing, the high bits of the product depend on every bit of the
+     * key. Transaction ids share their low bits within a partition, so the low
+     * bits of the key alone would cluster.
+     */
+    private int slot(long key) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> m_shift);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = slot(key);
+        Object value;
+        while ((value = m_values[index]) != null) {
+            if (m_keys[index] == key) {
+                return (V)value;
+            }
+            index = (index + 1) & m_mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value for key or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        int index = slot(key);
+        Object existing;
+        while ((existing = m_values[index]) != null) {
+            if (m_keys[index] == key) {
+                m_values[index] = value;
+                return (V)existing;
+            }
+            index = (index + 1) & m_mask;
+        }
+        m_keys[index] = key;
+        m_values[index] = value;
+        if (++m_size > m_resizeThreshold) {
+            rehash(m_values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value or null if key was not present
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = slot(key);
+        Object value;
+        while ((value = m_values[index]) != null) {
+            if (m_keys[index] == key) {
+                m_size--;
+                shiftBack(index);
+                return (V)value;
+            }
+            index = (index + 1) & m_mask;
+        }
+        return null;
+    }
+
+    /*
+     * Close the gap at index by moving back any later entry in the probe run
+     * whose home slot is not between the gap and its current position.
+     */
+    private void shiftBack(int gap) {
+        int index = gap;
+        for (;;) {
+            index = (index + 1) & m_mask;
+            final Object value = m_values[index];
+            if (value == null) {
+                break;
+            }
+            final int home = slot(m_keys[index]);
+            // Distance from home to current position vs from gap to current position
+            if (((index - home) & m_mask) >= ((index - gap) & m_mask)) {
+                m_keys[gap] = m_keys[index];
+                m_values[gap] = value;
+                gap = index;
+            }
+        }
+        m_values[gap] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        final long[] oldKeys = m_keys;
+        final Object[] oldValues = m_values;
+        allocate(capacity);
+        for (int ii = 0; ii < oldValues.length; ii++) {
+            if (oldValues[ii] != null) {
+                int index = slot(oldKeys[ii]);
+                while (m_values[index] != null) {
+                    index = (index + 1) & m_mask;
+                }
+                m_keys[index] = oldKeys[ii];
+                m_values[index] = oldValues[ii];
+            }
+        }
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(m_values, null);
+        m_size = 0;
+    }
+
+    /**
+     * @return a new array of the keys, in no particular order
+     */
+    public long[] keys() {
+        final long[] keys = new long[m_size];
+        int count = 0;
+        for (int ii = 0; ii < m_values.length; ii++) {
+            if (m_values[ii] != null) {
+                keys[count++] = m_keys[ii];
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int ii = 0; ii < m_values.length; ii++) {
+            if (m_values[ii] != null) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(m_keys[ii]).append('=').append(m_values[ii]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
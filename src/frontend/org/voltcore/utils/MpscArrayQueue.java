@@ -0,0 +1,125 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, array backed queue for many producers and a single consumer.
+ * Producers claim a slot by advancing the tail and then publish the element
+ * into it, so nothing is allocated per offer. Only one thread may call
+ * poll/peek at a time, any thread may call offer.
+ */
+public class MpscArrayQueue<E> {
+    private final AtomicReferenceArray<E> m_buffer;
+    private final int m_mask;
+
+    // Next slot a producer will claim
+    private final AtomicLong m_tail = new AtomicLong();
+    // Next slot the consumer will read, only written by the consumer
+    private final AtomicLong m_head = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to the next power of two
+     */
+    public MpscArrayQueue(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        m_buffer = new AtomicReferenceArray<E>(Math.max(size, 2));
+        m_mask = m_buffer.length() - 1;
+    }
+
+    public int capacity() {
+        return m_mask + 1;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        final int capacity = m_mask + 1;
+        long tail;
+        do {
+            tail = m_tail.get();
+            if (tail - m_head.get() >= capacity) {
+                return false;
+            }
+        } while (!m_tail.compareAndSet(tail, tail + 1));
+        m_buffer.lazySet((int) tail & m_mask, e);
+        return true;
+    }
+
+    /**
+     * Consumer only.
+     */
+    public E poll() {
+        final long head = m_head.get();
+        final int index = (int) head & m_mask;
+        E e = m_buffer.get(index);
+        if (e == null) {
+            if (head == m_tail.get()) {
+                return null;
+            }
+            // A producer claimed the slot but hasn't published yet, it will shortly
+            do {
+                e = m_buffer.get(index);
+            } while (e == null);
+        }
+        m_buffer.lazySet(index, null);
+        m_head.lazySet(head + 1);
+        return e;
+    }
+
+    /**
+     * Consumer only.
+     */
+    public E peek() {
+        final long head = m_head.get();
+        final int index = (int) head & m_mask;
+        E e = m_buffer.get(index);
+        if (e == null && head != m_tail.get()) {
+            do {
+                e = m_buffer.get(index);
+            } while (e == null);
+        }
+        return e;
+    }
+
+    public boolean isEmpty() {
+        return m_head.get() == m_tail.get();
+    }
+
+    /**
+     * Approximate when called concurrently with offer or poll.
+     */
+    public int size() {
+        for (;;) {
+            final long head = m_head.get();
+            final long tail = m_tail.get();
+            if (head == m_head.get()) {
+                return (int) (tail - head);
+            }
+        }
+    }
+}
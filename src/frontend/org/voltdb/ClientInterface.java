@@ -79,6 +79,7 @@ import org.voltdb.common.Constants;
 import org.voltdb.dtxn.InitiatorStats.InvocationInfo;
 import org.voltdb.iv2.Cartographer;
 import org.voltdb.iv2.Iv2Trace;
+import org.voltdb.iv2.RepairLog;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.InitiateResponseMessage;
 import org.voltdb.messaging.Iv2EndOfLogMessage;
@@ -232,6 +233,42 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
      */
     private final boolean m_hasDTXNBackPressure = false;
 
+    /*
+     * Stop reading requests from every connection while the repair logs are over their
+     * memory limit. Reads are re-enabled on each connection's network thread so the
+     * decision can't race with backpressure from the connection's admission control group.
+     */
+    private final RepairLog.BackpressureListener m_repairLogBackpressure = new RepairLog.BackpressureListener() {
+        @Override
+        public void onBackpressure() {
+            for (ClientInterfaceHandleManager cihm : m_cihm.values()) {
+                try {
+                    cihm.connection.disableReadSelection();
+                } catch (UnsupportedOperationException ignore) {
+                    // Internal adapters don't read from the network
+                }
+            }
+        }
+
+        @Override
+        public void offBackpressure() {
+            for (final ClientInterfaceHandleManager cihm : m_cihm.values()) {
+                cihm.connection.queueTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!RepairLog.hasBackpressure() && !cihm.m_acg.hasBackPressure()) {
+                            try {
+                                cihm.connection.enableReadSelection();
+                            } catch (UnsupportedOperationException ignore) {
+                                // Internal adapters don't read from the network
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    };
+
     // MAX_CONNECTIONS is updated to be (FD LIMIT - 300) after startup
     private final AtomicInteger MAX_CONNECTIONS = new AtomicInteger(800);
     private ScheduledFuture<?> m_maxConnectionUpdater;
@@ -741,6 +778,15 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
             return m_username;
         }
 
+        /*
+         * Invocations only keep slices of the message they arrived in, so small
+         * invocations that arrive together can share one buffer
+         */
+        @Override
+        protected boolean coalesceReads() {
+            return true;
+        }
+
         @Override
         public int getMaxRead() {
             if (m_hasDTXNBackPressure) {
@@ -771,7 +817,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
             m_cihm.put(c.connectionId(),
                        new ClientInterfaceHandleManager( m_isAdmin, c, null, m_acg.get()));
             m_acg.get().addMember(this);
-            if (!m_acg.get().hasBackPressure()) {
+            if (!m_acg.get().hasBackPressure() && !RepairLog.hasBackpressure()) {
                 c.enableReadSelection();
             }
         }
@@ -808,7 +854,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
             return new Runnable() {
                 @Override
                 public void run() {
-                    if (!m_acg.get().hasBackPressure()) {
+                    if (!m_acg.get().hasBackPressure() && !RepairLog.hasBackpressure()) {
                         m_connection.enableReadSelection();
                     }
                 }
@@ -850,7 +896,9 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
 
         @Override
         public void offBackpressure() {
-            m_connection.enableReadSelection();
+            if (!RepairLog.hasBackpressure()) {
+                m_connection.enableReadSelection();
+            }
         }
     }
 
@@ -1145,6 +1193,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
 
         m_executeTaskAdpater = new SimpleClientResponseAdapter(ClientInterface.EXECUTE_TASK_CID, "ExecuteTaskAdapter", true);
         bindAdapter(m_executeTaskAdpater, null);
+        RepairLog.addBackpressureListener(m_repairLogBackpressure);
     }
 
     public InternalConnectionHandler getInternalConnectionHandler() {
@@ -1540,6 +1589,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
         if (m_snapshotDaemon != null) {
             m_snapshotDaemon.shutdown();
         }
+        RepairLog.removeBackpressureListener(m_repairLogBackpressure);
         m_notifier.shutdown();
     }
 
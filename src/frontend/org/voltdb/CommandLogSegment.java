@@ -0,0 +1,439 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop_voltpatches.util.PureJavaCrc32C;
+import org.voltcore.utils.InstanceId;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.messaging.VoltDbMessageFactory;
+
+/**
+ * A single append-only command log segment belonging to one partition.
+ *
+ * The file starts with a fixed size header identifying the partition, the segment
+ * sequence number, the txnId of the truncation snapshot that preceded the segment
+ * and the cluster instance that wrote it. The header is followed by entries of the form
+ *
+ *   int payloadLength | int crc32c(payload) | payload
+ *
+ * where the payload is either an initiate entry (type, spHandle, involved partitions,
+ * serialized Iv2InitiateTaskMessage) or a fault entry (type, writer HSId, partition,
+ * spHandle, survivor HSIds). A torn entry at the tail of the last segment is treated
+ * as the end of the log.
+ *
+ * A segment is either opened for appending by {@link FileCommandLog} or opened for
+ * reading by the replay path, never both.
+ */
+public class CommandLogSegment {
+    public static final String FILE_PREFIX = "commandlog_";
+    public static final String FILE_SUFFIX = ".log";
+
+    static final int MAGIC = 0x56434c47; // VCLG
+    static final int VERSION = 1;
+
+    // magic, version, partition id, segment id, start txnId, instance coord, instance timestamp
+    static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8 + 4 + 8;
+    // payload length, crc
+    static final int ENTRY_HEADER_BYTES = 4 + 4;
+    // type, spHandle, involved partition count
+    static final int INITIATE_PREFIX_BYTES = 1 + 8 + 4;
+
+    public static final byte INITIATE_ENTRY = 0;
+    public static final byte FAULT_ENTRY = 1;
+
+    public static final FileFilter SEGMENT_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File pathname) {
+            final String name = pathname.getName();
+            return pathname.isFile() && name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+        }
+    };
+
+    /**
+     * One decoded log entry. Fault entries have a null message.
+     */
+    public static class Entry {
+        public final byte type;
+        public final long spHandle;
+        public final int[] involvedPartitions;
+        public final Iv2InitiateTaskMessage message;
+
+        Entry(byte type, long spHandle, int[] involvedPartitions, Iv2InitiateTaskMessage message) {
+            this.type = type;
+            this.spHandle = spHandle;
+            this.involvedPartitions = involvedPartitions;
+            this.message = message;
+        }
+
+        public boolean isInitiate() {
+            return type == INITIATE_ENTRY;
+        }
+
+        public boolean isMultiPartition() {
+            return message != null && !message.isSinglePartition();
+        }
+    }
+
+    private final File m_file;
+    private final int m_partitionId;
+    private final long m_segmentId;
+    private final long m_startTxnId;
+    private final InstanceId m_instanceId;
+
+    private RandomAccessFile m_raf;
+    private FileChannel m_fc;
+    private long m_size;
+    private long m_lastSpHandle = Long.MIN_VALUE;
+    private boolean m_writable;
+
+    // read state
+    private long m_readOffset = HEADER_BYTES;
+    private final VoltDbMessageFactory m_messageFactory = new VoltDbMessageFactory();
+
+    private CommandLogSegment(File file, int partitionId, long segmentId,
+                              long startTxnId, InstanceId instanceId)
+    {
+        m_file = file;
+        m_partitionId = partitionId;
+        m_segmentId = segmentId;
+        m_startTxnId = startTxnId;
+        m_instanceId = instanceId;
+    }
+
+    public static String fileName(int partitionId, long segmentId) {
+        return FILE_PREFIX + partitionId + "_" + segmentId + FILE_SUFFIX;
+    }
+
+    /**
+     * Create a new, empty segment and write its header.
+     */
+    public static CommandLogSegment create(File dir, int partitionId, long segmentId,
+                                           long startTxnId, InstanceId instanceId)
+    throws IOException
+    {
+        final File file = new File(dir, fileName(partitionId, segmentId));
+        if (file.exists()) {
+            throw new IOException("Command log segment " + file + " already exists");
+        }
+        CommandLogSegment segment = new CommandLogSegment(file, partitionId, segmentId, startTxnId, instanceId);
+        segment.m_raf = new RandomAccessFile(file, "rw");
+        segment.m_fc = segment.m_raf.getChannel();
+        segment.m_writable = true;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(partitionId);
+        header.putLong(segmentId);
+        header.putLong(startTxnId);
+        header.putInt(instanceId == null ? -1 : instanceId.getCoord());
+        header.putLong(instanceId == null ? -1 : instanceId.getTimestamp());
+        header.flip();
+        while (header.hasRemaining()) {
+            segment.m_fc.write(header);
+        }
+        segment.m_fc.force(true);
+        segment.m_size = HEADER_BYTES;
+        return segment;
+    }
+
+    /**
+     * Open an existing segment for reading, validating its header.
+     */
+    public static CommandLogSegment open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel fc = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(fc, header, 0);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("File " + file + " is not a command log segment");
+            }
+            final int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported command log segment version " + version + " in " + file);
+            }
+            final int partitionId = header.getInt();
+            final long segmentId = header.getLong();
+            final long startTxnId = header.getLong();
+            final int coord = header.getInt();
+            final long timestamp = header.getLong();
+            final InstanceId instanceId = (coord == -1 && timestamp == -1) ? null : new InstanceId(coord, timestamp);
+
+            CommandLogSegment segment = new CommandLogSegment(file, partitionId, segmentId, startTxnId, instanceId);
+            segment.m_raf = raf;
+            segment.m_fc = fc;
+            segment.m_size = fc.size();
+            segment.m_writable = false;
+            return segment;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open every segment found in the directory, ordered by partition and segment id.
+     * Files that can't be parsed are skipped and added to unreadable if it is not null.
+     */
+    public static List<CommandLogSegment> openAll(File dir, Set<File> unreadable) {
+        List<CommandLogSegment> segments = new ArrayList<CommandLogSegment>();
+        File[] files = dir.listFiles(SEGMENT_FILTER);
+        if (files == null) {
+            return segments;
+        }
+        for (File f : files) {
+            try {
+                segments.add(open(f));
+            } catch (IOException e) {
+                if (unreadable != null) {
+                    unreadable.add(f);
+                }
+            }
+        }
+        Collections.sort(segments, ORDER);
+        return segments;
+    }
+
+    /**
+     * Highest segment id found in the directory, or -1 if there are none.
+     */
+    public static long maxSegmentId(File dir) {
+        long max = -1;
+        File[] files = dir.listFiles(SEGMENT_FILTER);
+        if (files == null) {
+            return max;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            String body = name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length());
+            int sep = body.indexOf('_');
+            if (sep < 0) {
+                continue;
+            }
+            try {
+                max = Math.max(max, Long.parseLong(body.substring(sep + 1)));
+            } catch (NumberFormatException ignore) {}
+        }
+        return max;
+    }
+
+    public static final Comparator<CommandLogSegment> ORDER = new Comparator<CommandLogSegment>() {
+        @Override
+        public int compare(CommandLogSegment o1, CommandLogSegment o2) {
+            if (o1.m_partitionId != o2.m_partitionId) {
+                return Integer.compare(o1.m_partitionId, o2.m_partitionId);
+            }
+            return Long.compare(o1.m_segmentId, o2.m_segmentId);
+        }
+    };
+
+    /**
+     * Serialize the fixed part of an initiate entry. The message bytes are written
+     * separately so the caller can gather both buffers without another copy.
+     * The returned buffer already contains the length and CRC of the whole entry.
+     */
+    public static ByteBuffer initiateEntryHeader(long spHandle, int[] involvedPartitions, ByteBuffer message) {
+        final int involved = involvedPartitions == null ? 0 : involvedPartitions.length;
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_BYTES + INITIATE_PREFIX_BYTES + 4 * involved);
+        header.position(ENTRY_HEADER_BYTES);
+        header.put(INITIATE_ENTRY);
+        header.putLong(spHandle);
+        header.putInt(involvedPartitions == null ? -1 : involved);
+        for (int i = 0; i < involved; i++) {
+            header.putInt(involvedPartitions[i]);
+        }
+        final int prefixLength = header.position() - ENTRY_HEADER_BYTES;
+
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(header.array(), ENTRY_HEADER_BYTES, prefixLength);
+        crc.update(message.array(), message.arrayOffset() + message.position(), message.remaining());
+
+        header.putInt(0, prefixLength + message.remaining());
+        header.putInt(4, (int) crc.getValue());
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Serialize a fault entry recording the surviving replica set as of spHandle.
+     */
+    public static ByteBuffer faultEntry(long writerHSId, Set<Long> survivors, int partitionId, long spHandle) {
+        final int payloadLength = 1 + 8 + 4 + 8 + 4 + 8 * survivors.size();
+        ByteBuffer buf = ByteBuffer.allocate(ENTRY_HEADER_BYTES + payloadLength);
+        buf.position(ENTRY_HEADER_BYTES);
+        buf.put(FAULT_ENTRY);
+        buf.putLong(writerHSId);
+        buf.putInt(partitionId);
+        buf.putLong(spHandle);
+        buf.putInt(survivors.size());
+        for (long hsId : survivors) {
+            buf.putLong(hsId);
+        }
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(buf.array(), ENTRY_HEADER_BYTES, payloadLength);
+        buf.putInt(0, payloadLength);
+        buf.putInt(4, (int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Append already serialized entries with a single gathering write. Does not sync.
+     */
+    public void append(ByteBuffer[] entries, long lastSpHandle) throws IOException {
+        assert m_writable;
+        long expected = 0;
+        for (ByteBuffer b : entries) {
+            expected += b.remaining();
+        }
+        long written = 0;
+        while (written < expected) {
+            written += m_fc.write(entries);
+        }
+        m_size += written;
+        m_lastSpHandle = Math.max(m_lastSpHandle, lastSpHandle);
+    }
+
+    public void sync() throws IOException {
+        m_fc.force(false);
+    }
+
+    /**
+     * Read the next entry, or return null at the end of the segment. A truncated or
+     * corrupt tail is treated as the end of the segment since it can only be produced
+     * by a write that was never acknowledged as durable.
+     */
+    public Entry next() throws IOException {
+        assert !m_writable;
+        if (m_readOffset + ENTRY_HEADER_BYTES > m_size) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_BYTES);
+        readFully(m_fc, header, m_readOffset);
+        final int length = header.getInt();
+        final int expectedCrc = header.getInt();
+        if (length <= 0 || m_readOffset + ENTRY_HEADER_BYTES + length > m_size) {
+            m_readOffset = m_size;
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(m_fc, payload, m_readOffset + ENTRY_HEADER_BYTES);
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(payload.array(), 0, length);
+        if ((int) crc.getValue() != expectedCrc) {
+            m_readOffset = m_size;
+            return null;
+        }
+        m_readOffset += ENTRY_HEADER_BYTES + length;
+
+        final byte type = payload.get();
+        if (type == FAULT_ENTRY) {
+            payload.getLong(); // writer HSId
+            payload.getInt();  // partition id
+            final long spHandle = payload.getLong();
+            return new Entry(type, spHandle, null, null);
+        } else if (type != INITIATE_ENTRY) {
+            throw new IOException("Unknown command log entry type " + type + " in " + m_file);
+        }
+        final long spHandle = payload.getLong();
+        final int involvedCount = payload.getInt();
+        int[] involved = null;
+        if (involvedCount >= 0) {
+            involved = new int[involvedCount];
+            for (int i = 0; i < involvedCount; i++) {
+                involved[i] = payload.getInt();
+            }
+        }
+        Iv2InitiateTaskMessage message =
+                (Iv2InitiateTaskMessage) m_messageFactory.createMessageFromBuffer(payload.slice(), -1);
+        if (m_lastSpHandle < spHandle) {
+            m_lastSpHandle = spHandle;
+        }
+        return new Entry(type, spHandle, involved, message);
+    }
+
+    public void close() throws IOException {
+        if (m_raf != null) {
+            if (m_writable) {
+                m_fc.force(true);
+            }
+            m_raf.close();
+            m_raf = null;
+            m_fc = null;
+        }
+    }
+
+    public void closeAndDelete() throws IOException {
+        close();
+        m_file.delete();
+    }
+
+    public File file() {
+        return m_file;
+    }
+
+    public int partitionId() {
+        return m_partitionId;
+    }
+
+    public long segmentId() {
+        return m_segmentId;
+    }
+
+    public long startTxnId() {
+        return m_startTxnId;
+    }
+
+    public InstanceId instanceId() {
+        return m_instanceId;
+    }
+
+    public long size() {
+        return m_size;
+    }
+
+    public long lastSpHandle() {
+        return m_lastSpHandle;
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int read = fc.read(buf, pos);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            pos += read;
+        }
+        buf.flip();
+    }
+}
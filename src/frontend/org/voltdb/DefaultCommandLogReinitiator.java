@@ -17,18 +17,153 @@
 
 package org.voltdb;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.messaging.HostMessenger;
+import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.InstanceId;
+import org.voltdb.client.ClientResponse;
 import org.voltdb.dtxn.TransactionCreator;
+import org.voltdb.iv2.MpInitiator;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
 
 /**
  * The default command log reinitiator for community edition VoltDB.
+ *
+ * When constructed with a command log path it replays the segments written by
+ * {@link FileCommandLog}. Each partition's segments are read in order; single
+ * partition writes are reinitiated for the partitions led by this host, sentinels
+ * are sent at the logged position of every multi-partition write, and the host
+ * running the MPI reinitiates the multi-partition writes themselves in unique ID order.
+ * Entries already covered by the restored snapshot are skipped, and read-only
+ * transactions are never replayed.
+ *
+ * Multi-partition writes are only reinitiated from the segments present on the MPI's
+ * host, so a multi-node cluster relies on that host holding a replica of at least one
+ * partition involved in every such transaction. That is why the MPI doesn't run
+ * n-partition transactions while command logging is on.
  */
 public class DefaultCommandLogReinitiator implements CommandLogReinitiator
 {
+    private static final VoltLogger LOG = new VoltLogger("LOGGING");
+
+    // Cap on replayed transactions waiting for a response, per partition
+    private static final int MAX_OUTSTANDING_PER_PARTITION =
+            Integer.getInteger("COMMANDLOG_REPLAY_MAX_OUTSTANDING", 5000);
+
     private Callback m_callback;
 
+    private final int m_hostId;
+    private final File m_logDir;
+    private final TreeMap<Integer, List<CommandLogSegment>> m_segments =
+            new TreeMap<Integer, List<CommandLogSegment>>();
+    private InstanceId m_instanceId = null;
+    private TransactionCreator m_initiator = null;
+
+    private Map<Integer, Long> m_snapshotPartitionTxnIds = null;
+    private long m_snapshotMpTxnId = Long.MIN_VALUE;
+    private boolean m_isMPINode = false;
+    private volatile boolean m_hasReplayedTxns = false;
+
+    /**
+     * Replay cursor over one partition's segments.
+     */
+    private class PartitionCursor {
+        final int m_partitionId;
+        final boolean m_replaySp;
+        final Iterator<CommandLogSegment> m_segmentIter;
+        final SimpleClientResponseAdapter m_adapter;
+        final SimpleClientResponseAdapter.Callback m_responseCallback;
+        CommandLogSegment m_current = null;
+        CommandLogSegment.Entry m_head = null;
+        int m_outstanding = 0;
+        long m_replayed = 0;
+
+        PartitionCursor(int partitionId, boolean replaySp, List<CommandLogSegment> segments) {
+            m_partitionId = partitionId;
+            m_replaySp = replaySp;
+            m_segmentIter = segments.iterator();
+            m_adapter = new SimpleClientResponseAdapter(ClientInterface.CL_REPLAY_BASE_CID + partitionId,
+                                                        "CommandLogReplayAdapter" + partitionId);
+            m_responseCallback = new SimpleClientResponseAdapter.Callback() {
+                @Override
+                public void handleResponse(ClientResponse response) {
+                    responseReceived(PartitionCursor.this, response);
+                }
+            };
+        }
+
+        /**
+         * Load the next entry into m_head, or null when the partition is exhausted.
+         */
+        void advance() throws IOException {
+            m_head = null;
+            while (m_head == null) {
+                if (m_current == null) {
+                    if (!m_segmentIter.hasNext()) {
+                        return;
+                    }
+                    m_current = m_segmentIter.next();
+                }
+                m_head = m_current.next();
+                if (m_head == null) {
+                    m_current.close();
+                    m_current = null;
+                }
+            }
+        }
+
+        boolean isBlocked() {
+            return m_outstanding >= MAX_OUTSTANDING_PER_PARTITION;
+        }
+    }
+
+    private final Object m_replayLock = new Object();
+    private long m_lastCreatedMpUniqueId = Long.MIN_VALUE;
+    private int m_mpOutstanding = 0;
+
+    public DefaultCommandLogReinitiator()
+    {
+        m_hostId = -1;
+        m_logDir = null;
+    }
+
+    public DefaultCommandLogReinitiator(int hostId, StartAction action, HostMessenger messenger,
+                                        String clPath, Set<Integer> liveHosts)
+    {
+        m_hostId = hostId;
+        m_logDir = clPath == null ? null : new File(clPath);
+        if (m_logDir != null && m_logDir.isDirectory() && action.doesRecover()) {
+            Set<File> unreadable = new HashSet<File>();
+            for (CommandLogSegment segment : CommandLogSegment.openAll(m_logDir, unreadable)) {
+                List<CommandLogSegment> segments = m_segments.get(segment.partitionId());
+                if (segments == null) {
+                    segments = new ArrayList<CommandLogSegment>();
+                    m_segments.put(segment.partitionId(), segments);
+                }
+                segments.add(segment);
+                if (m_instanceId == null) {
+                    m_instanceId = segment.instanceId();
+                }
+            }
+            for (File f : unreadable) {
+                LOG.warn("Ignoring unreadable command log segment " + f);
+            }
+            if (!m_segments.isEmpty()) {
+                LOG.info("Found command log segments for " + m_segments.size() + " partitions in " + m_logDir);
+            }
+        }
+    }
+
     @Override
     public void setCallback(Callback callback) {
         m_callback = callback;
@@ -39,34 +174,260 @@ public class DefaultCommandLogReinitiator implements CommandLogReinitiator
         new Thread(new Runnable() {
             @Override
             public void run() {
+                if (!m_segments.isEmpty() && m_initiator != null) {
+                    try {
+                        replayLog();
+                    } catch (Exception e) {
+                        VoltDB.crashLocalVoltDB("Failed to replay the command log", true, e);
+                    }
+                }
                 if (m_callback != null) {
                     m_callback.onReplayCompletion();
                 }
             }
-        }).start();
+        }, "Command Log Replay").start();
+    }
+
+    private boolean isLocalLeader(int partitionId) {
+        try {
+            long masterHSId = VoltDB.instance().getCartograhper().getHSIdForMaster(partitionId);
+            return CoreUtils.getHostIdFromHSId(masterHSId) == m_hostId;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void replayLog() throws IOException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        // The restore leader is normally the MPI's host, but trust the cartographer if it knows
+        m_isMPINode = m_isMPINode || isLocalLeader(MpInitiator.MP_INIT_PID);
+        List<PartitionCursor> cursors = new ArrayList<PartitionCursor>();
+        for (Map.Entry<Integer, List<CommandLogSegment>> e : m_segments.entrySet()) {
+            final boolean replaySp = isLocalLeader(e.getKey());
+            if (!replaySp && !m_isMPINode) {
+                continue;
+            }
+            PartitionCursor cursor = new PartitionCursor(e.getKey(), replaySp, e.getValue());
+            if (replaySp) {
+                m_initiator.bindAdapter(cursor.m_adapter);
+            }
+            cursor.advance();
+            cursors.add(cursor);
+        }
+        final SimpleClientResponseAdapter mpAdapter =
+                new SimpleClientResponseAdapter(ClientInterface.CL_REPLAY_BASE_CID + MpInitiator.MP_INIT_PID,
+                                                "CommandLogReplayAdapterMP");
+        final SimpleClientResponseAdapter.Callback mpCallback = new SimpleClientResponseAdapter.Callback() {
+            @Override
+            public void handleResponse(ClientResponse response) {
+                responseReceived(null, response);
+            }
+        };
+        if (m_isMPINode) {
+            m_initiator.bindAdapter(mpAdapter);
+        }
+
+        /*
+         * Always take the cursor with the lowest unique ID that isn't throttled. Multi-part
+         * writes appear in the same relative order in every partition, so the first time one
+         * is seen all earlier ones have already been created.
+         */
+        while (true) {
+            PartitionCursor next = null;
+            boolean remaining = false;
+            synchronized (m_replayLock) {
+                for (PartitionCursor cursor : cursors) {
+                    if (cursor.m_head == null) {
+                        continue;
+                    }
+                    remaining = true;
+                    if (cursor.isBlocked()) {
+                        continue;
+                    }
+                    if (next == null || orderKey(cursor.m_head) < orderKey(next.m_head)) {
+                        next = cursor;
+                    }
+                }
+                if (!remaining) {
+                    break;
+                }
+                if (next == null) {
+                    m_replayLock.wait(100);
+                    continue;
+                }
+            }
+            replayEntry(next, mpAdapter, mpCallback);
+            next.advance();
+        }
+
+        for (PartitionCursor cursor : cursors) {
+            if (cursor.m_replaySp) {
+                m_initiator.sendEOLMessage(cursor.m_partitionId);
+            }
+        }
+        if (m_isMPINode) {
+            m_initiator.sendEOLMessage(MpInitiator.MP_INIT_PID);
+        }
+
+        long replayed = 0;
+        synchronized (m_replayLock) {
+            for (PartitionCursor cursor : cursors) {
+                while (cursor.m_outstanding > 0) {
+                    m_replayLock.wait();
+                }
+                replayed += cursor.m_replayed;
+            }
+            while (m_mpOutstanding > 0) {
+                m_replayLock.wait();
+            }
+        }
+        LOG.info("Replayed " + replayed + " command log transactions in " +
+                 (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static long orderKey(CommandLogSegment.Entry entry) {
+        // Fault entries carry no transaction, drain them first
+        return entry.message == null ? Long.MIN_VALUE : entry.message.getUniqueId();
+    }
+
+    private void replayEntry(PartitionCursor cursor,
+                             SimpleClientResponseAdapter mpAdapter,
+                             SimpleClientResponseAdapter.Callback mpCallback)
+    {
+        final CommandLogSegment.Entry entry = cursor.m_head;
+        if (!entry.isInitiate() || entry.message.isReadOnly()) {
+            return;
+        }
+        final Iv2InitiateTaskMessage msg = entry.message;
+        final StoredProcedureInvocation spi = msg.getStoredProcedureInvocation();
+
+        if (msg.isSinglePartition()) {
+            if (!cursor.m_replaySp || isCoveredBySnapshot(cursor.m_partitionId, entry.spHandle)) {
+                return;
+            }
+            synchronized (m_replayLock) {
+                cursor.m_outstanding++;
+                cursor.m_replayed++;
+            }
+            spi.setClientHandle(cursor.m_adapter.registerCallback(cursor.m_responseCallback));
+            m_hasReplayedTxns = true;
+            m_initiator.createTransaction(cursor.m_adapter.connectionId(), msg.getTxnId(), msg.getUniqueId(),
+                                          spi, false, true, false, cursor.m_partitionId,
+                                          spi.getSerializedSize(), System.nanoTime());
+            return;
+        }
+
+        if (msg.getTxnId() <= m_snapshotMpTxnId) {
+            return;
+        }
+        if (cursor.m_replaySp) {
+            m_initiator.sendSentinel(msg.getUniqueId(), cursor.m_partitionId);
+        }
+        if (m_isMPINode && msg.getUniqueId() > m_lastCreatedMpUniqueId) {
+            m_lastCreatedMpUniqueId = msg.getUniqueId();
+            synchronized (m_replayLock) {
+                m_mpOutstanding++;
+                cursor.m_replayed++;
+            }
+            spi.setClientHandle(mpAdapter.registerCallback(mpCallback));
+            m_hasReplayedTxns = true;
+            m_initiator.createTransaction(mpAdapter.connectionId(), msg.getTxnId(), msg.getUniqueId(),
+                                          spi, false, false, false, MpInitiator.MP_INIT_PID,
+                                          spi.getSerializedSize(), System.nanoTime());
+        }
+    }
+
+    private boolean isCoveredBySnapshot(int partitionId, long spHandle) {
+        if (m_snapshotPartitionTxnIds == null) {
+            return false;
+        }
+        Long snapshotTxnId = m_snapshotPartitionTxnIds.get(partitionId);
+        return snapshotTxnId != null && spHandle <= snapshotTxnId;
+    }
+
+    private void responseReceived(PartitionCursor cursor, ClientResponse response) {
+        if (response.getStatus() != ClientResponse.SUCCESS &&
+            response.getStatus() != ClientResponse.USER_ABORT) {
+            LOG.warn("Replayed transaction failed: " + response.getStatusString());
+        }
+        synchronized (m_replayLock) {
+            if (cursor == null) {
+                m_mpOutstanding--;
+            } else {
+                cursor.m_outstanding--;
+            }
+            m_replayLock.notifyAll();
+        }
     }
 
     @Override
     public boolean hasReplayedSegments() {
-        return false;
+        return !m_segments.isEmpty();
     }
 
+    /**
+     * The oldest truncation point recorded in the local segments for each partition.
+     * A snapshot older than this would leave a gap before the log.
+     */
     @Override
     public Long getMaxLastSeenTxn() {
-        return null;
+        Map<Integer, Long> byPartition = getMaxLastSeenTxnByPartition();
+        if (byPartition == null) {
+            return null;
+        }
+        Long max = null;
+        for (Long txnId : byPartition.values()) {
+            if (max == null || txnId > max) {
+                max = txnId;
+            }
+        }
+        return max;
     }
 
     @Override
     public Map<Integer, Long> getMaxLastSeenTxnByPartition() {
-        return null;
+        if (m_segments.isEmpty()) {
+            return null;
+        }
+        Map<Integer, Long> result = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, List<CommandLogSegment>> e : m_segments.entrySet()) {
+            long start = Long.MAX_VALUE;
+            for (CommandLogSegment segment : e.getValue()) {
+                start = Math.min(start, segment.startTxnId());
+            }
+            if (start != Long.MIN_VALUE) {
+                result.put(e.getKey(), start);
+            }
+        }
+        return result.isEmpty() ? null : result;
     }
 
     @Override
     public void setSnapshotTxnId(RestoreAgent.SnapshotInfo info) {
+        if (info == null) {
+            m_snapshotPartitionTxnIds = null;
+            m_snapshotMpTxnId = Long.MIN_VALUE;
+        } else {
+            m_snapshotPartitionTxnIds = new TreeMap<Integer, Long>(info.partitionToTxnId);
+            m_snapshotMpTxnId = info.txnId;
+        }
     }
 
+    /**
+     * Called once the post-replay truncation snapshot is done, the segments are no longer needed.
+     */
     @Override
     public void returnAllSegments() {
+        for (List<CommandLogSegment> segments : m_segments.values()) {
+            for (CommandLogSegment segment : segments) {
+                try {
+                    segment.closeAndDelete();
+                } catch (IOException e) {
+                    LOG.warn("Failed to delete command log segment " + segment.file(), e);
+                }
+            }
+        }
+        m_segments.clear();
     }
 
     @Override
@@ -77,23 +438,25 @@ public class DefaultCommandLogReinitiator implements CommandLogReinitiator
 
     @Override
     public boolean hasReplayedTxns() {
-        return false;
+        return m_hasReplayedTxns;
     }
 
     @Override
     public void generateReplayPlan(long snapshotTimeStamp, long snapshotTxnId,
             int newPartitionCount, boolean isMpiNode) {
+        m_isMPINode = isMpiNode;
     }
 
     @Override
     public void setInitiator(TransactionCreator initiator) {
+        m_initiator = initiator;
     }
 
     @Override
     public InstanceId getInstanceId() {
         // When we don't have a command log, return null to cause the instance ID
         // check to get skipped entirely in RestoreAgent.generatePlans()
-        return null;
+        return m_instanceId;
     }
 
     @Override
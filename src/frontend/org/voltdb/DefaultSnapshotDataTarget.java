@@ -111,6 +111,9 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
 
     public static final int SNAPSHOT_SYNC_FREQUENCY = Integer.getInteger("SNAPSHOT_SYNC_FREQUENCY", 500);
     public static final int SNAPSHOT_FADVISE_BYTES = Integer.getInteger("SNAPSHOT_FADVISE_BYTES", 1024 * 1024 * 2);
+    // Recorded in the table header so restore can decode snapshots written with any codec
+    public static final CompressionService.Codec SNAPSHOT_COMPRESSION_CODEC =
+            CompressionService.Codec.fromProperty("SNAPSHOT_COMPRESSION_CODEC");
     public static final int SNAPSHOT_RATELIMIT_MEGABYTES;
     public static final boolean USE_SNAPSHOT_RATELIMIT;
 
@@ -205,6 +208,7 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             stringer.keySymbolValuePair("tableName", tableName.toUpperCase());
             stringer.keySymbolValuePair("isReplicated", isReplicated);
             stringer.keySymbolValuePair("isCompressed", true);
+            stringer.keySymbolValuePair("compressionCodec", SNAPSHOT_COMPRESSION_CODEC.name());
             stringer.keySymbolValuePair("checksumType", "CRC32C");
             stringer.keySymbolValuePair("timestamp", timestamp);
             /*
@@ -445,7 +449,7 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
              * that is 16 bytes, but 4 of those are done by CompressionService
              */
             cont.b().position(12);
-            compressionTask = CompressionService.compressAndCRC32cBufferAsync(tupleData, cont);
+            compressionTask = CompressionService.compressAndCRC32cBufferAsync(SNAPSHOT_COMPRESSION_CODEC, tupleData, cont);
         }
         final Future<BBContainer> compressionTaskFinal = compressionTask;
 
@@ -0,0 +1,587 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper_voltpatches.CreateMode;
+import org.apache.zookeeper_voltpatches.ZooDefs.Ids;
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.messaging.VoltMessage;
+import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.InstanceId;
+import org.voltdb.iv2.TransactionTask;
+import org.voltdb.iv2.TxnEgo;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+
+import com.google_voltpatches.common.util.concurrent.Futures;
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
+
+import vanilla.java.affinity.impl.PosixJNAAffinity;
+
+/**
+ * Group commit command log that writes one segment stream per partition under the
+ * command log directory.
+ *
+ * Initiations are serialized on the calling scheduler thread and queued in the pending
+ * batch together with their TransactionTask, which is handed to the scheduler's
+ * DurabilityListener under the same lock. The writer thread swaps the pending batch out
+ * once the fsync interval has elapsed (or max txns have accumulated), appends each
+ * partition's entries with a single gathering write, syncs every touched segment once,
+ * and only then releases the batch's completion checks back to the schedulers.
+ *
+ * In synchronous mode log() returns null and the tasks are released by the
+ * SyncCompletionChecks once durable. In asynchronous mode tasks are offered right away
+ * and log() returns an already completed future unless the writer has fallen more than
+ * MAX_PENDING_BYTES behind, in which case the future completes once the batch is written.
+ *
+ * Until init() is called (e.g. while the log is being replayed) nothing is written, but
+ * the durability handshake with the schedulers still runs so replayed transactions flow.
+ */
+public class FileCommandLog implements CommandLog, SnapshotCompletionInterest {
+    private static final VoltLogger LOG = new VoltLogger("LOGGING");
+
+    // Roll over to a new segment once the current one reaches this size
+    static final long SEGMENT_SIZE = Long.getLong("COMMANDLOG_SEGMENT_SIZE", 64L * 1024 * 1024);
+    // Async logging only applies backpressure once this many bytes are waiting to be written
+    static final long MAX_PENDING_BYTES = Long.getLong("COMMANDLOG_MAX_PENDING_BYTES", 32L * 1024 * 1024);
+
+    private static final ListenableFuture<Object> DURABLE_FUTURE = Futures.immediateFuture(null);
+
+    /**
+     * Entries queued for one partition in one batch.
+     */
+    private static class PartitionEntries {
+        final ArrayList<ByteBuffer> m_buffers = new ArrayList<ByteBuffer>();
+        long m_lastSpHandle = Long.MIN_VALUE;
+
+        void add(ByteBuffer buf, long spHandle) {
+            m_buffers.add(buf);
+            m_lastSpHandle = Math.max(m_lastSpHandle, spHandle);
+        }
+    }
+
+    /**
+     * Everything accumulated between two syncs.
+     */
+    private static class Batch {
+        final Map<Integer, PartitionEntries> m_entries = new HashMap<Integer, PartitionEntries>();
+        final List<SettableFuture<Boolean>> m_faultFutures = new ArrayList<SettableFuture<Boolean>>();
+        final List<SnapshotCompletionEvent> m_truncations = new ArrayList<SnapshotCompletionEvent>();
+        SettableFuture<Object> m_writtenFuture = null;
+        long m_bytes = 0;
+        int m_txns = 0;
+        long m_startNanos = 0;
+
+        boolean isEmpty() {
+            return m_txns == 0 && m_faultFutures.isEmpty() && m_truncations.isEmpty();
+        }
+
+        void add(int partitionId, ByteBuffer buf, long spHandle) {
+            PartitionEntries entries = m_entries.get(partitionId);
+            if (entries == null) {
+                entries = new PartitionEntries();
+                m_entries.put(partitionId, entries);
+            }
+            entries.add(buf, spHandle);
+            m_bytes += buf.remaining();
+        }
+
+        void touch() {
+            if (isEmpty()) {
+                m_startNanos = System.nanoTime();
+            }
+        }
+
+        ListenableFuture<Object> writtenFuture() {
+            if (m_writtenFuture == null) {
+                m_writtenFuture = SettableFuture.create();
+            }
+            return m_writtenFuture;
+        }
+
+        void complete() {
+            if (m_writtenFuture != null) {
+                m_writtenFuture.set(null);
+            }
+            for (SettableFuture<Boolean> f : m_faultFutures) {
+                f.set(true);
+            }
+        }
+
+        void fail(Throwable t) {
+            if (m_writtenFuture != null) {
+                m_writtenFuture.setException(t);
+            }
+            for (SettableFuture<Boolean> f : m_faultFutures) {
+                f.set(false);
+            }
+        }
+    }
+
+    private final boolean m_synchronous;
+    private final int m_fsyncIntervalMs;
+    private final int m_maxTxnsBeforeSync;
+    private final File m_logDir;
+    private final String m_snapshotPath;
+
+    // Guards the pending batch, the outstanding counters and the listener list
+    private final Object m_lock = new Object();
+    private final List<DurabilityListener> m_listeners = new ArrayList<DurabilityListener>();
+    private Batch m_pending = new Batch();
+    private long m_outstandingBytes = 0;
+    private long m_outstandingTxns = 0;
+    private boolean m_shutdown = false;
+    private boolean m_truncationRequested = false;
+
+    private volatile boolean m_initialized = false;
+    private volatile String m_coreBinding = null;
+
+    // Only touched by the writer thread after init()
+    private final Map<Integer, CommandLogSegment> m_activeSegments = new HashMap<Integer, CommandLogSegment>();
+    private final Map<Integer, ArrayDeque<CommandLogSegment>> m_closedSegments =
+            new HashMap<Integer, ArrayDeque<CommandLogSegment>>();
+    private final Map<Integer, Long> m_startTxnIds = new HashMap<Integer, Long>();
+    private long m_nextSegmentId = 0;
+    private long m_logSizeBytes = Long.MAX_VALUE;
+    private InstanceId m_instanceId = null;
+
+    // Written by the writer thread, read by stats
+    private volatile long m_onDiskBytes = 0;
+    private volatile int m_segmentCount = 0;
+    private volatile int m_activeSegmentCount = 0;
+
+    private final Thread m_writer;
+
+    public FileCommandLog(boolean synchronous, int fsyncInterval, int maxTxns,
+                          String logPath, String snapshotPath)
+    {
+        m_synchronous = synchronous;
+        m_fsyncIntervalMs = fsyncInterval;
+        m_maxTxnsBeforeSync = maxTxns;
+        m_logDir = new File(logPath);
+        m_snapshotPath = snapshotPath;
+
+        m_writer = CoreUtils.getThreadFactory("Command Log Writer").newThread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        });
+        m_writer.start();
+    }
+
+    @Override
+    public void init(int logSize, long txnId, int partitionCount, String coreBinding,
+                     Map<Integer, Long> perPartitionTxnId)
+    {
+        synchronized (m_lock) {
+            if (m_initialized) {
+                return;
+            }
+            if (!m_logDir.exists() && !m_logDir.mkdirs()) {
+                VoltDB.crashLocalVoltDB("Unable to create command log directory " + m_logDir, false, null);
+            }
+            m_logSizeBytes = logSize * 1024L * 1024L;
+            if (perPartitionTxnId != null) {
+                m_startTxnIds.putAll(perPartitionTxnId);
+            }
+            m_nextSegmentId = CommandLogSegment.maxSegmentId(m_logDir) + 1;
+            m_instanceId = VoltDB.instance().getHostMessenger().getInstanceId();
+            m_coreBinding = coreBinding;
+            m_initialized = true;
+        }
+        VoltDB.instance().getSnapshotCompletionMonitor().addInterest(this);
+        LOG.info("Initialized " + (m_synchronous ? "synchronous" : "asynchronous") +
+                 " command log in " + m_logDir + " with fsync interval " + m_fsyncIntervalMs +
+                 "ms, truncation snapshots in " + m_snapshotPath);
+    }
+
+    @Override
+    public void initForRejoin(int logSize, long txnId, int partitionCount, boolean isRejoin,
+                              String coreBinding, Map<Integer, Long> perPartitionTxnId)
+    {
+        init(logSize, txnId, partitionCount, coreBinding, perPartitionTxnId);
+    }
+
+    @Override
+    public boolean needsInitialization() {
+        return !m_initialized;
+    }
+
+    @Override
+    public ListenableFuture<Object> log(
+            Iv2InitiateTaskMessage message,
+            long spHandle,
+            int[] involvedPartitions,
+            DurabilityListener listener,
+            TransactionTask durabilityHandle)
+    {
+        // Serialize outside of the lock, this is the expensive part
+        ByteBuffer header = null;
+        ByteBuffer body = null;
+        if (message != null && m_initialized) {
+            try {
+                body = VoltMessage.toBuffer(message);
+                header = CommandLogSegment.initiateEntryHeader(spHandle, involvedPartitions, body);
+            } catch (IOException e) {
+                VoltDB.crashLocalVoltDB("Unable to serialize command log entry", true, e);
+            }
+        }
+
+        synchronized (m_lock) {
+            m_pending.touch();
+            if (header != null) {
+                // The spHandle belongs to the logging partition even for multi-part transactions
+                final int partitionId = TxnEgo.getPartitionId(spHandle);
+                m_pending.add(partitionId, header, spHandle);
+                m_pending.add(partitionId, body, spHandle);
+                m_outstandingBytes += header.remaining() + body.remaining();
+            }
+            listener.addTransaction(durabilityHandle);
+            m_pending.m_txns++;
+            m_outstandingTxns++;
+            if (m_pending.m_txns == 1 || m_pending.m_txns >= m_maxTxnsBeforeSync) {
+                m_lock.notifyAll();
+            }
+
+            if (m_synchronous) {
+                return null;
+            }
+            if (m_outstandingBytes > MAX_PENDING_BYTES) {
+                return m_pending.writtenFuture();
+            }
+            return DURABLE_FUTURE;
+        }
+    }
+
+    @Override
+    public SettableFuture<Boolean> logIv2Fault(long writerHSId, Set<Long> survivorHSId,
+                                               int partitionId, long spHandle)
+    {
+        SettableFuture<Boolean> written = SettableFuture.create();
+        if (!m_initialized) {
+            written.set(true);
+            return written;
+        }
+        ByteBuffer entry = CommandLogSegment.faultEntry(writerHSId, survivorHSId, partitionId, spHandle);
+        synchronized (m_lock) {
+            m_pending.touch();
+            m_pending.add(partitionId, entry, spHandle);
+            m_pending.m_faultFutures.add(written);
+            m_outstandingBytes += entry.remaining();
+            m_lock.notifyAll();
+        }
+        return written;
+    }
+
+    @Override
+    public void initializeLastDurableUniqueId(DurabilityListener listener, long uniqueId) {
+        synchronized (m_lock) {
+            listener.initializeLastDurableUniqueId(uniqueId);
+        }
+    }
+
+    @Override
+    public void registerDurabilityListener(DurabilityListener durabilityListener) {
+        synchronized (m_lock) {
+            m_listeners.add(durabilityListener);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public boolean isSynchronous() {
+        return m_synchronous;
+    }
+
+    @Override
+    public boolean canOfferTask() {
+        return !m_synchronous;
+    }
+
+    @Override
+    public void requestTruncationSnapshot(final boolean queueIfPending) {
+        synchronized (m_lock) {
+            if (m_truncationRequested && !queueIfPending) {
+                return;
+            }
+            m_truncationRequested = true;
+        }
+        try {
+            VoltDB.instance().getHostMessenger().getZK().create(
+                    VoltZK.request_truncation_snapshot_node, null,
+                    Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
+        } catch (Exception e) {
+            LOG.error("Unable to request a command log truncation snapshot", e);
+            synchronized (m_lock) {
+                m_truncationRequested = false;
+            }
+        }
+    }
+
+    /**
+     * Truncation snapshots make every segment whose entries are all covered by the
+     * snapshot unnecessary for recovery. The files are removed on the writer thread.
+     */
+    @Override
+    public CountDownLatch snapshotCompleted(SnapshotCompletionEvent event) {
+        if (event.truncationSnapshot && event.didSucceed) {
+            synchronized (m_lock) {
+                m_pending.touch();
+                m_pending.m_truncations.add(event);
+                m_truncationRequested = false;
+                m_lock.notifyAll();
+            }
+        }
+        return new CountDownLatch(0);
+    }
+
+    @Override
+    public void populateCommandLogStats(Map<String, Integer> columnNameToIndex, Object[] rowValues) {
+        long outstandingBytes;
+        long outstandingTxns;
+        synchronized (m_lock) {
+            outstandingBytes = m_outstandingBytes;
+            outstandingTxns = m_outstandingTxns;
+        }
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.OUTSTANDING_BYTES.name())] = outstandingBytes;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.OUTSTANDING_TXNS.name())] = outstandingTxns;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.IN_USE_SEGMENT_COUNT.name())] = m_activeSegmentCount;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.SEGMENT_COUNT.name())] = m_segmentCount;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.FSYNC_INTERVAL.name())] = m_fsyncIntervalMs;
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        synchronized (m_lock) {
+            m_shutdown = true;
+            m_lock.notifyAll();
+        }
+        m_writer.join();
+        if (m_initialized) {
+            VoltDB.instance().getSnapshotCompletionMonitor().removeInterest(this);
+        }
+    }
+
+    /**
+     * Should the writer sync now? Caller must hold m_lock.
+     */
+    private long nanosUntilSync() {
+        if (m_pending.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        if (m_shutdown || m_pending.m_txns >= m_maxTxnsBeforeSync ||
+            !m_pending.m_faultFutures.isEmpty() || !m_pending.m_truncations.isEmpty()) {
+            return 0;
+        }
+        final long elapsed = System.nanoTime() - m_pending.m_startNanos;
+        return Math.max(0, TimeUnit.MILLISECONDS.toNanos(m_fsyncIntervalMs) - elapsed);
+    }
+
+    private void runWriter() {
+        String boundTo = null;
+        try {
+            while (true) {
+                final Batch batch;
+                final List<DurabilityListener> listeners;
+                final List<CompletionChecks> checks;
+                synchronized (m_lock) {
+                    long waitNanos;
+                    while ((waitNanos = nanosUntilSync()) > 0) {
+                        if (m_shutdown && m_pending.isEmpty()) {
+                            break;
+                        }
+                        if (waitNanos == Long.MAX_VALUE) {
+                            m_lock.wait();
+                        } else {
+                            TimeUnit.NANOSECONDS.timedWait(m_lock, waitNanos);
+                        }
+                    }
+                    if (m_shutdown && m_pending.isEmpty()) {
+                        break;
+                    }
+                    batch = m_pending;
+                    m_pending = new Batch();
+                    listeners = new ArrayList<DurabilityListener>(m_listeners);
+                    checks = new ArrayList<CompletionChecks>(listeners.size());
+                    for (DurabilityListener l : listeners) {
+                        checks.add(l.startNewTaskList(l.getNumberOfTasks()));
+                    }
+                }
+
+                if (m_coreBinding != null && !m_coreBinding.equals(boundTo)) {
+                    boundTo = m_coreBinding;
+                    PosixJNAAffinity.INSTANCE.setAffinity(boundTo);
+                }
+
+                try {
+                    if (m_initialized) {
+                        writeAndSync(batch);
+                    }
+                } catch (IOException e) {
+                    batch.fail(e);
+                    VoltDB.crashLocalVoltDB("Unable to write to the command log in " + m_logDir, true, e);
+                }
+
+                synchronized (m_lock) {
+                    m_outstandingBytes -= batch.m_bytes;
+                    m_outstandingTxns -= batch.m_txns;
+                }
+                for (int i = 0; i < listeners.size(); i++) {
+                    listeners.get(i).processDurabilityChecks(checks.get(i));
+                }
+                batch.complete();
+
+                if (m_initialized && m_onDiskBytes > m_logSizeBytes) {
+                    requestTruncationSnapshot(false);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Command log writer interrupted", e);
+        } finally {
+            closeSegments();
+        }
+    }
+
+    private void writeAndSync(Batch batch) throws IOException {
+        List<CommandLogSegment> dirty = new ArrayList<CommandLogSegment>(batch.m_entries.size());
+        for (Map.Entry<Integer, PartitionEntries> e : batch.m_entries.entrySet()) {
+            final PartitionEntries entries = e.getValue();
+            CommandLogSegment segment = segmentForWrite(e.getKey());
+            final long before = segment.size();
+            segment.append(entries.m_buffers.toArray(new ByteBuffer[entries.m_buffers.size()]),
+                           entries.m_lastSpHandle);
+            m_onDiskBytes += segment.size() - before;
+            dirty.add(segment);
+        }
+        // One sync per touched segment for the whole batch
+        for (CommandLogSegment segment : dirty) {
+            segment.sync();
+        }
+        for (SnapshotCompletionEvent event : batch.m_truncations) {
+            truncate(event);
+        }
+        updateSegmentCounts();
+    }
+
+    private CommandLogSegment segmentForWrite(int partitionId) throws IOException {
+        CommandLogSegment segment = m_activeSegments.get(partitionId);
+        if (segment != null && segment.size() >= SEGMENT_SIZE) {
+            segment.close();
+            closedSegments(partitionId).addLast(segment);
+            segment = null;
+        }
+        if (segment == null) {
+            Long startTxnId = m_startTxnIds.get(partitionId);
+            segment = CommandLogSegment.create(m_logDir, partitionId, m_nextSegmentId++,
+                                               startTxnId == null ? Long.MIN_VALUE : startTxnId,
+                                               m_instanceId);
+            m_activeSegments.put(partitionId, segment);
+            m_onDiskBytes += segment.size();
+        }
+        return segment;
+    }
+
+    private ArrayDeque<CommandLogSegment> closedSegments(int partitionId) {
+        ArrayDeque<CommandLogSegment> closed = m_closedSegments.get(partitionId);
+        if (closed == null) {
+            closed = new ArrayDeque<CommandLogSegment>();
+            m_closedSegments.put(partitionId, closed);
+        }
+        return closed;
+    }
+
+    /**
+     * Delete every segment whose last entry is at or before the snapshot's txnId for
+     * the segment's partition.
+     */
+    private void truncate(SnapshotCompletionEvent event) throws IOException {
+        if (event.partitionTxnIds == null) {
+            return;
+        }
+        int deleted = 0;
+        for (Map.Entry<Integer, Long> e : event.partitionTxnIds.entrySet()) {
+            final int partitionId = e.getKey();
+            final long snapshotTxnId = e.getValue();
+            m_startTxnIds.put(partitionId, snapshotTxnId);
+
+            ArrayDeque<CommandLogSegment> closed = m_closedSegments.get(partitionId);
+            if (closed != null) {
+                Iterator<CommandLogSegment> iter = closed.iterator();
+                while (iter.hasNext()) {
+                    CommandLogSegment segment = iter.next();
+                    if (segment.lastSpHandle() > snapshotTxnId) {
+                        break;
+                    }
+                    m_onDiskBytes -= segment.size();
+                    segment.closeAndDelete();
+                    iter.remove();
+                    deleted++;
+                }
+            }
+            CommandLogSegment active = m_activeSegments.get(partitionId);
+            if (active != null && active.lastSpHandle() <= snapshotTxnId &&
+                (closed == null || closed.isEmpty())) {
+                m_onDiskBytes -= active.size();
+                active.closeAndDelete();
+                m_activeSegments.remove(partitionId);
+                deleted++;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Truncation snapshot " + event.nonce + " released " + deleted + " command log segments");
+        }
+    }
+
+    private void updateSegmentCounts() {
+        int count = m_activeSegments.size();
+        for (ArrayDeque<CommandLogSegment> closed : m_closedSegments.values()) {
+            count += closed.size();
+        }
+        m_segmentCount = count;
+        m_activeSegmentCount = m_activeSegments.size();
+    }
+
+    private void closeSegments() {
+        for (CommandLogSegment segment : m_activeSegments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close command log segment " + segment.file(), e);
+            }
+        }
+        m_activeSegments.clear();
+    }
+}
@@ -69,6 +69,8 @@ public class IOStats extends StatsSource {
         columns.add(new ColumnInfo("MESSAGES_READ", VoltType.BIGINT));
         columns.add(new ColumnInfo("BYTES_WRITTEN", VoltType.BIGINT));
         columns.add(new ColumnInfo("MESSAGES_WRITTEN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("WRITE_CALLS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MESSAGES_PER_WRITE", VoltType.FLOAT));
 
     }
 
@@ -83,6 +85,9 @@ public class IOStats extends StatsSource {
         rowValues[columnNameToIndex.get("MESSAGES_READ")] = counters[1];
         rowValues[columnNameToIndex.get("BYTES_WRITTEN")] = counters[2];
         rowValues[columnNameToIndex.get("MESSAGES_WRITTEN")] = counters[3];
+        rowValues[columnNameToIndex.get("WRITE_CALLS")] = counters[4];
+        rowValues[columnNameToIndex.get("MESSAGES_PER_WRITE")] =
+                counters[4] == 0 ? 0.0 : (double)counters[5] / counters[4];
         super.updateStatsRow(rowKey, rowValues);
     }
 
@@ -17,10 +17,13 @@
 
 package org.voltdb;
 
+import java.util.List;
+
 import org.voltdb.client.ProcedureCallback;
 import org.voltdb.importer.AbstractImporter;
 import org.voltdb.importer.ImporterServerAdapter;
 import org.voltdb.importer.ImporterStatsCollector;
+import org.voltdb.importer.formatter.FormattedRow;
 
 /**
  * Implementation that uses the server internal classes to execute procedures and
@@ -51,6 +54,18 @@ public class ImporterServerAdapterImpl implements ImporterServerAdapter {
                 .callProcedure(importer, m_statsCollector, procCallback, proc, fieldList);
     }
 
+    @Override
+    public boolean callProcedure(AbstractImporter importer, ProcedureCallback procCallback, String proc, FormattedRow row) {
+        return getInternalConnectionHandler()
+                .callProcedure(importer, m_statsCollector, procCallback, proc, row);
+    }
+
+    @Override
+    public int callProcedureBatch(AbstractImporter importer, ProcedureCallback procCallback, String proc, List<Object[]> rows) {
+        return getInternalConnectionHandler()
+                .callProcedureBatch(importer, m_statsCollector, procCallback, proc, rows);
+    }
+
     private InternalConnectionHandler getInternalConnectionHandler() {
         return VoltDB.instance().getClientInterface().getInternalConnectionHandler();
     }
@@ -60,8 +75,18 @@ public class ImporterServerAdapterImpl implements ImporterServerAdapter {
         m_statsCollector.reportFailure(importerName, procName, decrementPending);
     }
 
+    @Override
+    public void reportFailure(String importerName, String procName, boolean decrementPending, int rows) {
+        m_statsCollector.reportFailure(importerName, procName, decrementPending, rows);
+    }
+
     @Override
     public void reportQueued(String importerName, String procName) {
         m_statsCollector.reportQueued(importerName, procName);
     }
+
+    @Override
+    public void reportQueued(String importerName, String procName, int rows) {
+        m_statsCollector.reportQueued(importerName, procName, rows);
+    }
 }
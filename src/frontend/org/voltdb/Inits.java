@@ -469,6 +469,13 @@ public class Inits {
                         VoltDB.crashLocalVoltDB("Unable to instantiate command log", true, e);
                     }
                 }
+                else {
+                    m_rvdb.m_commandLog = new FileCommandLog(logConfig.getSynchronous(),
+                                                             logConfig.getFsyncinterval(),
+                                                             logConfig.getMaxtxns(),
+                                                             VoltDB.instance().getCommandLogPath(),
+                                                             VoltDB.instance().getCommandLogSnapshotPath());
+                }
             }
         }
     }
@@ -82,6 +82,8 @@ public class InternalClientResponseAdapter implements Connection, WriteStream {
         private final Procedure m_proc;
         private final AuthSystem.AuthUser m_user;
         private final String m_procName;
+        // Rows carried by a batch transaction, 0 for a single invocation
+        private final int m_batchRows;
         public InternalCallback(
                 final InternalAdapterTaskAttributes kattrs,
                 Procedure proc,
@@ -91,6 +93,7 @@ public class InternalClientResponseAdapter implements Connection, WriteStream {
                 ProcedureCallback cb,
                 InternalConnectionStatsCollector statsCollector,
                 AuthSystem.AuthUser user,
+                int batchRows,
                 long id)
         {
             m_kattrs = kattrs;
@@ -101,6 +104,7 @@ public class InternalClientResponseAdapter implements Connection, WriteStream {
             m_partition = partition;
             m_user = user;
             m_procName = procName;
+            m_batchRows = batchRows;
         }
 
         @Override
@@ -114,20 +118,25 @@ public class InternalClientResponseAdapter implements Connection, WriteStream {
             }
 
             if (m_statsCollector != null) {
-                m_statsCollector.reportCompletion(m_kattrs.getName(), m_task.getProcName(), response);
+                if (m_batchRows > 0) {
+                    m_statsCollector.reportBatchCompletion(m_kattrs.getName(), m_procName, response, m_batchRows);
+                } else {
+                    m_statsCollector.reportCompletion(m_kattrs.getName(), m_task.getProcName(), response);
+                }
             }
 
             if (response.getStatus() == ClientResponse.RESPONSE_UNKNOWN) {
                 //Handle failure of transaction due to node kill
                 createTransaction(
                         m_kattrs,
-                        m_task.getProcName(),
+                        m_procName,
                         m_proc, m_cb,
                         m_statsCollector,
                         m_task,
                         m_user,
                         m_partition,
-                        System.nanoTime());
+                        System.nanoTime(),
+                        m_batchRows);
             }
         }
 
@@ -168,13 +177,28 @@ public class InternalClientResponseAdapter implements Connection, WriteStream {
             final StoredProcedureInvocation task,
             final AuthSystem.AuthUser user,
             final int partition, final long nowNanos) {
+        return createTransaction(kattrs, procName, catProc, proccb, statsCollector, task, user, partition, nowNanos, 0);
+    }
+
+    /**
+     * @param procName the procedure reported to the callback and stats, which may differ
+     *                 from the procedure of the task when it carries a batch
+     * @param batchRows the number of rows carried by a batch task, 0 for a single invocation
+     */
+    public boolean createTransaction(final InternalAdapterTaskAttributes kattrs,
+            final String procName,
+            final Procedure catProc,
+            final ProcedureCallback proccb,
+            final InternalConnectionStatsCollector statsCollector,
+            final StoredProcedureInvocation task,
+            final AuthSystem.AuthUser user,
+            final int partition, final long nowNanos,
+            final int batchRows) {
 
         if (!m_partitionExecutor.containsKey(partition)) {
             m_partitionExecutor.putIfAbsent(partition, CoreUtils.getSingleThreadExecutor("InternalHandlerExecutor - " + partition));
         }
 
-        final InvocationDispatcher dispatcher = getClientInterface().getDispatcher();
-
         ExecutorService executor = m_partitionExecutor.get(partition);
         try {
             executor.submit(new Runnable() {
@@ -190,10 +214,10 @@ public class InternalClientResponseAdapter implements Connection, WriteStream {
                     final long handle = nextHandle();
                     task.setClientHandle(handle);
                     final InternalCallback cb = new InternalCallback(
-                            kattrs, catProc, task, procName, partition, proccb, statsCollector, user, handle);
+                            kattrs, catProc, task, procName, partition, proccb, statsCollector, user, batchRows, handle);
                     m_callbacks.put(handle, cb);
 
-                    ClientResponseImpl r = dispatcher.dispatch(task, kattrs, InternalClientResponseAdapter.this, user, null);
+                    ClientResponseImpl r = dispatch(task, kattrs, user);
                     boolean bval = r == null || r.getStatus() == ClientResponse.SUCCESS;
                     if (r != null) {
                         try {
@@ -224,6 +248,14 @@ public class InternalClientResponseAdapter implements Connection, WriteStream {
         return true;
     }
 
+    /**
+     * Hand a task to the dispatcher, which only responds right away when the task can't be initiated.
+     */
+    ClientResponseImpl dispatch(StoredProcedureInvocation task, InternalAdapterTaskAttributes kattrs,
+            AuthSystem.AuthUser user) {
+        return getClientInterface().getDispatcher().dispatch(task, kattrs, this, user, null);
+    }
+
     /**
      * @param connectionId    The connection ID for this adapter, needs to be unique for this
      *                        node.
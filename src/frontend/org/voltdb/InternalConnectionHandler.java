@@ -17,17 +17,27 @@
 
 package org.voltdb;
 
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltcore.logging.Level;
 import org.voltcore.logging.VoltLogger;
 import org.voltdb.AuthSystem.AuthUser;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.ProcParameter;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Table;
 import org.voltdb.client.BatchTimeoutOverrideType;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.ProcedureCallback;
+import org.voltdb.common.Permission;
+import org.voltdb.importer.formatter.FormattedRow;
+import org.voltdb.importer.formatter.StreamingFormatter;
+import org.voltdb.utils.CatalogUtil;
 import org.voltdb.utils.MiscUtils;
 
 /**
@@ -40,6 +50,10 @@ public class InternalConnectionHandler {
     public final static long SUPPRESS_INTERVAL = 60;
     private static final VoltLogger m_logger = new VoltLogger("InternalConnectionHandler");
 
+    final static String LOAD_PROCEDURE = "@LoadSinglepartitionTable";
+    // Upper bound on the rows loaded by one batch transaction, larger groups are split
+    final static int BATCH_MAX_ROWS = Integer.getInteger("IMPORTER_BATCH_MAX_ROWS", 1000);
+
     // Atomically allows the catalog reference to change between access
     private final AtomicLong m_failedCount = new AtomicLong();
     private final AtomicLong m_submitSuccessCount = new AtomicLong();
@@ -78,6 +92,10 @@ public class InternalConnectionHandler {
         return VoltDB.instance().getCatalogContext();
     }
 
+    AuthUser getImporterUser() {
+        return getCatalogContext().authSystem.getImporterUser();
+    }
+
     public boolean callProcedure(
             AuthUser user,
             boolean isAdmin,
@@ -143,21 +161,11 @@ public class InternalConnectionHandler {
     // Use backPressureTimeout value <= 0  for no back pressure timeout
     public boolean callProcedure(InternalConnectionContext caller, InternalConnectionStatsCollector statsCollector,
             ProcedureCallback procCallback, String proc, Object... fieldList) {
-        Procedure catProc = InvocationDispatcher.getProcedureFromName(proc, getCatalogContext());
+        Procedure catProc = getProcedureWithBackPressure(caller, proc);
         if (catProc == null) {
-            String fmt = "Cannot invoke procedure %s from streaming interface %s. Procedure not found.";
-            m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, proc, caller);
-            m_failedCount.incrementAndGet();
             return false;
         }
 
-        //Indicate backpressure or not.
-        boolean b = hasBackPressure();
-        caller.setBackPressure(b);
-        if (b) {
-            applyBackPressure();
-        }
-
         StoredProcedureInvocation task = new StoredProcedureInvocation();
 
         task.setProcName(proc);
@@ -171,6 +179,73 @@ public class InternalConnectionHandler {
             m_failedCount.incrementAndGet();
             return false;
         }
+        return submitTask(caller, statsCollector, procCallback, proc, catProc, task);
+    }
+
+    /**
+     * Invoke a procedure with the fields of a row parsed by a {@link StreamingFormatter}. The fields
+     * are serialized straight from the row's source buffer as parameters of the procedure's declared
+     * types, without materializing an Object[] for the row.
+     */
+    public boolean callProcedure(InternalConnectionContext caller, InternalConnectionStatsCollector statsCollector,
+            ProcedureCallback procCallback, String proc, FormattedRow row) {
+        Procedure catProc = getProcedureWithBackPressure(caller, proc);
+        if (catProc == null) {
+            return false;
+        }
+
+        StoredProcedureInvocation task = new StoredProcedureInvocation();
+        task.setProcName(proc);
+        try {
+            final VoltType[] types = getParameterTypes(catProc);
+            ByteBuffer params = ByteBuffer.allocate(row.getSerializedSize(types));
+            row.flattenToBuffer(params, types);
+            params.flip();
+            task.setParamsFromBuffer(params);
+            task.setClientHandle(m_adapter.connectionId());
+        } catch (Exception e) {
+            String fmt = "Cannot invoke procedure %s from streaming interface %s. failed to create task.";
+            m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, e, fmt, proc, caller);
+            m_failedCount.incrementAndGet();
+            return false;
+        }
+        return submitTask(caller, statsCollector, procCallback, proc, catProc, task);
+    }
+
+    private Procedure getProcedureWithBackPressure(InternalConnectionContext caller, String proc) {
+        Procedure catProc = InvocationDispatcher.getProcedureFromName(proc, getCatalogContext());
+        if (catProc == null) {
+            String fmt = "Cannot invoke procedure %s from streaming interface %s. Procedure not found.";
+            m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, proc, caller);
+            m_failedCount.incrementAndGet();
+            return null;
+        }
+
+        //Indicate backpressure or not.
+        boolean b = hasBackPressure();
+        caller.setBackPressure(b);
+        if (b) {
+            applyBackPressure();
+        }
+        return catProc;
+    }
+
+    /*
+     * Declared type of each parameter of the procedure, null for array parameters, which
+     * are then serialized as strings.
+     */
+    private static VoltType[] getParameterTypes(Procedure catProc) {
+        VoltType[] types = new VoltType[catProc.getParameters().size()];
+        for (ProcParameter param : catProc.getParameters()) {
+            if (param.getIndex() < types.length && !param.getIsarray()) {
+                types[param.getIndex()] = VoltType.get((byte) param.getType());
+            }
+        }
+        return types;
+    }
+
+    private boolean submitTask(InternalConnectionContext caller, InternalConnectionStatsCollector statsCollector,
+            ProcedureCallback procCallback, String proc, Procedure catProc, StoredProcedureInvocation task) {
         int partition = -1;
         try {
             partition = InvocationDispatcher.getPartitionForProcedure(catProc, task);
@@ -183,7 +258,7 @@ public class InternalConnectionHandler {
 
         InternalAdapterTaskAttributes kattrs = new InternalAdapterTaskAttributes(caller,  m_adapter.connectionId());
 
-        final AuthUser user = getCatalogContext().authSystem.getImporterUser();
+        final AuthUser user = getImporterUser();
 
         if (!m_adapter.createTransaction(kattrs, proc, catProc, procCallback, statsCollector, task, user, partition, System.nanoTime())) {
             m_failedCount.incrementAndGet();
@@ -193,6 +268,152 @@ public class InternalConnectionHandler {
         return true;
     }
 
+    /**
+     * Submit many invocations of one procedure at once. When the procedure is the default insert or
+     * upsert procedure of a partitioned table the rows are grouped by partition, and each group is
+     * loaded by one {@value #LOAD_PROCEDURE} transaction of at most BATCH_MAX_ROWS rows, with the
+     * callback invoked once per transaction. Rows for any other procedure are submitted as one
+     * transaction each.
+     *
+     * @return the number of rows whose transactions were queued
+     */
+    public int callProcedureBatch(InternalConnectionContext caller, InternalConnectionStatsCollector statsCollector,
+            ProcedureCallback procCallback, String proc, List<Object[]> rows) {
+        final CatalogContext catalogContext = getCatalogContext();
+        Procedure catProc = InvocationDispatcher.getProcedureFromName(proc, catalogContext);
+        if (catProc == null) {
+            String fmt = "Cannot invoke procedure %s from streaming interface %s. Procedure not found.";
+            m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, proc, caller);
+            m_failedCount.addAndGet(rows.size());
+            return 0;
+        }
+
+        final Table catTable = getBulkLoadTable(catProc, catalogContext);
+        final AuthUser user = getImporterUser();
+        if (catTable == null || !user.hasPermission(Permission.DEFAULTPROC)) {
+            int queued = 0;
+            for (Object[] row : rows) {
+                if (callProcedure(caller, statsCollector, procCallback, proc, row)) {
+                    queued++;
+                }
+            }
+            return queued;
+        }
+
+        //Indicate backpressure or not.
+        boolean b = hasBackPressure();
+        caller.setBackPressure(b);
+        if (b) {
+            applyBackPressure();
+        }
+
+        final Procedure loadProc = InvocationDispatcher.getProcedureFromName(LOAD_PROCEDURE, catalogContext);
+        final Column partitionColumn = catTable.getPartitioncolumn();
+        final VoltType partitionType = VoltType.get((byte) partitionColumn.getType());
+        final VoltTable schema = CatalogUtil.getVoltTable(catTable);
+        final Class<?>[] columnClasses = new Class<?>[schema.getColumnCount()];
+        for (int i = 0; i < columnClasses.length; i++) {
+            columnClasses[i] = schema.getColumnType(i).classFromType();
+        }
+
+        final Map<Integer, VoltTable> partitionTables = new HashMap<>();
+        int queued = 0;
+        for (Object[] row : rows) {
+            final int partition;
+            final VoltTable table;
+            try {
+                if (row.length != columnClasses.length) {
+                    throw new VoltTypeException(String.format("Expected %d parameters but got %d",
+                            columnClasses.length, row.length));
+                }
+                final Object[] values = new Object[columnClasses.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = ParameterConverter.tryToMakeCompatible(columnClasses[i], row[i]);
+                }
+                partition = TheHashinator.getPartitionForParameter(partitionType, values[partitionColumn.getIndex()]);
+                VoltTable partitionTable = partitionTables.get(partition);
+                if (partitionTable == null) {
+                    partitionTable = schema.clone(1024 * 32);
+                    partitionTables.put(partition, partitionTable);
+                }
+                partitionTable.addRow(values);
+                table = partitionTable;
+            } catch (Exception e) {
+                String fmt = "Cannot invoke procedure %s from streaming interface %s. Invalid parameters.";
+                m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, e, fmt, proc, caller);
+                m_failedCount.incrementAndGet();
+                continue;
+            }
+            if (table.getRowCount() >= BATCH_MAX_ROWS) {
+                partitionTables.remove(partition);
+                queued += submitLoad(caller, statsCollector, procCallback, proc, loadProc, catTable,
+                                     partitionType, partition, table);
+            }
+        }
+        for (Map.Entry<Integer, VoltTable> e : partitionTables.entrySet()) {
+            queued += submitLoad(caller, statsCollector, procCallback, proc, loadProc, catTable,
+                                 partitionType, e.getKey(), e.getValue());
+        }
+        return queued;
+    }
+
+    /**
+     * Returns the table the procedure inserts or upserts a row of when it is the default
+     * procedure of a partitioned table, null otherwise.
+     */
+    private static Table getBulkLoadTable(Procedure catProc, CatalogContext catalogContext) {
+        final String name = catProc.getTypeName();
+        if (!catProc.getDefaultproc() || !catProc.getSinglepartition() ||
+                !(name.endsWith(".insert") || name.endsWith(".upsert"))) {
+            return null;
+        }
+        final Table catTable = catalogContext.tables.get(name.substring(0, name.lastIndexOf('.')));
+        if (catTable == null || catTable.getIsreplicated() || catTable.getPartitioncolumn() == null) {
+            return null;
+        }
+        return catTable;
+    }
+
+    /**
+     * Load the rows of one partition in one transaction, reported under the procedure they
+     * were submitted for.
+     * @return the number of rows queued
+     */
+    private int submitLoad(InternalConnectionContext caller, InternalConnectionStatsCollector statsCollector,
+            ProcedureCallback procCallback, String proc, Procedure loadProc, Table catTable,
+            VoltType partitionType, int partition, VoltTable table) {
+        final int rowCount = table.getRowCount();
+        final byte upsertMode = (byte) (proc.endsWith(".upsert") ? 1 : 0);
+        final Object partitionValue = table.fetchRow(0).get(catTable.getPartitioncolumn().getIndex(), partitionType);
+
+        StoredProcedureInvocation task = new StoredProcedureInvocation();
+        task.setProcName(LOAD_PROCEDURE);
+        task.setParams(VoltType.valueToBytes(partitionValue), catTable.getTypeName(), upsertMode, table);
+        try {
+            task = MiscUtils.roundTripForCL(task);
+            task.setClientHandle(m_adapter.connectionId());
+        } catch (Exception e) {
+            String fmt = "Cannot invoke procedure %s from streaming interface %s. failed to create task.";
+            m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, proc, caller);
+            m_failedCount.addAndGet(rowCount);
+            return 0;
+        }
+
+        InternalAdapterTaskAttributes kattrs = new InternalAdapterTaskAttributes(caller,  m_adapter.connectionId());
+
+        // The load is a system procedure, which the importer user may not invoke directly. It was
+        // checked above that the importer may invoke the default procedure the rows were meant for.
+        final AuthUser user = getCatalogContext().authSystem.getInternalAdminUser();
+
+        if (!m_adapter.createTransaction(kattrs, proc, loadProc, procCallback, statsCollector, task, user,
+                                         partition, System.nanoTime(), rowCount)) {
+            m_failedCount.addAndGet(rowCount);
+            return 0;
+        }
+        m_submitSuccessCount.addAndGet(rowCount);
+        return rowCount;
+    }
+
     private boolean hasBackPressure() {
         final boolean b = m_adapter.hasBackPressure();
         int prev = m_backpressureIndication.get();
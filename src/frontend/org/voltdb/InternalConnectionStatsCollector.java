@@ -33,4 +33,14 @@ public interface InternalConnectionStatsCollector
      * @param response ClientResponse with response details
      */
     public void reportCompletion(String callerName, String procName, ClientResponse response);
+
+    /**
+     * Used to report the completion details of a request that applied several rows in one transaction.
+     *
+     * @param callerName a name identifying the request invoker
+     * @param procName name of the procedure the rows were submitted for.
+     * @param response ClientResponse with response details
+     * @param rows the number of rows carried by the request
+     */
+    public void reportBatchCompletion(String callerName, String procName, ClientResponse response, int rows);
 }
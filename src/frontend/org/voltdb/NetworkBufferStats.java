@@ -0,0 +1,105 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.voltcore.network.SizeClassedDBBPool;
+import org.voltcore.network.SizeClassedDBBPool.ClassStats;
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * One row per size class of the shared network buffer pool. HITS, MISSES and
+ * LEAKED are deltas since the last interval request when interval is set,
+ * OUTSTANDING and POOLED are always current.
+ */
+public class NetworkBufferStats extends StatsSource {
+
+    private final SizeClassedDBBPool m_pool;
+    private final long[] m_lastHits = new long[SizeClassedDBBPool.NUM_CLASSES];
+    private final long[] m_lastMisses = new long[SizeClassedDBBPool.NUM_CLASSES];
+    private final long[] m_lastLeaked = new long[SizeClassedDBBPool.NUM_CLASSES];
+
+    private ClassStats[] m_current;
+    private boolean m_interval;
+
+    public NetworkBufferStats(SizeClassedDBBPool pool) {
+        super(false);
+        m_pool = pool;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("BUFFER_SIZE", VoltType.INTEGER));
+        columns.add(new ColumnInfo("HITS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MISSES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("OUTSTANDING", VoltType.BIGINT));
+        columns.add(new ColumnInfo("POOLED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("LEAKED", VoltType.BIGINT));
+    }
+
+    @Override
+    protected synchronized void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final int index = (Integer)rowKey;
+        final ClassStats stats = m_current[index];
+        long hits = stats.hits;
+        long misses = stats.misses;
+        long leaked = stats.leaked;
+        if (m_interval) {
+            hits -= m_lastHits[index];
+            misses -= m_lastMisses[index];
+            leaked -= m_lastLeaked[index];
+            m_lastHits[index] = stats.hits;
+            m_lastMisses[index] = stats.misses;
+            m_lastLeaked[index] = stats.leaked;
+        }
+        rowValues[columnNameToIndex.get("BUFFER_SIZE")] = stats.size;
+        rowValues[columnNameToIndex.get("HITS")] = hits;
+        rowValues[columnNameToIndex.get("MISSES")] = misses;
+        rowValues[columnNameToIndex.get("OUTSTANDING")] = stats.outstanding;
+        rowValues[columnNameToIndex.get("POOLED")] = stats.pooled;
+        rowValues[columnNameToIndex.get("LEAKED")] = leaked;
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected synchronized Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        m_current = m_pool.getStats();
+        m_interval = interval;
+        return new Iterator<Object>() {
+            int m_next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return m_next < SizeClassedDBBPool.NUM_CLASSES;
+            }
+
+            @Override
+            public Object next() {
+                return m_next++;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -147,6 +147,20 @@ public class PlannerStatsCollector extends StatsSource {
         return m_lastInvocations;
     }
 
+    /**
+     * @return  plans found in either cache, may be slightly stale
+     */
+    public long getCacheHits() {
+        return m_cache1Hits + m_cache2Hits;
+    }
+
+    /**
+     * @return  plans found in neither cache, may be slightly stale
+     */
+    public long getCacheMisses() {
+        return m_cacheMisses;
+    }
+
     /**
      * Calculate the sample count based on the invocation count and the collection frequency.
      * @return  sample count
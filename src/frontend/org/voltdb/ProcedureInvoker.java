@@ -0,0 +1,102 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Calls a procedure's run() method with an array of already converted parameters.
+ *
+ * The invoker is built once when the procedure is loaded. By default it is a method
+ * handle bound to the procedure instance that spreads the parameter array straight
+ * into the run() signature, unboxing primitives as it goes, so a call skips the
+ * access and argument checks Method.invoke repeats on every invocation. Setting
+ * PROCEDURE_REFLECTIVE_INVOKE falls back to Method.invoke, as does a run() method
+ * the handle can't be created for.
+ *
+ * Either way exceptions thrown by run() come back wrapped in an
+ * InvocationTargetException, the way reflection reports them.
+ */
+public abstract class ProcedureInvoker {
+
+    static final boolean REFLECTIVE_INVOKE = Boolean.getBoolean("PROCEDURE_REFLECTIVE_INVOKE");
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    /**
+     * @param procedure the instance to invoke run() on
+     * @param run its public run() method
+     */
+    public static ProcedureInvoker create(Object procedure, Method run) {
+        return create(procedure, run, REFLECTIVE_INVOKE);
+    }
+
+    public static ProcedureInvoker create(Object procedure, Method run, boolean reflective) {
+        if (!reflective) {
+            try {
+                MethodHandle handle = MethodHandles.publicLookup().unreflect(run).bindTo(procedure);
+                handle = handle.asSpreader(Object[].class, run.getParameterTypes().length).asType(INVOKER_TYPE);
+                return new HandleInvoker(handle);
+            } catch (IllegalAccessException e) {
+                // The procedure class itself isn't public, reflection can still reach run()
+            }
+        }
+        return new ReflectiveInvoker(procedure, run);
+    }
+
+    /**
+     * @return whatever run() returned, boxed if it is a primitive
+     */
+    public abstract Object invoke(Object[] params) throws InvocationTargetException, IllegalAccessException;
+
+    private static final class HandleInvoker extends ProcedureInvoker {
+        private final MethodHandle m_handle;
+
+        HandleInvoker(MethodHandle handle) {
+            m_handle = handle;
+        }
+
+        @Override
+        public Object invoke(Object[] params) throws InvocationTargetException {
+            try {
+                return (Object) m_handle.invokeExact(params);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+
+    private static final class ReflectiveInvoker extends ProcedureInvoker {
+        private final Object m_procedure;
+        private final Method m_run;
+
+        ReflectiveInvoker(Object procedure, Method run) {
+            m_procedure = procedure;
+            m_run = run;
+        }
+
+        @Override
+        public Object invoke(Object[] params) throws InvocationTargetException, IllegalAccessException {
+            return m_run.invoke(m_procedure, params);
+        }
+    }
+}
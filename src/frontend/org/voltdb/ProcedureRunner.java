@@ -85,6 +85,15 @@ public class ProcedureRunner {
         ByteBuffer serialization = null;
     }
     protected final ArrayList<QueuedSQL> m_batch = new ArrayList<QueuedSQL>(100);
+    // Parameters of the write statements in m_batch, serialized back to back. The
+    // determinism CRC is computed over them in place and each statement's slice is
+    // what gets shipped to the EE. Reset when the batch is cleared and kept across
+    // batches, so steady state write batches don't allocate to serialize their
+    // parameters. One that grew past MAX_PARAM_SCRATCH_SIZE is dropped instead, so
+    // a rare huge batch doesn't pin its buffer for the life of the site.
+    private ByteBuffer m_paramScratch = null;
+    static final int INITIAL_PARAM_SCRATCH_SIZE = 4096;
+    static final int MAX_PARAM_SCRATCH_SIZE = 1024 * 1024;
     // cached fake SQLStmt array for single statement non-java procs
     QueuedSQL m_cachedSingleStmt = new QueuedSQL(); // never null
     boolean m_seenFinalBatch = false;
@@ -102,6 +111,7 @@ public class ProcedureRunner {
     protected final String m_procedureName;
     protected final VoltProcedure m_procedure;
     protected Method m_procMethod;
+    protected ProcedureInvoker m_procInvoker;
     protected Class<?>[] m_paramTypes;
 
     // per txn state (are reset after call)
@@ -320,7 +330,7 @@ public class ProcedureRunner {
                             log.trace("invoking... procMethod=" + m_procMethod.getName() + ", class=" + m_procMethod.getDeclaringClass().getName());
                         }
                         try {
-                            Object rawResult = m_procMethod.invoke(m_procedure, paramList);
+                            Object rawResult = m_procInvoker.invoke(paramList);
                             results = getResultsFromRawResults(rawResult);
                         }
                         catch (IllegalAccessException e) {
@@ -425,6 +435,7 @@ public class ProcedureRunner {
             // garbage collected and that the queue will be empty for
             // the next call
             m_batch.clear();
+            resetParamScratch();
 
             // reset other per-txn state
             m_txnState = null;
@@ -578,11 +589,24 @@ public class ProcedureRunner {
         if (!queuedSQL.stmt.isReadOnly) {
             m_inputCRC.update(queuedSQL.stmt.sqlCRC);
             try {
-                ByteBuffer buf = ByteBuffer.allocate(queuedSQL.params.getSerializedSize());
-                queuedSQL.params.flattenToBuffer(buf);
-                buf.flip();
-                m_inputCRC.update(buf.array());
-                queuedSQL.serialization = buf;
+                final int size = queuedSQL.params.getSerializedSize();
+                boolean allocated = false;
+                if (m_paramScratch == null || m_paramScratch.remaining() < size) {
+                    // Slices handed out earlier in the batch keep the old buffer alive
+                    final int capacity = m_paramScratch == null ?
+                            INITIAL_PARAM_SCRATCH_SIZE : m_paramScratch.capacity() * 2;
+                    m_paramScratch = ByteBuffer.allocate(Math.max(capacity, size));
+                    allocated = true;
+                }
+                final int start = m_paramScratch.position();
+                queuedSQL.params.flattenToBuffer(m_paramScratch);
+                m_inputCRC.update(m_paramScratch.array(), m_paramScratch.arrayOffset() + start, size);
+
+                final ByteBuffer serialization = m_paramScratch.duplicate();
+                serialization.position(start);
+                serialization.limit(start + size);
+                queuedSQL.serialization = serialization.slice();
+                m_statsCollector.writeStatementQueued(allocated);
             } catch (IOException e) {
                 log.error("Unable to compute CRC of parameters to " +
                         "a SQL statement in procedure: " + m_procedureName, e);
@@ -593,6 +617,19 @@ public class ProcedureRunner {
         }
     }
 
+    /*
+     * Called whenever m_batch is cleared, nothing refers to the serialized parameters any more.
+     */
+    private void resetParamScratch() {
+        if (m_paramScratch != null) {
+            if (m_paramScratch.capacity() > MAX_PARAM_SCRATCH_SIZE) {
+                m_paramScratch = null;
+            } else {
+                m_paramScratch.clear();
+            }
+        }
+    }
+
     public void voltQueueSQL(final SQLStmt stmt, Expectation expectation, Object... args) {
         if (stmt == null) {
             throw new IllegalArgumentException("SQLStmt parameter to voltQueueSQL(..) was null.");
@@ -759,6 +796,7 @@ public class ProcedureRunner {
         }
         finally {
             m_batch.clear();
+            resetParamScratch();
         }
     }
 
@@ -1020,6 +1058,9 @@ public class ProcedureRunner {
             if (m_procMethod == null && m_language == Language.JAVA) {
                 throw new RuntimeException("No \"run\" method found in: " + m_procedure.getClass().getName());
             }
+            if (m_procMethod != null) {
+                m_procInvoker = ProcedureInvoker.create(m_procedure, m_procMethod);
+            }
             // iterate through the fields and deal with sql statements
             stmtMap = m_language.accept(sqlStatementsRetriever, this);
         }
@@ -119,6 +119,18 @@ class ProcedureStatsCollector extends SiteStatsSource {
     private long m_totalParameterSetSize = 0;
     private long m_lastTotalParameterSetSize = 0;
 
+    /**
+     * Number of write statements whose parameters were serialized for the determinism CRC
+     */
+    private long m_writeStatements = 0;
+    private long m_lastWriteStatements = 0;
+
+    /**
+     * Number of times serializing those parameters needed a new buffer
+     */
+    private long m_parameterBufferAllocations = 0;
+    private long m_lastParameterBufferAllocations = 0;
+
     /**
      * Whether to return results in intervals since polling or since the beginning
      */
@@ -210,6 +222,17 @@ class ProcedureStatsCollector extends SiteStatsSource {
         m_invocations++;
     }
 
+    /**
+     * Called for each write statement whose parameters are serialized for the determinism CRC.
+     * @param allocated whether a buffer had to be allocated to hold them
+     */
+    public final void writeStatementQueued(boolean allocated) {
+        m_writeStatements++;
+        if (allocated) {
+            m_parameterBufferAllocations++;
+        }
+    }
+
     /**
      * Update the rowValues array with the latest statistical information.
      * This method is overrides the super class version
@@ -234,6 +257,8 @@ class ProcedureStatsCollector extends SiteStatsSource {
         long minParameterSetSize = m_minParameterSetSize;
         long maxParameterSetSize = m_maxParameterSetSize;
         long totalParameterSetSize = m_totalParameterSetSize;
+        long writeStatements = m_writeStatements;
+        long parameterBufferAllocations = m_parameterBufferAllocations;
 
         if (m_interval) {
             invocations = m_invocations - m_lastInvocations;
@@ -266,6 +291,12 @@ class ProcedureStatsCollector extends SiteStatsSource {
 
             totalParameterSetSize = m_totalParameterSetSize - m_lastTotalParameterSetSize;
             m_lastTotalParameterSetSize = m_totalParameterSetSize;
+
+            writeStatements = m_writeStatements - m_lastWriteStatements;
+            m_lastWriteStatements = m_writeStatements;
+
+            parameterBufferAllocations = m_parameterBufferAllocations - m_lastParameterBufferAllocations;
+            m_lastParameterBufferAllocations = m_parameterBufferAllocations;
         }
 
         rowValues[columnNameToIndex.get("INVOCATIONS")] = invocations;
@@ -290,6 +321,8 @@ class ProcedureStatsCollector extends SiteStatsSource {
         rowValues[columnNameToIndex.get("MAX_RESULT_SIZE")] = maxResultSize;
         rowValues[columnNameToIndex.get("MIN_PARAMETER_SET_SIZE")] = minParameterSetSize;
         rowValues[columnNameToIndex.get("MAX_PARAMETER_SET_SIZE")] = maxParameterSetSize;
+        rowValues[columnNameToIndex.get("WRITE_STATEMENTS")] = writeStatements;
+        rowValues[columnNameToIndex.get("PARAMETER_BUFFER_ALLOCATIONS")] = parameterBufferAllocations;
     }
 
     /**
@@ -314,6 +347,8 @@ class ProcedureStatsCollector extends SiteStatsSource {
         columns.add(new VoltTable.ColumnInfo("AVG_PARAMETER_SET_SIZE", VoltType.INTEGER));
         columns.add(new VoltTable.ColumnInfo("ABORTS", VoltType.BIGINT));
         columns.add(new VoltTable.ColumnInfo("FAILURES", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("WRITE_STATEMENTS", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("PARAMETER_BUFFER_ALLOCATIONS", VoltType.BIGINT));
     }
 
     @Override
@@ -52,6 +52,19 @@ public class StarvationTracker extends SiteStatsSource {
 
     private long m_starvationStartTime;
 
+    /*
+     * Distribution of the number of tasks the site drained from its queue at once,
+     * only populated when the site runs in batch mode
+     */
+    private long m_batches = 0;
+    private long m_lastBatches = 0;
+    private long m_batchedTasks = 0;
+    private long m_lastBatchedTasks = 0;
+    private long m_batchSumOfSquares = 0;
+    private long m_lastBatchSumOfSquares = 0;
+    private long m_maxBatch = 0;
+    private long m_lastMaxBatch = 0;
+
     private boolean m_interval;
 
     /**
@@ -81,6 +94,14 @@ public class StarvationTracker extends SiteStatsSource {
         m_lastMin = Math.min(m_lastMin, delta);
     }
 
+    public void recordBatch(int size) {
+        m_batches++;
+        m_batchedTasks += size;
+        m_batchSumOfSquares += (long)size * size;
+        m_maxBatch = Math.max(m_maxBatch, size);
+        m_lastMaxBatch = Math.max(m_lastMaxBatch, size);
+    }
+
     @Override
     protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
         super.populateColumnSchema(columns);
@@ -90,11 +111,39 @@ public class StarvationTracker extends SiteStatsSource {
         columns.add(new ColumnInfo("MIN", VoltType.BIGINT));
         columns.add(new ColumnInfo("MAX", VoltType.BIGINT));
         columns.add(new ColumnInfo("STDDEV", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BATCHES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_BATCH", VoltType.FLOAT));
+        columns.add(new ColumnInfo("MAX_BATCH", VoltType.BIGINT));
+        columns.add(new ColumnInfo("STDDEV_BATCH", VoltType.FLOAT));
+    }
+
+    private void setBatchColumns(Object rowValues[], long batches, long tasks, long sumOfSquares, long max) {
+        rowValues[columnNameToIndex.get("BATCHES")] = batches;
+        if (batches > 0) {
+            final double avg = tasks / (double)batches;
+            rowValues[columnNameToIndex.get("AVG_BATCH")] = avg;
+            rowValues[columnNameToIndex.get("MAX_BATCH")] = max;
+            rowValues[columnNameToIndex.get("STDDEV_BATCH")] = Math.sqrt(Math.max(0.0, sumOfSquares / (double)batches - avg * avg));
+        } else {
+            rowValues[columnNameToIndex.get("AVG_BATCH")] = 0.0;
+            rowValues[columnNameToIndex.get("MAX_BATCH")] = 0L;
+            rowValues[columnNameToIndex.get("STDDEV_BATCH")] = 0.0;
+        }
     }
 
     @Override
     protected void updateStatsRow(Object rowKey, Object rowValues[]) {
         if (m_interval) {
+            setBatchColumns(rowValues,
+                            m_batches - m_lastBatches,
+                            m_batchedTasks - m_lastBatchedTasks,
+                            m_batchSumOfSquares - m_lastBatchSumOfSquares,
+                            m_lastMaxBatch);
+            m_lastBatches = m_batches;
+            m_lastBatchedTasks = m_batchedTasks;
+            m_lastBatchSumOfSquares = m_batchSumOfSquares;
+            m_lastMaxBatch = 0;
+
             final long now = System.nanoTime();
             final long totalTime = now - m_lastStartTime;
             final long count = m_count - m_lastCount;
@@ -123,6 +172,7 @@ public class StarvationTracker extends SiteStatsSource {
                 rowValues[columnNameToIndex.get("STDDEV")] = 0L;
             }
         } else {
+            setBatchColumns(rowValues, m_batches, m_batchedTasks, m_batchSumOfSquares, m_maxBatch);
             final long totalTime = System.nanoTime() - m_startTime;
             if (m_count > 0) {
                 final long uSecs = (m_totalTime / m_count) / 1000;
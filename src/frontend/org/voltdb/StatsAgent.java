@@ -438,6 +438,21 @@ public class StatsAgent extends OpsAgent
         case IMPORTER:
             stats = collectStats(StatsSelector.IMPORTER, interval);
             break;
+        case NETWORKBUFFERS:
+            stats = collectStats(StatsSelector.NETWORKBUFFERS, interval);
+            break;
+        case PLANNERPOOL:
+            stats = collectStats(StatsSelector.PLANNERPOOL, interval);
+            break;
+        case EXPORT:
+            stats = collectStats(StatsSelector.EXPORT, interval);
+            break;
+        case MPTRANSACTIONS:
+            stats = collectStats(StatsSelector.MPTRANSACTIONS, interval);
+            break;
+        case MPREADCACHE:
+            stats = collectStats(StatsSelector.MPREADCACHE, interval);
+            break;
         case DRROLE:
             stats = collectStats(StatsSelector.DRROLE, false);
             break;
@@ -56,5 +56,10 @@ public enum StatsSelector {
     CPU,            // Return CPU Stats
 
     COMMANDLOG,     // return number of outstanding bytes and txns on this node
-    IMPORTER
+    IMPORTER,
+    NETWORKBUFFERS, // return hit/miss/outstanding counts of the network buffer pool
+    PLANNERPOOL,    // return queue depth, planning latency and cache use of each ad hoc planner
+    EXPORT,         // return throughput, lag and pending acks of each stream written by the file export processor
+    MPTRANSACTIONS, // return count, latency and partitions involved of multi-partition and n-partition transactions
+    MPREADCACHE     // return size, hits, misses and invalidations of the multi-partition read result cache
 }
@@ -544,6 +544,21 @@ public class StoredProcedureInvocation implements JSONString {
         this.serializedParams = serializedParams;
     }
 
+    /**
+     * Use parameters the caller already serialized in the format of a ParameterSet. They are
+     * deserialized on demand, as for an invocation read from the wire.
+     */
+    public void setParamsFromBuffer(ByteBuffer buf) {
+        serializedParams = buf.slice();
+        final ByteBuffer duplicate = serializedParams.duplicate();
+        params = new FutureTask<ParameterSet>(new Callable<ParameterSet>() {
+            @Override
+            public ParameterSet call() throws Exception {
+                return ParameterSet.fromByteBuffer(duplicate);
+            }
+        });
+    }
+
     @Override
     public String toJSONString() {
         params.run();
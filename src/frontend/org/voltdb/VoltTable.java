@@ -142,6 +142,11 @@ public final class VoltTable extends VoltTableRow implements JSONString {
     private int m_memoizedRowOffset = NO_MEMOIZED_ROW_OFFSET;
     private int m_memoizedBufferOffset;
 
+    // start of each row's column data, built on the first columnar access and
+    // extended as rows are added
+    private int[] m_rowDataOffsets = null;
+    private int m_indexedRowCount = 0;
+
     // JSON KEYS FOR SERIALIZATION
     static final String JSON_NAME_KEY = "name";
     static final String JSON_TYPE_KEY = "type";
@@ -372,6 +377,8 @@ public final class VoltTable extends VoltTableRow implements JSONString {
 
         m_colCount = m_buffer.getShort(5);
         m_rowCount = m_buffer.getInt(m_rowStart);
+        m_rowDataOffsets = null;
+        m_indexedRowCount = 0;
         m_buffer.position(m_buffer.limit());
         m_readOnly = readOnly;
 
@@ -508,6 +515,8 @@ public final class VoltTable extends VoltTableRow implements JSONString {
         m_buffer.position(m_rowStart);
         m_buffer.putInt(0);
         m_rowCount = 0;
+        m_rowDataOffsets = null;
+        m_indexedRowCount = 0;
         assert(verifyTableInvariants());
     }
 
@@ -749,6 +758,254 @@ public final class VoltTable extends VoltTableRow implements JSONString {
         return retval;
     }
 
+    /**
+     * Extract an integral or timestamp column for every row without creating
+     * {@link VoltTableRow} instances. SQL <tt>null</tt> values are returned as
+     * {@link VoltType#NULL_BIGINT} whatever the column's width, timestamps as
+     * microseconds since the epoch.
+     * @param columnIndex Index of the column
+     * @return One value per row, in row order
+     */
+    public final long[] getLongColumn(int columnIndex) {
+        final ColumnIterator column = iterateColumn(columnIndex);
+        final long[] values = new long[m_rowCount];
+        for (int i = 0; column.advance(); i++) {
+            values[i] = column.getLong();
+        }
+        return values;
+    }
+
+    /**
+     * @see #getLongColumn(int)
+     */
+    public final long[] getLongColumn(String columnName) {
+        return getLongColumn(getColumnIndex(columnName));
+    }
+
+    /**
+     * Extract a FLOAT column for every row without creating {@link VoltTableRow}
+     * instances. SQL <tt>null</tt> values are returned as {@link VoltType#NULL_FLOAT}.
+     * @param columnIndex Index of the column
+     * @return One value per row, in row order
+     */
+    public final double[] getDoubleColumn(int columnIndex) {
+        final ColumnIterator column = iterateColumn(columnIndex);
+        final double[] values = new double[m_rowCount];
+        for (int i = 0; column.advance(); i++) {
+            values[i] = column.getDouble();
+        }
+        return values;
+    }
+
+    /**
+     * @see #getDoubleColumn(int)
+     */
+    public final double[] getDoubleColumn(String columnName) {
+        return getDoubleColumn(getColumnIndex(columnName));
+    }
+
+    /**
+     * Get an iterator over a single column of the rows currently in the table.
+     * The first call indexes where each row starts in one pass over the table,
+     * after that finding a value only skips the variable length columns before
+     * it in its row, and nothing is allocated per row for fixed width types.
+     * @param columnIndex Index of the column
+     * @return A {@link ColumnIterator} positioned before the first row
+     */
+    public final ColumnIterator iterateColumn(int columnIndex) {
+        if ((columnIndex < 0) || (columnIndex >= m_colCount)) {
+            throw new IndexOutOfBoundsException("Column index " + columnIndex +
+                    " is out of range for a table with " + m_colCount + " columns");
+        }
+        return new ColumnIterator(columnIndex);
+    }
+
+    /**
+     * @see #iterateColumn(int)
+     */
+    public final ColumnIterator iterateColumn(String columnName) {
+        return iterateColumn(getColumnIndex(columnName));
+    }
+
+    private int[] rowDataOffsets() {
+        if (m_rowDataOffsets == null || m_indexedRowCount < m_rowCount) {
+            if (m_rowDataOffsets == null || m_rowDataOffsets.length < m_rowCount) {
+                m_rowDataOffsets = m_rowDataOffsets == null ?
+                        new int[m_rowCount] : Arrays.copyOf(m_rowDataOffsets, m_rowCount);
+            }
+            int position = m_indexedRowCount == 0 ?
+                    m_rowStart + ROW_COUNT_SIZE :
+                    m_rowDataOffsets[m_indexedRowCount - 1] +
+                    m_buffer.getInt(m_rowDataOffsets[m_indexedRowCount - 1] - ROW_HEADER_SIZE);
+            for (int i = m_indexedRowCount; i < m_rowCount; i++) {
+                m_rowDataOffsets[i] = position + ROW_HEADER_SIZE;
+                // add 4 bytes as the row size is non-inclusive
+                position += m_buffer.getInt(position) + ROW_HEADER_SIZE;
+            }
+            m_indexedRowCount = m_rowCount;
+        }
+        return m_rowDataOffsets;
+    }
+
+    /**
+     * Forward only cursor over one column of a <tt>VoltTable</tt>, created with
+     * {@link VoltTable#iterateColumn(int)}. It covers the rows present when it was
+     * created. Values returned by the getters are SQL <tt>null</tt> when
+     * {@link #wasNull()} returns <tt>true</tt> right after the call.
+     */
+    public final class ColumnIterator {
+        private final int m_column;
+        private final VoltType m_type;
+        private final int[] m_rows;
+        private final int m_rowLimit;
+        // width of the columns before this one when they are all fixed width, otherwise -1
+        private final int m_fixedPrefix;
+        private int m_row = -1;
+        private int m_offset = -1;
+        private boolean m_wasNull = false;
+
+        private ColumnIterator(int column) {
+            m_column = column;
+            m_type = VoltTable.this.getColumnType(column);
+            m_rows = rowDataOffsets();
+            m_rowLimit = m_rowCount;
+            int prefix = 0;
+            for (int i = 0; i < column; i++) {
+                final VoltType type = VoltTable.this.getColumnType(i);
+                if (type.isVariableLength()) {
+                    prefix = -1;
+                    break;
+                }
+                prefix += type.getLengthInBytesForFixedTypes();
+            }
+            m_fixedPrefix = prefix;
+        }
+
+        /**
+         * Move to the next row.
+         * @return False once past the last row
+         */
+        public boolean advance() {
+            if (m_row + 1 >= m_rowLimit) {
+                m_row = m_rowLimit;
+                m_offset = -1;
+                return false;
+            }
+            m_row++;
+            if (m_fixedPrefix >= 0) {
+                m_offset = m_rows[m_row] + m_fixedPrefix;
+            }
+            else {
+                int position = m_rows[m_row];
+                for (int i = 0; i < m_column; i++) {
+                    final VoltType type = VoltTable.this.getColumnType(i);
+                    if (type.isVariableLength()) {
+                        final int len = m_buffer.getInt(position);
+                        position += VoltTableRow.STRING_LEN_SIZE + (len == NULL_STRING_INDICATOR ? 0 : len);
+                    }
+                    else {
+                        position += type.getLengthInBytesForFixedTypes();
+                    }
+                }
+                m_offset = position;
+            }
+            return true;
+        }
+
+        /**
+         * @return The index of the current row, -1 before the first call to {@link #advance()}
+         */
+        public int getRowIndex() {
+            return m_row;
+        }
+
+        public VoltType getColumnType() {
+            return m_type;
+        }
+
+        /**
+         * @return The value of an integral or TIMESTAMP column, {@link VoltType#NULL_BIGINT} for null
+         */
+        public long getLong() {
+            checkPosition();
+            long value;
+            switch (m_type) {
+            case TINYINT:
+                value = m_buffer.get(m_offset);
+                m_wasNull = (value == VoltType.NULL_TINYINT);
+                break;
+            case SMALLINT:
+                value = m_buffer.getShort(m_offset);
+                m_wasNull = (value == VoltType.NULL_SMALLINT);
+                break;
+            case INTEGER:
+                value = m_buffer.getInt(m_offset);
+                m_wasNull = (value == VoltType.NULL_INTEGER);
+                break;
+            case BIGINT:
+            case TIMESTAMP:
+                value = m_buffer.getLong(m_offset);
+                m_wasNull = (value == VoltType.NULL_BIGINT);
+                break;
+            default:
+                throw new IllegalArgumentException("getLong() called on " + m_type + " column.");
+            }
+            return m_wasNull ? VoltType.NULL_BIGINT : value;
+        }
+
+        public double getDouble() {
+            checkPosition();
+            if (m_type != VoltType.FLOAT) {
+                throw new IllegalArgumentException("getDouble() called on " + m_type + " column.");
+            }
+            final double value = m_buffer.getDouble(m_offset);
+            m_wasNull = (value <= VoltType.NULL_FLOAT); // see value.h
+            return value;
+        }
+
+        public String getString() {
+            final byte[] bytes = getBytes(VoltType.STRING);
+            return bytes == null ? null : new String(bytes, ROWDATA_ENCODING);
+        }
+
+        public byte[] getStringAsBytes() {
+            return getBytes(VoltType.STRING);
+        }
+
+        public byte[] getVarbinary() {
+            return getBytes(VoltType.VARBINARY);
+        }
+
+        public boolean wasNull() {
+            return m_wasNull;
+        }
+
+        private byte[] getBytes(VoltType expected) {
+            checkPosition();
+            if (m_type != expected) {
+                throw new IllegalArgumentException("Column " + m_column + " is " + m_type +
+                        " but " + expected + " was requested.");
+            }
+            final int len = m_buffer.getInt(m_offset);
+            if (len == NULL_STRING_INDICATOR) {
+                m_wasNull = true;
+                return null;
+            }
+            m_wasNull = false;
+            final byte[] data = new byte[len];
+            final ByteBuffer dup = m_buffer.duplicate();
+            dup.position(m_offset + VoltTableRow.STRING_LEN_SIZE);
+            dup.get(data);
+            return data;
+        }
+
+        private void checkPosition() {
+            if (m_offset < 0) {
+                throw new IllegalStateException("ColumnIterator.advance() must return true before any access.");
+            }
+        }
+    }
+
     /**
      * Internal method to add a single value to a table, shared by the multiple
      * ways to add rows.
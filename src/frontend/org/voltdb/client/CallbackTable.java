@@ -0,0 +1,359 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.voltdb.client.Distributer.CallbackBookeeping;
+
+/**
+ * The procedure calls a NodeConnection has in flight, keyed by client handle.
+ *
+ * Every call is claimed exactly once, by whichever of the response, a timeout or
+ * the connection closing gets to it first. The bookkeeping returned by remove(),
+ * expire() and removeAll() belongs to the caller until it is passed to release().
+ */
+abstract class CallbackTable {
+
+    /**
+     * Given each call claimed by expire() or removeAll()
+     */
+    interface Handler {
+        void claimed(CallbackBookeeping cb, long nowNanos);
+    }
+
+    /**
+     * @param slots 0 for a hash map, otherwise the size of the slot array
+     */
+    static CallbackTable create(int slots) {
+        if (slots > 0) {
+            return new SlotTable(slots);
+        }
+        return new MapTable();
+    }
+
+    abstract void put(long handle, long timestampNanos, ProcedureCallback callback, String name,
+            long timeoutNanos, long expireAfterNanos, boolean ignoreBackpressure);
+
+    /**
+     * @return the call's bookkeeping, or null if it was already claimed
+     */
+    abstract CallbackBookeeping remove(long handle);
+
+    abstract void release(CallbackBookeeping cb);
+
+    abstract boolean contains(long handle);
+
+    /**
+     * Claim every call that has gone unanswered for longer than it was allowed
+     */
+    abstract void expire(long nowNanos, Handler handler);
+
+    abstract void removeAll(long nowNanos, Handler handler);
+
+    /*
+     * One bookkeeping object per call in a concurrent map, expiration scans the whole map.
+     */
+    static class MapTable extends CallbackTable {
+        private final ConcurrentHashMap<Long, CallbackBookeeping> m_callbacks = new ConcurrentHashMap<>();
+
+        @Override
+        void put(long handle, long timestampNanos, ProcedureCallback callback, String name,
+                long timeoutNanos, long expireAfterNanos, boolean ignoreBackpressure) {
+            CallbackBookeeping cb = new CallbackBookeeping();
+            cb.set(handle, timestampNanos, callback, name, timeoutNanos, expireAfterNanos, ignoreBackpressure);
+            m_callbacks.put(handle, cb);
+        }
+
+        @Override
+        CallbackBookeeping remove(long handle) {
+            return m_callbacks.remove(handle);
+        }
+
+        @Override
+        void release(CallbackBookeeping cb) {}
+
+        @Override
+        boolean contains(long handle) {
+            return m_callbacks.containsKey(handle);
+        }
+
+        @Override
+        void expire(long nowNanos, Handler handler) {
+            for (Map.Entry<Long, CallbackBookeeping> e : m_callbacks.entrySet()) {
+                final CallbackBookeeping cb = e.getValue();
+                if (nowNanos - cb.timestampNanos > cb.expireAfterNanos && m_callbacks.remove(e.getKey(), cb)) {
+                    handler.claimed(cb, nowNanos);
+                }
+            }
+        }
+
+        @Override
+        void removeAll(long nowNanos, Handler handler) {
+            for (Map.Entry<Long, CallbackBookeeping> e : m_callbacks.entrySet()) {
+                //Check for race with other threads
+                if (m_callbacks.remove(e.getKey(), e.getValue())) {
+                    handler.claimed(e.getValue(), nowNanos);
+                }
+            }
+        }
+    }
+
+    /*
+     * A pre-sized array of recycled bookkeeping objects indexed by the low bits of the
+     * handle. Handles are assigned in increasing order, so as long as the array is larger
+     * than the spread of outstanding handles each call gets a slot to itself. A call whose
+     * slot is still in use goes to an overflow map instead.
+     *
+     * Each slot's state is the handle of the call it holds, EMPTY, or BUSY while it is being
+     * filled or read. A call is claimed by swapping its handle for BUSY, and since handles
+     * are never reused that can't be confused with a later call in the same slot.
+     *
+     * Expiration uses a timing wheel of handles bucketed by deadline, so the reaper only
+     * looks at calls that are due rather than at every call in flight.
+     */
+    static class SlotTable extends CallbackTable {
+        static final long EMPTY = Long.MIN_VALUE;
+        static final long BUSY = Long.MIN_VALUE + 1;
+
+        static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+        // Enough buckets for the default two minute timeout to not need a second revolution
+        static final int WHEEL_SIZE = 512;
+        // Calls made from different threads mostly land in different stripes of a bucket
+        static final int STRIPES = 4;
+
+        private final CallbackBookeeping[] m_slots;
+        private final AtomicLongArray m_states;
+        // Written and read as volatile, see expire()
+        private final AtomicLongArray m_deadlines;
+        private final int m_mask;
+        private final ConcurrentHashMap<Long, CallbackBookeeping> m_overflow = new ConcurrentHashMap<>();
+
+        private final Bucket[] m_wheel = new Bucket[WHEEL_SIZE * STRIPES];
+        private final long m_startNanos = System.nanoTime();
+        // The next tick the reaper will process, every earlier tick has been drained
+        private volatile long m_nextTick = 0;
+        // Only used by the reaper
+        private long[] m_expiring = new long[64];
+
+        /*
+         * Handles whose deadlines fall in one tick of one revolution of the wheel, the same
+         * bucket is reused every revolution.
+         */
+        private static class Bucket {
+            long[] m_handles = null;
+            int m_size = 0;
+
+            void add(long handle) {
+                if (m_handles == null) {
+                    m_handles = new long[16];
+                } else if (m_size == m_handles.length) {
+                    long[] handles = new long[m_size * 2];
+                    System.arraycopy(m_handles, 0, handles, 0, m_size);
+                    m_handles = handles;
+                }
+                m_handles[m_size++] = handle;
+            }
+        }
+
+        SlotTable(int slots) {
+            int size = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+            m_slots = new CallbackBookeeping[size];
+            m_states = new AtomicLongArray(size);
+            m_deadlines = new AtomicLongArray(size);
+            m_mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                m_slots[i] = new CallbackBookeeping();
+                m_slots[i].slot = i;
+                m_states.set(i, EMPTY);
+            }
+            for (int i = 0; i < m_wheel.length; i++) {
+                m_wheel[i] = new Bucket();
+            }
+        }
+
+        int capacity() {
+            return m_slots.length;
+        }
+
+        int overflowSize() {
+            return m_overflow.size();
+        }
+
+        // Saturates so that calls without a timeout never come due
+        static long deadline(long timestampNanos, long expireAfterNanos) {
+            final long deadline = timestampNanos + expireAfterNanos;
+            if (((timestampNanos ^ deadline) & (expireAfterNanos ^ deadline)) < 0) {
+                return Long.MAX_VALUE;
+            }
+            return deadline;
+        }
+
+        private long tick(long nanos) {
+            return (nanos - m_startNanos) / TICK_NANOS;
+        }
+
+        @Override
+        void put(long handle, long timestampNanos, ProcedureCallback callback, String name,
+                long timeoutNanos, long expireAfterNanos, boolean ignoreBackpressure) {
+            assert(handle != EMPTY && handle != BUSY);
+            final long deadline = deadline(timestampNanos, expireAfterNanos);
+            final int slot = (int)handle & m_mask;
+            if (m_states.compareAndSet(slot, EMPTY, BUSY)) {
+                m_slots[slot].set(handle, timestampNanos, callback, name, timeoutNanos, expireAfterNanos, ignoreBackpressure);
+                m_deadlines.set(slot, deadline);
+                m_states.set(slot, handle);
+            } else {
+                CallbackBookeeping cb = new CallbackBookeeping();
+                cb.set(handle, timestampNanos, callback, name, timeoutNanos, expireAfterNanos, ignoreBackpressure);
+                m_overflow.put(handle, cb);
+            }
+            if (deadline != Long.MAX_VALUE) {
+                schedule(handle, deadline);
+            }
+        }
+
+        private void schedule(long handle, long deadline) {
+            final int stripe = (int)Thread.currentThread().getId() & (STRIPES - 1);
+            long tick = tick(deadline);
+            for (;;) {
+                // Never add to a tick the reaper is done with, it would sit there a whole revolution
+                tick = Math.max(tick, m_nextTick);
+                final Bucket bucket = m_wheel[(int)(tick % WHEEL_SIZE) * STRIPES + stripe];
+                synchronized (bucket) {
+                    if (tick >= m_nextTick) {
+                        bucket.add(handle);
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        CallbackBookeeping remove(long handle) {
+            final int slot = (int)handle & m_mask;
+            if (m_states.get(slot) == handle && m_states.compareAndSet(slot, handle, BUSY)) {
+                return m_slots[slot];
+            }
+            return m_overflow.remove(handle);
+        }
+
+        @Override
+        void release(CallbackBookeeping cb) {
+            if (cb.slot >= 0) {
+                cb.clear();
+                m_states.set(cb.slot, EMPTY);
+            }
+        }
+
+        @Override
+        boolean contains(long handle) {
+            return m_states.get((int)handle & m_mask) == handle || m_overflow.containsKey(handle);
+        }
+
+        /*
+         * Only invoked by the reaper thread. Drains every tick that has fully passed and
+         * claims the calls in them that are due, calls from a later revolution of the wheel
+         * or that already got a response are skipped.
+         */
+        @Override
+        void expire(long nowNanos, Handler handler) {
+            final long currentTick = tick(nowNanos);
+            long nextTick = m_nextTick;
+            // Past a full revolution every bucket is visited once
+            if (currentTick - nextTick > WHEEL_SIZE) {
+                nextTick = currentTick - WHEEL_SIZE;
+            }
+            for (; nextTick < currentTick; nextTick++) {
+                // Publish progress before draining so late additions go to a later tick
+                m_nextTick = nextTick + 1;
+                final int base = (int)(nextTick % WHEEL_SIZE) * STRIPES;
+                for (int stripe = 0; stripe < STRIPES; stripe++) {
+                    final Bucket bucket = m_wheel[base + stripe];
+                    int count;
+                    synchronized (bucket) {
+                        count = bucket.m_size;
+                        if (count > m_expiring.length) {
+                            m_expiring = new long[Integer.highestOneBit(count) << 1];
+                        }
+                        if (count > 0) {
+                            System.arraycopy(bucket.m_handles, 0, m_expiring, 0, count);
+                        }
+                        bucket.m_size = 0;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        expire(m_expiring[i], nowNanos, handler);
+                    }
+                }
+            }
+        }
+
+        private void expire(long handle, long nowNanos, Handler handler) {
+            final int slot = (int)handle & m_mask;
+            final CallbackBookeeping cb;
+            if (m_states.get(slot) == handle) {
+                final long deadline = m_deadlines.get(slot);
+                // The deadline belongs to this call only if the slot still holds it afterwards
+                if (m_states.get(slot) != handle) {
+                    return;
+                }
+                if (deadline - nowNanos >= 0) {
+                    schedule(handle, deadline);
+                    return;
+                }
+                if (!m_states.compareAndSet(slot, handle, BUSY)) {
+                    return;
+                }
+                cb = m_slots[slot];
+            } else {
+                final CallbackBookeeping overflow = m_overflow.get(handle);
+                if (overflow == null) {
+                    return;
+                }
+                final long deadline = deadline(overflow.timestampNanos, overflow.expireAfterNanos);
+                if (deadline - nowNanos >= 0) {
+                    schedule(handle, deadline);
+                    return;
+                }
+                if (!m_overflow.remove(handle, overflow)) {
+                    return;
+                }
+                cb = overflow;
+            }
+            handler.claimed(cb, nowNanos);
+        }
+
+        @Override
+        void removeAll(long nowNanos, Handler handler) {
+            for (int slot = 0; slot < m_slots.length; slot++) {
+                final long handle = m_states.get(slot);
+                if (handle != EMPTY && handle != BUSY && m_states.compareAndSet(slot, handle, BUSY)) {
+                    handler.claimed(m_slots[slot], nowNanos);
+                }
+            }
+            for (Map.Entry<Long, CallbackBookeeping> e : m_overflow.entrySet()) {
+                if (m_overflow.remove(e.getKey(), e.getValue())) {
+                    handler.claimed(e.getValue(), nowNanos);
+                }
+            }
+        }
+    }
+}
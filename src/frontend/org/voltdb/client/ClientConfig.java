@@ -57,6 +57,9 @@ public class ClientConfig {
     long m_maxConnectionRetryIntervalMS = DEFAULT_MAX_CONNECTION_RETRY_INTERVAL_MS;
     boolean m_sendReadsToReplicasBytDefaultIfCAEnabled = false;
     boolean m_topologyChangeAware = false;
+    int m_callbackTableSize = 0;
+    long m_coalesceWindowNanos = 0;
+    int m_coalesceMaxBytes = 0;
 
 
     final static String getUserNameFromSubject(Subject subject) {
@@ -379,6 +382,52 @@ public class ClientConfig {
         this.m_maxConnectionRetryIntervalMS = ms;
     }
 
+    /**
+     * <p>Track the procedure calls outstanding on each connection in a pre-sized table of
+     * recycled slots instead of a hash map, and time them out with a timing wheel rather than
+     * by scanning every outstanding call once a second. This avoids allocating and hashing
+     * per call at very high call rates.</p>
+     *
+     * <p>Each connection allocates the table up front. It should be comfortably larger than
+     * the number of calls outstanding at once, for instance twice
+     * {@link #setMaxOutstandingTxns(int)}; calls that don't fit still work but fall back
+     * to a map. Defaults to 0, which keeps the hash map.</p>
+     *
+     * @param slots Number of slots per connection, rounded up to a power of two, or 0.
+     */
+    public void setCallbackTableSize(int slots) {
+        if (slots < 0) {
+            throw new IllegalArgumentException(
+                    "Callback table size must not be negative, " + slots + " was specified");
+        }
+        m_callbackTableSize = slots;
+    }
+
+    /**
+     * <p>Coalesce procedure invocations sent to the same server connection into a single
+     * network write. An invocation is held for at most <code>windowMicros</code>, or until
+     * <code>maxBytes</code> of invocations are waiting, before all the waiting invocations
+     * are written together. This trades a little latency for far fewer system calls and
+     * selector wakeups on both the client and the server when calling many small procedures.</p>
+     *
+     * <p>Defaults to a window of 0, which writes each invocation as soon as it is queued.</p>
+     *
+     * @param windowMicros Longest time an invocation waits for others in microseconds, or 0.
+     * @param maxBytes Bytes of waiting invocations that trigger an immediate write.
+     */
+    public void setRequestCoalescing(int windowMicros, int maxBytes) {
+        if (windowMicros < 0) {
+            throw new IllegalArgumentException(
+                    "Coalescing window must not be negative, " + windowMicros + " was specified");
+        }
+        if (windowMicros > 0 && maxBytes < 1) {
+            throw new IllegalArgumentException(
+                    "Coalescing byte threshold must be greater than 0, " + maxBytes + " was specified");
+        }
+        m_coalesceWindowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        m_coalesceMaxBytes = maxBytes;
+    }
+
     /**
      * <p>Set the target latency for the Auto Tune feature. Note this represents internal
      * latency as reported by the server(s), not round-trip latency measured by the
@@ -130,6 +130,8 @@ public final class ClientImpl implements Client {
                 config.m_useClientAffinity,
                 config.m_sendReadsToReplicasBytDefaultIfCAEnabled,
                 config.m_subject);
+        m_distributer.setCallbackTableSize(config.m_callbackTableSize);
+        m_distributer.setRequestCoalescing(config.m_coalesceWindowNanos, config.m_coalesceMaxBytes);
         m_distributer.addClientStatusListener(m_listener);
         String username = config.m_username;
         if (config.m_subject != null) {
@@ -33,8 +33,6 @@ import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
@@ -104,6 +102,10 @@ class Distributer {
     private int m_nextConnection = 0;
 
     private final boolean m_useMultipleThreads;
+    private volatile int m_callbackTableSize = 0;
+    // Invocations wait up to this long for others to share their network write, 0 disables coalescing
+    private volatile long m_coalesceWindowNanos = 0;
+    private volatile int m_coalesceMaxBytes = 0;
     private final boolean m_useClientAffinity;
     private final boolean m_sendReadsToReplicasBytDefaultIfCAEnabled;
 
@@ -333,26 +335,9 @@ class Distributer {
                         c.sendPing();
                     }
 
-                    // for each outstanding procedure
-                    for (final Map.Entry<Long, CallbackBookeeping> e : c.m_callbacks.entrySet()) {
-                        final long handle = e.getKey();
-                        final CallbackBookeeping cb = e.getValue();
-
-                        // if the timeout is expired, call the callback and remove the
-                        // bookeeping data
-                        final long deltaNanos = Math.max(1, nowNanos - cb.timestampNanos);
-                        if (deltaNanos > cb.procedureTimeoutNanos) {
-
-                            //For expected long operations don't use the default timeout
-                            //unless it is > MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS
-                            final boolean isLongOp = isLongOp(cb.name);
-                            if (isLongOp && (deltaNanos < TimeUnit.MILLISECONDS.toNanos(MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS))) {
-                                continue;
-                            }
-
-                            c.handleTimedoutCallback(handle, nowNanos);
-                        }
-                    }
+                    // for each outstanding procedure whose timeout has expired, call the
+                    // callback and remove the bookeeping data
+                    c.m_callbacks.expire(nowNanos, c.m_timeoutHandler);
                 }
             } catch (Throwable t) {
                 t.printStackTrace();
@@ -376,36 +361,74 @@ class Distributer {
         return false;
     }
 
-    class CallbackBookeeping {
-        public CallbackBookeeping(long timestampNanos, ProcedureCallback callback, String name, long timeoutNanos, boolean ignoreBackpressure) {
+    /*
+     * Reused for many calls when the connection tracks calls in a slot table,
+     * see CallbackTable
+     */
+    static class CallbackBookeeping {
+        void set(long handle, long timestampNanos, ProcedureCallback callback, String name,
+                long timeoutNanos, long expireAfterNanos, boolean ignoreBackpressure) {
             assert(callback != null);
+            this.handle = handle;
             this.timestampNanos = timestampNanos;
             this.callback = callback;
             this.name = name;
             this.procedureTimeoutNanos = timeoutNanos;
+            this.expireAfterNanos = expireAfterNanos;
             this.ignoreBackpressure = ignoreBackpressure;
         }
+
+        void clear() {
+            callback = null;
+            name = null;
+        }
+
+        long handle;
         long timestampNanos;
         //Timeout in ms 0 means use conenction specified procedure timeoutMS.
-        final long procedureTimeoutNanos;
+        long procedureTimeoutNanos;
+        //How long the reaper waits, long running system procedures get more than the timeout
+        long expireAfterNanos;
         ProcedureCallback callback;
         String name;
         boolean ignoreBackpressure;
+        //Index in the slot table, -1 if the bookkeeping isn't recycled
+        int slot = -1;
     }
 
     class NodeConnection extends VoltProtocolHandler implements org.voltcore.network.QueueMonitor {
         private final AtomicInteger m_callbacksToInvoke = new AtomicInteger(0);
-        private final ConcurrentMap<Long, CallbackBookeeping> m_callbacks = new ConcurrentHashMap<>();
+        private final CallbackTable m_callbacks = CallbackTable.create(m_callbackTableSize);
         private final NonBlockingHashMap<String, ClientStats> m_stats = new NonBlockingHashMap<>();
         private Connection m_connection;
         private volatile boolean m_isConnected = true;
 
+        // Invocations held for coalescing, guarded by m_pendingWrites
+        private final ArrayList<ByteBuffer> m_pendingWrites = new ArrayList<ByteBuffer>();
+        private int m_pendingWriteBytes = 0;
+        private boolean m_flushScheduled = false;
+
         volatile long m_lastResponseTimeNanos = System.nanoTime();
         boolean m_outstandingPing = false;
         ClientStatusListenerExt.DisconnectCause m_closeCause = DisconnectCause.CONNECTION_CLOSED;
 
         public NodeConnection(long ids[]) {}
 
+        private final CallbackTable.Handler m_timeoutHandler = new CallbackTable.Handler() {
+            @Override
+            public void claimed(CallbackBookeeping cb, long nowNanos) {
+                final long handle = cb.handle;
+                final long deltaNanos = Math.max(1, nowNanos - cb.timestampNanos);
+                final String name = cb.name;
+                final ProcedureCallback callback = cb.callback;
+                final long timeoutNanos = cb.procedureTimeoutNanos;
+                final boolean ignoreBackpressure = cb.ignoreBackpressure;
+                m_callbacks.release(cb);
+
+                invokeCallbackWithTimeout(name, callback, deltaNanos, nowNanos, timeoutNanos, handle, ignoreBackpressure);
+            }
+        };
+
         /*
          * NodeConnection uses ignoreBackpressure to get rate limiter to not
          * apply any permit tracking or rate limits to transactions that should
@@ -444,14 +467,20 @@ class Distributer {
                 return;
             }
 
-            assert(m_callbacks.containsKey(handle) == false);
+            assert(m_callbacks.contains(handle) == false);
 
             //Drain needs to know when all callbacks have been invoked
             final int callbacksToInvoke = m_callbacksToInvoke.incrementAndGet();
             assert(callbacksToInvoke >= 0);
 
+            //For expected long operations don't use the default timeout
+            //unless it is > MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS
+            final long expireAfterNanos = isLongOp(name) ?
+                    Math.max(timeoutNanos, TimeUnit.MILLISECONDS.toNanos(MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS)) :
+                    timeoutNanos;
+
             //Optimistically submit the task
-            m_callbacks.put(handle, new CallbackBookeeping(nowNanos, callback, name, timeoutNanos, ignoreBackpressure));
+            m_callbacks.put(handle, nowNanos, callback, name, timeoutNanos, expireAfterNanos, ignoreBackpressure);
 
             //Schedule the timeout to fire relative to the amount of time
             //spent getting to this point. Might fire immediately
@@ -467,9 +496,11 @@ class Distributer {
             //Check for disconnect
             if (!m_isConnected) {
                 //Check if the disconnect or expiration already handled the callback
-                if (m_callbacks.remove(handle) == null) {
+                final CallbackBookeeping cb = m_callbacks.remove(handle);
+                if (cb == null) {
                     return;
                 }
+                m_callbacks.release(cb);
                 final ClientResponse r = new ClientResponseImpl(
                         ClientResponse.CONNECTION_LOST, new VoltTable[0],
                         "Connection to database host (" + m_connection.getHostnameAndIPAndPort() +
@@ -488,10 +519,65 @@ class Distributer {
                 m_rateLimiter.transactionResponseReceived(nowNanos, -1, ignoreBackpressure);
                 return;
             } else {
+                queueWrite(c);
+            }
+        }
+
+        /*
+         * Hand a serialized invocation to the write stream, or hold it so that it
+         * goes out in the same network write as the invocations queued after it.
+         * The write stream turns the held buffers into a single write.
+         */
+        private void queueWrite(ByteBuffer c) {
+            final long windowNanos = m_coalesceWindowNanos;
+            if (windowNanos <= 0) {
                 m_connection.writeStream().enqueue(c);
+                return;
+            }
+
+            boolean scheduleFlush = false;
+            synchronized (m_pendingWrites) {
+                m_pendingWrites.add(c);
+                m_pendingWriteBytes += c.remaining();
+                if (m_pendingWriteBytes >= m_coalesceMaxBytes) {
+                    flushPendingWrites();
+                } else if (!m_flushScheduled) {
+                    m_flushScheduled = true;
+                    scheduleFlush = true;
+                }
+            }
+
+            if (scheduleFlush) {
+                try {
+                    m_ex.schedule(m_flushPendingWrites, windowNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down, don't leave the invocation behind
+                    m_flushPendingWrites.run();
+                }
+            }
+        }
+
+        // Must hold the m_pendingWrites lock so the held invocations go out in order
+        private void flushPendingWrites() {
+            if (m_pendingWrites.isEmpty()) {
+                return;
             }
+            final ByteBuffer writes[] = m_pendingWrites.toArray(new ByteBuffer[m_pendingWrites.size()]);
+            m_pendingWrites.clear();
+            m_pendingWriteBytes = 0;
+            m_connection.writeStream().enqueue(writes);
         }
 
+        private final Runnable m_flushPendingWrites = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (m_pendingWrites) {
+                    m_flushScheduled = false;
+                    flushPendingWrites();
+                }
+            }
+        };
+
         /*
          * For high precision timeouts, submit a discrete task to a scheduled
          * executor service to time out the transaction. The timeout task
@@ -501,7 +587,7 @@ class Distributer {
          * at the same time.
          *
          * This will race with the periodic task that checks lower resolution timeouts
-         * and it is fine, the concurrent map makes sure each callback is handled exactly once
+         * and it is fine, the callback table makes sure each callback is handled exactly once
          */
         void submitDiscreteTimeoutTask(final long handle, long timeoutNanos) {
             m_ex.schedule(new Runnable() {
@@ -526,9 +612,7 @@ class Distributer {
                 return;
             }
 
-            final long deltaNanos = Math.max(1, nowNanos - cb.timestampNanos);
-
-            invokeCallbackWithTimeout(cb.name, cb.callback, deltaNanos, nowNanos, cb.procedureTimeoutNanos, handle, cb.ignoreBackpressure);
+            m_timeoutHandler.claimed(cb, nowNanos);
         }
 
         /*
@@ -678,6 +762,9 @@ class Distributer {
                 final long callTimeNanos = stuff.timestampNanos;
                 final long deltaNanos = Math.max(1, nowNanos - callTimeNanos);
                 final ProcedureCallback cb = stuff.callback;
+                final String name = stuff.name;
+                final boolean ignoreBackpressure = stuff.ignoreBackpressure;
+                m_callbacks.release(stuff);
                 assert(cb != null);
                 final byte status = response.getStatus();
                 boolean abort = false;
@@ -689,8 +776,8 @@ class Distributer {
                 }
 
                 int clusterRoundTrip = response.getClusterRoundtrip();
-                m_rateLimiter.transactionResponseReceived(nowNanos, clusterRoundTrip, stuff.ignoreBackpressure);
-                updateStats(stuff.name, deltaNanos, clusterRoundTrip, abort, error, false);
+                m_rateLimiter.transactionResponseReceived(nowNanos, clusterRoundTrip, ignoreBackpressure);
+                updateStats(name, deltaNanos, clusterRoundTrip, abort, error, false);
                 response.setClientRoundtrip(deltaNanos);
                 assert(response.getHash() == null); // make sure it didn't sneak into wire protocol
                 try {
@@ -809,25 +896,26 @@ class Distributer {
                         ClientResponse.CONNECTION_LOST, new VoltTable[0],
                         "Connection to database host (" + m_connection.getHostnameAndIPAndPort() +
                 ") was lost before a response was received");
-            for (Map.Entry<Long, CallbackBookeeping> e : m_callbacks.entrySet()) {
-                //Check for race with other threads
-                if (m_callbacks.remove(e.getKey()) == null) {
-                    continue;
-                }
-                final CallbackBookeeping callBk = e.getValue();
-                try {
-                    callBk.callback.clientCallback(r);
-                }
-                catch (Exception ex) {
-                    uncaughtException(callBk.callback, r, ex);
-                }
+            m_callbacks.removeAll(System.nanoTime(), new CallbackTable.Handler() {
+                @Override
+                public void claimed(CallbackBookeeping callBk, long nowNanos) {
+                    final ProcedureCallback callback = callBk.callback;
+                    final boolean ignoreBackpressure = callBk.ignoreBackpressure;
+                    m_callbacks.release(callBk);
+                    try {
+                        callback.clientCallback(r);
+                    }
+                    catch (Exception ex) {
+                        uncaughtException(callback, r, ex);
+                    }
 
-                //Drain needs to know when all callbacks have been invoked
-                final int remainingToInvoke = m_callbacksToInvoke.decrementAndGet();
-                assert(remainingToInvoke >= 0);
+                    //Drain needs to know when all callbacks have been invoked
+                    final int remainingToInvoke = m_callbacksToInvoke.decrementAndGet();
+                    assert(remainingToInvoke >= 0);
 
-                m_rateLimiter.transactionResponseReceived(System.nanoTime(), -1, callBk.ignoreBackpressure);
-            }
+                    m_rateLimiter.transactionResponseReceived(System.nanoTime(), -1, ignoreBackpressure);
+                }
+            });
         }
 
         @Override
@@ -1530,6 +1618,23 @@ class Distributer {
         m_topologyChangeAware = topoAware;
     }
 
+    /**
+     * Size of the slot table connections created from now on track their calls in,
+     * 0 to use a hash map
+     */
+    void setCallbackTableSize(int slots) {
+        m_callbackTableSize = slots;
+    }
+
+    /**
+     * Hold invocations for up to windowNanos, or until maxBytes are waiting,
+     * and write them to the connection together. A window of 0 disables coalescing.
+     */
+    void setRequestCoalescing(long windowNanos, int maxBytes) {
+        m_coalesceMaxBytes = maxBytes;
+        m_coalesceWindowNanos = windowNanos;
+    }
+
     void createConnectionsUponTopologyChange() {
 
         if(!m_topologyChangeAware || m_createConnectionUponTopoChangeInProgress.get()) {
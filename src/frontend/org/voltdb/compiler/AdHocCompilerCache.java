@@ -17,16 +17,31 @@
 
 package org.voltdb.compiler;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltDB;
 import org.voltdb.common.Constants;
 import org.voltdb.planner.BoundPlan;
+import org.voltdb.planner.CorePlan;
 import org.voltdb.utils.Encoder;
 
 import com.google_voltpatches.common.cache.Cache;
@@ -43,14 +58,26 @@ import com.google_voltpatches.common.cache.CacheBuilder;
  * statement mapped to core parameterized plans. These parameterized
  * plans need parameter values and sql literals in order to be
  * actually used.
+ *
+ * Both levels are {@link ConcurrentPlanCache}s, so the planner threads look up
+ * plans without contending on a lock, and each is bounded by the serialized size
+ * of its plans as well as by entry count. Setting ADHOC_PLAN_CACHE_PERSIST saves
+ * the hottest parameterized plans under voltdbroot, keyed by catalog hash, so a
+ * node restarted or rejoined with the same catalog starts with a warm cache.
  */
 public class AdHocCompilerCache implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    private static final VoltLogger compilerLog = new VoltLogger("COMPILER");
+
     //////////////////////////////////////////////////////////////////////////
     // STATIC CODE TO MANAGE CACHE LIFETIMES / GLOBALNESS
     //////////////////////////////////////////////////////////////////////////
 
+    static final boolean PERSIST_PLANS = Boolean.getBoolean("ADHOC_PLAN_CACHE_PERSIST");
+    static final String PLAN_CACHE_DIRECTORY = "plan_cache";
+    static final String PLAN_FILE_SUFFIX = ".plans";
+
     // weak values should remove the object when the catalog hash is no longer needed
     private static Cache<String, AdHocCompilerCache> m_catalogHashMatch =
             CacheBuilder.newBuilder().weakValues().build();
@@ -67,12 +94,62 @@ public class AdHocCompilerCache implements Serializable {
         String hashString = Encoder.hexEncode(catalogHash);
         AdHocCompilerCache cache = m_catalogHashMatch.getIfPresent(hashString);
         if (cache == null) {
-            cache = new AdHocCompilerCache();
+            cache = new AdHocCompilerCache(catalogHash);
+            if (PERSIST_PLANS) {
+                cache.loadPlans(new File(getPlanCacheDirectory(), hashString + PLAN_FILE_SUFFIX));
+            }
             m_catalogHashMatch.put(hashString, cache);
         }
         return cache;
     }
 
+    /**
+     * Save the parameterized plans of every live catalog that changed since the last
+     * save and remove files left behind by catalogs that are gone. Does nothing unless
+     * ADHOC_PLAN_CACHE_PERSIST is set.
+     */
+    public static void persistAll() {
+        if (!PERSIST_PLANS) {
+            return;
+        }
+        final File dir = getPlanCacheDirectory();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            compilerLog.warn("Unable to create ad hoc plan cache directory " + dir);
+            return;
+        }
+        final Set<String> live = new HashSet<String>();
+        for (Map.Entry<String, AdHocCompilerCache> e : m_catalogHashMatch.asMap().entrySet()) {
+            final String fileName = e.getKey() + PLAN_FILE_SUFFIX;
+            live.add(fileName);
+            final AdHocCompilerCache cache = e.getValue();
+            if (cache.m_dirty.compareAndSet(true, false)) {
+                try {
+                    cache.savePlans(new File(dir, fileName));
+                } catch (IOException ex) {
+                    cache.m_dirty.set(true);
+                    compilerLog.warn("Unable to save ad hoc plan cache " + fileName + ": " + ex.getMessage());
+                }
+            }
+        }
+        final File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(PLAN_FILE_SUFFIX);
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                if (!live.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private static File getPlanCacheDirectory() {
+        return new File(VoltDB.instance().getVoltDBRootPath(), PLAN_CACHE_DIRECTORY);
+    }
+
     //////////////////////////////////////////////////////////////////////////
     // PER-INSTANCE AWESOMEC CACHING CODE
     //////////////////////////////////////////////////////////////////////////
@@ -82,23 +159,20 @@ public class AdHocCompilerCache implements Serializable {
     // max cache size for parameterized plans
     final long MAX_LITERAL_MEM  = Long.getLong("ADHOC_COMPILER_CACHE_MAX_LITERAL_MEM_BYTES", 32*1024*1024);
     final int MAX_CORE_ENTRIES;
+    final long MAX_CORE_MEM = Long.getLong("ADHOC_COMPILER_CACHE_MAX_CORE_MEM_BYTES", 32*1024*1024);
 
     /** cache of literals to full plans */
-    final Map<String, AdHocPlannedStatement> m_literalCache;
+    final ConcurrentPlanCache<AdHocPlannedStatement> m_literalCache;
     /** cache of parameterized plan descriptions to one or more core parameterized plans,
      *  each plan optionally has its own requirements for which parameters need to be bound
-     *  to what values to enable its specialized (expression-indexed) plan. */
-    final Map<String, List<BoundPlan> > m_coreCache;
-
-    // placeholder stats used during development that may/may not survive
-    long m_literalHits = 0;
-    long m_literalQueries = 0;
-    long m_literalInsertions = 0;
-    long m_literalEvictions = 0;
-    long m_planHits = 0;
-    long m_planQueries = 0;
-    long m_planInsertions = 0;
-    long m_planEvictions = 0;
+     *  to what values to enable its specialized (expression-indexed) plan.
+     *  The lists are never modified once cached, adding a variant replaces the list. */
+    final ConcurrentPlanCache<List<BoundPlan>> m_coreCache;
+
+    // null for caches built directly by tests, which are never persisted
+    private final byte[] m_catalogHash;
+    // set when the core cache gains a plan that hasn't been saved yet
+    private final AtomicBoolean m_dirty = new AtomicBoolean(false);
 
     /** {@see this#startPeriodicStatsPrinting() } */
     Timer m_statsTimer = null;
@@ -106,137 +180,79 @@ public class AdHocCompilerCache implements Serializable {
     /**
      * Constructor with default cache sizes.
      */
-    private AdHocCompilerCache() {
-        this(1000, 1000);
+    private AdHocCompilerCache(byte[] catalogHash) {
+        this(1000, 1000, catalogHash);
     }
 
     /**
      * Constructor with specific cache sizes is only called directly for testing.
      *
      * @param maxLiteralEntries cache size for literals
-     * @param maxLiteralMem cache memory for literals
+     * @param maxCoreEntries cache size for parameterized plans
      */
     AdHocCompilerCache(int maxLiteralEntries, int maxCoreEntries) {
-        MAX_LITERAL_ENTRIES = maxLiteralEntries;
-        MAX_CORE_ENTRIES = maxCoreEntries;
-
-        // an LRU cache map
-        m_literalCache = new AdHocStatementCache(MAX_LITERAL_ENTRIES, MAX_LITERAL_MEM);
-
-        // an LRU cache map
-        m_coreCache = new LinkedHashMap<String, List<BoundPlan> >(MAX_CORE_ENTRIES * 2, .75f, true) {
-            private static final long serialVersionUID = 1L;
-
-            // This method is called just after a new entry has been added
-            @Override
-            public boolean removeEldestEntry(Map.Entry<String, List<BoundPlan> > eldest) {
-                if (size() > MAX_CORE_ENTRIES) {
-                    ++m_planEvictions;
-                    return true;
-                }
-                return false;
-            }
-
-        };
+        this(maxLiteralEntries, maxCoreEntries, null);
     }
 
-    // define a LinkedHashMap based LRU cache bounds by both entry number and entry value on-heap size
-    // without changing Map.Entry, only works for value of type AdHocPlannedStatement
-    // only extend put, remove,clear and removeEldestEntry methods to account weight
-    public class AdHocStatementCache extends LinkedHashMap<String, AdHocPlannedStatement>{
-       private static final long serialVersionUID = 2988383448026641836L;
-        private final int maxEntries;
-        private final long maxMemory; // in bytes
-        private long currentMemory;   // in bytes
-
-        public AdHocStatementCache() {
-            // default max entry of 1000
-            // default max value size of 32MB
-            this(1000, 32 * 1024 * 1024);
-        }
-
-        public AdHocStatementCache(final int maxEntries) {
-            this(maxEntries, 32 * 1024 * 1024);
-        }
-
-        public AdHocStatementCache(final int maxEntries, final long maxMemory) {
-            // set accessOrder to true for LRU
-            super(maxEntries * 2, .75f, true);
-            this.maxEntries = maxEntries;
-            this.maxMemory = maxMemory;
-            this.currentMemory = 0;
-        }
-
-        // This method is called just after a new entry has been added
-        @Override
-        public boolean removeEldestEntry(final Map.Entry<String, AdHocPlannedStatement> eldest) {
-            if ((size() > maxEntries) || (this.currentMemory > this.maxMemory))  {
-                ++m_literalEvictions;
-                this.currentMemory -= eldest.getValue().getSerializedSize();
-                return true;
-            }
-            return false;
-        }
-
-        @Override
-        public AdHocPlannedStatement put(String key, AdHocPlannedStatement value) {
-            this.currentMemory += value.getSerializedSize();
-            return super.put(key,value);
-        }
-
-        @Override
-        public AdHocPlannedStatement remove(Object key) {
-            AdHocPlannedStatement value = super.remove(key);
-            if (value != null) {
-                this.currentMemory -= value.getSerializedSize();
-            }
-            return value;
-        }
+    AdHocCompilerCache(int maxLiteralEntries, int maxCoreEntries, byte[] catalogHash) {
+        MAX_LITERAL_ENTRIES = maxLiteralEntries;
+        MAX_CORE_ENTRIES = maxCoreEntries;
+        m_catalogHash = catalogHash;
 
-        @Override
-        public void clear() {
-            super.clear();
-            this.currentMemory = 0;
-        }
+        m_literalCache = new ConcurrentPlanCache<AdHocPlannedStatement>(MAX_LITERAL_ENTRIES, MAX_LITERAL_MEM,
+                new ConcurrentPlanCache.Weigher<AdHocPlannedStatement>() {
+                    @Override
+                    public int weigh(AdHocPlannedStatement value) {
+                        return value.getSerializedSize();
+                    }
+                });
+
+        m_coreCache = new ConcurrentPlanCache<List<BoundPlan>>(MAX_CORE_ENTRIES, MAX_CORE_MEM,
+                new ConcurrentPlanCache.Weigher<List<BoundPlan>>() {
+                    @Override
+                    public int weigh(List<BoundPlan> value) {
+                        int size = 0;
+                        for (BoundPlan plan : value) {
+                            size += plan.m_core.getSerializedSize();
+                            if (plan.m_constants != null) {
+                                for (String constant : plan.m_constants) {
+                                    size += constant == null ? 4 : 4 + constant.length();
+                                }
+                            }
+                        }
+                        return size;
+                    }
+                });
     }
 
     /**
      * Stats printing method used during development.
      * Probably shouldn't live past real stats integration.
      */
-    synchronized void printStats() {
-        String line1 = String.format("CACHE STATS - Literals: Hits %d/%d (%.1f%%), Inserts %d Evictions %d\n",
-                m_literalHits, m_literalQueries, (m_literalHits * 100.0) / m_literalQueries,
-                m_literalInsertions, m_literalEvictions);
-        String line2 = String.format("CACHE STATS - Plans:    Hits %d/%d (%.1f%%), Inserts %d Evictions %d\n",
-                m_planHits, m_planQueries, (m_planHits * 100.0) /m_planQueries,
-                m_planInsertions, m_planEvictions);
+    void printStats() {
+        final long literalHits = m_literalCache.m_hits.getAndSet(0);
+        final long literalQueries = m_literalCache.m_queries.getAndSet(0);
+        final long planHits = m_coreCache.m_hits.getAndSet(0);
+        final long planQueries = m_coreCache.m_queries.getAndSet(0);
+        String line1 = String.format("CACHE STATS - Literals: Hits %d/%d (%.1f%%), Inserts %d Evictions %d Rejections %d\n",
+                literalHits, literalQueries, (literalHits * 100.0) / literalQueries,
+                m_literalCache.m_insertions.getAndSet(0), m_literalCache.m_evictions.getAndSet(0),
+                m_literalCache.m_rejections.getAndSet(0));
+        String line2 = String.format("CACHE STATS - Plans:    Hits %d/%d (%.1f%%), Inserts %d Evictions %d Rejections %d\n",
+                planHits, planQueries, (planHits * 100.0) / planQueries,
+                m_coreCache.m_insertions.getAndSet(0), m_coreCache.m_evictions.getAndSet(0),
+                m_coreCache.m_rejections.getAndSet(0));
 
         System.out.print(line1 + line2);
         System.out.flush();
-
-        // reset these
-        m_literalHits = 0;
-        m_literalQueries = 0;
-        m_literalInsertions = 0;
-        m_literalEvictions = 0;
-        m_planHits = 0;
-        m_planQueries = 0;
-        m_planInsertions = 0;
-        m_planEvictions = 0;
     }
 
     /**
      * @param sql SQL literal
      * @return full, ready-to-go plan
      */
-    public synchronized AdHocPlannedStatement getWithSQL(String sql) {
-        ++m_literalQueries;
-        AdHocPlannedStatement retval = m_literalCache.get(sql);
-        if (retval != null) {
-            ++m_literalHits;
-        }
-        return retval;
+    public AdHocPlannedStatement getWithSQL(String sql) {
+        return m_literalCache.get(sql);
     }
 
     /**
@@ -244,13 +260,8 @@ public class AdHocCompilerCache implements Serializable {
      * SQL statement
      * @return A CorePlan that needs parameter values to run.
      */
-    public synchronized List<BoundPlan> getWithParsedToken(String parsedToken) {
-        ++m_planQueries;
-        List<BoundPlan> retval = m_coreCache.get(parsedToken);
-        if (retval != null) {
-            ++m_planHits;
-        }
-        return retval;
+    public List<BoundPlan> getWithParsedToken(String parsedToken) {
+        return m_coreCache.get(parsedToken);
     }
 
     /**
@@ -264,6 +275,9 @@ public class AdHocCompilerCache implements Serializable {
      * L1 cache (literal cache) cache SQL queries without user provided parameters.
      * L2 cache (core cache) cache parameterized queries: including user parameters and auto extracted parameters.
      *
+     * Lookups don't lock, but puts are serialized so that two planners adding
+     * variants of the same token don't lose one.
+     *
      * @param sql               original query text
      * @param parsedToken       massaged query text, possibly with literals purged
      * @param planIn
@@ -296,18 +310,8 @@ public class AdHocCompilerCache implements Serializable {
             BoundPlan matched = null;
             BoundPlan unmatched = new BoundPlan(planIn.core, planIn.parameterBindings(extractedLiterals));
             // deal with the parameterized plan cache first
-            List<BoundPlan> boundVariants = m_coreCache.get(parsedToken);
-            if (boundVariants == null) {
-                boundVariants = new ArrayList<BoundPlan>();
-                m_coreCache.put(parsedToken, boundVariants);
-                // Note that there is an edge case in which more than one plan is getting counted as one
-                // "plan insertion". This only happens when two different plans arose from the same parameterized
-                // query (token) because one invocation used the correct constants to trigger an expression index and
-                // another invocation did not.  These are not counted separately (which would have to happen below
-                // after each call to boundVariants.add) because they are not evicted separately.
-                // It seems saner to use consistent units when counting insertions vs. evictions.
-                ++m_planInsertions;
-            } else {
+            List<BoundPlan> boundVariants = m_coreCache.peek(parsedToken);
+            if (boundVariants != null) {
                 for (BoundPlan boundPlan : boundVariants) {
                     if (boundPlan.equals(unmatched)) {
                         matched = boundPlan;
@@ -324,19 +328,32 @@ public class AdHocCompilerCache implements Serializable {
                 }
             }
             if (matched == null) {
-                // Don't count insertions (of possibly repeated tokens) here
-                //  -- see the comment above where only UNIQUE token insertions are being counted, instead.
-                boundVariants.add(unmatched);
+                // Note that there is an edge case in which more than one plan is getting counted as one
+                // "plan insertion". This only happens when two different plans arose from the same parameterized
+                // query (token) because one invocation used the correct constants to trigger an expression index and
+                // another invocation did not. Replacing the variant list isn't counted as an insertion because
+                // the variants are not evicted separately.
+                List<BoundPlan> variants;
+                if (boundVariants == null) {
+                    variants = Collections.singletonList(unmatched);
+                } else {
+                    variants = new ArrayList<BoundPlan>(boundVariants.size() + 1);
+                    variants.addAll(boundVariants);
+                    variants.add(unmatched);
+                    variants = Collections.unmodifiableList(variants);
+                }
+                if (m_coreCache.put(parsedToken, variants)) {
+                    m_dirty.set(true);
+                }
             }
         }
 
         // then deal with the L1 cache
         if (! hasUserQuestionMarkParameters) {
-            AdHocPlannedStatement cachedPlan = m_literalCache.get(sql);
+            AdHocPlannedStatement cachedPlan = m_literalCache.peek(sql);
             if (cachedPlan == null) {
                 //* enable to debug */ System.out.println("DEBUG: Caching literal '" + sql + "'");
                 m_literalCache.put(sql, plan);
-                ++m_literalInsertions;
             }
             else {
                 assert(cachedPlan.equals(plan));
@@ -344,6 +361,186 @@ public class AdHocCompilerCache implements Serializable {
         }
     }
 
+    //////////////////////////////////////////////////////////////////////////
+    // WARM START
+    //////////////////////////////////////////////////////////////////////////
+
+    /*
+     * File layout: magic, version, catalog hash, entry count, then for each
+     * parameterized statement its token and its bound plans, followed by a CRC32
+     * of everything before it. Partitioning details aren't part of the CorePlan
+     * serialization so they are written alongside each plan.
+     */
+    private static final int PLAN_FILE_MAGIC = 0x41504c43; // "APLC"
+    private static final int PLAN_FILE_VERSION = 1;
+
+    /**
+     * Write the hottest parameterized plans to file, replacing it atomically. Only
+     * picking the plans holds the cache's lock, the cached plan lists aren't modified
+     * so they are serialized and synced to disk without it.
+     */
+    void savePlans(File file) throws IOException {
+        assert(m_catalogHash != null);
+        final List<Map.Entry<String, List<BoundPlan>>> hottest;
+        synchronized (this) {
+            hottest = m_coreCache.hottest(MAX_CORE_ENTRIES);
+        }
+
+        final List<byte[]> tokens = new ArrayList<byte[]>(hottest.size());
+        final List<ByteBuffer> partitioningValues = new ArrayList<ByteBuffer>();
+        int size = 4 + 4 + m_catalogHash.length + 4;
+        for (Map.Entry<String, List<BoundPlan>> e : hottest) {
+            final byte[] token = e.getKey().getBytes(Constants.UTF8ENCODING);
+            tokens.add(token);
+            size += 4 + token.length + 2;
+            for (BoundPlan plan : e.getValue()) {
+                final ParameterSet value = ParameterSet.fromArrayNoCopy(plan.m_core.getPartitioningParamValue());
+                final ByteBuffer valueBuf = ByteBuffer.allocate(value.getSerializedSize());
+                value.flattenToBuffer(valueBuf);
+                valueBuf.flip();
+                partitioningValues.add(valueBuf);
+                size += 4 + plan.m_core.getSerializedSize() + 4 + 4 + valueBuf.remaining() + 4;
+                if (plan.m_constants != null) {
+                    for (String constant : plan.m_constants) {
+                        size += 4 + (constant == null ? 0 : constant.getBytes(Constants.UTF8ENCODING).length);
+                    }
+                }
+            }
+        }
+
+        final ByteBuffer buf = ByteBuffer.allocate(size + 8);
+        buf.putInt(PLAN_FILE_MAGIC);
+        buf.putInt(PLAN_FILE_VERSION);
+        buf.put(m_catalogHash);
+        buf.putInt(hottest.size());
+        int valueIndex = 0;
+        for (int i = 0; i < hottest.size(); i++) {
+            final byte[] token = tokens.get(i);
+            buf.putInt(token.length);
+            buf.put(token);
+            final List<BoundPlan> plans = hottest.get(i).getValue();
+            buf.putShort((short) plans.size());
+            for (BoundPlan plan : plans) {
+                buf.putInt(plan.m_core.getSerializedSize());
+                plan.m_core.flattenToBuffer(buf);
+                buf.putInt(plan.m_core.getPartitioningParamIndex());
+                final ByteBuffer valueBuf = partitioningValues.get(valueIndex++);
+                buf.putInt(valueBuf.remaining());
+                buf.put(valueBuf);
+                if (plan.m_constants == null) {
+                    buf.putInt(-1);
+                } else {
+                    buf.putInt(plan.m_constants.length);
+                    for (String constant : plan.m_constants) {
+                        if (constant == null) {
+                            buf.putInt(-1);
+                        } else {
+                            final byte[] bytes = constant.getBytes(Constants.UTF8ENCODING);
+                            buf.putInt(bytes.length);
+                            buf.put(bytes);
+                        }
+                    }
+                }
+            }
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putLong(crc.getValue());
+        assert(!buf.hasRemaining());
+
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        final FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            fos.write(buf.array());
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Seed the parameterized plan cache from a file written by {@link #savePlans(File)}.
+     * A missing file is normal, one that is damaged or was written for another catalog
+     * is ignored.
+     * @return the number of parameterized statements loaded
+     */
+    synchronized int loadPlans(File file) {
+        if (!file.isFile()) {
+            return 0;
+        }
+        int loaded = 0;
+        try {
+            final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (buf.remaining() < 8) {
+                throw new IOException("truncated file");
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(buf.array(), 0, buf.limit() - 8);
+            if (crc.getValue() != buf.getLong(buf.limit() - 8)) {
+                throw new IOException("checksum mismatch");
+            }
+            buf.limit(buf.limit() - 8);
+            if (buf.getInt() != PLAN_FILE_MAGIC || buf.getInt() != PLAN_FILE_VERSION) {
+                throw new IOException("unrecognized format");
+            }
+            final byte[] catalogHash = new byte[m_catalogHash.length];
+            buf.get(catalogHash);
+            if (!Arrays.equals(catalogHash, m_catalogHash)) {
+                throw new IOException("plans belong to a different catalog");
+            }
+
+            final int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                final byte[] token = new byte[buf.getInt()];
+                buf.get(token);
+                final int planCount = buf.getShort();
+                final List<BoundPlan> plans = new ArrayList<BoundPlan>(planCount);
+                for (int j = 0; j < planCount; j++) {
+                    final int coreSize = buf.getInt();
+                    final int coreStart = buf.position();
+                    final CorePlan core = CorePlan.fromBuffer(buf);
+                    if (buf.position() - coreStart != coreSize) {
+                        throw new IOException("plan size mismatch");
+                    }
+                    core.setPartitioningParamIndex(buf.getInt());
+                    final int valueSize = buf.getInt();
+                    final ByteBuffer valueBuf = buf.slice();
+                    valueBuf.limit(valueSize);
+                    buf.position(buf.position() + valueSize);
+                    core.setPartitioningParamValue(ParameterSet.fromByteBuffer(valueBuf).toArray()[0]);
+
+                    String[] constants = null;
+                    final int constantCount = buf.getInt();
+                    if (constantCount >= 0) {
+                        constants = new String[constantCount];
+                        for (int k = 0; k < constantCount; k++) {
+                            final int length = buf.getInt();
+                            if (length >= 0) {
+                                final byte[] bytes = new byte[length];
+                                buf.get(bytes);
+                                constants[k] = new String(bytes, Constants.UTF8ENCODING);
+                            }
+                        }
+                    }
+                    plans.add(new BoundPlan(core, constants));
+                }
+                if (m_coreCache.put(new String(token, Constants.UTF8ENCODING),
+                                    Collections.unmodifiableList(plans))) {
+                    loaded++;
+                }
+            }
+        } catch (Exception e) {
+            compilerLog.warn("Ignoring ad hoc plan cache " + file + ": " + e.getMessage());
+            return loaded;
+        }
+        compilerLog.info("Loaded " + loaded + " parameterized ad hoc plans from " + file);
+        return loaded;
+    }
+
     /**
      * Start a timer that prints cache stats to the console every 5s.
      * Used for development until we get better stats integration.
@@ -0,0 +1,173 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltdb.compiler;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.voltcore.utils.CoreUtils;
+import org.voltdb.CatalogContext;
+import org.voltdb.PlannerStatsCollector;
+import org.voltdb.StatsAgent;
+import org.voltdb.StatsSelector;
+import org.voltdb.VoltDB;
+import org.voltdb.dtxn.LatencyStats;
+
+/**
+ * Plans ad hoc SQL on several threads. Every worker loads its own PlannerTool, and so its
+ * own HSQL session, for each catalog it plans against, while plans are shared through the
+ * catalog's AdHocCompilerCache. Work from a connection always goes to the same worker so
+ * that its statements are planned, and initiated, in the order they arrived.
+ *
+ * The first worker plans with the catalog context's PlannerTool, so a pool of one behaves
+ * like the single planner thread did and loads nothing extra.
+ */
+public class AdHocPlannerPool {
+
+    static final int DEFAULT_WORKERS = Integer.getInteger("ADHOC_PLANNER_THREADS", 1);
+
+    private static final ThreadLocal<Worker> s_currentWorker = new ThreadLocal<Worker>();
+
+    class Worker {
+        final int m_id;
+        private final LinkedBlockingQueue<Runnable> m_queue;
+        private final ThreadPoolExecutor m_es;
+        // Planning time of each task in microseconds
+        final AbstractHistogram m_latency = LatencyStats.constructHistogram(true);
+
+        // Collector this worker's planners report to, null for the first worker
+        private final PlannerStatsCollector m_ownStats;
+        private volatile PlannerStatsCollector m_plannerStats;
+
+        // Only touched by the worker thread
+        private CatalogContext m_context;
+        private PlannerTool m_planner;
+
+        Worker(int id, int queueDepth) {
+            m_id = id;
+            m_queue = new LinkedBlockingQueue<Runnable>(queueDepth);
+            final String name = (id == 0 ? "Ad Hoc Planner" : "Ad Hoc Planner - " + id);
+            m_es = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, m_queue,
+                                          CoreUtils.getThreadFactory(name));
+            if (id == 0) {
+                m_ownStats = null;
+            } else {
+                // Each row of planner stats is a worker, numbered by a negative site id
+                final long statsId = ((long) -(id + 1)) << 32;
+                m_ownStats = new PlannerStatsCollector(statsId);
+                final StatsAgent statsAgent = VoltDB.instance().getStatsAgent();
+                // In mock test environments there may be no stats agent.
+                if (statsAgent != null) {
+                    statsAgent.registerStatsSource(StatsSelector.PLANNER, statsId, m_ownStats);
+                }
+                m_plannerStats = m_ownStats;
+            }
+        }
+
+        void execute(final Runnable task) {
+            m_es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    s_currentWorker.set(Worker.this);
+                    final long start = System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+                        m_latency.recordValue(Math.min(micros, m_latency.getHighestTrackableValue()));
+                    }
+                }
+            });
+        }
+
+        PlannerTool plannerFor(CatalogContext context) {
+            if (m_id == 0) {
+                m_plannerStats = context.m_ptool.getPlannerStats();
+                return context.m_ptool;
+            }
+            if (m_context != context) {
+                // Load the schema for this catalog, and let go of the previous one
+                m_planner = context.m_ptool.newPlanner(m_ownStats);
+                m_context = context;
+            }
+            return m_planner;
+        }
+
+        int getQueueDepth() {
+            return m_queue.size();
+        }
+
+        PlannerStatsCollector getPlannerStats() {
+            return m_plannerStats;
+        }
+    }
+
+    private final Worker[] m_workers;
+
+    public AdHocPlannerPool(int workers, int queueDepth) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one ad hoc planner, " + workers + " requested");
+        }
+        m_workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            m_workers[i] = new Worker(i, queueDepth);
+        }
+        final StatsAgent statsAgent = VoltDB.instance().getStatsAgent();
+        if (statsAgent != null) {
+            statsAgent.registerStatsSource(StatsSelector.PLANNERPOOL, 0, new PlannerPoolStats(this));
+        }
+    }
+
+    /**
+     * Plan on the worker assigned to the connection
+     * @throws RejectedExecutionException if that worker's queue is full
+     */
+    void execute(long connectionId, Runnable task) {
+        m_workers[(int) ((connectionId & Long.MAX_VALUE) % m_workers.length)].execute(task);
+    }
+
+    /**
+     * @return the planner of the worker running the caller, or the catalog's own
+     * planner when called from some other thread
+     */
+    static PlannerTool plannerFor(CatalogContext context) {
+        final Worker worker = s_currentWorker.get();
+        if (worker == null) {
+            return context.m_ptool;
+        }
+        return worker.plannerFor(context);
+    }
+
+    Worker[] getWorkers() {
+        return m_workers;
+    }
+
+    /**
+     * Finish planning what's queued and stop the workers
+     */
+    void shutdown() throws InterruptedException {
+        for (Worker worker : m_workers) {
+            worker.m_es.shutdown();
+        }
+        for (Worker worker : m_workers) {
+            worker.m_es.awaitTermination(120, TimeUnit.SECONDS);
+        }
+    }
+}
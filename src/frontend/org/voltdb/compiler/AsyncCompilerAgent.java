@@ -66,9 +66,13 @@ public class AsyncCompilerAgent {
     // of Europe, Scandinavia, and the sub-continent.
     final AsyncCompilerAgentHelper m_helper;
 
-    // do work in this executor service
+    // catalog changes are prepared one at a time in this executor service
     final ListeningExecutorService m_es =
-        CoreUtils.getBoundedSingleThreadExecutor("Ad Hoc Planner", MAX_QUEUE_DEPTH);
+        CoreUtils.getBoundedSingleThreadExecutor("Ad Hoc Catalog Change", MAX_QUEUE_DEPTH);
+
+    // ad hoc SQL is planned by these workers, ADHOC_PLANNER_THREADS of them
+    final AdHocPlannerPool m_plannerPool =
+        new AdHocPlannerPool(AdHocPlannerPool.DEFAULT_WORKERS, MAX_QUEUE_DEPTH);
 
     // Enable debug hooks when the "asynccompilerdebug" sys prop is set to "true" or "yes".
     private final static MiscUtils.BooleanSystemProperty DEBUG_MODE =
@@ -82,6 +86,7 @@ public class AsyncCompilerAgent {
     // intended for integration test use. finish planning what's in
     // the queue and terminate the TPE.
     public void shutdown() throws InterruptedException {
+        m_plannerPool.shutdown();
         if (m_es != null) {
             m_es.shutdown();
             m_es.awaitTermination(120, TimeUnit.SECONDS);
@@ -99,13 +104,19 @@ public class AsyncCompilerAgent {
 
             @Override
             public void deliver(final VoltMessage message) {
+                final Runnable task = new Runnable() {
+                    @Override
+                    public void run() {
+                        handleMailboxMessage(message);
+                    }
+                };
                 try {
-                    m_es.submit(new Runnable() {
-                        @Override
-                        public void run() {
-                            handleMailboxMessage(message);
-                        }
-                    });
+                    final Object payload = ((LocalObjectMessage)message).payload;
+                    if (payload instanceof AdHocPlannerWork) {
+                        m_plannerPool.execute(((AdHocPlannerWork)payload).connectionId, task);
+                    } else {
+                        m_es.submit(task);
+                    }
                 } catch (RejectedExecutionException rejected) {
                     final LocalObjectMessage wrapper = (LocalObjectMessage)message;
                     AsyncCompilerWork work = (AsyncCompilerWork)(wrapper.payload);
@@ -275,7 +286,28 @@ public class AsyncCompilerAgent {
                 return;
             }
             final CatalogChangeWork ccw = new CatalogChangeWork(w);
-            dispatchCatalogChangeWork(ccw);
+            // Catalog changes are prepared one at a time, not on the planner that found the DDL
+            try {
+                m_es.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            dispatchCatalogChangeWork(ccw);
+                        }
+                        catch (RuntimeException e) {
+                            AsyncCompilerResult errResult =
+                                AsyncCompilerResult.makeErrorResult(ccw,
+                                    String.format("Unexpected async compiler exception for %s: %s: %s",
+                                            ccw.getClass().getName(),
+                                            e.getLocalizedMessage(),
+                                            "Please contact VoltDB support with this message."));
+                            ccw.completionHandler.onCompletion(errResult);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException rejected) {
+                generateErrorResult("Ad Hoc Planner task queue is full. Try again.", ccw);
+            }
         }
     }
 
@@ -319,7 +351,7 @@ public class AsyncCompilerAgent {
     }
 
     public void compileAdHocPlanForProcedure(final AdHocPlannerWork apw) {
-        m_es.submit(new Runnable() {
+        m_plannerPool.execute(apw.connectionId, new Runnable() {
             @Override
             public void run(){
                 apw.completionHandler.onCompletion(compileAdHocPlan(apw));
@@ -356,7 +388,8 @@ public class AsyncCompilerAgent {
             context = VoltDB.instance().getCatalogContext();
         }
 
-        final PlannerTool ptool = context.m_ptool;
+        // the calling planner worker's own planner for this catalog
+        final PlannerTool ptool = AdHocPlannerPool.plannerFor(context);
 
         List<String> errorMsgs = new ArrayList<String>();
         List<AdHocPlannedStatement> stmts = new ArrayList<AdHocPlannedStatement>();
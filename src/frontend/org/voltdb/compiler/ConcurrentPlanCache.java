@@ -0,0 +1,307 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.compiler;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Map from SQL text to plans that many planner threads can read at once.
+ *
+ * Lookups don't take a lock: they read a ConcurrentHashMap and stamp the entry
+ * with the time it was used. Writes, which only happen after planning, are
+ * serialized and keep the cache within both an entry count and a budget of
+ * serialized plan bytes.
+ *
+ * Once the cache is full a new plan has to earn its place. A count-min sketch
+ * estimates how often each key has been looked up recently (TinyLFU), and the
+ * candidate is only admitted if it has been asked for more often than the
+ * victim, the least recently used of a few entries sampled by a clock hand.
+ * A burst of one-off queries can't flush out the queries that keep coming back.
+ */
+class ConcurrentPlanCache<V> {
+
+    /** Size of a value in bytes, counted against the cache's weight budget */
+    interface Weigher<V> {
+        int weigh(V value);
+    }
+
+    // Entries compared per eviction, enough to approximate LRU closely
+    private static final int SAMPLE_SIZE = 8;
+
+    private static final class Entry<V> {
+        final V m_value;
+        final int m_weight;
+        volatile long m_lastUsed;
+
+        Entry(V value, int weight) {
+            m_value = value;
+            m_weight = weight;
+            m_lastUsed = System.nanoTime();
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry<V>> m_map;
+    private final int m_maxEntries;
+    private final long m_maxWeight;
+    private final Weigher<V> m_weigher;
+    private final FrequencySketch m_sketch;
+
+    // Guarded by this
+    private long m_weight = 0;
+    private Iterator<Map.Entry<String, Entry<V>>> m_hand = null;
+
+    final AtomicLong m_hits = new AtomicLong();
+    final AtomicLong m_queries = new AtomicLong();
+    final AtomicLong m_insertions = new AtomicLong();
+    final AtomicLong m_evictions = new AtomicLong();
+    final AtomicLong m_rejections = new AtomicLong();
+
+    ConcurrentPlanCache(int maxEntries, long maxWeight, Weigher<V> weigher) {
+        if (maxEntries < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException("Plan cache bounds must be positive");
+        }
+        m_maxEntries = maxEntries;
+        m_maxWeight = maxWeight;
+        m_weigher = weigher;
+        m_map = new ConcurrentHashMap<String, Entry<V>>(Math.min(maxEntries, 1 << 16) * 2);
+        m_sketch = new FrequencySketch(maxEntries);
+    }
+
+    /**
+     * Look up a value, recording the access for admission and recency.
+     */
+    V get(String key) {
+        m_queries.incrementAndGet();
+        m_sketch.increment(key.hashCode());
+        final Entry<V> entry = m_map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.m_lastUsed = System.nanoTime();
+        m_hits.incrementAndGet();
+        return entry.m_value;
+    }
+
+    /**
+     * Look up a value without counting it as a use.
+     */
+    V peek(String key) {
+        final Entry<V> entry = m_map.get(key);
+        return entry == null ? null : entry.m_value;
+    }
+
+    /**
+     * Insert or replace the value for key. A new key may be turned away when the
+     * cache is full and it has been used less often than the entry it would evict.
+     * @return true if the value is now in the cache
+     */
+    synchronized boolean put(String key, V value) {
+        final int weight = m_weigher.weigh(value);
+        if (weight > m_maxWeight) {
+            m_rejections.incrementAndGet();
+            return false;
+        }
+
+        final Entry<V> previous = m_map.get(key);
+        if (previous == null) {
+            final int candidateFrequency = m_sketch.frequency(key.hashCode());
+            while (m_map.size() >= m_maxEntries || m_weight + weight > m_maxWeight) {
+                final Map.Entry<String, Entry<V>> victim = sampleVictim(null);
+                if (victim == null) {
+                    break;
+                }
+                if (candidateFrequency <= m_sketch.frequency(victim.getKey().hashCode())) {
+                    m_rejections.incrementAndGet();
+                    return false;
+                }
+                evict(victim);
+            }
+            m_insertions.incrementAndGet();
+        } else {
+            m_weight -= previous.m_weight;
+            // Replacing a value that is already hot, make room without an admission test
+            while (m_weight + weight > m_maxWeight) {
+                final Map.Entry<String, Entry<V>> victim = sampleVictim(key);
+                if (victim == null) {
+                    break;
+                }
+                evict(victim);
+            }
+        }
+        m_map.put(key, new Entry<V>(value, weight));
+        m_weight += weight;
+        return true;
+    }
+
+    /**
+     * @return up to max keys and values, most frequently used first
+     */
+    List<Map.Entry<String, V>> hottest(int max) {
+        final List<Map.Entry<String, Entry<V>>> entries =
+                new ArrayList<Map.Entry<String, Entry<V>>>(m_map.entrySet());
+        final Map<String, Integer> frequencies = new HashMap<String, Integer>(entries.size() * 2);
+        for (Map.Entry<String, Entry<V>> e : entries) {
+            frequencies.put(e.getKey(), m_sketch.frequency(e.getKey().hashCode()));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Entry<V>>>() {
+            @Override
+            public int compare(Map.Entry<String, Entry<V>> a, Map.Entry<String, Entry<V>> b) {
+                return frequencies.get(b.getKey()).compareTo(frequencies.get(a.getKey()));
+            }
+        });
+        final List<Map.Entry<String, V>> result = new ArrayList<Map.Entry<String, V>>(Math.min(max, entries.size()));
+        for (Map.Entry<String, Entry<V>> e : entries) {
+            if (result.size() >= max) {
+                break;
+            }
+            result.add(new SimpleImmutableEntry<String, V>(e.getKey(), e.getValue().m_value));
+        }
+        return result;
+    }
+
+    int size() {
+        return m_map.size();
+    }
+
+    synchronized long weight() {
+        return m_weight;
+    }
+
+    private void evict(Map.Entry<String, Entry<V>> victim) {
+        if (m_map.remove(victim.getKey(), victim.getValue())) {
+            m_weight -= victim.getValue().m_weight;
+            m_evictions.incrementAndGet();
+        }
+    }
+
+    /*
+     * Advance the clock hand over a few live entries and return the one used least
+     * recently, skipping the key being replaced.
+     */
+    private Map.Entry<String, Entry<V>> sampleVictim(String exclude) {
+        Map.Entry<String, Entry<V>> victim = null;
+        boolean wrapped = false;
+        int sampled = 0;
+        while (sampled < SAMPLE_SIZE) {
+            if (m_hand == null || !m_hand.hasNext()) {
+                if (wrapped) {
+                    break;
+                }
+                wrapped = true;
+                m_hand = m_map.entrySet().iterator();
+                if (!m_hand.hasNext()) {
+                    break;
+                }
+            }
+            final Map.Entry<String, Entry<V>> e = m_hand.next();
+            // The iterator is weakly consistent and may hand back entries evicted since
+            if (e.getKey().equals(exclude) || m_map.get(e.getKey()) != e.getValue()) {
+                continue;
+            }
+            sampled++;
+            if (victim == null || e.getValue().m_lastUsed < victim.getValue().m_lastUsed) {
+                victim = e;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, 16 to a long, estimating how often a key
+     * has been seen. Counters are halved once enough increments have been made so
+     * the estimate favours recent popularity.
+     *
+     * Updates race with each other without a lock. A lost increment or a counter
+     * halved twice only makes the estimate slightly less accurate.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] m_table;
+        private final int m_mask;
+        private final int m_sampleSize;
+        private int m_additions = 0;
+
+        FrequencySketch(int maxEntries) {
+            final int size = Math.max(16, Integer.highestOneBit(Math.max(maxEntries, 2) - 1) << 1);
+            m_table = new long[size];
+            m_mask = size - 1;
+            m_sampleSize = 10 * size;
+        }
+
+        int frequency(int hashCode) {
+            final int hash = spread(hashCode);
+            final int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                final int index = indexOf(hash, i);
+                final int count = (int) ((m_table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hashCode) {
+            final int hash = spread(hashCode);
+            final int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                final int index = indexOf(hash, i);
+                final int offset = (start + i) << 2;
+                final long mask = 0xfL << offset;
+                if ((m_table[index] & mask) != mask) {
+                    m_table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++m_additions >= m_sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < m_table.length; i++) {
+                m_table[i] = (m_table[i] >>> 1) & RESET_MASK;
+            }
+            m_additions = m_sampleSize / 2;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & m_mask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltdb.compiler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.voltdb.PlannerStatsCollector;
+import org.voltdb.StatsSource;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+import org.voltdb.compiler.AdHocPlannerPool.Worker;
+
+/**
+ * One row per ad hoc planner worker. QUEUE_DEPTH is current, the other columns
+ * cover everything since startup. Planning times are in microseconds and include
+ * plans served from the cache.
+ */
+public class PlannerPoolStats extends StatsSource {
+
+    private final AdHocPlannerPool m_pool;
+
+    public PlannerPoolStats(AdHocPlannerPool pool) {
+        super(false);
+        m_pool = pool;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("WORKER_ID", VoltType.INTEGER));
+        columns.add(new ColumnInfo("QUEUE_DEPTH", VoltType.INTEGER));
+        columns.add(new ColumnInfo("INVOCATIONS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("PLAN_TIME_P50", VoltType.BIGINT));
+        columns.add(new ColumnInfo("PLAN_TIME_P99", VoltType.BIGINT));
+        columns.add(new ColumnInfo("PLAN_TIME_P999", VoltType.BIGINT));
+        columns.add(new ColumnInfo("PLAN_TIME_MAX", VoltType.BIGINT));
+        columns.add(new ColumnInfo("CACHE_HITS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("CACHE_MISSES", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final Worker worker = m_pool.getWorkers()[(Integer)rowKey];
+        final AbstractHistogram latency = worker.m_latency.copy();
+        final PlannerStatsCollector plannerStats = worker.getPlannerStats();
+        rowValues[columnNameToIndex.get("WORKER_ID")] = worker.m_id;
+        rowValues[columnNameToIndex.get("QUEUE_DEPTH")] = worker.getQueueDepth();
+        rowValues[columnNameToIndex.get("INVOCATIONS")] = latency.getTotalCount();
+        rowValues[columnNameToIndex.get("PLAN_TIME_P50")] = latency.getValueAtPercentile(50.0);
+        rowValues[columnNameToIndex.get("PLAN_TIME_P99")] = latency.getValueAtPercentile(99.0);
+        rowValues[columnNameToIndex.get("PLAN_TIME_P999")] = latency.getValueAtPercentile(99.9);
+        rowValues[columnNameToIndex.get("PLAN_TIME_MAX")] = latency.getMaxValue();
+        rowValues[columnNameToIndex.get("CACHE_HITS")] =
+                plannerStats == null ? 0L : plannerStats.getCacheHits();
+        rowValues[columnNameToIndex.get("CACHE_MISSES")] =
+                plannerStats == null ? 0L : plannerStats.getCacheMisses();
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        return new Iterator<Object>() {
+            int m_next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return m_next < m_pool.getWorkers().length;
+            }
+
+            @Override
+            public Object next() {
+                return m_next++;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -54,7 +54,9 @@ public class PlannerTool {
     private final HSQLInterface m_hsql;
     private final byte[] m_catalogHash;
     private final AdHocCompilerCache m_cache;
-    private static PlannerStatsCollector m_plannerStats;
+    private static PlannerStatsCollector s_plannerStats;
+    // Planners in the ad hoc planner pool each report their own stats
+    private PlannerStatsCollector m_plannerStats;
 
     private static final int AD_HOC_JOINED_TABLE_LIMIT = 5;
 
@@ -90,18 +92,36 @@ public class PlannerTool {
         hostLog.debug("hsql loaded");
 
         // Create and register a singleton planner stats collector, if this is the first time.
-        if (m_plannerStats == null) {
+        if (s_plannerStats == null) {
             synchronized (this.getClass()) {
-                if (m_plannerStats == null) {
+                if (s_plannerStats == null) {
                     final StatsAgent statsAgent = VoltDB.instance().getStatsAgent();
                     // In mock test environments there may be no stats agent.
                     if (statsAgent != null) {
-                        m_plannerStats = new PlannerStatsCollector(-1);
-                        statsAgent.registerStatsSource(StatsSelector.PLANNER, -1, m_plannerStats);
+                        s_plannerStats = new PlannerStatsCollector(-1);
+                        statsAgent.registerStatsSource(StatsSelector.PLANNER, -1, s_plannerStats);
                     }
                 }
             }
         }
+        m_plannerStats = s_plannerStats;
+    }
+
+    /**
+     * Load another planner for the same catalog. It has its own HSQL session and
+     * can plan at the same time as this one, plans are still shared through the cache.
+     * @param plannerStats where the new planner reports, or null to share this one's
+     */
+    PlannerTool newPlanner(PlannerStatsCollector plannerStats) {
+        final PlannerTool planner = new PlannerTool(m_cluster, m_database, m_catalogHash);
+        if (plannerStats != null) {
+            planner.m_plannerStats = plannerStats;
+        }
+        return planner;
+    }
+
+    PlannerStatsCollector getPlannerStats() {
+        return m_plannerStats;
     }
 
     public AdHocPlannedStatement planSqlForTest(String sqlIn) {
@@ -802,6 +802,14 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
             m_backingCont = cont;
         }
 
+        /*
+         * Release the polled block without acking it, it stays unacked in the stream
+         */
+        void discardWithoutAck() {
+            checkDoubleFree();
+            m_backingCont.discard();
+        }
+
         @Override
         public void discard() {
             checkDoubleFree();
@@ -828,6 +836,18 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
         }
     }
 
+    /**
+     * Release a block returned by poll without acking it, for processors that
+     * stop before the block is exported. Containers that don't ack are discarded.
+     */
+    public static void discardWithoutAck(BBContainer cont) {
+        if (cont instanceof AckingContainer) {
+            ((AckingContainer)cont).discardWithoutAck();
+        } else {
+            cont.discard();
+        }
+    }
+
     private void forwardAckToOtherReplicas(long uso) {
         if (m_runEveryWhere && m_replicaRunning) {
            //we dont forward if we are running as replica in replicated export
@@ -67,10 +67,15 @@ import com.google_voltpatches.common.base.Throwables;
 public class ExportManager
 {
     /**
-     * the only supported processor class
+     * the guest processor, used whenever it can be loaded
      */
     public static final String PROCESSOR_CLASS =
             "org.voltdb.export.processors.GuestProcessor";
+    /**
+     * bundled processor writing to local files, used when the guest processor is missing
+     */
+    public static final String FILE_PROCESSOR_CLASS =
+            "org.voltdb.export.processors.FileExportProcessor";
     /**
      * This is property used for checking Export clients for validation only.
      */
@@ -127,9 +132,9 @@ public class ExportManager
     private static ExportManager m_self;
     private final int m_hostId;
 
-    // this used to be flexible, but no longer - now m_loaderClass is just null or default value
+    // this used to be flexible, but no longer - now m_loaderClass is the guest processor if present
     public static final String DEFAULT_LOADER_CLASS = "org.voltdb.export.processors.GuestProcessor";
-    private final String m_loaderClass = DEFAULT_LOADER_CLASS;
+    private final String m_loaderClass = processorClass();
 
     private volatile Map<String, Pair<Properties, Set<String>>> m_processorConfig = new HashMap<>();
 
@@ -341,6 +346,18 @@ public class ExportManager
         }
     }
 
+    /**
+     * @return the guest processor class if it can be loaded, otherwise the bundled file processor
+     */
+    public static String processorClass() {
+        try {
+            Class.forName(PROCESSOR_CLASS);
+            return PROCESSOR_CLASS;
+        } catch (ClassNotFoundException e) {
+            return FILE_PROCESSOR_CLASS;
+        }
+    }
+
     /**
      * Get the global instance of the ExportManager.
      * @return The global single instance of the ExportManager.
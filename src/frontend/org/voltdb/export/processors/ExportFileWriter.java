@@ -0,0 +1,451 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.export.processors;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.VoltType;
+import org.voltdb.common.Constants;
+import org.voltdb.export.AdvertisedDataSource;
+import org.voltdb.export.ExportDataSource;
+import org.voltdb.utils.Encoder;
+
+/**
+ * Writes one export stream, a table's rows from one partition, to rolling files.
+ *
+ * Rows go to a file prefixed with "active-" that is renamed when it is rolled, so
+ * anything reading the directory only needs to skip the active files. Blocks
+ * are only acked once the rows in them have been forced to disk, and that is
+ * done in batches: when enough bytes are pending or the oldest pending block
+ * has waited long enough.
+ *
+ * CSV files quote values as needed and leave nulls empty, TSV files escape tabs,
+ * newlines and backslashes and write nulls as \N. Binary files start with a
+ * header, an int format version, an int column count and for each column its
+ * type as a byte and its name in modified UTF-8, followed by the rows exactly
+ * as the EE serialized them, see {@link ExportRowDecoder}.
+ */
+public class ExportFileWriter {
+
+    public static final int BINARY_FORMAT_VERSION = 1;
+    static final String ACTIVE_PREFIX = "active-";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        CSV("csv"), TSV("tsv"), BINARY("bin");
+
+        final String m_extension;
+        Format(String extension) {
+            m_extension = extension;
+        }
+    }
+
+    /**
+     * File sink settings of an export target, read from its properties.
+     */
+    public static class Config {
+        final File m_outdir;
+        final String m_nonce;
+        final Format m_format;
+        final boolean m_compress;
+        final boolean m_skipInternals;
+        final long m_rollPeriodMillis;
+        final long m_rollBytes;
+        final long m_ackBatchBytes;
+        final long m_ackBatchMillis;
+
+        public Config(File outdir, String nonce, Format format, boolean compress, boolean skipInternals,
+                long rollPeriodMillis, long rollBytes, long ackBatchBytes, long ackBatchMillis) {
+            m_outdir = outdir;
+            m_nonce = nonce;
+            m_format = format;
+            m_compress = compress;
+            m_skipInternals = skipInternals;
+            m_rollPeriodMillis = rollPeriodMillis;
+            m_rollBytes = rollBytes;
+            m_ackBatchBytes = ackBatchBytes;
+            m_ackBatchMillis = ackBatchMillis;
+        }
+
+        /**
+         * @param defaultOutdir used when the target has no outdir property
+         */
+        public static Config fromProperties(Properties props, File defaultOutdir) {
+            final String outdir = props.getProperty("outdir", "").trim();
+            final String nonce = props.getProperty("nonce", "export").trim();
+            if (nonce.isEmpty() || nonce.contains(File.separator)) {
+                throw new IllegalArgumentException("Invalid export file nonce \"" + nonce + "\"");
+            }
+            final String type = props.getProperty("type", "csv").trim().toLowerCase();
+            final Format format;
+            if (type.equals("csv")) {
+                format = Format.CSV;
+            } else if (type.equals("tsv")) {
+                format = Format.TSV;
+            } else if (type.equals("binary") || type.equals("bin")) {
+                format = Format.BINARY;
+            } else {
+                throw new IllegalArgumentException("Export file type must be csv, tsv or binary, not \"" + type + "\"");
+            }
+            final String compression = props.getProperty("compression", "none").trim().toLowerCase();
+            if (!compression.equals("none") && !compression.equals("gzip")) {
+                throw new IllegalArgumentException("Export file compression must be none or gzip, not \"" + compression + "\"");
+            }
+            return new Config(outdir.isEmpty() ? defaultOutdir : new File(outdir),
+                    nonce,
+                    format,
+                    compression.equals("gzip"),
+                    Boolean.parseBoolean(props.getProperty("skipinternals", "false").trim()),
+                    positiveLong(props, "period", 60) * 60 * 1000,
+                    positiveLong(props, "rollbytes", 256) * 1024 * 1024,
+                    positiveLong(props, "ackbatchbytes", 1024 * 1024),
+                    positiveLong(props, "ackbatchms", 100));
+        }
+
+        private static long positiveLong(Properties props, String name, long defaultValue) {
+            final String value = props.getProperty(name);
+            if (value == null || value.trim().isEmpty()) {
+                return defaultValue;
+            }
+            final long parsed;
+            try {
+                parsed = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Export file property " + name + " must be a number, not \"" + value + "\"");
+            }
+            if (parsed <= 0) {
+                throw new IllegalArgumentException("Export file property " + name + " must be positive, not " + parsed);
+            }
+            return parsed;
+        }
+    }
+
+    private final Config m_config;
+    private final ExportRowDecoder m_decoder;
+    private final AdvertisedDataSource m_source;
+    private final StringBuilder m_line = new StringBuilder(256);
+    private final ArrayList<BBContainer> m_pendingAcks = new ArrayList<BBContainer>();
+    private byte[] m_blockScratch = new byte[0];
+
+    private File m_activeFile;
+    private FileOutputStream m_fileStream;
+    private OutputStream m_out;
+    private Writer m_writer;
+    private long m_fileOpened;
+    private long m_fileBytes;
+    private int m_fileSequence = 0;
+
+    private long m_pendingBytes = 0;
+    private long m_oldestPending = 0;
+    private boolean m_closed = false;
+
+    // Read without the lock by the stats source
+    volatile long m_rows = 0;
+    volatile long m_bytes = 0;
+    volatile long m_blocksAcked = 0;
+    volatile long m_filesRolled = 0;
+    volatile long m_pendingAckBytes = 0;
+    volatile long m_lastExportTimestamp = 0;
+    // Time from commit until the last written row reached its file
+    volatile long m_lastLag = 0;
+    final long m_created = System.currentTimeMillis();
+
+    public ExportFileWriter(Config config, AdvertisedDataSource source) {
+        m_config = config;
+        m_source = source;
+        m_decoder = new ExportRowDecoder(source);
+    }
+
+    public AdvertisedDataSource getSource() {
+        return m_source;
+    }
+
+    /**
+     * Write the rows in a polled block. The block is discarded, acking it, once
+     * its rows are durable. After an IOException neither this block nor any
+     * pending one is acked, the caller releases them with {@link #abandon}.
+     */
+    public synchronized void write(BBContainer block, long now) throws IOException {
+        if (m_closed) {
+            throw new IOException("Export file writer for " + m_source.tableName + " is closed");
+        }
+        final ByteBuffer buf = block.b();
+        final int size = buf.remaining();
+        if (m_out == null) {
+            openFile(now);
+        }
+        m_decoder.reset(buf);
+        long rows = 0;
+        long lastTimestamp = m_lastExportTimestamp;
+        if (m_config.m_format == Format.BINARY) {
+            while (m_decoder.advance()) {
+                rows++;
+                lastTimestamp = m_decoder.exportTimestamp();
+            }
+            writeBlock(buf);
+            m_fileBytes += size;
+        } else {
+            while (m_decoder.advance()) {
+                rows++;
+                lastTimestamp = m_decoder.exportTimestamp();
+                formatRow(m_decoder.decode());
+                m_writer.append(m_line);
+                m_fileBytes += m_line.length();
+            }
+        }
+        m_rows += rows;
+        m_bytes += size;
+        m_lastExportTimestamp = lastTimestamp;
+        if (rows > 0) {
+            m_lastLag = Math.max(0, now - lastTimestamp);
+        }
+
+        if (m_pendingAcks.isEmpty()) {
+            m_oldestPending = now;
+        }
+        m_pendingAcks.add(block);
+        m_pendingBytes += size;
+        m_pendingAckBytes = m_pendingBytes;
+        if (m_pendingBytes >= m_config.m_ackBatchBytes) {
+            flushAndAck();
+        }
+        if (m_fileBytes >= m_config.m_rollBytes) {
+            roll(now);
+        }
+    }
+
+    /**
+     * Ack blocks that have waited long enough and roll the file if it's old enough.
+     * Called periodically so that a stream that has gone quiet still gets acked.
+     */
+    public synchronized void tick(long now) throws IOException {
+        if (m_closed) {
+            return;
+        }
+        if (!m_pendingAcks.isEmpty() && now - m_oldestPending >= m_config.m_ackBatchMillis) {
+            flushAndAck();
+        }
+        if (m_out != null && now - m_fileOpened >= m_config.m_rollPeriodMillis) {
+            roll(now);
+        }
+    }
+
+    /**
+     * Flush and ack everything written, and roll the active file so that it's complete.
+     */
+    public synchronized void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        roll(0);
+    }
+
+    /**
+     * Give up on the stream after a failed write. The pending blocks, and the
+     * failed one if it isn't among them, are released without being acked and
+     * the active file is left as it is.
+     */
+    public synchronized void abandon(BBContainer failed) {
+        if (failed != null && !m_pendingAcks.contains(failed)) {
+            ExportDataSource.discardWithoutAck(failed);
+        }
+        for (BBContainer cont : m_pendingAcks) {
+            ExportDataSource.discardWithoutAck(cont);
+        }
+        m_pendingAcks.clear();
+        m_pendingBytes = 0;
+        m_pendingAckBytes = 0;
+        m_closed = true;
+        if (m_out != null) {
+            try {
+                m_out.close();
+            } catch (IOException ignore) {}
+            m_activeFile = null;
+            m_fileStream = null;
+            m_out = null;
+            m_writer = null;
+        }
+    }
+
+    private void openFile(long now) throws IOException {
+        if (!m_config.m_outdir.exists() && !m_config.m_outdir.mkdirs() && !m_config.m_outdir.isDirectory()) {
+            throw new IOException("Unable to create export directory " + m_config.m_outdir);
+        }
+        m_activeFile = new File(m_config.m_outdir, ACTIVE_PREFIX + fileName(now));
+        m_fileStream = new FileOutputStream(m_activeFile);
+        OutputStream out = m_fileStream;
+        if (m_config.m_compress) {
+            // Sync flush so that what is acked can be decompressed without the rest of the file
+            out = new GZIPOutputStream(out, BUFFER_SIZE, true);
+        }
+        m_out = new BufferedOutputStream(out, BUFFER_SIZE);
+        m_fileOpened = now;
+        m_fileBytes = 0;
+        if (m_config.m_format == Format.BINARY) {
+            final DataOutputStream header = new DataOutputStream(m_out);
+            header.writeInt(BINARY_FORMAT_VERSION);
+            header.writeInt(m_source.columnTypes.size());
+            for (int i = 0; i < m_source.columnTypes.size(); i++) {
+                header.writeByte(m_source.columnTypes.get(i).getValue());
+                header.writeUTF(m_source.columnNames.get(i));
+            }
+            header.flush();
+        } else {
+            m_writer = new OutputStreamWriter(m_out, Constants.UTF8ENCODING);
+        }
+    }
+
+    private String fileName(long now) {
+        return m_config.m_nonce + "-" + m_source.tableName + "-" + m_source.partitionId + "-" +
+                m_source.m_generation + "-" + now + "-" + m_fileSequence++ + "." +
+                m_config.m_format.m_extension + (m_config.m_compress ? ".gz" : "");
+    }
+
+    private void roll(long now) throws IOException {
+        if (m_out == null) {
+            return;
+        }
+        flushAndAck();
+        if (m_writer != null) {
+            m_writer.close();
+        } else {
+            m_out.close();
+        }
+        final File rolled = new File(m_activeFile.getParentFile(),
+                m_activeFile.getName().substring(ACTIVE_PREFIX.length()));
+        if (!m_activeFile.renameTo(rolled)) {
+            throw new IOException("Unable to rename " + m_activeFile + " to " + rolled);
+        }
+        m_activeFile = null;
+        m_fileStream = null;
+        m_out = null;
+        m_writer = null;
+        m_filesRolled++;
+    }
+
+    private void flushAndAck() throws IOException {
+        if (m_out != null) {
+            if (m_writer != null) {
+                m_writer.flush();
+            } else {
+                m_out.flush();
+            }
+            m_fileStream.getChannel().force(false);
+        }
+        for (BBContainer cont : m_pendingAcks) {
+            cont.discard();
+        }
+        m_blocksAcked += m_pendingAcks.size();
+        m_pendingAcks.clear();
+        m_pendingBytes = 0;
+        m_pendingAckBytes = 0;
+    }
+
+    private void writeBlock(ByteBuffer buf) throws IOException {
+        if (buf.hasArray()) {
+            m_out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            return;
+        }
+        if (m_blockScratch.length < buf.remaining()) {
+            m_blockScratch = new byte[buf.remaining()];
+        }
+        final int size = buf.remaining();
+        buf.duplicate().get(m_blockScratch, 0, size);
+        m_out.write(m_blockScratch, 0, size);
+    }
+
+    private void formatRow(Object[] values) {
+        final char separator = m_config.m_format == Format.CSV ? ',' : '\t';
+        m_line.setLength(0);
+        final int firstColumn = m_config.m_skipInternals ? ExportRowDecoder.INTERNAL_FIELD_COUNT : 0;
+        for (int i = firstColumn; i < values.length; i++) {
+            // Nulls are empty in CSV, so separate by position rather than by what was written
+            if (i > firstColumn) {
+                m_line.append(separator);
+            }
+            final Object value = values[i];
+            if (value == null) {
+                if (m_config.m_format == Format.TSV) {
+                    m_line.append("\\N");
+                }
+                continue;
+            }
+            final VoltType type = m_source.columnTypes.get(i);
+            if (type == VoltType.VARBINARY) {
+                m_line.append(Encoder.hexEncode((byte[]) value));
+            } else if (type == VoltType.DECIMAL) {
+                m_line.append(((BigDecimal) value).toPlainString());
+            } else if (type.isNumber()) {
+                m_line.append(value);
+            } else if (m_config.m_format == Format.CSV) {
+                appendCsv(value.toString());
+            } else {
+                appendTsv(value.toString());
+            }
+        }
+        m_line.append('\n');
+    }
+
+    private void appendCsv(String value) {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            m_line.append(value);
+            return;
+        }
+        m_line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"') {
+                m_line.append('"');
+            }
+            m_line.append(c);
+        }
+        m_line.append('"');
+    }
+
+    private void appendTsv(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '\t': m_line.append("\\t"); break;
+            case '\n': m_line.append("\\n"); break;
+            case '\r': m_line.append("\\r"); break;
+            case '\\': m_line.append("\\\\"); break;
+            default: m_line.append(c);
+            }
+        }
+    }
+}
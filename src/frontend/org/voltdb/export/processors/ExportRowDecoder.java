@@ -0,0 +1,176 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.export.processors;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.voltdb.VoltType;
+import org.voltdb.common.Constants;
+import org.voltdb.export.AdvertisedDataSource;
+import org.voltdb.types.GeographyPointValue;
+import org.voltdb.types.GeographyValue;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Walks the rows of an export block as written by the EE's ExportTupleStream.
+ * Each row is a 4 byte length that doesn't include itself, a null bit mask with
+ * one bit per column, most significant bit first, and then the non-null column
+ * values in native (little endian) order. The first {@link #INTERNAL_FIELD_COUNT}
+ * columns are the metadata the EE adds to every row and are never null.
+ *
+ * The decoder is reset to each block and reused, rows are decoded into the same
+ * array, so it belongs to a single stream.
+ */
+public class ExportRowDecoder {
+
+    public static final int INTERNAL_FIELD_COUNT = 6;
+    // Offsets of metadata columns within the row values, after the null mask
+    static final int TIMESTAMP_OFFSET = 8;
+
+    private final AdvertisedDataSource m_source;
+    private final VoltType[] m_types;
+    private final int m_nullMaskLength;
+    private final Object[] m_values;
+
+    private ByteBuffer m_block;
+    private int m_rowStart;
+    private int m_rowEnd;
+
+    public ExportRowDecoder(AdvertisedDataSource source) {
+        m_source = source;
+        m_types = source.columnTypes.toArray(new VoltType[source.columnTypes.size()]);
+        m_nullMaskLength = (m_types.length + 7) >> 3;
+        m_values = new Object[m_types.length];
+    }
+
+    public AdvertisedDataSource getSource() {
+        return m_source;
+    }
+
+    public int getColumnCount() {
+        return m_types.length;
+    }
+
+    /**
+     * Start decoding a block, leaving its position and limit untouched.
+     */
+    public void reset(ByteBuffer block) {
+        m_block = block.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        m_rowStart = -1;
+        m_rowEnd = m_block.position();
+    }
+
+    /**
+     * Move to the next row without decoding it.
+     * @return false once there are no more rows in the block
+     */
+    public boolean advance() throws IOException {
+        if (m_rowEnd >= m_block.limit()) {
+            return false;
+        }
+        final int length = m_block.getInt(m_rowEnd);
+        if (length < m_nullMaskLength || m_rowEnd + 4 + length > m_block.limit()) {
+            throw new IOException("Export row at offset " + m_rowEnd + " of " + m_source.tableName +
+                    " partition " + m_source.partitionId + " has invalid length " + length);
+        }
+        m_rowStart = m_rowEnd;
+        m_rowEnd = m_rowStart + 4 + length;
+        return true;
+    }
+
+    public int rowSize() {
+        return m_rowEnd - m_rowStart;
+    }
+
+    /**
+     * @return the VOLT_EXPORT_TIMESTAMP of the current row, read without decoding it
+     */
+    public long exportTimestamp() {
+        return m_block.getLong(m_rowStart + 4 + m_nullMaskLength + TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * Decode the current row. The returned array is overwritten by the next call.
+     */
+    public Object[] decode() throws IOException {
+        final int nullMask = m_rowStart + 4;
+        m_block.position(nullMask + m_nullMaskLength);
+        try {
+            for (int i = 0; i < m_types.length; i++) {
+                final boolean isNull = (m_block.get(nullMask + (i >> 3)) & (0x80 >>> (i & 7))) != 0;
+                m_values[i] = isNull ? null : decodeColumn(m_types[i]);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Unable to decode export row of " + m_source.tableName, e);
+        }
+        if (m_block.position() != m_rowEnd) {
+            throw new IOException("Export row of " + m_source.tableName + " decoded to " +
+                    (m_block.position() - m_rowStart) + " bytes, expected " + rowSize());
+        }
+        return m_values;
+    }
+
+    private Object decodeColumn(VoltType type) throws IOException {
+        switch (type) {
+        case TINYINT:
+            return m_block.get();
+        case SMALLINT:
+            return m_block.getShort();
+        case INTEGER:
+            return m_block.getInt();
+        case BIGINT:
+            return m_block.getLong();
+        case FLOAT:
+            return m_block.getDouble();
+        case TIMESTAMP:
+            return new TimestampType(m_block.getLong());
+        case STRING: {
+            final byte[] bytes = new byte[m_block.getInt()];
+            m_block.get(bytes);
+            return new String(bytes, Constants.UTF8ENCODING);
+        }
+        case VARBINARY: {
+            final byte[] bytes = new byte[m_block.getInt()];
+            m_block.get(bytes);
+            return bytes;
+        }
+        case DECIMAL: {
+            // scale, byte count, then a big endian two's complement value
+            final int scale = m_block.get();
+            final byte[] bytes = new byte[m_block.get()];
+            m_block.get(bytes);
+            return new BigDecimal(new BigInteger(bytes), scale);
+        }
+        case GEOGRAPHY_POINT:
+            return GeographyPointValue.unflattenFromBuffer(m_block);
+        case GEOGRAPHY: {
+            final int length = m_block.getInt();
+            final int start = m_block.position();
+            final GeographyValue value = GeographyValue.unflattenFromBuffer(m_block);
+            m_block.position(start + length);
+            return value;
+        }
+        default:
+            throw new IOException("Unsupported export column type " + type);
+        }
+    }
+}
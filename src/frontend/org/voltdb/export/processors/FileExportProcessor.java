@@ -0,0 +1,343 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.export.processors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltcore.utils.Pair;
+import org.voltdb.StatsAgent;
+import org.voltdb.StatsSelector;
+import org.voltdb.VoltDB;
+import org.voltdb.VoltType;
+import org.voltdb.export.AdvertisedDataSource;
+import org.voltdb.export.AdvertisedDataSource.ExportFormat;
+import org.voltdb.export.ExportDataProcessor;
+import org.voltdb.export.ExportDataSource;
+import org.voltdb.export.ExportGeneration;
+
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Export processor bundled with the server that writes export streams to local
+ * files, used when the guest processor isn't available. Only targets of type
+ * file, or without a client class, are handled. Streams of other targets are
+ * left to queue in the export overflow as they did before.
+ *
+ * Each stream, a table's rows from one partition, is polled independently as
+ * soon as this host is master for it, and its blocks are written by a shared
+ * pool of EXPORT_FILE_PROCESSOR_THREADS threads. A stream has at most one poll
+ * outstanding so its blocks are written in order, to a file of its own. See
+ * {@link ExportFileWriter} for the file formats and target properties, and
+ * {@link FileExportStats} for the @Statistics EXPORT columns.
+ */
+public class FileExportProcessor implements ExportDataProcessor {
+
+    static final String FILE_CLIENT_CLASS = "org.voltdb.exportclient.ExportToFileClient";
+    static final int THREADS = Integer.getInteger("EXPORT_FILE_PROCESSOR_THREADS",
+            Math.max(1, Math.min(CoreUtils.availableProcessors() / 2, 8)));
+    static final long TICK_MILLIS = Long.getLong("EXPORT_FILE_PROCESSOR_TICK_MS", 50);
+
+    private static final AtomicLong s_nextStatsId = new AtomicLong();
+
+    private VoltLogger m_logger;
+    private volatile ExportGeneration m_generation;
+    private ExportGeneration m_installedGeneration;
+    private Map<String, ExportFileWriter.Config> m_configByTable = new HashMap<String, ExportFileWriter.Config>();
+
+    private final ListeningExecutorService m_workers;
+    private final ScheduledThreadPoolExecutor m_ticker;
+    // Streams this host is master for, polled once polling has started
+    private final List<Stream> m_streams = new CopyOnWriteArrayList<Stream>();
+    private final long m_statsId = s_nextStatsId.incrementAndGet();
+    private boolean m_pollingStarted = false;
+    private volatile boolean m_shutdown = false;
+
+    /**
+     * A polled data source and the writer for its files.
+     */
+    final class Stream implements Runnable {
+        final ExportDataSource m_source;
+        final ExportFileWriter m_writer;
+        private boolean m_started = false;
+
+        Stream(ExportDataSource source, ExportFileWriter writer) {
+            m_source = source;
+            m_writer = writer;
+        }
+
+        synchronized void start() {
+            if (!m_started) {
+                m_started = true;
+                poll();
+            }
+        }
+
+        private void poll() {
+            if (m_shutdown) {
+                return;
+            }
+            final ListenableFuture<BBContainer> fut;
+            try {
+                fut = m_source.poll();
+            } catch (RuntimeException e) {
+                m_logger.error("Unable to poll export stream " + describe(), e);
+                return;
+            }
+            fut.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    onPoll(fut);
+                }
+            }, m_workers);
+        }
+
+        private void onPoll(ListenableFuture<BBContainer> fut) {
+            final BBContainer cont;
+            try {
+                cont = fut.get();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                m_logger.error("Polling export stream " + describe() + " failed, it will not be exported " +
+                        "until the export processor is restarted", e.getCause());
+                return;
+            }
+            try {
+                if (cont == null) {
+                    // End of stream, the source has been drained
+                    m_writer.close();
+                    return;
+                }
+                if (m_shutdown) {
+                    // Not written, so release it without acking
+                    ExportDataSource.discardWithoutAck(cont);
+                    return;
+                }
+                m_writer.write(cont, System.currentTimeMillis());
+            } catch (IOException e) {
+                m_logger.error("Unable to write export stream " + describe() + " to " +
+                        m_writer.getSource().tableName + " files, it will not be exported until the " +
+                        "export processor is restarted", e);
+                m_writer.abandon(cont);
+                return;
+            }
+            poll();
+        }
+
+        // Periodic batch ack and roll, on the ticker thread
+        @Override
+        public void run() {
+            try {
+                m_writer.tick(System.currentTimeMillis());
+            } catch (IOException e) {
+                m_logger.error("Unable to flush export stream " + describe(), e);
+            }
+        }
+
+        String describe() {
+            return m_source.getTableName() + " partition " + m_source.getPartitionId() +
+                    " generation " + m_source.getGeneration();
+        }
+    }
+
+    public FileExportProcessor() {
+        m_workers = CoreUtils.getListeningExecutorService("Export File Writer", THREADS);
+        m_ticker = CoreUtils.getScheduledThreadPoolExecutor("Export File Ticker", 1, CoreUtils.SMALL_STACK_SIZE);
+    }
+
+    @Override
+    public void addLogger(VoltLogger logger) {
+        m_logger = logger;
+    }
+
+    @Override
+    public void setExportGeneration(ExportGeneration generation) {
+        m_generation = generation;
+    }
+
+    @Override
+    public ExportGeneration getExportGeneration() {
+        return m_generation;
+    }
+
+    @Override
+    public synchronized void readyForData(boolean startup) {
+        installGeneration();
+        if (!startup) {
+            startPolling();
+        }
+        final StatsAgent statsAgent = VoltDB.instance().getStatsAgent();
+        if (statsAgent != null) {
+            statsAgent.registerStatsSource(StatsSelector.EXPORT, m_statsId, new FileExportStats(this));
+        }
+        m_ticker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Stream stream : m_streams) {
+                    stream.run();
+                }
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void startPolling() {
+        // A new generation may have been set since ready, its sources need a mastership hook first
+        installGeneration();
+        m_pollingStarted = true;
+        for (Stream stream : m_streams) {
+            stream.start();
+        }
+    }
+
+    /*
+     * Hook every source of the current generation that belongs to a file target,
+     * it is polled once this host becomes master for its partition.
+     */
+    private void installGeneration() {
+        final ExportGeneration generation = m_generation;
+        if (generation == null || generation == m_installedGeneration) {
+            return;
+        }
+        m_installedGeneration = generation;
+        for (Map<String, ExportDataSource> sources : generation.getDataSourceByPartition().values()) {
+            for (final ExportDataSource source : sources.values()) {
+                final ExportFileWriter.Config config = m_configByTable.get(source.getTableName().toLowerCase());
+                if (config == null) {
+                    continue;
+                }
+                if (source.getExportFormat() != ExportFormat.FOURDOTFOUR) {
+                    m_logger.warn("Export stream " + source.getTableName() + " partition " + source.getPartitionId() +
+                            " is in the " + source.getExportFormat() + " format which can't be written to files");
+                    continue;
+                }
+                final Stream stream = new Stream(source, new ExportFileWriter(config, advertise(source)));
+                source.setOnMastership(new Runnable() {
+                    @Override
+                    public void run() {
+                        onMastership(stream);
+                    }
+                });
+            }
+        }
+    }
+
+    private synchronized void onMastership(Stream stream) {
+        if (m_shutdown || m_streams.contains(stream)) {
+            return;
+        }
+        m_streams.add(stream);
+        if (m_pollingStarted) {
+            stream.start();
+        }
+    }
+
+    private static AdvertisedDataSource advertise(ExportDataSource source) {
+        final ArrayList<VoltType> types = new ArrayList<VoltType>(source.m_columnTypes.size());
+        for (Integer type : source.m_columnTypes) {
+            types.add(VoltType.get(type.byteValue()));
+        }
+        return new AdvertisedDataSource(source.getPartitionId(), source.getSignature(), source.getTableName(),
+                source.getPartitionColumnName(), System.currentTimeMillis(), source.getGeneration(),
+                source.m_columnNames, types, source.m_columnLengths, source.getExportFormat());
+    }
+
+    List<Stream> getStreams() {
+        return m_streams;
+    }
+
+    @Override
+    public void queueWork(Runnable r) {
+        m_workers.execute(r);
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            m_shutdown = true;
+        }
+        final StatsAgent statsAgent = VoltDB.instance().getStatsAgent();
+        if (statsAgent != null) {
+            statsAgent.deregisterStatsSourcesFor(StatsSelector.EXPORT, m_statsId);
+        }
+        m_ticker.shutdown();
+        m_workers.shutdown();
+        try {
+            m_workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Stream stream : m_streams) {
+            try {
+                stream.m_writer.close();
+            } catch (IOException e) {
+                m_logger.error("Unable to close export files of " + stream.describe(), e);
+            }
+        }
+    }
+
+    @Override
+    public void setProcessorConfig(Map<String, Pair<Properties, Set<String>>> config) {
+        final Map<String, ExportFileWriter.Config> configByTable = new HashMap<String, ExportFileWriter.Config>();
+        final File defaultOutdir = new File(VoltDB.instance().getVoltDBRootPath(), "export_files");
+        for (Map.Entry<String, Pair<Properties, Set<String>>> target : config.entrySet()) {
+            final Properties props = target.getValue().getFirst();
+            if (!isFileTarget(props)) {
+                m_logger.warn("Export target " + target.getKey() + " uses " + props.getProperty(EXPORT_TO_TYPE) +
+                        " which the file export processor doesn't support, its streams will not be exported");
+                continue;
+            }
+            final ExportFileWriter.Config fileConfig = ExportFileWriter.Config.fromProperties(props, defaultOutdir);
+            for (String table : target.getValue().getSecond()) {
+                configByTable.put(table.toLowerCase(), fileConfig);
+            }
+        }
+        m_configByTable = configByTable;
+    }
+
+    @Override
+    public void checkProcessorConfig(Properties config) {
+        if (!isFileTarget(config)) {
+            throw new IllegalArgumentException("Export to " + config.getProperty(EXPORT_TO_TYPE) +
+                    " isn't supported by the file export processor, only file export is");
+        }
+        ExportFileWriter.Config.fromProperties(config, new File("."));
+    }
+
+    private static boolean isFileTarget(Properties props) {
+        final String client = props.getProperty(EXPORT_TO_TYPE, "").trim();
+        return client.isEmpty() || client.equals(FILE_CLIENT_CLASS) ||
+                client.equals(FileExportProcessor.class.getName());
+    }
+}
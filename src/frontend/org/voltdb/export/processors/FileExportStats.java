@@ -0,0 +1,111 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.export.processors;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.voltdb.StatsSource;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+import org.voltdb.export.processors.FileExportProcessor.Stream;
+
+/**
+ * One row per export stream written by the {@link FileExportProcessor} on this
+ * host. Counts cover the life of the processor. TUPLES_PER_SECOND is the rate since
+ * the previous @Statistics call, and LAG_MILLIS is how long after its transaction
+ * the most recently written row reached its file.
+ */
+public class FileExportStats extends StatsSource {
+
+    private final FileExportProcessor m_processor;
+    // Row count and time of the previous collection, to compute throughput
+    private final Map<Stream, long[]> m_previous = new IdentityHashMap<Stream, long[]>();
+
+    public FileExportStats(FileExportProcessor processor) {
+        super(false);
+        m_processor = processor;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("SOURCE", VoltType.STRING));
+        columns.add(new ColumnInfo("PARTITION_ID", VoltType.INTEGER));
+        columns.add(new ColumnInfo("GENERATION", VoltType.BIGINT));
+        columns.add(new ColumnInfo("TUPLE_COUNT", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BYTES_WRITTEN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BLOCKS_ACKED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("PENDING_ACK_BYTES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("FILES_ROLLED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("TUPLES_PER_SECOND", VoltType.BIGINT));
+        columns.add(new ColumnInfo("LAG_MILLIS", VoltType.BIGINT));
+    }
+
+    @Override
+    protected synchronized void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final Stream stream = (Stream) rowKey;
+        final ExportFileWriter writer = stream.m_writer;
+        final long now = System.currentTimeMillis();
+        final long rows = writer.m_rows;
+        long[] previous = m_previous.get(stream);
+        if (previous == null) {
+            previous = new long[] { 0, writer.m_created };
+            m_previous.put(stream, previous);
+        }
+        final long elapsed = now - previous[1];
+        final long rate = elapsed > 0 ? (rows - previous[0]) * 1000 / elapsed : 0;
+        previous[0] = rows;
+        previous[1] = now;
+
+        rowValues[columnNameToIndex.get("SOURCE")] = writer.getSource().tableName;
+        rowValues[columnNameToIndex.get("PARTITION_ID")] = writer.getSource().partitionId;
+        rowValues[columnNameToIndex.get("GENERATION")] = writer.getSource().m_generation;
+        rowValues[columnNameToIndex.get("TUPLE_COUNT")] = rows;
+        rowValues[columnNameToIndex.get("BYTES_WRITTEN")] = writer.m_bytes;
+        rowValues[columnNameToIndex.get("BLOCKS_ACKED")] = writer.m_blocksAcked;
+        rowValues[columnNameToIndex.get("PENDING_ACK_BYTES")] = writer.m_pendingAckBytes;
+        rowValues[columnNameToIndex.get("FILES_ROLLED")] = writer.m_filesRolled;
+        rowValues[columnNameToIndex.get("TUPLES_PER_SECOND")] = rate;
+        rowValues[columnNameToIndex.get("LAG_MILLIS")] = writer.m_lastLag;
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        final Iterator<Stream> streams = m_processor.getStreams().iterator();
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return streams.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return streams.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -17,7 +17,10 @@
 
 package org.voltdb.importer;
 
+import java.util.List;
+
 import org.voltdb.client.ProcedureCallback;
+import org.voltdb.importer.formatter.FormattedRow;
 
 
 
@@ -52,6 +55,33 @@ public interface ImporterServerAdapter {
      */
     public boolean callProcedure(AbstractImporter importer, ProcedureCallback callback, String proc, Object... fieldList);
 
+    /**
+     * This is used by importers to execute a procedure with the fields of a row parsed in place by a
+     * streaming formatter. The fields are serialized as parameters of the procedure's declared types.
+     *
+     * @param importer the calling importer instance. This may be used by the importer framework
+     * to report back pressure.
+     * @param callback the callback object that will receive procedure execution status
+     * @param proc the name of the procedure that is to be executed
+     * @param row the parsed row, which is not referenced after this returns
+     * @return returns true if the procedure execution was queued successfully; false otherwise.
+     */
+    public boolean callProcedure(AbstractImporter importer, ProcedureCallback callback, String proc, FormattedRow row);
+
+    /**
+     * This is used by importers to execute a procedure for many rows at once. Rows for the default
+     * insert or upsert procedure of a partitioned table are grouped by partition and each group is
+     * applied in one transaction, other procedures are executed once per row.
+     *
+     * @param importer the calling importer instance. This may be used by the importer framework
+     * to report back pressure.
+     * @param callback the callback object that will receive the status of each transaction
+     * @param proc the name of the procedure that is to be executed
+     * @param rows the parameters of each execution
+     * @return returns the number of rows whose execution was queued successfully.
+     */
+    public int callProcedureBatch(AbstractImporter importer, ProcedureCallback callback, String proc, List<Object[]> rows);
+
     /**
      * This should be used by importers to report failure while trying to execute a procedure.
      *
@@ -64,6 +94,16 @@ public interface ImporterServerAdapter {
      */
     public void reportFailure(String importerName, String procName, boolean decrementPending);
 
+    /**
+     * This should be used by importers to report failure of rows submitted together.
+     *
+     * @param importerName the name of the importer
+     * @param procName the name of the procedure that the importer was trying to execute
+     * @param decrementPending see {@link #reportFailure(String, String, boolean)}
+     * @param rows the number of rows that failed
+     */
+    public void reportFailure(String importerName, String procName, boolean decrementPending, int rows);
+
     /**
      * This should be used by importers to report that a procedure executed was queued successfully.
      *
@@ -71,4 +111,13 @@ public interface ImporterServerAdapter {
      * @param procName the name of the procedure that the importer was trying to execute
      */
     public void reportQueued(String importerName, String procName);
+
+    /**
+     * This should be used by importers to report that rows submitted together were queued successfully.
+     *
+     * @param importerName the name of the importer
+     * @param procName the name of the procedure that the importer was trying to execute
+     * @param rows the number of rows queued
+     */
+    public void reportQueued(String importerName, String procName, int rows);
 }
@@ -44,6 +44,8 @@ public class ImporterStatsCollector extends SiteStatsSource
     public static final String FAILURE_COUNT_COL = "FAILURES";
     public static final String PENDING_COUNT_COL = "OUTSTANDING_REQUESTS";
     public static final String RETRY_COUNT_COL = "RETRIES";
+    public static final String BATCH_COUNT_COL = "BATCHES";
+    public static final String ROWS_PER_BATCH_COL = "ROWS_PER_BATCH";
 
     // Holds stats info for each known importer-procname combination.
     // Using AtomicReferences with ImmutableMap to avoid locking and faster access
@@ -70,12 +72,36 @@ public class ImporterStatsCollector extends SiteStatsSource
             }
     }
 
+    @Override
+    public void reportBatchCompletion(String importerName, String procName, ClientResponse response, int rows) {
+        StatsInfo statsInfo = getStatsInfo(importerName, procName);
+        if (response.getStatus() == ClientResponse.RESPONSE_UNKNOWN) {
+            // The whole batch is resubmitted, its rows stay pending
+            statsInfo.m_retryCount.incrementAndGet();
+            return;
+        }
+        statsInfo.m_pendingCount.addAndGet(-rows);
+        if (response.getStatus() == ClientResponse.SUCCESS) {
+            statsInfo.m_successCount.addAndGet(rows);
+        } else {
+            statsInfo.m_failureCount.addAndGet(rows);
+        }
+        statsInfo.m_batchCount.incrementAndGet();
+        statsInfo.m_batchedRows.addAndGet(rows);
+    }
+
     // An insert request was queued
     public void reportQueued(String importerName, String procName) {
         StatsInfo statsInfo = getStatsInfo(importerName, procName);
         statsInfo.m_pendingCount.incrementAndGet();
     }
 
+    // A number of rows submitted together were queued
+    public void reportQueued(String importerName, String procName, int rows) {
+        StatsInfo statsInfo = getStatsInfo(importerName, procName);
+        statsInfo.m_pendingCount.addAndGet(rows);
+    }
+
     // One insert failed
     private void reportFailure(String importerName, String procName) {
         reportFailure(importerName, procName, true);
@@ -90,6 +116,15 @@ public class ImporterStatsCollector extends SiteStatsSource
         statsInfo.m_failureCount.incrementAndGet();
     }
 
+    // Use this when rows submitted together fail before the InternalConnectionHandler queues them
+    public void reportFailure(String importerName, String procName, boolean decrementPending, int rows) {
+        StatsInfo statsInfo = getStatsInfo(importerName, procName);
+        if (decrementPending) {
+            statsInfo.m_pendingCount.addAndGet(-rows);
+        }
+        statsInfo.m_failureCount.addAndGet(rows);
+    }
+
     // One insert succeeded
     private void reportSuccess(String importerName, String procName) {
         StatsInfo statsInfo = getStatsInfo(importerName, procName);
@@ -153,6 +188,9 @@ public class ImporterStatsCollector extends SiteStatsSource
         rowValues[columnNameToIndex.get(FAILURE_COUNT_COL)] = getFailureCountUpdateLast(stats);
         rowValues[columnNameToIndex.get(PENDING_COUNT_COL)] = getPendingCountUpdateLast(stats);
         rowValues[columnNameToIndex.get(RETRY_COUNT_COL)] = getRetryCountUpdateLast(stats);
+        final long[] batches = getBatchCountsUpdateLast(stats);
+        rowValues[columnNameToIndex.get(BATCH_COUNT_COL)] = batches[0];
+        rowValues[columnNameToIndex.get(ROWS_PER_BATCH_COL)] = batches[0] == 0 ? 0 : batches[1] / batches[0];
 
         super.updateStatsRow(rowKey, rowValues);
     }
@@ -190,6 +228,22 @@ public class ImporterStatsCollector extends SiteStatsSource
         return value;
     }
 
+    // Returns the batch count and the rows in those batches
+    private long[] getBatchCountsUpdateLast(StatsInfo stats) {
+        long batches = stats.m_batchCount.get();
+        long rows = stats.m_batchedRows.get();
+        if (m_isInterval) {
+            final long currentBatches = batches;
+            final long currentRows = rows;
+            batches = currentBatches - stats.m_lastBatchCount;
+            rows = currentRows - stats.m_lastBatchedRows;
+            stats.m_lastBatchCount = currentBatches;
+            stats.m_lastBatchedRows = currentRows;
+        }
+
+        return new long[] { batches, rows };
+    }
+
     private long getPendingCountUpdateLast(StatsInfo stats) {
         long current = stats.m_pendingCount.get();
         current = (current<0) ? 0 : current; // pending could be -ve if we get callback responses
@@ -219,6 +273,8 @@ public class ImporterStatsCollector extends SiteStatsSource
         columns.add(new ColumnInfo(FAILURE_COUNT_COL, VoltType.BIGINT));
         columns.add(new ColumnInfo(PENDING_COUNT_COL, VoltType.BIGINT));
         columns.add(new ColumnInfo(RETRY_COUNT_COL, VoltType.BIGINT));
+        columns.add(new ColumnInfo(BATCH_COUNT_COL, VoltType.BIGINT));
+        columns.add(new ColumnInfo(ROWS_PER_BATCH_COL, VoltType.BIGINT));
     }
 
     private class StatsInfo
@@ -229,10 +285,14 @@ public class ImporterStatsCollector extends SiteStatsSource
         AtomicLong m_failureCount = new AtomicLong(0);
         AtomicLong m_pendingCount = new AtomicLong(0);
         AtomicLong m_retryCount = new AtomicLong(0);
+        AtomicLong m_batchCount = new AtomicLong(0);
+        AtomicLong m_batchedRows = new AtomicLong(0);
         long m_lastSuccessCount = 0;
         long m_lastFailureCount = 0;
         long m_lastPendingCount = 0;
         long m_lastRetryCount = 0;
+        long m_lastBatchCount = 0;
+        long m_lastBatchedRows = 0;
 
         public StatsInfo(String importerName, String procName) {
             m_importerName = importerName;
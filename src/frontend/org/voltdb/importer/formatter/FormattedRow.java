@@ -0,0 +1,424 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.importer.formatter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.voltdb.VoltType;
+
+/**
+ * A record produced by a {@link StreamingFormatter}. The row is reused from record to record
+ * and refers to its fields where they sit in the source buffer, only fields whose value differs
+ * from their raw bytes (because of quoting for instance) are copied aside. Numbers are parsed
+ * from the bytes on access, and the row can serialize itself as procedure parameters without
+ * creating a String per field.
+ */
+public final class FormattedRow {
+    private static final byte FLAG_NULL = 1;
+    private static final byte FLAG_SCRATCH = 2;
+
+    // Clinger's fast path: a mantissa below 2^53 scaled by an exact power of ten is correctly rounded
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private ByteBuffer m_source;
+    private int m_count = 0;
+    private int[] m_offsets = new int[16];
+    private int[] m_lengths = new int[16];
+    private byte[] m_flags = new byte[16];
+
+    // Field values that aren't a contiguous range of the source
+    private byte[] m_scratch = new byte[256];
+    private int m_scratchLength = 0;
+
+    // Results of the last successful parse of a field being serialized
+    private long m_parsedLong;
+    private double m_parsedDouble;
+
+    /**
+     * Start a new record whose fields refer to source.
+     */
+    public void reset(ByteBuffer source) {
+        m_source = source;
+        m_count = 0;
+        m_scratchLength = 0;
+    }
+
+    public ByteBuffer getSource() {
+        return m_source;
+    }
+
+    public int getFieldCount() {
+        return m_count;
+    }
+
+    /**
+     * Add a field whose value is length bytes of the source starting at the absolute offset.
+     */
+    public void addField(int offset, int length) {
+        final int i = nextField();
+        m_offsets[i] = offset;
+        m_lengths[i] = length;
+        m_flags[i] = 0;
+    }
+
+    public void addNull() {
+        final int i = nextField();
+        m_offsets[i] = 0;
+        m_lengths[i] = 0;
+        m_flags[i] = FLAG_NULL;
+    }
+
+    /**
+     * Add a field whose value isn't a range of the source, the bytes are copied.
+     */
+    public void addField(byte[] value) {
+        final int i = nextField();
+        if (m_scratchLength + value.length > m_scratch.length) {
+            m_scratch = Arrays.copyOf(m_scratch, Math.max(m_scratch.length * 2, m_scratchLength + value.length));
+        }
+        System.arraycopy(value, 0, m_scratch, m_scratchLength, value.length);
+        m_offsets[i] = m_scratchLength;
+        m_lengths[i] = value.length;
+        m_flags[i] = FLAG_SCRATCH;
+        m_scratchLength += value.length;
+    }
+
+    /**
+     * Turn the last field added into a null.
+     */
+    public void setLastFieldNull() {
+        m_flags[m_count - 1] = FLAG_NULL;
+    }
+
+    private int nextField() {
+        if (m_count == m_offsets.length) {
+            final int capacity = m_count * 2;
+            m_offsets = Arrays.copyOf(m_offsets, capacity);
+            m_lengths = Arrays.copyOf(m_lengths, capacity);
+            m_flags = Arrays.copyOf(m_flags, capacity);
+        }
+        return m_count++;
+    }
+
+    public boolean isNull(int i) {
+        checkIndex(i);
+        return m_flags[i] == FLAG_NULL;
+    }
+
+    public int getLength(int i) {
+        checkIndex(i);
+        return m_lengths[i];
+    }
+
+    public byte byteAt(int i, int position) {
+        if ((m_flags[i] & FLAG_SCRATCH) != 0) {
+            return m_scratch[m_offsets[i] + position];
+        }
+        return m_source.get(m_offsets[i] + position);
+    }
+
+    /**
+     * Returns true if the field holds exactly the given ASCII text.
+     */
+    public boolean equalsAscii(int i, String text) {
+        checkIndex(i);
+        if (m_flags[i] == FLAG_NULL || m_lengths[i] != text.length()) {
+            return false;
+        }
+        for (int j = 0; j < text.length(); j++) {
+            if (byteAt(i, j) != text.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the field as a decimal integer.
+     * @throws FormatException if it is null or not an integer that fits in a long
+     */
+    public long getLong(int i) throws FormatException {
+        if (!parseLong(i)) {
+            throw new FormatException("Field %d is not an integer: %s", i, getString(i));
+        }
+        return m_parsedLong;
+    }
+
+    private boolean parseLong(int i) {
+        checkIndex(i);
+        final int length = m_lengths[i];
+        if (m_flags[i] == FLAG_NULL || length == 0) {
+            return false;
+        }
+        int pos = 0;
+        boolean negative = false;
+        final byte first = byteAt(i, 0);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++pos == length) {
+                return false;
+            }
+        }
+        // Accumulate negatively so that Long.MIN_VALUE doesn't overflow
+        long value = 0;
+        for (; pos < length; pos++) {
+            final int digit = byteAt(i, pos) - '0';
+            if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+                return false;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                return false;
+            }
+            value = -value;
+        }
+        m_parsedLong = value;
+        return true;
+    }
+
+    /**
+     * Parse the field as a floating point number. Plain decimals with up to 15 significant
+     * digits are converted from the bytes directly, anything else goes through Double.parseDouble.
+     * @throws FormatException if it is null or not a number
+     */
+    public double getDouble(int i) throws FormatException {
+        checkIndex(i);
+        final int length = m_lengths[i];
+        if (m_flags[i] == FLAG_NULL || length == 0) {
+            throw new FormatException("Field %d is not a number: %s", i, getString(i));
+        }
+        int pos = 0;
+        boolean negative = false;
+        final byte first = byteAt(i, 0);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean fast = pos < length;
+        for (; fast && pos < length; pos++) {
+            final byte b = byteAt(i, pos);
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            final int digit = b - '0';
+            if (digit < 0 || digit > 9) {
+                fast = false;
+                break;
+            }
+            mantissa = mantissa * 10 + digit;
+            digits++;
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+            if (mantissa >= MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+                fast = false;
+            }
+        }
+        if (fast && digits > 0) {
+            final double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(getString(i));
+        } catch (NumberFormatException e) {
+            throw new FormatException("Field %d is not a number: %s", e, i, getString(i));
+        }
+    }
+
+    /**
+     * @return the field decoded as UTF-8, or null
+     */
+    public String getString(int i) {
+        checkIndex(i);
+        if (m_flags[i] == FLAG_NULL) {
+            return null;
+        }
+        if ((m_flags[i] & FLAG_SCRATCH) != 0) {
+            return new String(m_scratch, m_offsets[i], m_lengths[i], StandardCharsets.UTF_8);
+        }
+        if (m_source.hasArray()) {
+            return new String(m_source.array(), m_source.arrayOffset() + m_offsets[i], m_lengths[i],
+                              StandardCharsets.UTF_8);
+        }
+        return new String(getBytes(i), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a copy of the field bytes, or null
+     */
+    public byte[] getBytes(int i) {
+        checkIndex(i);
+        if (m_flags[i] == FLAG_NULL) {
+            return null;
+        }
+        final byte[] bytes = new byte[m_lengths[i]];
+        copyField(i, bytes, 0);
+        return bytes;
+    }
+
+    private void copyField(int i, byte[] dest, int destOffset) {
+        if ((m_flags[i] & FLAG_SCRATCH) != 0) {
+            System.arraycopy(m_scratch, m_offsets[i], dest, destOffset, m_lengths[i]);
+        } else {
+            final ByteBuffer dup = m_source.duplicate();
+            dup.limit(m_offsets[i] + m_lengths[i]).position(m_offsets[i]);
+            dup.get(dest, destOffset, m_lengths[i]);
+        }
+    }
+
+    private void putField(int i, ByteBuffer buf) {
+        if ((m_flags[i] & FLAG_SCRATCH) != 0) {
+            buf.put(m_scratch, m_offsets[i], m_lengths[i]);
+        } else {
+            final ByteBuffer dup = m_source.duplicate();
+            dup.limit(m_offsets[i] + m_lengths[i]).position(m_offsets[i]);
+            buf.put(dup);
+        }
+    }
+
+    /**
+     * @return the fields as Strings, with null for null fields, as {@link Formatter#transform} returns them
+     */
+    public Object[] toArray() {
+        final Object[] values = new Object[m_count];
+        for (int i = 0; i < m_count; i++) {
+            values[i] = getString(i);
+        }
+        return values;
+    }
+
+    /**
+     * Size of the fields serialized by {@link #flattenToBuffer(ByteBuffer, VoltType[])}.
+     */
+    public int getSerializedSize(VoltType[] types) {
+        int size = 2;
+        for (int i = 0; i < m_count; i++) {
+            size++;
+            if (m_flags[i] == FLAG_NULL) {
+                continue;
+            }
+            final VoltType type = serializedType(i, types);
+            size += type == VoltType.STRING ? 4 + m_lengths[i] : type.getLengthInBytesForFixedTypes();
+        }
+        return size;
+    }
+
+    /**
+     * Serialize the fields in the format of a ParameterSet. A field whose expected type is an
+     * integer or float type and that parses as a number in range is written as that type,
+     * anything else is written as a string for the procedure to convert.
+     *
+     * @param types the expected type of each parameter, may be null or shorter than the row
+     */
+    public void flattenToBuffer(ByteBuffer buf, VoltType[] types) {
+        buf.putShort((short) m_count);
+        for (int i = 0; i < m_count; i++) {
+            if (m_flags[i] == FLAG_NULL) {
+                buf.put(VoltType.NULL.getValue());
+                continue;
+            }
+            final VoltType type = serializedType(i, types);
+            buf.put(type.getValue());
+            switch (type) {
+            case TINYINT:
+                buf.put((byte) m_parsedLong);
+                break;
+            case SMALLINT:
+                buf.putShort((short) m_parsedLong);
+                break;
+            case INTEGER:
+                buf.putInt((int) m_parsedLong);
+                break;
+            case BIGINT:
+                buf.putLong(m_parsedLong);
+                break;
+            case FLOAT:
+                buf.putDouble(m_parsedDouble);
+                break;
+            default:
+                buf.putInt(m_lengths[i]);
+                putField(i, buf);
+                break;
+            }
+        }
+    }
+
+    /*
+     * The type a non-null field is serialized as, leaves integers parsed in m_parsedLong
+     */
+    private VoltType serializedType(int i, VoltType[] types) {
+        final VoltType type = types != null && i < types.length ? types[i] : null;
+        if (type == null) {
+            return VoltType.STRING;
+        }
+        switch (type) {
+        case TINYINT:
+        case SMALLINT:
+        case INTEGER:
+        case BIGINT:
+            if (parseLong(i) && inRange(type, m_parsedLong)) {
+                return type;
+            }
+            return VoltType.STRING;
+        case FLOAT:
+            try {
+                m_parsedDouble = getDouble(i);
+                if (m_parsedDouble != VoltType.NULL_FLOAT) {
+                    return type;
+                }
+            } catch (FormatException e) {
+                // Let the procedure report it
+            }
+            return VoltType.STRING;
+        default:
+            return VoltType.STRING;
+        }
+    }
+
+    // The minimum value of each type is its null
+    private static boolean inRange(VoltType type, long value) {
+        switch (type) {
+        case TINYINT:
+            return value > Byte.MIN_VALUE && value <= Byte.MAX_VALUE;
+        case SMALLINT:
+            return value > Short.MIN_VALUE && value <= Short.MAX_VALUE;
+        case INTEGER:
+            return value > Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+        default:
+            return value != VoltType.NULL_BIGINT;
+        }
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= m_count) {
+            throw new IndexOutOfBoundsException("Field " + i + " of " + m_count);
+        }
+    }
+}
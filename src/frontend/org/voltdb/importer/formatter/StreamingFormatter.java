@@ -0,0 +1,38 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.importer.formatter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Formatter that parses records straight out of a buffer of raw source bytes into a
+ * reusable {@link FormattedRow}, rather than producing an Object[] per record.
+ */
+public interface StreamingFormatter {
+    /**
+     * Parses the record starting at the position of source into row, and advances the
+     * position past the record and its line terminator. The row refers to the bytes of
+     * source, which must not change while the row is in use.
+     *
+     * @param source - raw data from source, holding one or more records
+     * @param row - row to reset and fill with the fields of the record
+     * @return false if source has no bytes left
+     * @throws FormatException
+     */
+    public boolean next(ByteBuffer source, FormattedRow row) throws FormatException;
+}
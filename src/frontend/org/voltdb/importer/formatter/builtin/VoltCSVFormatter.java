@@ -18,16 +18,29 @@
 package org.voltdb.importer.formatter.builtin;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
 import org.voltdb.common.Constants;
 import org.voltdb.importer.formatter.FormatException;
+import org.voltdb.importer.formatter.FormattedRow;
 import org.voltdb.importer.formatter.Formatter;
+import org.voltdb.importer.formatter.StreamingFormatter;
 
 import au.com.bytecode.opencsv_voltpatches.CSVParser;
 
-public class VoltCSVFormatter implements Formatter<String> {
+/**
+ * Parses a line of CSV or TSV. As a {@link StreamingFormatter} each line of the source is a
+ * record. Lines without quote or escape characters are split in place, which leaves every field
+ * as a range of the source. Other lines are decoded and parsed like {@link #transform(String)}.
+ */
+public class VoltCSVFormatter implements Formatter<String>, StreamingFormatter {
     final CSVParser m_parser;
+    // Bytes that send a line through the CSVParser, -1 when they can't be matched against single bytes
+    private final int m_separatorByte;
+    private final int m_quoteByte;
+    private final int m_escapeByte;
 
     public VoltCSVFormatter (String formatName, Properties prop) {
 
@@ -66,6 +79,12 @@ public class VoltCSVFormatter implements Formatter<String> {
         }
 
         m_parser = new CSVParser(separator, quotechar, escape, strictQuotes, ignoreLeadingWhiteSpace);
+
+        // Strict quotes drop everything outside quotes, which the in place split doesn't do
+        final boolean ascii = separator < 0x80 && quotechar < 0x80 && escape < 0x80;
+        m_separatorByte = ascii && !strictQuotes ? separator : -1;
+        m_quoteByte = quotechar;
+        m_escapeByte = escape;
     }
 
     @Override
@@ -86,4 +105,65 @@ public class VoltCSVFormatter implements Formatter<String> {
             throw new FormatException("failed to format " + sourceData, e);
         }
     }
+
+    @Override
+    public boolean next(ByteBuffer source, FormattedRow row) throws FormatException {
+        final int start = source.position();
+        final int limit = source.limit();
+        if (start >= limit) {
+            return false;
+        }
+        row.reset(source);
+
+        boolean inPlace = m_separatorByte >= 0;
+        int fieldStart = start;
+        int pos = start;
+        for (; pos < limit; pos++) {
+            final byte b = source.get(pos);
+            if (b == '\n') {
+                break;
+            } else if (inPlace && b == m_separatorByte) {
+                addField(row, fieldStart, pos);
+                fieldStart = pos + 1;
+            } else if (b == m_quoteByte || b == m_escapeByte) {
+                inPlace = false;
+            }
+        }
+        source.position(pos < limit ? pos + 1 : pos);
+        int lineEnd = pos;
+        if (lineEnd > start && source.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+
+        if (inPlace) {
+            addField(row, fieldStart, lineEnd);
+            return true;
+        }
+
+        // Quoted or escaped fields, let the CSVParser deal with them
+        final byte[] line = new byte[lineEnd - start];
+        final ByteBuffer dup = source.duplicate();
+        dup.limit(lineEnd).position(start);
+        dup.get(line);
+        row.reset(source);
+        for (Object value : transform(new String(line, StandardCharsets.UTF_8))) {
+            if (value == null) {
+                row.addNull();
+            } else {
+                row.addField(((String) value).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return true;
+    }
+
+    private static void addField(FormattedRow row, int start, int end) {
+        row.addField(start, end - start);
+        // The null markers of transform(), with custom escape or quote characters they are split in place too
+        final int field = row.getFieldCount() - 1;
+        if (row.equalsAscii(field, "NULL")
+                || row.equalsAscii(field, Constants.CSV_NULL)
+                || row.equalsAscii(field, Constants.QUOTED_CSV_NULL)) {
+            row.setLastFieldNull();
+        }
+    }
 }
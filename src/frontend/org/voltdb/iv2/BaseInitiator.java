@@ -60,7 +60,7 @@ public abstract class BaseInitiator implements Initiator
     protected Term m_term = null;
     protected Site m_executionSite = null;
     protected Thread m_siteThread = null;
-    protected final RepairLog m_repairLog = new RepairLog();
+    protected final RepairLog m_repairLog = new RepairLog(RepairLog.SERIALIZED_STORAGE);
 
     public BaseInitiator(String zkMailboxNode, HostMessenger messenger, Integer partition,
             Scheduler scheduler, String whoamiPrefix, StatsAgent agent,
@@ -0,0 +1,166 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.Arrays;
+
+/**
+ * Duplicate counters keyed by (txnId, spHandle) and kept in that order, in
+ * parallel sorted arrays so lookups don't allocate a key. Outstanding counters
+ * are few, mostly added in increasing order and completed oldest first, so the
+ * live range slides along the arrays: inserts are usually appends and removing
+ * the oldest entry just advances the head. Only accessed from the site thread.
+ */
+class DuplicateCounterMap {
+    // Entries live in [m_head, m_head + m_size) of the arrays
+    private long[] m_txnIds = new long[64];
+    private long[] m_spHandles = new long[64];
+    private DuplicateCounter[] m_counters = new DuplicateCounter[64];
+    private int m_head = 0;
+    private int m_size = 0;
+
+    /*
+     * Binary search, returns the array index of the key or -(insertion index) - 1
+     */
+    private int indexOf(long txnId, long spHandle) {
+        final int end = m_head + m_size;
+        // Most lookups are for recent transactions at the end
+        if (m_size > 0 && m_txnIds[end - 1] == txnId && m_spHandles[end - 1] == spHandle) {
+            return end - 1;
+        }
+        int low = m_head;
+        int high = end - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compare(m_txnIds[mid], m_spHandles[mid], txnId, spHandle);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int compare(long txnId1, long spHandle1, long txnId2, long spHandle2) {
+        if (txnId1 != txnId2) {
+            return txnId1 < txnId2 ? -1 : 1;
+        }
+        if (spHandle1 != spHandle2) {
+            return spHandle1 < spHandle2 ? -1 : 1;
+        }
+        return 0;
+    }
+
+    DuplicateCounter get(long txnId, long spHandle) {
+        final int index = indexOf(txnId, spHandle);
+        return index >= 0 ? m_counters[index] : null;
+    }
+
+    /**
+     * @return the counter previously stored under the key, or null
+     */
+    DuplicateCounter put(long txnId, long spHandle, DuplicateCounter counter) {
+        int index = indexOf(txnId, spHandle);
+        if (index >= 0) {
+            final DuplicateCounter existing = m_counters[index];
+            m_counters[index] = counter;
+            return existing;
+        }
+        index = -(index + 1);
+        if (m_head + m_size == m_counters.length) {
+            // Out of room at the end, slide everything to the front and grow if still full
+            index -= m_head;
+            if (m_size * 2 > m_counters.length) {
+                final int capacity = m_counters.length * 2;
+                m_txnIds = Arrays.copyOf(m_txnIds, capacity);
+                m_spHandles = Arrays.copyOf(m_spHandles, capacity);
+                m_counters = Arrays.copyOf(m_counters, capacity);
+            }
+            System.arraycopy(m_txnIds, m_head, m_txnIds, 0, m_size);
+            System.arraycopy(m_spHandles, m_head, m_spHandles, 0, m_size);
+            System.arraycopy(m_counters, m_head, m_counters, 0, m_size);
+            Arrays.fill(m_counters, m_size, m_head + m_size, null);
+            m_head = 0;
+        }
+        final int moved = m_head + m_size - index;
+        if (moved > 0) {
+            System.arraycopy(m_txnIds, index, m_txnIds, index + 1, moved);
+            System.arraycopy(m_spHandles, index, m_spHandles, index + 1, moved);
+            System.arraycopy(m_counters, index, m_counters, index + 1, moved);
+        }
+        m_txnIds[index] = txnId;
+        m_spHandles[index] = spHandle;
+        m_counters[index] = counter;
+        m_size++;
+        return null;
+    }
+
+    DuplicateCounter remove(long txnId, long spHandle) {
+        final int index = indexOf(txnId, spHandle);
+        if (index < 0) {
+            return null;
+        }
+        final DuplicateCounter counter = m_counters[index];
+        final int before = index - m_head;
+        final int after = m_size - before - 1;
+        // Move whichever side is shorter, removing the oldest entry moves nothing
+        if (before < after) {
+            System.arraycopy(m_txnIds, m_head, m_txnIds, m_head + 1, before);
+            System.arraycopy(m_spHandles, m_head, m_spHandles, m_head + 1, before);
+            System.arraycopy(m_counters, m_head, m_counters, m_head + 1, before);
+            m_counters[m_head] = null;
+            m_head++;
+        } else {
+            System.arraycopy(m_txnIds, index + 1, m_txnIds, index, after);
+            System.arraycopy(m_spHandles, index + 1, m_spHandles, index, after);
+            System.arraycopy(m_counters, index + 1, m_counters, index, after);
+            m_counters[m_head + m_size - 1] = null;
+        }
+        m_size--;
+        if (m_size == 0) {
+            m_head = 0;
+        }
+        return counter;
+    }
+
+    int size() {
+        return m_size;
+    }
+
+    /*
+     * Positional access for iterating in (txnId, spHandle) order, 0 <= index < size()
+     */
+    long txnIdAt(int index) {
+        return m_txnIds[m_head + index];
+    }
+
+    long spHandleAt(int index) {
+        return m_spHandles[m_head + index];
+    }
+
+    DuplicateCounter counterAt(int index) {
+        return m_counters[m_head + index];
+    }
+
+    static String keyToString(long txnId, long spHandle) {
+        return "<" + TxnEgo.txnIdToString(txnId) + ", " + TxnEgo.txnIdToString(spHandle) + ">";
+    }
+}
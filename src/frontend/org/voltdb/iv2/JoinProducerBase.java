@@ -142,7 +142,7 @@ public abstract class JoinProducerBase extends SiteTasker {
         m_mailbox = mailbox;
     }
 
-    // Load the pro task log
+    // Load the task log
     protected static TaskLog initializeTaskLog(String voltroot, int pid)
     {
         // Construct task log and start logging task messages
@@ -34,6 +34,7 @@ import org.voltdb.ProducerDRGateway;
 import org.voltdb.Promotable;
 import org.voltdb.StartAction;
 import org.voltdb.StatsAgent;
+import org.voltdb.StatsSelector;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltZK;
 import org.voltdb.iv2.RepairAlgo.RepairResult;
@@ -93,6 +94,11 @@ public class MpInitiator extends BaseInitiator implements Promotable
                 m_initiatorMailbox,
                 csp);
         sched.setMpRoSitePool(sitePool);
+        agent.registerStatsSource(StatsSelector.MPTRANSACTIONS, getInitiatorHSId(), sched.getTransactionStats());
+        if (sched.getReadCache() != null) {
+            agent.registerStatsSource(StatsSelector.MPREADCACHE, getInitiatorHSId(),
+                    new MpReadCacheStats(sched.getReadCache()));
+        }
 
         // add ourselves to the ephemeral node list which BabySitters will watch for this
         // partition
@@ -0,0 +1,262 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.ParameterSet;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.client.ClientResponse;
+
+import com.google_voltpatches.common.base.Splitter;
+import com.google_voltpatches.common.collect.ImmutableSet;
+
+/**
+ * Results of read-only multi-partition transactions, kept at the MPI and
+ * keyed by procedure and serialized parameters. For ad hoc queries the
+ * parameters hold the plans, so the key covers plan and parameters.
+ *
+ * An entry remembers the version of the tables it read, as reported by
+ * {@link TableWriteVersions} before the read was sent to the partitions, and
+ * is dropped once that version moves, its TTL runs out, or it is the least
+ * recently used entry when the cache is over its entry or byte bound.
+ *
+ * Ad hoc reads are cached unless they use the current time. Procedures have
+ * to be listed in MP_READ_CACHE_PROCEDURES, since only their author knows
+ * whether the result depends on anything other than the data and parameters.
+ *
+ * Only touched by the MPI deliver thread, apart from the counters.
+ */
+public class MpReadCache {
+
+    static final int MAX_ENTRIES = Integer.getInteger("MP_READ_CACHE_ENTRIES", 0);
+    static final long MAX_BYTES = Long.getLong("MP_READ_CACHE_MAX_BYTES", 64L * 1024 * 1024);
+    static final long TTL_MS = Long.getLong("MP_READ_CACHE_TTL_MS", 60 * 1000);
+    static final Set<String> PROCEDURES = ImmutableSet.copyOf(
+            Splitter.on(',').trimResults().omitEmptyStrings().split(System.getProperty("MP_READ_CACHE_PROCEDURES", "")));
+
+    static final class Key {
+        final String m_procName;
+        final byte[] m_params;
+        private final int m_hash;
+
+        Key(String procName, byte[] params) {
+            m_procName = procName;
+            m_params = params;
+            m_hash = 31 * procName.hashCode() + Arrays.hashCode(params);
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return m_hash == other.m_hash && m_procName.equals(other.m_procName) &&
+                    Arrays.equals(m_params, other.m_params);
+        }
+    }
+
+    private static final class Entry {
+        final String[] m_tables;
+        final long m_version;
+        final byte[] m_response;
+        final long m_createdMillis;
+
+        Entry(String[] tables, long version, byte[] response, long createdMillis) {
+            m_tables = tables;
+            m_version = version;
+            m_response = response;
+            m_createdMillis = createdMillis;
+        }
+
+        int size() {
+            return m_response.length + m_tables.length * 16;
+        }
+    }
+
+    private static final class Pending {
+        final Key m_key;
+        final String[] m_tables;
+        final long m_version;
+
+        Pending(Key key, String[] tables, long version) {
+            m_key = key;
+            m_tables = tables;
+            m_version = version;
+        }
+    }
+
+    private final int m_maxEntries;
+    private final long m_maxBytes;
+    private final long m_ttlMs;
+
+    private final LinkedHashMap<Key, Entry> m_entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    // Reads that missed and are running, by MP txn id
+    private final Map<Long, Pending> m_pending = new HashMap<Long, Pending>();
+
+    final AtomicLong m_bytes = new AtomicLong();
+    volatile int m_entryCount = 0;
+    final AtomicLong m_hits = new AtomicLong();
+    final AtomicLong m_misses = new AtomicLong();
+    final AtomicLong m_invalidations = new AtomicLong();
+    final AtomicLong m_expirations = new AtomicLong();
+    final AtomicLong m_evictions = new AtomicLong();
+
+    public MpReadCache() {
+        this(MAX_ENTRIES, MAX_BYTES, TTL_MS);
+    }
+
+    MpReadCache(int maxEntries, long maxBytes, long ttlMs) {
+        m_maxEntries = maxEntries;
+        m_maxBytes = maxBytes;
+        m_ttlMs = ttlMs;
+    }
+
+    static boolean isCacheable(String procName) {
+        return procName.equals("@AdHoc_RO_MP") || PROCEDURES.contains(procName);
+    }
+
+    /**
+     * @return the cache key of the invocation, or null if it is never cached
+     */
+    static Key keyFor(StoredProcedureInvocation invocation) {
+        final String procName = invocation.getProcName();
+        if (!isCacheable(procName)) {
+            return null;
+        }
+        try {
+            final ParameterSet params = invocation.getParams();
+            final ByteBuffer buf = ByteBuffer.allocate(params.getSerializedSize());
+            params.flattenToBuffer(buf);
+            return new Key(procName, buf.array());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a copy of the cached response, or null on a miss
+     */
+    ClientResponseImpl get(Key key) {
+        final Entry entry = m_entries.get(key);
+        if (entry == null) {
+            m_misses.incrementAndGet();
+            return null;
+        }
+        if (TableWriteVersions.version(entry.m_tables) != entry.m_version) {
+            remove(key, entry);
+            m_invalidations.incrementAndGet();
+            m_misses.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.m_createdMillis > m_ttlMs) {
+            remove(key, entry);
+            m_expirations.incrementAndGet();
+            m_misses.incrementAndGet();
+            return null;
+        }
+
+        final ClientResponseImpl response = new ClientResponseImpl();
+        try {
+            // Each copy gets its own bytes, the tables are views of them
+            response.initFromBuffer(ByteBuffer.wrap(entry.m_response.clone()));
+        } catch (IOException e) {
+            remove(key, entry);
+            m_misses.incrementAndGet();
+            return null;
+        }
+        m_hits.incrementAndGet();
+        return response;
+    }
+
+    /**
+     * Remember the table versions a missed read starts from, before it is sent
+     * to the partitions.
+     */
+    void beginFill(long txnId, Key key, String[] tables) {
+        m_pending.put(txnId, new Pending(key, tables, TableWriteVersions.version(tables)));
+    }
+
+    /**
+     * Cache the response of a read started with beginFill, unless it failed or
+     * the tables it read were written while it ran.
+     * @param response null if the transaction didn't commit
+     */
+    void completeFill(long txnId, ClientResponseImpl response) {
+        final Pending pending = m_pending.remove(txnId);
+        if (pending == null || response == null || response.getStatus() != ClientResponse.SUCCESS) {
+            return;
+        }
+        if (TableWriteVersions.version(pending.m_tables) != pending.m_version) {
+            return;
+        }
+
+        final ByteBuffer buf = ByteBuffer.allocate(response.getSerializedSize());
+        response.flattenToBuffer(buf);
+        final Entry entry = new Entry(pending.m_tables, pending.m_version, buf.array(), System.currentTimeMillis());
+        if (entry.size() > m_maxBytes) {
+            return;
+        }
+        final Entry replaced = m_entries.put(pending.m_key, entry);
+        if (replaced != null) {
+            m_bytes.addAndGet(-replaced.size());
+        }
+        m_bytes.addAndGet(entry.size());
+
+        final Iterator<Map.Entry<Key, Entry>> lru = m_entries.entrySet().iterator();
+        while (m_entries.size() > m_maxEntries || m_bytes.get() > m_maxBytes) {
+            final Entry evicted = lru.next().getValue();
+            lru.remove();
+            m_bytes.addAndGet(-evicted.size());
+            m_evictions.incrementAndGet();
+        }
+        m_entryCount = m_entries.size();
+    }
+
+    /**
+     * Drop everything, including reads in flight, when the catalog or the
+     * partition masters change.
+     */
+    void clear() {
+        m_entries.clear();
+        m_pending.clear();
+        m_bytes.set(0);
+        m_entryCount = 0;
+    }
+
+    private void remove(Key key, Entry entry) {
+        m_entries.remove(key);
+        m_bytes.addAndGet(-entry.size());
+        m_entryCount = m_entries.size();
+    }
+}
@@ -0,0 +1,72 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.voltdb.StatsSource;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+
+import com.google_voltpatches.common.collect.ImmutableList;
+
+/**
+ * One row for the MPI's read result cache. ENTRIES and SIZE_BYTES are current,
+ * the counters cover everything since startup. INVALIDATIONS and EXPIRATIONS
+ * count entries found to be out of date or past their TTL on lookup, which
+ * are also counted as misses.
+ */
+public class MpReadCacheStats extends StatsSource {
+
+    private final MpReadCache m_cache;
+
+    public MpReadCacheStats(MpReadCache cache) {
+        super(false);
+        m_cache = cache;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("ENTRIES", VoltType.INTEGER));
+        columns.add(new ColumnInfo("SIZE_BYTES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("HITS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MISSES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("INVALIDATIONS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("EXPIRATIONS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("EVICTIONS", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        rowValues[columnNameToIndex.get("ENTRIES")] = m_cache.m_entryCount;
+        rowValues[columnNameToIndex.get("SIZE_BYTES")] = m_cache.m_bytes.get();
+        rowValues[columnNameToIndex.get("HITS")] = m_cache.m_hits.get();
+        rowValues[columnNameToIndex.get("MISSES")] = m_cache.m_misses.get();
+        rowValues[columnNameToIndex.get("INVALIDATIONS")] = m_cache.m_invalidations.get();
+        rowValues[columnNameToIndex.get("EXPIRATIONS")] = m_cache.m_expirations.get();
+        rowValues[columnNameToIndex.get("EVICTIONS")] = m_cache.m_evictions.get();
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        return ImmutableList.<Object>of(0).iterator();
+    }
+}
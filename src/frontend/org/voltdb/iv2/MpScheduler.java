@@ -17,7 +17,6 @@
 
 package org.voltdb.iv2;
 
-import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -29,16 +28,24 @@ import java.util.Set;
 
 import org.json_voltpatches.JSONException;
 import org.json_voltpatches.JSONObject;
+import org.voltcore.logging.Level;
 import org.voltcore.logging.VoltLogger;
-import org.voltcore.messaging.Mailbox;
 import org.voltcore.messaging.VoltMessage;
+import org.voltcore.utils.CoreUtils;
 import org.voltdb.CatalogContext;
 import org.voltdb.CatalogSpecificPlanner;
+import org.voltdb.ClientResponseImpl;
 import org.voltdb.CommandLog;
+import org.voltdb.ParameterConverter;
 import org.voltdb.SystemProcedureCatalog;
 import org.voltdb.SystemProcedureCatalog.Config;
+import org.voltdb.TheHashinator;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
 import org.voltdb.dtxn.TransactionState;
 import org.voltdb.messaging.CompleteTransactionMessage;
 import org.voltdb.messaging.DummyTransactionTaskMessage;
@@ -48,7 +55,6 @@ import org.voltdb.messaging.InitiateResponseMessage;
 import org.voltdb.messaging.Iv2EndOfLogMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
 import org.voltdb.sysprocs.BalancePartitionsRequest;
-import org.voltdb.utils.MiscUtils;
 
 import com.google_voltpatches.common.collect.Maps;
 import com.google_voltpatches.common.collect.Sets;
@@ -57,8 +63,27 @@ public class MpScheduler extends Scheduler
 {
     static VoltLogger tmLog = new VoltLogger("TM");
 
-    // null if running community, fallback to MpProcedureTask
-    private static final Constructor<?> NpProcedureTaskConstructor = loadNpProcedureTaskClass();
+    /*
+     * User procedures to run as n-partition transactions, as "Proc:0,1;Other:2". The numbers are the
+     * indexes of the parameters holding partitioning values, an invocation only involves the partitions
+     * those values hash to. The procedures must not write replicated tables and must only touch rows
+     * in the involved partitions, their SQL isn't sent anywhere else. Ignored while command logging
+     * is on.
+     */
+    static final Map<String, int[]> NP_PROCEDURES =
+            parseNpProcedures(System.getProperty("MP_NPARTITION_PROCEDURES", ""));
+
+    private Map<String, int[]> m_npProcedures = NP_PROCEDURES;
+    // false while command logging is on, see setCommandLog()
+    private boolean m_nPartitionAllowed = true;
+
+    private final MpTransactionStats m_stats = new MpTransactionStats();
+    // null unless MP_READ_CACHE_ENTRIES is set
+    private final MpReadCache m_readCache = TableWriteVersions.ENABLED ? new MpReadCache() : null;
+    // The table versions are host local, so is the cache
+    private boolean m_allMastersLocal = false;
+    // Whether the cache being bypassed for remote masters has been logged
+    private boolean m_readCacheBypassLogged = false;
 
     private final Map<Long, TransactionState> m_outstandingTxns =
         new HashMap<Long, TransactionState>();
@@ -98,6 +123,9 @@ public class MpScheduler extends Scheduler
     void updateCatalog(String diffCmds, CatalogContext context, CatalogSpecificPlanner csp)
     {
         m_pendingTasks.updateCatalog(diffCmds, context, csp);
+        if (TableWriteVersions.ENABLED) {
+            TableWriteVersions.bumpAll();
+        }
     }
 
     void updateSettings(CatalogContext context, CatalogSpecificPlanner csp)
@@ -125,6 +153,23 @@ public class MpScheduler extends Scheduler
         m_iv2Masters.addAll(replicas);
         m_partitionMasters.clear();
         m_partitionMasters.putAll(partitionMasters);
+        if (m_readCache != null) {
+            m_readCache.clear();
+            final int hostId = CoreUtils.getHostIdFromHSId(m_mailbox.getHSId());
+            m_allMastersLocal = true;
+            for (long hsId : m_partitionMasters.values()) {
+                m_allMastersLocal &= CoreUtils.getHostIdFromHSId(hsId) == hostId;
+            }
+            if (!m_allMastersLocal && !m_readCacheBypassLogged) {
+                tmLog.warn("MP_READ_CACHE_ENTRIES is set but some partition masters are on other hosts, " +
+                        "multi-partition reads will not be cached until every partition master is on host " +
+                        hostId);
+                m_readCacheBypassLogged = true;
+            } else if (m_allMastersLocal && m_readCacheBypassLogged) {
+                tmLog.info("Every partition master is on this host, multi-partition reads are cached again");
+                m_readCacheBypassLogged = false;
+            }
+        }
         if (!m_isLeader) {
             return;
         }
@@ -207,6 +252,19 @@ public class MpScheduler extends Scheduler
     {
         final String procedureName = message.getStoredProcedureName();
 
+        MpReadCache.Key readCacheKey = null;
+        if (message.isReadOnly()) {
+            if (m_readCache != null && m_allMastersLocal && !message.isForReplay()) {
+                readCacheKey = MpReadCache.keyFor(message.getStoredProcedureInvocation());
+                if (readCacheKey != null && respondFromReadCache(message, readCacheKey)) {
+                    return;
+                }
+            }
+        } else if (TableWriteVersions.ENABLED) {
+            TableWriteVersions.recordWrite(VoltDB.instance().getCatalogContext(),
+                    message.getStoredProcedureInvocation());
+        }
+
         /*
          * If this is CL replay, use the txnid from the CL and use it to update the current txnid
          */
@@ -273,41 +331,207 @@ public class MpScheduler extends Scheduler
                     message.getConnectionId(),
                     message.isForReplay());
         // Multi-partition initiation (at the MPI)
-        MpProcedureTask task = null;
-        if (isNpTxn(message) && NpProcedureTaskConstructor != null) {
-            Set<Integer> involvedPartitions = getBalancePartitions(message);
-            if (involvedPartitions != null) {
-                HashMap<Integer, Long> involvedPartitionMasters = Maps.newHashMap(m_partitionMasters);
-                involvedPartitionMasters.keySet().retainAll(involvedPartitions);
-
-                task = instantiateNpProcedureTask(m_mailbox, procedureName,
+        MpProcedureTask task = createProcedureTask(procedureName, mp, false);
+        if (readCacheKey != null) {
+            final String[] tables = TableWriteVersions.tablesRead(VoltDB.instance().getCatalogContext(),
+                    message.getStoredProcedureInvocation());
+            if (tables != null) {
+                m_readCache.beginFill(mpTxnId, readCacheKey, tables);
+            }
+        }
+
+        m_nextBuddy = (m_nextBuddy++) % m_buddyHSIds.size();
+        m_outstandingTxns.put(task.m_txnState.txnId, task.m_txnState);
+        m_pendingTasks.offer(task);
+    }
+
+    /**
+     * Run the transaction as an n-partition transaction if only some partitions are
+     * involved, otherwise as a multi-partition transaction.
+     */
+    private MpProcedureTask createProcedureTask(String procedureName, Iv2InitiateTaskMessage mp, boolean isRestart)
+    {
+        Set<Integer> involvedPartitions = getInvolvedPartitions(mp);
+        if (involvedPartitions != null) {
+            HashMap<Integer, Long> involvedPartitionMasters = Maps.newHashMap(m_partitionMasters);
+            involvedPartitionMasters.keySet().retainAll(involvedPartitions);
+            if (involvedPartitionMasters.size() == involvedPartitions.size()) {
+                return new NpProcedureTask(m_mailbox, procedureName,
                         m_pendingTasks, mp, involvedPartitionMasters,
-                        m_buddyHSIds.get(m_nextBuddy), false);
+                        m_buddyHSIds.get(m_nextBuddy), isRestart);
             }
+        }
 
-            // if cannot figure out the involved partitions, run it as an MP txn
+        // if cannot figure out the involved partitions, run it as an MP txn
+        return new MpProcedureTask(m_mailbox, procedureName,
+                m_pendingTasks, mp, m_iv2Masters, m_partitionMasters,
+                m_buddyHSIds.get(m_nextBuddy), isRestart);
+    }
+
+    /**
+     * @return the partitions an n-partition transaction involves, or null to run it
+     * as a multi-partition transaction
+     */
+    Set<Integer> getInvolvedPartitions(Iv2InitiateTaskMessage msg)
+    {
+        if (!m_nPartitionAllowed) {
+            return null;
+        }
+        final String procedureName = msg.getStoredProcedureName();
+        if (procedureName.startsWith("@")) {
+            if (procedureName.equalsIgnoreCase("@BalancePartitions") &&
+                    (byte) msg.getParameters()[1] != 1) { // clearIndex is MP, normal rebalance is NP
+                return getBalancePartitions(msg);
+            }
+            return null;
+        }
+        final int[] partitionParameters = m_npProcedures.get(procedureName);
+        if (partitionParameters == null) {
+            return null;
         }
+        final Procedure catProc = VoltDB.instance().getCatalogContext().procedures.get(procedureName);
+        if (!canRunAsNPartition(procedureName, catProc)) {
+            return null;
+        }
+        return hashPartitionParameters(procedureName, partitionParameters, getParameterTypes(catProc),
+                msg.getParameters());
+    }
 
-        if (task == null) {
-            task = new MpProcedureTask(m_mailbox, procedureName,
-                    m_pendingTasks, mp, m_iv2Masters, m_partitionMasters,
-                    m_buddyHSIds.get(m_nextBuddy), false);
+    /**
+     * Hash the partitioning parameters converted to the types the procedure declares, as the
+     * procedure will see them. Single partition procedures are routed the same way.
+     * @param types the declared type of each parameter, null for arrays
+     * @return the involved partitions, or null if a value can't be hashed as its declared type
+     */
+    static Set<Integer> hashPartitionParameters(String procedureName, int[] partitionParameters,
+            VoltType[] types, Object[] params)
+    {
+        Set<Integer> partitions = Sets.newHashSet();
+        for (int index : partitionParameters) {
+            if (index >= params.length || index >= types.length || params[index] == null) {
+                return null;
+            }
+            final VoltType type = types[index];
+            if (type == null || !(type.isAnyIntegerType() || type == VoltType.STRING || type == VoltType.VARBINARY)) {
+                tmLog.rateLimitedLog(60, Level.WARN, null,
+                        "Parameter %d of procedure %s can't be used to partition, " +
+                        "it will run as a multi-partition transaction", index, procedureName);
+                return null;
+            }
+            try {
+                final Object value = ParameterConverter.tryToMakeCompatible(type.classFromType(), params[index]);
+                if (VoltType.isVoltNullValue(value)) {
+                    return null;
+                }
+                partitions.add(TheHashinator.getPartitionForParameter(type, value));
+            } catch (Exception e) {
+                // Run it as MP and let the procedure reject the parameter
+                return null;
+            }
         }
+        return partitions;
+    }
 
-        m_nextBuddy = (m_nextBuddy++) % m_buddyHSIds.size();
-        m_outstandingTxns.put(task.m_txnState.txnId, task.m_txnState);
-        m_pendingTasks.offer(task);
+    private static VoltType[] getParameterTypes(Procedure catProc)
+    {
+        VoltType[] types = new VoltType[catProc.getParameters().size()];
+        for (ProcParameter param : catProc.getParameters()) {
+            if (param.getIndex() < types.length && !param.getIsarray()) {
+                types[param.getIndex()] = VoltType.get((byte) param.getType());
+            }
+        }
+        return types;
+    }
+
+    /*
+     * Writes to replicated tables have to reach every partition
+     */
+    private static boolean canRunAsNPartition(String procedureName, Procedure catProc)
+    {
+        if (catProc == null || catProc.getSinglepartition()) {
+            return false;
+        }
+        for (Statement stmt : catProc.getStatements()) {
+            if (!stmt.getReadonly() && stmt.getReplicatedtabledml()) {
+                tmLog.rateLimitedLog(60, Level.WARN, null,
+                        "Procedure %s writes replicated tables and will run as a multi-partition transaction",
+                        procedureName);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Map<String, int[]> parseNpProcedures(String spec)
+    {
+        Map<String, int[]> procedures = new HashMap<String, int[]>();
+        for (String entry : spec.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            final int colon = entry.indexOf(':');
+            try {
+                if (colon <= 0) {
+                    throw new NumberFormatException("no parameter indexes");
+                }
+                final String[] indexes = entry.substring(colon + 1).split(",");
+                int[] parameters = new int[indexes.length];
+                for (int i = 0; i < indexes.length; i++) {
+                    parameters[i] = Integer.parseInt(indexes[i].trim());
+                    if (parameters[i] < 0) {
+                        throw new NumberFormatException("negative parameter index");
+                    }
+                }
+                procedures.put(entry.substring(0, colon).trim(), parameters);
+            } catch (NumberFormatException e) {
+                tmLog.warn("Ignoring invalid n-partition procedure \"" + entry + "\": " + e.getMessage());
+            }
+        }
+        return procedures;
+    }
+
+    MpTransactionStats getTransactionStats()
+    {
+        return m_stats;
+    }
+
+    MpReadCache getReadCache()
+    {
+        return m_readCache;
     }
 
     /**
-     * Hacky way to only run @BalancePartitions as n-partition transactions for now.
-     * @return true if it's an n-partition transaction
+     * Answer a read from the cache without starting a transaction. MP reads are
+     * short circuit reads at the ClientInterface, so they may complete in any order.
      */
-    private boolean isNpTxn(Iv2InitiateTaskMessage msg)
+    private boolean respondFromReadCache(Iv2InitiateTaskMessage message, MpReadCache.Key key)
     {
-        return msg.getStoredProcedureName().startsWith("@") &&
-                msg.getStoredProcedureName().equalsIgnoreCase("@BalancePartitions") &&
-                (byte) msg.getParameters()[1] != 1; // clearIndex is MP, normal rebalance is NP
+        final ClientResponseImpl cached = m_readCache.get(key);
+        if (cached == null) {
+            return false;
+        }
+        final InitiateResponseMessage response = new InitiateResponseMessage(message);
+        response.m_sourceHSId = m_mailbox.getHSId();
+        response.setResults(cached);
+        m_mailbox.send(message.getInitiatorHSId(), response);
+        return true;
+    }
+
+    /*
+     * Writes bump the table versions again once they are done, so that reads which
+     * started while they ran aren't cached as current.
+     */
+    private void recordCompletedWrite(TransactionState txn, InitiateResponseMessage message)
+    {
+        if (!TableWriteVersions.ENABLED || message.isReadOnly()) {
+            return;
+        }
+        if (txn instanceof MpTransactionState) {
+            TableWriteVersions.recordWrite(VoltDB.instance().getCatalogContext(), txn.getInvocation());
+        } else {
+            TableWriteVersions.bumpAll();
+        }
     }
 
     /**
@@ -360,26 +584,7 @@ public class MpScheduler extends Scheduler
                     message.isForReplay());
         m_uniqueIdGenerator.updateMostRecentlyGeneratedUniqueId(message.getUniqueId());
         // Multi-partition initiation (at the MPI)
-        MpProcedureTask task = null;
-        if (isNpTxn(message) && NpProcedureTaskConstructor != null) {
-            Set<Integer> involvedPartitions = getBalancePartitions(message);
-            if (involvedPartitions != null) {
-                HashMap<Integer, Long> involvedPartitionMasters = Maps.newHashMap(m_partitionMasters);
-                involvedPartitionMasters.keySet().retainAll(involvedPartitions);
-
-                task = instantiateNpProcedureTask(m_mailbox, procedureName,
-                        m_pendingTasks, mp, involvedPartitionMasters,
-                        m_buddyHSIds.get(m_nextBuddy), true);
-            }
-
-            // if cannot figure out the involved partitions, run it as an MP txn
-        }
-
-        if (task == null) {
-            task = new MpProcedureTask(m_mailbox, procedureName,
-                    m_pendingTasks, mp, m_iv2Masters, m_partitionMasters,
-                    m_buddyHSIds.get(m_nextBuddy), true);
-        }
+        MpProcedureTask task = createProcedureTask(procedureName, mp, true);
 
         m_nextBuddy = (m_nextBuddy++) % m_buddyHSIds.size();
         m_outstandingTxns.put(task.m_txnState.txnId, task.m_txnState);
@@ -403,7 +608,7 @@ public class MpScheduler extends Scheduler
                     m_repairLogTruncationHandle = m_repairLogAwaitingCommit;
                     m_repairLogAwaitingCommit = message.getTxnId();
                 }
-                m_outstandingTxns.remove(message.getTxnId());
+                recordCompletedWrite(m_outstandingTxns.remove(message.getTxnId()), message);
 
                 m_mailbox.send(counter.m_destinationId, message);
             }
@@ -418,7 +623,17 @@ public class MpScheduler extends Scheduler
                 m_repairLogTruncationHandle = m_repairLogAwaitingCommit;
                 m_repairLogAwaitingCommit = message.getTxnId();
             }
-            m_outstandingTxns.remove(message.getTxnId());
+            TransactionState txn = m_outstandingTxns.remove(message.getTxnId());
+            if (txn instanceof MpTransactionState) {
+                MpTransactionState mpTxn = (MpTransactionState) txn;
+                m_stats.recordCompletion(mpTxn.m_isNPartition, mpTxn.m_masterHSIds.size(),
+                        System.nanoTime() - mpTxn.m_createTimeNanos, message.shouldCommit());
+            }
+            recordCompletedWrite(txn, message);
+            if (m_readCache != null && message.isReadOnly()) {
+                m_readCache.completeFill(message.getTxnId(),
+                        message.shouldCommit() ? message.getClientResponseData() : null);
+            }
             // the initiatorHSId is the ClientInterface mailbox. Yeah. I know.
             m_mailbox.send(message.getInitiatorHSId(), message);
             // We actually completed this MP transaction.  Create a fake CompleteTransactionMessage
@@ -483,6 +698,18 @@ public class MpScheduler extends Scheduler
     @Override
     public void setCommandLog(CommandLog cl) {
         // the MPI currently doesn't do command logging.  Don't have a reference to one.
+        // Replay only reinitiates the multi-partition writes logged by the partitions on the
+        // MPI's host, an n-partition write that skips all of them would be lost.
+        m_nPartitionAllowed = cl == null || !cl.isEnabled();
+        if (!m_nPartitionAllowed && !m_npProcedures.isEmpty()) {
+            tmLog.warn("Command logging is enabled, the procedures in MP_NPARTITION_PROCEDURES " +
+                    "will run as multi-partition transactions");
+        }
+    }
+
+    void setNPartitionProceduresForTestOnly(Map<String, int[]> procedures)
+    {
+        m_npProcedures = procedures;
     }
 
     @Override
@@ -490,26 +717,6 @@ public class MpScheduler extends Scheduler
         // This is currently a no-op for the MPI
     }
 
-    /**
-     * Load the pro class for n-partition transactions.
-     * @return null if running in community or failed to load the class
-     */
-    private static Constructor<?> loadNpProcedureTaskClass()
-    {
-        Class<?> klass = MiscUtils.loadProClass("org.voltdb.iv2.NpProcedureTask", "N-Partition", !MiscUtils.isPro());
-        if (klass != null) {
-            try {
-                return klass.getConstructor(Mailbox.class, String.class, TransactionTaskQueue.class,
-                        Iv2InitiateTaskMessage.class, Map.class, long.class, boolean.class);
-            } catch (NoSuchMethodException e) {
-                hostLog.error("Unabled to get the constructor for pro class NpProcedureTask", e);
-                return null;
-            }
-        } else {
-            return null;
-        }
-    }
-
     /**
      * Just using "put" on the dup counter map is unsafe.
      * It won't detect the case where keys collide from two different transactions.
@@ -525,16 +732,4 @@ public class MpScheduler extends Scheduler
             m_duplicateCounters.put(dpKey, counter);
         }
     }
-
-    private static MpProcedureTask instantiateNpProcedureTask(Object...params)
-    {
-        if (NpProcedureTaskConstructor != null) {
-            try {
-                return (MpProcedureTask) NpProcedureTaskConstructor.newInstance(params);
-            } catch (Exception e) {
-                tmLog.error("Unable to instantiate NpProcedureTask", e);
-            }
-        }
-        return null;
-    }
 }
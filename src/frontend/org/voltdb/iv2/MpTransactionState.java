@@ -73,6 +73,9 @@ public class MpTransactionState extends TransactionState
     FragmentTaskMessage m_localWork = null;
     boolean m_haveDistributedInitTask = false;
     boolean m_isRestart = false;
+    // Set for n-partition transactions, which only involve the partitions in m_masterHSIds
+    boolean m_isNPartition = false;
+    final long m_createTimeNanos = System.nanoTime();
 
     MpTransactionState(Mailbox mailbox,
                        TransactionInfoBaseMessage notice,
@@ -0,0 +1,124 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.voltdb.StatsSource;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+import org.voltdb.dtxn.LatencyStats;
+
+import com.google_voltpatches.common.collect.ImmutableList;
+
+/**
+ * Latency and throughput of the transactions coordinated by the MPI, one row
+ * for multi-partition (MP) and one for n-partition (NP) transactions. Latency
+ * runs from the MPI receiving the initiation to it forwarding the response, in
+ * microseconds. TPS covers the time since the last interval poll, or since
+ * startup for a non-interval poll.
+ */
+public class MpTransactionStats extends StatsSource {
+
+    static final String MP = "MP";
+    static final String NP = "NP";
+
+    private static class Counters {
+        final AbstractHistogram m_latency = LatencyStats.constructHistogram(true);
+        final AtomicLong m_invocations = new AtomicLong();
+        final AtomicLong m_aborts = new AtomicLong();
+        final AtomicLong m_partitions = new AtomicLong();
+        // Only touched while the stats are collected, under the StatsSource lock
+        long m_lastInvocations = 0;
+        long m_lastPollNanos = System.nanoTime();
+    }
+
+    private final Counters m_mp = new Counters();
+    private final Counters m_np = new Counters();
+    private final long m_startNanos = System.nanoTime();
+    private boolean m_interval = false;
+
+    public MpTransactionStats() {
+        super(false);
+    }
+
+    /**
+     * Called by the MpScheduler as it forwards the response of a transaction
+     * @param partitions the number of partitions the transaction involved
+     */
+    void recordCompletion(boolean isNPartition, int partitions, long latencyNanos, boolean committed) {
+        final Counters counters = isNPartition ? m_np : m_mp;
+        final long micros = latencyNanos / 1000;
+        counters.m_latency.recordValue(Math.max(0, Math.min(micros, counters.m_latency.getHighestTrackableValue())));
+        counters.m_invocations.incrementAndGet();
+        counters.m_partitions.addAndGet(partitions);
+        if (!committed) {
+            counters.m_aborts.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("TRANSACTION_TYPE", VoltType.STRING));
+        columns.add(new ColumnInfo("INVOCATIONS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("ABORTS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_PARTITIONS", VoltType.FLOAT));
+        columns.add(new ColumnInfo("TPS", VoltType.FLOAT));
+        columns.add(new ColumnInfo("LATENCY_P50", VoltType.BIGINT));
+        columns.add(new ColumnInfo("LATENCY_P99", VoltType.BIGINT));
+        columns.add(new ColumnInfo("LATENCY_P999", VoltType.BIGINT));
+        columns.add(new ColumnInfo("LATENCY_MAX", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final Counters counters = NP.equals(rowKey) ? m_np : m_mp;
+        final AbstractHistogram latency = counters.m_latency.copy();
+        final long invocations = counters.m_invocations.get();
+        final long now = System.nanoTime();
+        final double tps;
+        if (m_interval) {
+            tps = (invocations - counters.m_lastInvocations) * 1e9 / Math.max(1, now - counters.m_lastPollNanos);
+            counters.m_lastInvocations = invocations;
+            counters.m_lastPollNanos = now;
+        } else {
+            tps = invocations * 1e9 / Math.max(1, now - m_startNanos);
+        }
+        rowValues[columnNameToIndex.get("TRANSACTION_TYPE")] = rowKey;
+        rowValues[columnNameToIndex.get("INVOCATIONS")] = invocations;
+        rowValues[columnNameToIndex.get("ABORTS")] = counters.m_aborts.get();
+        rowValues[columnNameToIndex.get("AVG_PARTITIONS")] =
+                invocations == 0 ? 0.0 : (double) counters.m_partitions.get() / invocations;
+        rowValues[columnNameToIndex.get("TPS")] = tps;
+        rowValues[columnNameToIndex.get("LATENCY_P50")] = latency.getValueAtPercentile(50.0);
+        rowValues[columnNameToIndex.get("LATENCY_P99")] = latency.getValueAtPercentile(99.0);
+        rowValues[columnNameToIndex.get("LATENCY_P999")] = latency.getValueAtPercentile(99.9);
+        rowValues[columnNameToIndex.get("LATENCY_MAX")] = latency.getMaxValue();
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        m_interval = interval;
+        return ImmutableList.<Object>of(MP, NP).iterator();
+    }
+}
@@ -0,0 +1,91 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.voltcore.messaging.Mailbox;
+import org.voltcore.utils.CoreUtils;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+
+import com.google_voltpatches.common.collect.ImmutableSet;
+import com.google_voltpatches.common.collect.Maps;
+
+/**
+ * Multi-partition procedure task that only involves some of the partitions.
+ * Fragments and completions go to the masters of the involved partitions
+ * alone, so every other partition keeps running single partition work while
+ * the transaction is in progress. Master changes on repair are narrowed down
+ * to the involved partitions as well.
+ */
+public class NpProcedureTask extends MpProcedureTask
+{
+    private final Set<Integer> m_involvedPartitions;
+
+    public NpProcedureTask(Mailbox mailbox, String procName, TransactionTaskQueue queue,
+                  Iv2InitiateTaskMessage msg, Map<Integer, Long> involvedPartitionMasters,
+                  long buddyHSId, boolean isRestart)
+    {
+        super(mailbox, procName, queue, msg,
+              new ArrayList<Long>(involvedPartitionMasters.values()), involvedPartitionMasters,
+              buddyHSId, isRestart);
+        m_involvedPartitions = ImmutableSet.copyOf(involvedPartitionMasters.keySet());
+        ((MpTransactionState) m_txnState).m_isNPartition = true;
+    }
+
+    Set<Integer> getInvolvedPartitions()
+    {
+        return m_involvedPartitions;
+    }
+
+    @Override
+    public void updateMasters(List<Long> masters, Map<Integer, Long> partitionMasters)
+    {
+        final Map<Integer, Long> involved = involvedMasters(partitionMasters);
+        super.updateMasters(new ArrayList<Long>(involved.values()), involved);
+    }
+
+    @Override
+    public void doRestart(List<Long> masters, Map<Integer, Long> partitionMasters)
+    {
+        final Map<Integer, Long> involved = involvedMasters(partitionMasters);
+        super.doRestart(new ArrayList<Long>(involved.values()), involved);
+    }
+
+    private Map<Integer, Long> involvedMasters(Map<Integer, Long> partitionMasters)
+    {
+        Map<Integer, Long> involved = Maps.newHashMap(partitionMasters);
+        involved.keySet().retainAll(m_involvedPartitions);
+        return involved;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("NpProcedureTask:");
+        sb.append("  TXN ID: ").append(TxnEgo.txnIdToString(getTxnId()));
+        sb.append("  SP HANDLE ID: ").append(TxnEgo.txnIdToString(getSpHandle()));
+        sb.append("  ON HSID: ").append(CoreUtils.hsIdToString(m_initiator.getHSId()));
+        sb.append("  PARTITIONS: ").append(m_involvedPartitions);
+        return sb.toString();
+    }
+}
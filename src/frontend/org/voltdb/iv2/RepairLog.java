@@ -21,10 +21,11 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.messaging.VoltMessage;
@@ -43,12 +44,43 @@ import org.voltdb.messaging.RepairLogTruncationMessage;
  * initiator (leader) shed its mortal coil.  This includes recording and sharing messages
  * starting and completing multipartition transactions so that a new MPI can repair the
  * cluster state on promotion.
+ *
+ * Initiators keep the log serialized in off-heap ring buffers (see RepairLogBuffer)
+ * so that a log waiting on truncation doesn't show up as heap pressure. Messages
+ * are only deserialized again when the contents are requested for repair.
+ * The bytes held by all serialized logs in the process are reported in MEMORY
+ * statistics and, past REPAIR_LOG_MAX_BYTES, registered BackpressureListeners
+ * are told to stop accepting new work until truncation catches up.
  */
 public class RepairLog
 {
     private static final boolean IS_SP = true;
     private static final boolean IS_MP = false;
 
+    private static final VoltLogger hostLog = new VoltLogger("HOST");
+
+    // Set REPAIR_LOG_ON_HEAP to keep the message objects themselves in the log
+    static final boolean SERIALIZED_STORAGE = !Boolean.getBoolean("REPAIR_LOG_ON_HEAP");
+    // Serialized bytes in all repair logs above which backpressure is signaled, 0 to disable
+    static final long MAX_BYTES = Long.getLong("REPAIR_LOG_MAX_BYTES", 512L * 1024 * 1024);
+    static final long LESS_THAN_MAX_BYTES = (long)(MAX_BYTES * .8);
+
+    /**
+     * Notified when the repair logs in this process cross the configured ceiling, and
+     * again when they have been truncated back below it. Called on whichever initiator
+     * thread caused the transition.
+     */
+    public interface BackpressureListener
+    {
+        public void onBackpressure();
+        public void offBackpressure();
+    }
+
+    private static final AtomicLong s_totalBytes = new AtomicLong();
+    private static volatile boolean s_hasBackpressure = false;
+    private static final List<BackpressureListener> s_listeners =
+            new CopyOnWriteArrayList<BackpressureListener>();
+
     VoltLogger tmLog = new VoltLogger("TM");
 
     // Initialize to Long MAX_VALUE to prevent feeding a newly joined node
@@ -118,14 +150,149 @@ public class RepairLog
         }
     }
 
+    /**
+     * Storage for one of the SP or MP logs, oldest entry first.
+     */
+    static abstract class Log
+    {
+        abstract void add(boolean type, VoltMessage msg, long handle, long txnId);
+        abstract boolean isEmpty();
+        abstract int size();
+        abstract long firstHandle();
+        abstract long firstTxnId();
+        abstract long lastHandle();
+        abstract void removeFirst();
+        // Append every entry, with its message, to items
+        abstract void addItemsTo(List<Item> items);
+        // Drop all entries and release any memory held
+        abstract void discard();
+    }
+
+    static class HeapLog extends Log
+    {
+        private final ArrayDeque<Item> m_items = new ArrayDeque<Item>();
+
+        @Override
+        void add(boolean type, VoltMessage msg, long handle, long txnId) {
+            m_items.add(new Item(type, msg, handle, txnId));
+        }
+
+        @Override
+        boolean isEmpty() {
+            return m_items.isEmpty();
+        }
+
+        @Override
+        int size() {
+            return m_items.size();
+        }
+
+        @Override
+        long firstHandle() {
+            return m_items.getFirst().getHandle();
+        }
+
+        @Override
+        long firstTxnId() {
+            return m_items.getFirst().getTxnId();
+        }
+
+        @Override
+        long lastHandle() {
+            return m_items.getLast().getHandle();
+        }
+
+        @Override
+        void removeFirst() {
+            m_items.removeFirst();
+        }
+
+        @Override
+        void addItemsTo(List<Item> items) {
+            items.addAll(m_items);
+        }
+
+        @Override
+        void discard() {
+            m_items.clear();
+        }
+    }
+
     // log storage.
-    final Deque<Item> m_logSP;
-    final Deque<Item> m_logMP;
+    final Log m_logSP;
+    final Log m_logMP;
 
     RepairLog()
     {
-        m_logSP = new ArrayDeque<Item>();
-        m_logMP = new ArrayDeque<Item>();
+        this(false);
+    }
+
+    /**
+     * @param serialized keep entries serialized off-heap rather than as message objects
+     */
+    RepairLog(boolean serialized)
+    {
+        if (serialized) {
+            m_logSP = new RepairLogBuffer();
+            m_logMP = new RepairLogBuffer();
+        } else {
+            m_logSP = new HeapLog();
+            m_logMP = new HeapLog();
+        }
+    }
+
+    /**
+     * @return bytes of serialized messages held by all repair logs in this process
+     */
+    public static long getTotalBytes()
+    {
+        return s_totalBytes.get();
+    }
+
+    public static boolean hasBackpressure()
+    {
+        return s_hasBackpressure;
+    }
+
+    public static void addBackpressureListener(BackpressureListener listener)
+    {
+        s_listeners.add(listener);
+    }
+
+    public static void removeBackpressureListener(BackpressureListener listener)
+    {
+        s_listeners.remove(listener);
+    }
+
+    /*
+     * Invoked by the serialized logs as they grow and shrink. Transitions are rare so
+     * they are decided under a lock, with hysteresis so listeners don't flap.
+     */
+    static void updateTotalBytes(long delta)
+    {
+        final long total = s_totalBytes.addAndGet(delta);
+        if (MAX_BYTES <= 0) {
+            return;
+        }
+        if (s_hasBackpressure ? total < LESS_THAN_MAX_BYTES : total > MAX_BYTES) {
+            synchronized (s_listeners) {
+                final long current = s_totalBytes.get();
+                if (!s_hasBackpressure && current > MAX_BYTES) {
+                    hostLog.info("Repair log holds " + current + " bytes, exceeding the limit of " +
+                            MAX_BYTES + " bytes. Backpressure began");
+                    s_hasBackpressure = true;
+                    for (BackpressureListener listener : s_listeners) {
+                        listener.onBackpressure();
+                    }
+                } else if (s_hasBackpressure && current < LESS_THAN_MAX_BYTES) {
+                    hostLog.info("Repair log holds " + current + " bytes. Backpressure ended");
+                    s_hasBackpressure = false;
+                    for (BackpressureListener listener : s_listeners) {
+                        listener.offBackpressure();
+                    }
+                }
+            }
+        }
     }
 
     // get the HSID for dump logging
@@ -143,7 +310,7 @@ public class RepairLog
         // action always happens after repair is completed.
         if (m_isLeader) {
             if (!m_logSP.isEmpty()) {
-                truncate(m_logSP.getLast().getHandle(), IS_SP);
+                truncate(m_logSP.lastHandle(), IS_SP);
             }
         }
     }
@@ -161,7 +328,7 @@ public class RepairLog
 
             m_lastSpHandle = m.getSpHandle();
             truncate(m.getTruncationHandle(), IS_SP);
-            m_logSP.add(new Item(IS_SP, m, m.getSpHandle(), m.getTxnId()));
+            m_logSP.add(IS_SP, m, m.getSpHandle(), m.getTxnId());
         } else if (msg instanceof FragmentTaskMessage) {
             final FragmentTaskMessage m = (FragmentTaskMessage) msg;
 
@@ -173,7 +340,7 @@ public class RepairLog
             truncate(m.getTruncationHandle(), IS_MP);
             // only log the first fragment of a procedure (and handle 1st case)
             if (m.getTxnId() > m_lastMpHandle || m_lastMpHandle == Long.MAX_VALUE) {
-                m_logMP.add(new Item(IS_MP, m, m.getSpHandle(), m.getTxnId()));
+                m_logMP.add(IS_MP, m, m.getSpHandle(), m.getTxnId());
                 m_lastMpHandle = m.getTxnId();
                 m_lastSpHandle = m.getSpHandle();
             }
@@ -189,7 +356,7 @@ public class RepairLog
             }
 
             truncate(ctm.getTruncationHandle(), IS_MP);
-            m_logMP.add(new Item(IS_MP, ctm, ctm.getSpHandle(), ctm.getTxnId()));
+            m_logMP.add(IS_MP, ctm, ctm.getSpHandle(), ctm.getTxnId());
             //Restore will send a complete transaction message with a lower mp transaction id because
             //the restore transaction precedes the loading of the right mp transaction id from the snapshot
             //Hence Math.max
@@ -218,9 +385,9 @@ public class RepairLog
             return;
         }
 
-        Deque<RepairLog.Item> deq = null;
+        Log log = null;
         if (isSP) {
-            deq = m_logSP;
+            log = m_logSP;
             if (m_truncationHandle < handle) {
                 m_truncationHandle = handle;
                 for (TransactionCommitInterest interest : m_txnCommitInterests) {
@@ -229,19 +396,22 @@ public class RepairLog
             }
         }
         else {
-            deq = m_logMP;
+            log = m_logMP;
         }
 
-        RepairLog.Item item = null;
-        while ((item = deq.peek()) != null) {
-            if (item.canTruncate(handle)) {
-                deq.poll();
-            } else {
-                break;
-            }
+        // SP entries truncate by spHandle, MP entries by txnId
+        while (!log.isEmpty() && (isSP ? log.firstHandle() : log.firstTxnId()) <= handle) {
+            log.removeFirst();
         }
     }
 
+    // release the log storage, the initiator is going away
+    void shutdown()
+    {
+        m_logSP.discard();
+        m_logMP.discard();
+    }
+
     // return the last seen SP handle
     public long getLastSpHandle()
     {
@@ -266,12 +436,12 @@ public class RepairLog
     // produce the contents of the repair log.
     public List<Iv2RepairLogResponseMessage> contents(long requestId, boolean forMPI)
     {
-        List<Item> items = new LinkedList<Item>();
+        List<Item> items = new ArrayList<Item>(m_logMP.size() + (forMPI ? 0 : m_logSP.size()));
         // All cases include the log of MP transactions
-        items.addAll(m_logMP);
+        m_logMP.addItemsTo(items);
         // SP repair requests also want the SP transactions
         if (!forMPI) {
-            items.addAll(m_logSP);
+            m_logSP.addItemsTo(items);
         }
 
         // Contents need to be sorted in increasing spHandle order
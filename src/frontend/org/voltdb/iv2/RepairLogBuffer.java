@@ -0,0 +1,288 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.voltcore.messaging.VoltMessage;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.VoltDB;
+import org.voltdb.messaging.VoltDbMessageFactory;
+
+/**
+ * Repair log storage that keeps each message serialized in an off-heap ring buffer.
+ * Entries are appended at the tail and truncated from the head; an entry is never
+ * split across the end of the buffer, so when it doesn't fit at the end it starts
+ * over at the front. The per entry metadata lives in parallel primitive rings.
+ *
+ * The buffer doubles when an entry doesn't fit and halves once it is mostly empty,
+ * and is freed when the log empties out so an idle log holds no memory. Messages are
+ * only rebuilt, from a heap copy of their bytes, when the contents are requested.
+ *
+ * Not thread safe, the initiator mailbox serializes access to its repair log.
+ */
+class RepairLogBuffer extends RepairLog.Log
+{
+    static final int INITIAL_CAPACITY = 64 * 1024;
+    static final int INITIAL_ENTRIES = 64;
+
+    private final VoltDbMessageFactory m_messageFactory = new VoltDbMessageFactory();
+
+    private BBContainer m_container = null;
+    private ByteBuffer m_buffer = null;
+    // Byte offset the next entry will be written at if it fits
+    private int m_tail = 0;
+    private long m_bytesUsed = 0;
+
+    private long[] m_handles = new long[INITIAL_ENTRIES];
+    private long[] m_txnIds = new long[INITIAL_ENTRIES];
+    private long[] m_sourceHSIds = new long[INITIAL_ENTRIES];
+    private int[] m_offsets = new int[INITIAL_ENTRIES];
+    private int[] m_lengths = new int[INITIAL_ENTRIES];
+    private boolean m_type;
+    private int m_head = 0;
+    private int m_count = 0;
+
+    private int index(int i) {
+        return (m_head + i) & (m_handles.length - 1);
+    }
+
+    @Override
+    void add(boolean type, VoltMessage msg, long handle, long txnId) {
+        final int length = msg.getSerializedSize();
+        final int offset = reserve(length);
+        final ByteBuffer dup = m_buffer.duplicate();
+        dup.limit(offset + length).position(offset);
+        try {
+            msg.flattenToBuffer(dup.slice());
+        } catch (IOException e) {
+            VoltDB.crashLocalVoltDB("Unable to serialize message for the repair log: " + msg, true, e);
+        }
+        m_tail = offset + length;
+
+        if (m_count == m_handles.length) {
+            growEntries();
+        }
+        final int idx = index(m_count);
+        m_handles[idx] = handle;
+        m_txnIds[idx] = txnId;
+        m_sourceHSIds[idx] = msg.m_sourceHSId;
+        m_offsets[idx] = offset;
+        m_lengths[idx] = length;
+        m_type = type;
+        m_count++;
+        m_bytesUsed += length;
+        RepairLog.updateTotalBytes(length);
+    }
+
+    /*
+     * Find room for length contiguous bytes, growing the buffer if there isn't any
+     */
+    private int reserve(int length) {
+        if (m_buffer == null) {
+            allocate(capacityFor(INITIAL_CAPACITY, length));
+            return 0;
+        }
+        if (m_count == 0) {
+            if (m_buffer.capacity() >= length) {
+                return 0;
+            }
+            grow(length);
+            return m_tail;
+        }
+
+        final int head = m_offsets[m_head];
+        if (m_tail > head) {
+            // Live bytes are [head, tail), room at the end and then at the front
+            if (m_buffer.capacity() - m_tail >= length) {
+                return m_tail;
+            } else if (head >= length) {
+                return 0;
+            }
+        } else if (head - m_tail >= length) {
+            // Wrapped, the only room is between the tail and the head
+            return m_tail;
+        }
+        grow(length);
+        return m_tail;
+    }
+
+    private static int capacityFor(int capacity, long needed) {
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        m_container = DBBPool.allocateDirect(capacity);
+        m_buffer = m_container.b();
+        m_buffer.clear();
+        m_tail = 0;
+    }
+
+    // Grow so that the live entries plus length more bytes fit
+    private void grow(int length) {
+        resize(capacityFor(m_buffer.capacity() << 1, m_bytesUsed + length));
+    }
+
+    /*
+     * Copy the live entries, oldest first, to the front of a new buffer
+     */
+    private void resize(int capacity) {
+        final BBContainer oldContainer = m_container;
+        final ByteBuffer oldBuffer = m_buffer.duplicate();
+        allocate(capacity);
+        for (int i = 0; i < m_count; i++) {
+            final int idx = index(i);
+            oldBuffer.limit(m_offsets[idx] + m_lengths[idx]).position(m_offsets[idx]);
+            m_offsets[idx] = m_buffer.position();
+            m_buffer.put(oldBuffer);
+        }
+        m_tail = m_buffer.position();
+        m_buffer.clear();
+        oldContainer.discard();
+    }
+
+    private void growEntries() {
+        final int length = m_handles.length;
+        final long[] handles = new long[length << 1];
+        final long[] txnIds = new long[length << 1];
+        final long[] sourceHSIds = new long[length << 1];
+        final int[] offsets = new int[length << 1];
+        final int[] lengths = new int[length << 1];
+        for (int i = 0; i < m_count; i++) {
+            final int idx = index(i);
+            handles[i] = m_handles[idx];
+            txnIds[i] = m_txnIds[idx];
+            sourceHSIds[i] = m_sourceHSIds[idx];
+            offsets[i] = m_offsets[idx];
+            lengths[i] = m_lengths[idx];
+        }
+        m_handles = handles;
+        m_txnIds = txnIds;
+        m_sourceHSIds = sourceHSIds;
+        m_offsets = offsets;
+        m_lengths = lengths;
+        m_head = 0;
+    }
+
+    @Override
+    boolean isEmpty() {
+        return m_count == 0;
+    }
+
+    @Override
+    int size() {
+        return m_count;
+    }
+
+    @Override
+    long firstHandle() {
+        assert(m_count > 0);
+        return m_handles[m_head];
+    }
+
+    @Override
+    long firstTxnId() {
+        assert(m_count > 0);
+        return m_txnIds[m_head];
+    }
+
+    @Override
+    long lastHandle() {
+        assert(m_count > 0);
+        return m_handles[index(m_count - 1)];
+    }
+
+    @Override
+    void removeFirst() {
+        assert(m_count > 0);
+        final int length = m_lengths[m_head];
+        m_head = index(1);
+        m_count--;
+        m_bytesUsed -= length;
+        RepairLog.updateTotalBytes(-length);
+
+        if (m_count == 0) {
+            release();
+        } else if (m_buffer.capacity() > INITIAL_CAPACITY && m_bytesUsed < m_buffer.capacity() / 4) {
+            resize(m_buffer.capacity() / 2);
+        }
+    }
+
+    /**
+     * @return the serialized bytes held by this log
+     */
+    long bytesUsed() {
+        return m_bytesUsed;
+    }
+
+    /**
+     * @return the off-heap bytes allocated for this log
+     */
+    int capacity() {
+        return m_buffer == null ? 0 : m_buffer.capacity();
+    }
+
+    @Override
+    void addItemsTo(List<RepairLog.Item> items) {
+        for (int i = 0; i < m_count; i++) {
+            final int idx = index(i);
+            items.add(new RepairLog.Item(m_type, getMessage(idx), m_handles[idx], m_txnIds[idx]));
+        }
+    }
+
+    /*
+     * Rebuild the message from a heap copy, deserialized messages may keep
+     * references into the buffer they were read from
+     */
+    private VoltMessage getMessage(int idx) {
+        final ByteBuffer dup = m_buffer.duplicate();
+        dup.limit(m_offsets[idx] + m_lengths[idx]).position(m_offsets[idx]);
+        final ByteBuffer copy = ByteBuffer.allocate(m_lengths[idx]);
+        copy.put(dup).flip();
+        try {
+            return m_messageFactory.createMessageFromBuffer(copy, m_sourceHSIds[idx]);
+        } catch (IOException e) {
+            VoltDB.crashLocalVoltDB("Unable to deserialize repair log entry", true, e);
+            return null;
+        }
+    }
+
+    @Override
+    void discard() {
+        RepairLog.updateTotalBytes(-m_bytesUsed);
+        m_bytesUsed = 0;
+        m_count = 0;
+        m_head = 0;
+        release();
+    }
+
+    private void release() {
+        if (m_container != null) {
+            m_container.discard();
+            m_container = null;
+            m_buffer = null;
+        }
+        m_tail = 0;
+    }
+}
@@ -116,6 +116,10 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
     private static final double m_taskLogReplayRatio =
             Double.valueOf(System.getProperty("TASKLOG_REPLAY_RATIO", "0.6"));
 
+    // Maximum number of ready tasks drained from the queue and run back to back.
+    // 1 takes a single task per loop iteration.
+    private static final int TASK_BATCH_SIZE = Math.max(1, Integer.getInteger("SITE_TASK_BATCH_SIZE", 1));
+
     // Set to false trigger shutdown.
     volatile boolean m_shouldContinue = true;
 
@@ -764,16 +768,24 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
         m_startupConfig = null; // release the serializableCatalog.
         //Maintain a minimum ratio of task log (unrestricted) to live (restricted) transactions
         final MinimumRatioMaintainer mrm = new MinimumRatioMaintainer(m_taskLogReplayRatio);
+        final SiteTasker[] taskBatch = TASK_BATCH_SIZE > 1 ? new SiteTasker[TASK_BATCH_SIZE] : null;
         try {
             while (m_shouldContinue) {
                 if (m_rejoinState == kStateRunning) {
                     // Normal operation blocks the site thread on the sitetasker queue.
-                    SiteTasker task = m_scheduler.take();
-                    if (task instanceof TransactionTask) {
-                        m_currentTxnId = ((TransactionTask)task).getTxnId();
-                        m_lastTxnTime = EstTime.currentTimeMillis();
+                    if (taskBatch == null) {
+                        runTask(m_scheduler.take());
+                    } else {
+                        final int count = m_scheduler.drainTo(taskBatch, TASK_BATCH_SIZE);
+                        for (int i = 0; i < count; i++) {
+                            final SiteTasker task = taskBatch[i];
+                            taskBatch[i] = null;
+                            // Like anything left in the queue, the rest of the batch is dropped on shutdown
+                            if (m_shouldContinue) {
+                                runTask(task);
+                            }
+                        }
                     }
-                    task.run(getSiteProcedureConnection());
                 } else if (m_rejoinState == kStateReplayingRejoin) {
                     // Rejoin operation poll and try to do some catchup work. Tasks
                     // are responsible for logging any rejoin work they might have.
@@ -829,6 +841,15 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
             CompressionService.releaseThreadLocal();        }
     }
 
+    private void runTask(SiteTasker task)
+    {
+        if (task instanceof TransactionTask) {
+            m_currentTxnId = ((TransactionTask)task).getTxnId();
+            m_lastTxnTime = EstTime.currentTimeMillis();
+        }
+        task.run(getSiteProcedureConnection());
+    }
+
     ParticipantTransactionState global_replay_mpTxn = null;
     boolean replayFromTaskLog(MinimumRatioMaintainer mrm) throws IOException
     {
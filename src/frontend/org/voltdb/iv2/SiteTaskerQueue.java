@@ -17,55 +17,207 @@
 
 package org.voltdb.iv2;
 
+import java.util.ArrayDeque;
 import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.MpscArrayQueue;
 import org.voltdb.StarvationTracker;
 
-/** SiteTaskerScheduler orders SiteTaskers for execution. */
+/**
+ * SiteTaskerScheduler orders SiteTaskers for execution.
+ *
+ * By default tasks are handed off through a LinkedTransferQueue. Setting
+ * SITE_TASKER_RING_CAPACITY switches to a pre-sized MpscArrayQueue that doesn't
+ * allocate per offer, with SITE_TASKER_WAIT_STRATEGY picking how the site waits
+ * for work. The ring never rejects a task: the site thread offers to its own
+ * queue, so instead of blocking a full ring spills into an overflow list that
+ * is drained in order.
+ */
 public class SiteTaskerQueue
 {
-    private final LinkedTransferQueue<SiteTasker> m_tasks = new LinkedTransferQueue<SiteTasker>();
+    public enum WaitStrategy {
+        /** Poll continuously, lowest latency, burns a core */
+        BUSY_SPIN,
+        /** Poll for a while, then yield between polls */
+        SPIN_YIELD,
+        /** Poll for a while, then park until a producer wakes the site */
+        SPIN_PARK
+    }
+
+    static final int RING_CAPACITY = Integer.getInteger("SITE_TASKER_RING_CAPACITY", 0);
+    static final WaitStrategy WAIT_STRATEGY =
+            WaitStrategy.valueOf(System.getProperty("SITE_TASKER_WAIT_STRATEGY", WaitStrategy.SPIN_PARK.name()));
+    static final int SPIN_TRIES = Integer.getInteger("SITE_TASKER_SPIN_TRIES", 1000);
+
+    private final LinkedTransferQueue<SiteTasker> m_tasks;
     private StarvationTracker m_starvationTracker;
 
+    private final MpscArrayQueue<SiteTasker> m_ring;
+    private final WaitStrategy m_waitStrategy;
+    // Only touched under its own lock, and only while m_overflowing is set
+    private final ArrayDeque<SiteTasker> m_overflow = new ArrayDeque<SiteTasker>();
+    private volatile boolean m_overflowing = false;
+    private volatile Thread m_consumer;
+    private volatile boolean m_consumerParked = false;
+
+    public SiteTaskerQueue()
+    {
+        this(RING_CAPACITY, WAIT_STRATEGY);
+    }
+
+    /**
+     * @param ringCapacity 0 to use a LinkedTransferQueue, otherwise the ring size
+     */
+    public SiteTaskerQueue(int ringCapacity, WaitStrategy waitStrategy)
+    {
+        if (ringCapacity > 0) {
+            m_tasks = null;
+            m_ring = new MpscArrayQueue<SiteTasker>(ringCapacity);
+        } else {
+            m_tasks = new LinkedTransferQueue<SiteTasker>();
+            m_ring = null;
+        }
+        m_waitStrategy = waitStrategy;
+    }
+
     public boolean offer(SiteTasker task)
     {
-        return m_tasks.offer(task);
+        if (m_ring == null) {
+            return m_tasks.offer(task);
+        }
+
+        if (m_overflowing || !m_ring.offer(task)) {
+            synchronized (m_overflow) {
+                // Re-check under the lock, the site may have caught up in the meantime
+                if (m_overflowing || !m_ring.offer(task)) {
+                    m_overflowing = true;
+                    m_overflow.add(task);
+                }
+            }
+        }
+        if (m_consumerParked) {
+            LockSupport.unpark(m_consumer);
+        }
+        return true;
     }
 
     // Block on the site tasker queue.
     public SiteTasker take() throws InterruptedException
     {
-        SiteTasker task = m_tasks.poll();
+        SiteTasker task = poll();
         if (task == null) {
             m_starvationTracker.beginStarvation();
         } else {
             return task;
         }
         try {
-            return CoreUtils.queueSpinTake(m_tasks);
+            if (m_ring == null) {
+                return CoreUtils.queueSpinTake(m_tasks);
+            } else {
+                return ringTake();
+            }
         } finally {
             m_starvationTracker.endStarvation();
         }
     }
 
+    /**
+     * Block until at least one task is available, then move up to max ready
+     * tasks into batch without blocking again. The batch size is reported to
+     * the starvation tracker.
+     * @return the number of tasks placed at the front of batch
+     */
+    public int drainTo(SiteTasker[] batch, int max) throws InterruptedException
+    {
+        assert max > 0 && max <= batch.length;
+        batch[0] = take();
+        int count = 1;
+        SiteTasker task;
+        while (count < max && (task = poll()) != null) {
+            batch[count++] = task;
+        }
+        m_starvationTracker.recordBatch(count);
+        return count;
+    }
+
     // Non-blocking poll on the site tasker queue.
     public SiteTasker poll()
     {
-        return m_tasks.poll();
+        if (m_ring == null) {
+            return m_tasks.poll();
+        }
+
+        SiteTasker task = m_ring.poll();
+        if (task == null && m_overflowing) {
+            synchronized (m_overflow) {
+                task = m_overflow.poll();
+                if (m_overflow.isEmpty()) {
+                    m_overflowing = false;
+                }
+            }
+        }
+        return task;
     }
 
     // Non-blocking peek on the site tasker queue.
     public SiteTasker peek()
     {
-        return m_tasks.peek();
+        if (m_ring == null) {
+            return m_tasks.peek();
+        }
+
+        SiteTasker task = m_ring.peek();
+        if (task == null && m_overflowing) {
+            synchronized (m_overflow) {
+                task = m_overflow.peek();
+            }
+        }
+        return task;
     }
 
     public boolean isEmpty() {
-        return m_tasks.isEmpty();
+        if (m_ring == null) {
+            return m_tasks.isEmpty();
+        }
+        return m_ring.isEmpty() && !m_overflowing;
     }
 
     public void setStarvationTracker(StarvationTracker tracker) {
         m_starvationTracker = tracker;
     }
+
+    private SiteTasker ringTake() throws InterruptedException
+    {
+        int spins = 0;
+        for (;;) {
+            SiteTasker task = poll();
+            if (task != null) {
+                return task;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (m_waitStrategy == WaitStrategy.BUSY_SPIN || ++spins < SPIN_TRIES) {
+                continue;
+            }
+            if (m_waitStrategy == WaitStrategy.SPIN_YIELD) {
+                Thread.yield();
+                continue;
+            }
+
+            // Publish that we are about to park before the final check so that
+            // a producer either sees the flag or its task is seen here
+            m_consumer = Thread.currentThread();
+            m_consumerParked = true;
+            try {
+                if (isEmpty()) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                m_consumerParked = false;
+            }
+        }
+    }
 }
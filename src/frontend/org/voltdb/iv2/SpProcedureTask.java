@@ -26,6 +26,7 @@ import org.voltcore.utils.LatencyWatchdog;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.PartitionDRGateway;
 import org.voltdb.SiteProcedureConnection;
+import org.voltdb.VoltDB;
 import org.voltdb.VoltTable;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.BatchTimeoutOverrideType;
@@ -206,6 +207,9 @@ public class SpProcedureTask extends ProcedureTask
                     m_txnState.getBeginUndoToken(),
                     m_txnState.m_spHandle,
                     m_txnState.getUndoLog());
+            if (TableWriteVersions.ENABLED && !m_txnState.needsRollback()) {
+                TableWriteVersions.recordWrite(VoltDB.instance().getCatalogContext(), m_txnState.getInvocation());
+            }
         }
         doCommonSPICompleteActions();
     }
@@ -19,15 +19,10 @@ package org.voltdb.iv2;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Queue;
-import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 
@@ -36,6 +31,8 @@ import org.voltcore.messaging.HostMessenger;
 import org.voltcore.messaging.TransactionInfoBaseMessage;
 import org.voltcore.messaging.VoltMessage;
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.LongObjectHashMap;
+import org.voltcore.utils.Pair;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.CommandLog;
 import org.voltdb.CommandLog.DurabilityListener;
@@ -73,59 +70,6 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
 {
     static final VoltLogger tmLog = new VoltLogger("TM");
 
-    static class DuplicateCounterKey implements Comparable<DuplicateCounterKey> {
-        private final long m_txnId;
-        private final long m_spHandle;
-
-        DuplicateCounterKey(long txnId, long spHandle) {
-            m_txnId = txnId;
-            m_spHandle = spHandle;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            try {
-                DuplicateCounterKey other = (DuplicateCounterKey) o;
-                return (m_txnId == other.m_txnId && m_spHandle == other.m_spHandle);
-            }
-            catch (Exception e) {
-                return false;
-            }
-        }
-
-        // Only care about comparing TXN ID part for sorting in updateReplicas
-        @Override
-        public int compareTo(DuplicateCounterKey o) {
-            if (m_txnId < o.m_txnId) {
-                return -1;
-            } else if (m_txnId > o.m_txnId) {
-                return 1;
-            } else {
-                if (m_spHandle < o.m_spHandle) {
-                    return -1;
-                }
-                else if (m_spHandle > o.m_spHandle) {
-                    return 1;
-                }
-                else {
-                    return 0;
-                }
-            }
-        }
-
-        @Override
-        public int hashCode() {
-            assert(false) : "Hashing this is unsafe as it can't promise no collisions.";
-            throw new UnsupportedOperationException(
-                    "Hashing this is unsafe as it can't promise no collisions.");
-        }
-
-        @Override
-        public String toString() {
-            return "<" + TxnEgo.txnIdToString(m_txnId) + ", " + TxnEgo.txnIdToString(m_spHandle) + ">";
-        }
-    };
-
     public interface DurableUniqueIdListener {
         /**
          * Notify listener of last durable Single-Part and Multi-Part uniqueIds
@@ -137,13 +81,18 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
     long m_sendToHSIds[] = new long[0];
 
     private final TransactionTaskQueue m_pendingTasks;
-    private final Map<Long, TransactionState> m_outstandingTxns =
-        new HashMap<Long, TransactionState>();
-    private final Map<DuplicateCounterKey, DuplicateCounter> m_duplicateCounters =
-        new TreeMap<DuplicateCounterKey, DuplicateCounter>();
+    // Keyed by primitive txnId so replicated transactions don't box a Long per lookup
+    private final LongObjectHashMap<TransactionState> m_outstandingTxns =
+        new LongObjectHashMap<TransactionState>(1024);
+    // Ordered by (txnId, spHandle)
+    private final DuplicateCounterMap m_duplicateCounters = new DuplicateCounterMap();
     // MP fragment tasks or completion tasks pending durability
-    private final Map<Long, Queue<TransactionTask>> m_mpsPendingDurability =
-        new HashMap<Long, Queue<TransactionTask>>();
+    private final LongObjectHashMap<Queue<TransactionTask>> m_mpsPendingDurability =
+        new LongObjectHashMap<Queue<TransactionTask>>();
+    // Emptied queues of m_mpsPendingDurability, reused for the next MP pending durability
+    private final ArrayDeque<Queue<TransactionTask>> m_freePendingDurabilityQueues =
+        new ArrayDeque<Queue<TransactionTask>>();
+    private static final int MAX_FREE_PENDING_DURABILITY_QUEUES = 16;
     private CommandLog m_cl;
     private final SnapshotCompletionMonitor m_snapMonitor;
     // used to decide if we should shortcut reads
@@ -229,27 +178,28 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         m_sendToHSIds = Longs.toArray(sendToHSIds);
 
         // Cleanup duplicate counters and collect DONE counters
-        // in this list for further processing.
-        List<DuplicateCounterKey> doneCounters = new LinkedList<DuplicateCounterKey>();
-        for (Entry<DuplicateCounterKey, DuplicateCounter> entry : m_duplicateCounters.entrySet()) {
-            DuplicateCounter counter = entry.getValue();
+        // for further processing. The map is ordered by txnId, which
+        // maintains the CI invariant that responses arrive in txnid order.
+        List<Pair<Long, Long>> doneCounters = new ArrayList<Pair<Long, Long>>();
+        for (int ii = 0; ii < m_duplicateCounters.size(); ii++) {
+            DuplicateCounter counter = m_duplicateCounters.counterAt(ii);
             int result = counter.updateReplicas(m_replicaHSIds);
             if (result == DuplicateCounter.DONE) {
-                doneCounters.add(entry.getKey());
+                doneCounters.add(Pair.of(m_duplicateCounters.txnIdAt(ii), m_duplicateCounters.spHandleAt(ii)));
             }
         }
 
-        // Maintain the CI invariant that responses arrive in txnid order.
-        Collections.sort(doneCounters);
-        for (DuplicateCounterKey key : doneCounters) {
-            DuplicateCounter counter = m_duplicateCounters.remove(key);
+        for (Pair<Long, Long> key : doneCounters) {
+            final long txnId = key.getFirst();
+            final long spHandle = key.getSecond();
+            DuplicateCounter counter = m_duplicateCounters.remove(txnId, spHandle);
 
-            final TransactionState txn = m_outstandingTxns.get(key.m_txnId);
+            final TransactionState txn = m_outstandingTxns.get(txnId);
             if (txn == null || txn.isDone()) {
-                m_outstandingTxns.remove(key.m_txnId);
+                m_outstandingTxns.remove(txnId);
                 // for MP write txns, we should use it's first SpHandle in the TransactionState
-                // for SP write txns, we can just use the SpHandle from the DuplicateCounterKey
-                long m_safeSpHandle = txn == null ? key.m_spHandle: txn.m_spHandle;
+                // for SP write txns, we can just use the SpHandle from the duplicate counter key
+                long m_safeSpHandle = txn == null ? spHandle : txn.m_spHandle;
                 setRepairLogTruncationHandle(m_safeSpHandle);
             }
 
@@ -534,7 +484,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                         m_replicaHSIds,
                         msg);
 
-                safeAddToDuplicateCounterMap(new DuplicateCounterKey(msg.getTxnId(), newSpHandle), counter);
+                safeAddToDuplicateCounterMap(msg.getTxnId(), newSpHandle, counter);
             }
         }
         else {
@@ -623,7 +573,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                 message.getTxnId(),
                 expectedHSIds,
                 message);
-        safeAddToDuplicateCounterMap(new DuplicateCounterKey(message.getTxnId(), message.getSpHandle()), counter);
+        safeAddToDuplicateCounterMap(message.getTxnId(), message.getSpHandle(), counter);
 
         m_uniqueIdGenerator.updateMostRecentlyGeneratedUniqueId(message.getUniqueId());
         // is local repair necessary?
@@ -655,7 +605,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                 message.getTxnId(),
                 expectedHSIds,
                 message);
-        safeAddToDuplicateCounterMap(new DuplicateCounterKey(message.getTxnId(), message.getSpHandle()), counter);
+        safeAddToDuplicateCounterMap(message.getTxnId(), message.getSpHandle(), counter);
 
         // is local repair necessary?
         if (needsRepair.contains(m_mailbox.getHSId())) {
@@ -710,12 +660,11 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         }
 
         final long spHandle = message.getSpHandle();
-        final DuplicateCounterKey dcKey = new DuplicateCounterKey(message.getTxnId(), spHandle);
-        DuplicateCounter counter = m_duplicateCounters.get(dcKey);
+        DuplicateCounter counter = m_duplicateCounters.get(message.getTxnId(), spHandle);
         if (counter != null) {
             int result = counter.offer(message);
             if (result == DuplicateCounter.DONE) {
-                m_duplicateCounters.remove(dcKey);
+                m_duplicateCounters.remove(message.getTxnId(), spHandle);
                 setRepairLogTruncationHandle(spHandle);
                 m_mailbox.send(counter.m_destinationId, counter.getLastResponse());
             }
@@ -845,7 +794,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                             m_replicaHSIds,
                             message);
                 }
-                safeAddToDuplicateCounterMap(new DuplicateCounterKey(message.getTxnId(), newSpHandle), counter);
+                safeAddToDuplicateCounterMap(message.getTxnId(), newSpHandle, counter);
             }
         }
         else {
@@ -922,7 +871,11 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                  * this, a restarted MP txn may not be gated by logging of the first fragment.
                  */
                 assert !m_mpsPendingDurability.containsKey(task.getTxnId());
-                m_mpsPendingDurability.put(task.getTxnId(), new ArrayDeque<TransactionTask>());
+                Queue<TransactionTask> pendingTasks = m_freePendingDurabilityQueues.poll();
+                if (pendingTasks == null) {
+                    pendingTasks = new ArrayDeque<TransactionTask>();
+                }
+                m_mpsPendingDurability.put(task.getTxnId(), pendingTasks);
             }
         } else {
             queueOrOfferMPTask(task);
@@ -944,6 +897,10 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                 m_pendingTasks.offer(task);
             }
             m_mpsPendingDurability.remove(txnId);
+            pendingTasks.clear();
+            if (m_freePendingDurabilityQueues.size() < MAX_FREE_PENDING_DURABILITY_QUEUES) {
+                m_freePendingDurabilityQueues.offer(pendingTasks);
+            }
         }
     }
 
@@ -970,8 +927,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
     private void handleFragmentResponseMessage(FragmentResponseMessage message)
     {
         // Send the message to the duplicate counter, if any
-        DuplicateCounter counter =
-            m_duplicateCounters.get(new DuplicateCounterKey(message.getTxnId(), message.getSpHandle()));
+        DuplicateCounter counter = m_duplicateCounters.get(message.getTxnId(), message.getSpHandle());
         final TransactionState txn = m_outstandingTxns.get(message.getTxnId());
         if (counter != null) {
             int result = counter.offer(message);
@@ -980,7 +936,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                     setRepairLogTruncationHandle(txn.m_spHandle);
                 }
 
-                m_duplicateCounters.remove(new DuplicateCounterKey(message.getTxnId(), message.getSpHandle()));
+                m_duplicateCounters.remove(message.getTxnId(), message.getSpHandle());
                 FragmentResponseMessage resp = (FragmentResponseMessage)counter.getLastResponse();
                 // MPI is tracking deps per partition HSID.  We need to make
                 // sure we write ours into the message getting sent to the MPI
@@ -1043,7 +999,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                                                msg.getTxnId(),
                                                m_replicaHSIds,
                                                msg);
-                safeAddToDuplicateCounterMap(new DuplicateCounterKey(msg.getTxnId(), msg.getSpHandle()), counter);
+                safeAddToDuplicateCounterMap(msg.getTxnId(), msg.getSpHandle(), counter);
             }
 
             Iv2Trace.logCompleteTransactionMessage(msg, m_mailbox.getHSId());
@@ -1063,8 +1019,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
 
     private void handleCompleteTransactionResponseMessage(CompleteTransactionResponseMessage msg)
     {
-        final DuplicateCounterKey duplicateCounterKey = new DuplicateCounterKey(msg.getTxnId(), msg.getSpHandle());
-        DuplicateCounter counter = m_duplicateCounters.get(duplicateCounterKey);
+        DuplicateCounter counter = m_duplicateCounters.get(msg.getTxnId(), msg.getSpHandle());
         boolean txnDone = true;
 
         if (msg.isRestart()) {
@@ -1079,7 +1034,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         if (txnDone) {
             assert !msg.isRestart();
             final TransactionState txn = m_outstandingTxns.remove(msg.getTxnId());
-            m_duplicateCounters.remove(duplicateCounterKey);
+            m_duplicateCounters.remove(msg.getTxnId(), msg.getSpHandle());
 
             if (txn != null) {
                 // Set the truncation handle here instead of when processing
@@ -1153,13 +1108,16 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
             }
         }
         hostLog.warn(who + ": most recent SP handle: " + TxnEgo.txnIdToString(getCurrentTxnId()));
-        hostLog.warn(who + ": outstanding txns: " + m_outstandingTxns.keySet() + " " +
-                TxnEgo.txnIdCollectionToString(m_outstandingTxns.keySet()));
+        final List<Long> outstandingTxnIds = Longs.asList(m_outstandingTxns.keys());
+        hostLog.warn(who + ": outstanding txns: " + outstandingTxnIds + " " +
+                TxnEgo.txnIdCollectionToString(outstandingTxnIds));
         hostLog.warn(who + ": TransactionTaskQueue: " + m_pendingTasks.toString());
         if (m_duplicateCounters.size() > 0) {
             hostLog.warn(who + ": duplicate counters: ");
-            for (Entry<DuplicateCounterKey, DuplicateCounter> e : m_duplicateCounters.entrySet()) {
-                hostLog.warn("\t" + who + ": " + e.getKey().toString() + ": " + e.getValue().toString());
+            for (int ii = 0; ii < m_duplicateCounters.size(); ii++) {
+                hostLog.warn("\t" + who + ": " +
+                        DuplicateCounterMap.keyToString(m_duplicateCounters.txnIdAt(ii), m_duplicateCounters.spHandleAt(ii)) +
+                        ": " + m_duplicateCounters.counterAt(ii).toString());
             }
         }
     }
@@ -1183,7 +1141,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                         msg.getTxnId(),
                         m_replicaHSIds,
                         msg);
-                safeAddToDuplicateCounterMap(new DuplicateCounterKey(msg.getTxnId(), newSpHandle), counter);
+                safeAddToDuplicateCounterMap(msg.getTxnId(), newSpHandle, counter);
             }
         } else {
             setMaxSeenTxnId(msg.getSpHandle());
@@ -1207,8 +1165,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
 
     private void handleDummyTransactionResponseMessage(DummyTransactionResponseMessage message) {
         final long spHandle = message.getSpHandle();
-        final DuplicateCounterKey dcKey = new DuplicateCounterKey(message.getTxnId(), spHandle);
-        DuplicateCounter counter = m_duplicateCounters.get(dcKey);
+        DuplicateCounter counter = m_duplicateCounters.get(message.getTxnId(), spHandle);
         if (counter == null) {
             // this will be on SPI without k-safety or replica only with k-safety
             setRepairLogTruncationHandle(spHandle);
@@ -1221,7 +1178,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         int result = counter.offer(message);
         if (result == DuplicateCounter.DONE) {
             // DummyTransactionResponseMessage ends on SPI
-            m_duplicateCounters.remove(dcKey);
+            m_duplicateCounters.remove(message.getTxnId(), spHandle);
             setRepairLogTruncationHandle(spHandle);
         }
     }
@@ -1312,15 +1269,15 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
      * Just using "put" on the dup counter map is unsafe.
      * It won't detect the case where keys collide from two different transactions.
      */
-    void safeAddToDuplicateCounterMap(DuplicateCounterKey dpKey, DuplicateCounter counter) {
-        DuplicateCounter existingDC = m_duplicateCounters.get(dpKey);
+    void safeAddToDuplicateCounterMap(long txnId, long spHandle, DuplicateCounter counter) {
+        DuplicateCounter existingDC = m_duplicateCounters.get(txnId, spHandle);
         if (existingDC != null) {
             // this is a collision and is bad
             existingDC.logWithCollidingDuplicateCounters(counter);
             VoltDB.crashGlobalVoltDB("DUPLICATE COUNTER MISMATCH: two duplicate counter keys collided.", true, null);
         }
         else {
-            m_duplicateCounters.put(dpKey, counter);
+            m_duplicateCounters.put(txnId, spHandle, counter);
         }
     }
 
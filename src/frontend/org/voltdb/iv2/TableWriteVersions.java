@@ -0,0 +1,256 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.voltdb.CatalogContext;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.catalog.MaterializedViewInfo;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+import org.voltdb.compiler.AdHocPlannedStatement;
+import org.voltdb.sysprocs.AdHocBase;
+
+import com.google_voltpatches.common.base.Charsets;
+
+/**
+ * Per-table write counters shared by the sites and the MPI of a host, used to
+ * tell whether a cached multi-partition read is still current.
+ *
+ * Every counter only ever goes up, so the sum of the counters of a set of
+ * tables changes whenever any of them is written. A write whose tables can't
+ * be worked out bumps a counter that every set of tables includes. Counters
+ * are bumped when a write commits and, at the MPI, also when an MP write
+ * starts. They are host local, the MPI only trusts them while it can see
+ * every partition master on its own host.
+ */
+public class TableWriteVersions {
+
+    static final boolean ENABLED = MpReadCache.MAX_ENTRIES > 0;
+
+    private static final Pattern TABLE_NAME = Pattern.compile("\"TARGET_TABLE_NAME\":\"([^\"]+)\"");
+    // FUNC_CURRENT_TIMESTAMP, used by both NOW and CURRENT_TIMESTAMP
+    private static final Pattern CURRENT_TIMESTAMP = Pattern.compile("\"FUNCTION_ID\":43[,}]");
+
+    private static final ConcurrentHashMap<String, AtomicLong> s_versions =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private static final AtomicLong s_allTables = new AtomicLong();
+
+    private static volatile TableUsage s_usage;
+
+    /**
+     * The tables each procedure reads and may write, derived from a catalog.
+     * Writes include the views of the written tables.
+     */
+    private static class TableUsage {
+        final CatalogContext m_context;
+        final Map<String, String[]> m_written = new HashMap<String, String[]>();
+        final Map<String, String[]> m_read = new HashMap<String, String[]>();
+        final Map<String, String[]> m_withViews = new HashMap<String, String[]>();
+
+        TableUsage(CatalogContext context) {
+            m_context = context;
+            for (Table table : context.tables) {
+                Set<String> names = new TreeSet<String>();
+                names.add(table.getTypeName());
+                for (MaterializedViewInfo view : table.getViews()) {
+                    names.add(view.getDest().getTypeName());
+                }
+                m_withViews.put(table.getTypeName(), names.toArray(new String[names.size()]));
+            }
+            for (Procedure proc : context.procedures) {
+                Set<String> read = new TreeSet<String>();
+                Set<String> written = new TreeSet<String>();
+                for (Statement stmt : proc.getStatements()) {
+                    addNames(read, stmt.getTablesread());
+                    for (String table : stmt.getTablesupdated().split(",")) {
+                        written.addAll(withViews(table.trim()));
+                    }
+                }
+                m_read.put(proc.getTypeName(), read.toArray(new String[read.size()]));
+                m_written.put(proc.getTypeName(), written.toArray(new String[written.size()]));
+            }
+        }
+
+        Set<String> withViews(String table) {
+            Set<String> names = new TreeSet<String>();
+            if (table.isEmpty()) {
+                return names;
+            }
+            final String[] known = m_withViews.get(table);
+            if (known != null) {
+                names.addAll(Arrays.asList(known));
+            } else {
+                names.add(table);
+            }
+            return names;
+        }
+    }
+
+    private static void addNames(Set<String> names, String csv) {
+        for (String name : csv.split(",")) {
+            name = name.trim();
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+    }
+
+    private static TableUsage usage(CatalogContext context) {
+        TableUsage usage = s_usage;
+        if (usage == null || usage.m_context != context) {
+            usage = new TableUsage(context);
+            s_usage = usage;
+        }
+        return usage;
+    }
+
+    private static AtomicLong counter(String table) {
+        AtomicLong version = s_versions.get(table);
+        if (version == null) {
+            final AtomicLong created = new AtomicLong();
+            version = s_versions.putIfAbsent(table, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * @return a value that changes whenever any of the tables is written
+     */
+    static long version(String[] tables) {
+        long version = s_allTables.get();
+        for (String table : tables) {
+            version += counter(table).get();
+        }
+        return version;
+    }
+
+    static void bumpAll() {
+        s_allTables.incrementAndGet();
+    }
+
+    /**
+     * Record a write by the given invocation, called as it commits on a site
+     * and as it starts and completes at the MPI.
+     */
+    static void recordWrite(CatalogContext context, StoredProcedureInvocation invocation) {
+        final String[] tables = tablesWritten(context, invocation);
+        if (tables == null) {
+            bumpAll();
+            return;
+        }
+        for (String table : tables) {
+            counter(table).incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the tables the invocation may write, or null if unknown
+     */
+    static String[] tablesWritten(CatalogContext context, StoredProcedureInvocation invocation) {
+        final String procName = invocation.getProcName();
+        final TableUsage usage = usage(context);
+        if (procName.startsWith("@AdHoc_RW")) {
+            // Every table a write plan names, which includes the ones it writes
+            final Set<String> planTables = adHocTables(invocation, false);
+            if (planTables == null) {
+                return null;
+            }
+            Set<String> tables = new TreeSet<String>();
+            for (String table : planTables) {
+                tables.addAll(usage.withViews(table));
+            }
+            return tables.toArray(new String[tables.size()]);
+        }
+        if (procName.startsWith("@")) {
+            return null;
+        }
+        final String[] written = usage.m_written.get(procName);
+        if (written != null) {
+            return written;
+        }
+        // Default procedures are named after their table
+        final int dot = procName.indexOf('.');
+        if (dot > 0 && context.m_defaultProcs.checkForDefaultProcedure(procName) != null) {
+            final Set<String> tables = usage.withViews(procName.substring(0, dot));
+            return tables.toArray(new String[tables.size()]);
+        }
+        return null;
+    }
+
+    /**
+     * @return the tables a read-only invocation reads, or null if its result
+     * mustn't be cached
+     */
+    static String[] tablesRead(CatalogContext context, StoredProcedureInvocation invocation) {
+        final String procName = invocation.getProcName();
+        if (procName.equals("@AdHoc_RO_MP")) {
+            final Set<String> tables = adHocTables(invocation, true);
+            return tables == null ? null : tables.toArray(new String[tables.size()]);
+        }
+        return usage(context).m_read.get(procName);
+    }
+
+    /**
+     * @return the tables named by the plans of an ad hoc batch, or null if the
+     * batch can't be decoded or reads the current time and rejectCurrentTime is set
+     */
+    private static Set<String> adHocTables(StoredProcedureInvocation invocation, boolean rejectCurrentTime) {
+        final Object[] params = invocation.getParams().toArray();
+        // The serialized batch is the last parameter of both the SP and MP flavors
+        if (params.length == 0 || !(params[params.length - 1] instanceof byte[])) {
+            return null;
+        }
+        final AdHocPlannedStatement[] statements;
+        try {
+            statements = AdHocBase.decodeSerializedBatchData((byte[]) params[params.length - 1]).getSecond();
+        } catch (RuntimeException e) {
+            return null;
+        }
+        Set<String> tables = new TreeSet<String>();
+        for (AdHocPlannedStatement stmt : statements) {
+            for (byte[] fragment : new byte[][] { stmt.core.aggregatorFragment, stmt.core.collectorFragment }) {
+                if (fragment == null) {
+                    continue;
+                }
+                final String plan = new String(fragment, Charsets.UTF_8);
+                if (rejectCurrentTime && CURRENT_TIMESTAMP.matcher(plan).find()) {
+                    return null;
+                }
+                final Matcher m = TABLE_NAME.matcher(plan);
+                while (m.find()) {
+                    tables.add(m.group(1));
+                }
+            }
+        }
+        return tables;
+    }
+}
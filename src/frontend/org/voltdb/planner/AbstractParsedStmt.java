@@ -71,10 +71,24 @@ public abstract class AbstractParsedStmt {
 
     protected String m_contentDeterminismMessage = null;
 
-     // Internal statement counter
-    public static int NEXT_STMT_ID = 0;
-    // Internal parameter counter
-    public static int NEXT_PARAMETER_ID = 0;
+    // Internal statement and parameter counters. Ids only need to be unique within one
+    // statement, so each planning thread counts on its own.
+    private static final ThreadLocal<int[]> s_idCounters = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[2];
+        }
+    };
+    private static final int STMT_ID = 0;
+    private static final int PARAMETER_ID = 1;
+
+    public static int nextStmtId() {
+        return s_idCounters.get()[STMT_ID]++;
+    }
+
+    public static int nextParameterId() {
+        return s_idCounters.get()[PARAMETER_ID]++;
+    }
     // The unique id to identify the statement
     public int m_stmtId;
 
@@ -183,7 +197,7 @@ public abstract class AbstractParsedStmt {
             throw new RuntimeException("Unexpected Element: " + stmtTypeElement.name);
         }
         // Set the unique id
-        retval.m_stmtId = NEXT_STMT_ID++;
+        retval.m_stmtId = nextStmtId();
         return retval;
     }
 
@@ -218,8 +232,9 @@ public abstract class AbstractParsedStmt {
             Database db, String joinOrder) {
 
         // reset the statement counters
-        NEXT_STMT_ID = 0;
-        NEXT_PARAMETER_ID = 0;
+        final int[] idCounters = s_idCounters.get();
+        idCounters[STMT_ID] = 0;
+        idCounters[PARAMETER_ID] = 0;
         AbstractParsedStmt retval = getParsedStmt(stmtTypeElement, paramValues, db);
 
         parse(retval, sql, stmtTypeElement, db, joinOrder);
@@ -516,7 +531,7 @@ public abstract class AbstractParsedStmt {
         }
 
         // This is a TVE from the correlated expression
-        int paramIdx = NEXT_PARAMETER_ID++;
+        int paramIdx = nextParameterId();
         ParameterValueExpression pve = new ParameterValueExpression(paramIdx, resolvedExpr);
         m_parameterTveMap.put(paramIdx, resolvedExpr);
         return pve;
@@ -1072,14 +1087,14 @@ public abstract class AbstractParsedStmt {
     protected AbstractExpression replaceExpressionsWithPve(AbstractExpression expr) {
         assert(expr != null);
         if (expr instanceof TupleValueExpression) {
-            int paramIdx = NEXT_PARAMETER_ID++;
+            int paramIdx = nextParameterId();
             ParameterValueExpression pve = new ParameterValueExpression(paramIdx, expr);
             m_parameterTveMap.put(paramIdx, expr);
             return pve;
         }
 
         if (expr instanceof AggregateExpression) {
-            int paramIdx = NEXT_PARAMETER_ID++;
+            int paramIdx = nextParameterId();
             ParameterValueExpression pve = new ParameterValueExpression(paramIdx, expr);
             // Disallow aggregation of parent columns in a subquery.
             // except the case HAVING AGG(T1.C1) IN (SELECT T2.C2 ...)
@@ -1419,8 +1434,9 @@ public abstract class AbstractParsedStmt {
                 m_paramsByIndex.put(index, pve);
             }
         }
-        if (max_parameter_id >= NEXT_PARAMETER_ID) {
-            NEXT_PARAMETER_ID = (int)max_parameter_id + 1;
+        final int[] idCounters = s_idCounters.get();
+        if (max_parameter_id >= idCounters[PARAMETER_ID]) {
+            idCounters[PARAMETER_ID] = (int)max_parameter_id + 1;
         }
     }
 
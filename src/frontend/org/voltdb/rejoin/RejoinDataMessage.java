@@ -23,12 +23,14 @@ import java.nio.ByteBuffer;
 import org.voltcore.messaging.Subject;
 import org.voltcore.messaging.VoltMessage;
 import org.voltdb.messaging.VoltDbMessageFactory;
+import org.voltdb.utils.CompressionService;
 
 /**
  *
  */
 public class RejoinDataMessage extends VoltMessage {
     private long m_targetId = -1;
+    private CompressionService.Codec m_codec = CompressionService.Codec.SNAPPY;
     // compressed snapshot data
     private byte[] m_data = null;
 
@@ -37,8 +39,13 @@ public class RejoinDataMessage extends VoltMessage {
     }
 
     public RejoinDataMessage(long targetId, byte[] data) {
+        this(targetId, CompressionService.Codec.SNAPPY, data);
+    }
+
+    public RejoinDataMessage(long targetId, CompressionService.Codec codec, byte[] data) {
         m_subject = Subject.DEFAULT.getId();
         m_targetId = targetId;
+        m_codec = codec;
         m_data = data;
     }
 
@@ -46,6 +53,13 @@ public class RejoinDataMessage extends VoltMessage {
         return m_targetId;
     }
 
+    /**
+     * @return the codec the data was compressed with
+     */
+    public CompressionService.Codec getCodec() {
+        return m_codec;
+    }
+
     public byte[] getData() {
         return m_data;
     }
@@ -55,6 +69,7 @@ public class RejoinDataMessage extends VoltMessage {
         int msgsize = super.getSerializedSize();
         msgsize +=
                 8 + // m_targetId
+                1 + // m_codec
                 4 + // data length
                 m_data.length;
         return msgsize;
@@ -63,6 +78,7 @@ public class RejoinDataMessage extends VoltMessage {
     @Override
     protected void initFromBuffer(ByteBuffer buf) throws IOException {
         m_targetId = buf.getLong();
+        m_codec = CompressionService.Codec.fromId(buf.get());
         int len = buf.getInt();
         m_data = new byte[len];
         buf.get(m_data);
@@ -72,6 +88,7 @@ public class RejoinDataMessage extends VoltMessage {
     public void flattenToBuffer(ByteBuffer buf) throws IOException {
         buf.put(VoltDbMessageFactory.REJOIN_DATA_ID);
         buf.putLong(m_targetId);
+        buf.put(m_codec.getId());
         buf.putInt(m_data.length);
         buf.put(m_data);
         buf.limit(buf.position());
@@ -123,6 +123,7 @@ implements Runnable {
                     compressionBuffer.flip();
                     int uncompressedSize =
                             CompressionService.decompressBuffer(
+                                    dataMsg.getCodec(),
                                     compressionBuffer,
                                     messageBuffer);
                     messageBuffer.limit(uncompressedSize);
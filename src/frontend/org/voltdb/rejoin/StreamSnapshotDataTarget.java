@@ -64,6 +64,9 @@ implements SnapshotDataTarget, StreamSnapshotAckReceiver.AckCallback {
     // shortened when in test mode
     public final static long DEFAULT_WRITE_TIMEOUT_MS = m_rejoinDeathTestMode ? 10000 : Long.getLong("REJOIN_WRITE_TIMEOUT_MS", 60000);
     final static long WATCHDOG_PERIOS_S = 5;
+    // carried in each data message, the receiver decodes whatever the sender chose
+    static final CompressionService.Codec REJOIN_COMPRESSION_CODEC =
+            CompressionService.Codec.fromProperty("REJOIN_COMPRESSION_CODEC");
 
     // schemas for all the tables on this partition
     private final Map<Integer, byte[]> m_schemas = new HashMap<Integer, byte[]>();
@@ -179,8 +182,8 @@ implements SnapshotDataTarget, StreamSnapshotAckReceiver.AckCallback {
         protected int send(Mailbox mb, MessageFactory msgFactory, BBContainer message) throws IOException {
             final ByteBuffer messageBuffer = message.b();
             if (messageBuffer.isDirect()) {
-                byte[] data = CompressionService.compressBuffer(messageBuffer);
-                mb.send(m_destHSId, msgFactory.makeDataMessage(m_targetId, data));
+                byte[] data = CompressionService.compressBuffer(REJOIN_COMPRESSION_CODEC, messageBuffer);
+                mb.send(m_destHSId, msgFactory.makeDataMessage(m_targetId, REJOIN_COMPRESSION_CODEC, data));
 
                 if (rejoinLog.isTraceEnabled()) {
                     rejoinLog.trace("Sending direct buffer");
@@ -189,11 +192,11 @@ implements SnapshotDataTarget, StreamSnapshotAckReceiver.AckCallback {
                 return data.length;
             } else {
                 byte compressedBytes[] =
-                    CompressionService.compressBytes(
+                    CompressionService.compressBytes(REJOIN_COMPRESSION_CODEC,
                             messageBuffer.array(), messageBuffer.position(),
                             messageBuffer.remaining());
 
-                mb.send(m_destHSId, msgFactory.makeDataMessage(m_targetId, compressedBytes));
+                mb.send(m_destHSId, msgFactory.makeDataMessage(m_targetId, REJOIN_COMPRESSION_CODEC, compressedBytes));
 
                 if (rejoinLog.isTraceEnabled()) {
                     rejoinLog.trace("Sending heap buffer");
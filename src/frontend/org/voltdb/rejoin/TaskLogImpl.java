@@ -0,0 +1,239 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.rejoin;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.messaging.TransactionInfoBaseMessage;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.messaging.VoltDbMessageFactory;
+import org.voltdb.utils.BinaryDeque.BinaryDequeReader;
+import org.voltdb.utils.PersistentBinaryDeque;
+import org.voltdb.utils.VoltFile;
+
+/**
+ * Task log for live rejoin and join. Transactions the site acknowledges while the snapshot is
+ * streamed in are packed into buffers and spooled to a PersistentBinaryDeque in the overflow
+ * directory, then replayed in order once the snapshot has been restored. Messages are dropped
+ * until recording is enabled, and on replay anything before the latest snapshot spHandle is
+ * skipped since the snapshot already contains its effects. The snapshot fragment itself is kept
+ * so that the replay of its multi-partition transaction is complete.
+ *
+ * Logging and replay both happen on the site thread. When replay catches up with the messages
+ * being logged the buffer that is being filled is replayed directly, without being spooled.
+ */
+public class TaskLogImpl implements TaskLog {
+    private static final VoltLogger REJOINLOG = new VoltLogger("REJOIN");
+
+    // Messages are packed into buffers of this size before they are written out
+    static final int BUFFER_SIZE = Integer.getInteger("REJOIN_TASKLOG_BUFFER_SIZE", 1024 * 1024);
+    static final long REPORT_INTERVAL_MS = Long.getLong("REJOIN_TASKLOG_REPORT_INTERVAL_MS", 30 * 1000);
+
+    private final int m_partitionId;
+    private final String m_nonce;
+    private final PersistentBinaryDeque m_pbd;
+    private final BinaryDequeReader m_reader;
+    private final VoltDbMessageFactory m_messageFactory = new VoltDbMessageFactory();
+
+    private volatile boolean m_recording = false;
+    private volatile long m_snapshotSpHandle = Long.MIN_VALUE;
+
+    // Messages logged since the last spool, length prefixed
+    private ByteBuffer m_tail = ByteBuffer.allocate(BUFFER_SIZE);
+    private int m_tailCount = 0;
+    // Messages being replayed. Heap memory because deserialized messages may refer to it.
+    private ByteBuffer m_head = null;
+
+    private long m_loggedCount = 0;
+    private long m_spooledBytes = 0;
+    private long m_replayedCount = 0;
+    private long m_skippedCount = 0;
+    private long m_replayStartTime = 0;
+    private long m_lastReportTime = 0;
+    private long m_lastReportCount = 0;
+
+    public TaskLogImpl(int partitionId, File overflowDir) throws IOException {
+        m_partitionId = partitionId;
+        m_nonce = "rejoin_task_log_" + partitionId;
+        if (!overflowDir.exists() && !overflowDir.mkdirs()) {
+            throw new IOException("Unable to create rejoin overflow directory " + overflowDir);
+        }
+        if (!overflowDir.canWrite()) {
+            throw new IOException("Rejoin overflow directory " + overflowDir + " is not writable");
+        }
+        // Files left by a previous attempt have nothing to do with this one
+        File[] stale = overflowDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(m_nonce + ".");
+            }
+        });
+        if (stale != null) {
+            for (File f : stale) {
+                f.delete();
+            }
+        }
+        m_pbd = new PersistentBinaryDeque(m_nonce, new VoltFile(overflowDir.getPath()), REJOINLOG);
+        m_reader = m_pbd.openForRead(m_nonce);
+    }
+
+    @Override
+    public void logTask(TransactionInfoBaseMessage message) throws IOException {
+        if (!m_recording || message.getSpHandle() < m_snapshotSpHandle) {
+            return;
+        }
+        final int size = message.getSerializedSize();
+        if (m_tail.remaining() < size + 4) {
+            spoolTail();
+            if (m_tail.capacity() < size + 4) {
+                m_tail = ByteBuffer.allocate(size + 4);
+            }
+        }
+        m_tail.putInt(size);
+        final int start = m_tail.position();
+        message.flattenToBuffer(m_tail);
+        assert m_tail.position() - start == size;
+        m_tailCount++;
+        m_loggedCount++;
+    }
+
+    private void spoolTail() throws IOException {
+        if (m_tailCount == 0) {
+            return;
+        }
+        m_tail.flip();
+        m_spooledBytes += m_tail.remaining();
+        // The deque writes the buffer out before returning, so it can be refilled
+        m_pbd.offer(DBBPool.wrapBB(m_tail), false);
+        m_tail.clear();
+        m_tailCount = 0;
+        maybeReport();
+    }
+
+    @Override
+    public TransactionInfoBaseMessage getNextMessage() throws IOException {
+        for (;;) {
+            if (m_head == null || !m_head.hasRemaining()) {
+                m_head = nextBuffer();
+                if (m_head == null) {
+                    return null;
+                }
+                if (m_replayStartTime == 0) {
+                    m_replayStartTime = m_lastReportTime = System.currentTimeMillis();
+                }
+            }
+            final int size = m_head.getInt();
+            final int end = m_head.position() + size;
+            final int limit = m_head.limit();
+            m_head.limit(end);
+            final TransactionInfoBaseMessage message =
+                    (TransactionInfoBaseMessage) m_messageFactory.createMessageFromBuffer(m_head, -1);
+            m_head.limit(limit).position(end);
+
+            // Recording may have been restarted by a retried snapshot after this was logged
+            if (message.getSpHandle() < m_snapshotSpHandle) {
+                m_skippedCount++;
+                continue;
+            }
+            m_replayedCount++;
+            maybeReport();
+            return message;
+        }
+    }
+
+    /*
+     * The oldest buffer of messages, spooled ones first and then the one being filled
+     */
+    private ByteBuffer nextBuffer() throws IOException {
+        if (!m_reader.isEmpty()) {
+            final BBContainer cont = m_reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            if (cont != null) {
+                try {
+                    final ByteBuffer copy = ByteBuffer.allocate(cont.b().remaining());
+                    copy.put(cont.b());
+                    copy.flip();
+                    return copy;
+                } finally {
+                    cont.discard();
+                }
+            }
+        }
+        if (m_tailCount > 0) {
+            final ByteBuffer head = m_tail;
+            head.flip();
+            m_tail = ByteBuffer.allocate(BUFFER_SIZE);
+            m_tailCount = 0;
+            return head;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() throws IOException {
+        return (m_head == null || !m_head.hasRemaining()) && m_tailCount == 0 && m_reader.isEmpty();
+    }
+
+    /**
+     * @return bytes of logged messages not yet replayed, both spooled and buffered
+     */
+    public long sizeInBytes() throws IOException {
+        return m_reader.sizeInBytes() + m_tail.position() + (m_head == null ? 0 : m_head.remaining());
+    }
+
+    private void maybeReport() throws IOException {
+        if (!REJOINLOG.isInfoEnabled()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - m_lastReportTime < REPORT_INTERVAL_MS) {
+            return;
+        }
+        final double rate = (m_replayedCount - m_lastReportCount) * 1000.0 / Math.max(1, now - m_lastReportTime);
+        REJOINLOG.info(String.format("P%d task log replayed %d of %d transactions at %.0f/s, %d MB spooled and not yet replayed",
+                m_partitionId, m_replayedCount, m_loggedCount, rate, sizeInBytes() / (1024 * 1024)));
+        m_lastReportTime = now;
+        m_lastReportCount = m_replayedCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (m_replayStartTime != 0) {
+            final long elapsed = Math.max(1, System.currentTimeMillis() - m_replayStartTime);
+            REJOINLOG.info(String.format("P%d task log logged %d transactions, spooled %d MB, " +
+                    "replayed %d in %d ms (%.0f/s), skipped %d from before the snapshot",
+                    m_partitionId, m_loggedCount, m_spooledBytes / (1024 * 1024), m_replayedCount,
+                    elapsed, m_replayedCount * 1000.0 / elapsed, m_skippedCount));
+        }
+        m_head = null;
+        m_pbd.closeAndDelete();
+    }
+
+    @Override
+    public void enableRecording(long snapshotSpHandle) {
+        if (REJOINLOG.isDebugEnabled()) {
+            REJOINLOG.debug("P" + m_partitionId + " recording transactions after spHandle " + snapshotSpHandle);
+        }
+        m_snapshotSpHandle = snapshotSpHandle;
+        m_recording = true;
+    }
+}
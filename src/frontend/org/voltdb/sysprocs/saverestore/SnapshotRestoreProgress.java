@@ -0,0 +1,120 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.sysprocs.saverestore;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
+
+/**
+ * Tracks how much table data the save files being read on this host have produced
+ * and periodically logs per-table restore throughput while any are being read.
+ * Files for the same table are aggregated. Logging interval is set with
+ * SNAPSHOT_RESTORE_PROGRESS_INTERVAL_S, 0 disables the periodic log.
+ */
+public class SnapshotRestoreProgress {
+    private static final VoltLogger SNAP_LOG = new VoltLogger("SNAPSHOT");
+
+    static final int PROGRESS_INTERVAL_S = Integer.getInteger("SNAPSHOT_RESTORE_PROGRESS_INTERVAL_S", 10);
+
+    private static class TableProgress {
+        private final long m_startNanos = System.nanoTime();
+        private int m_openFiles = 0;
+        private long m_bytes = 0;
+        private long m_chunks = 0;
+
+        private String format(String tableName) {
+            final double mb = m_bytes / (1024.0 * 1024.0);
+            final double seconds = Math.max(System.nanoTime() - m_startNanos, 1) / 1e9;
+            return String.format("%s %.1f MB in %d chunks at %.1f MB/s", tableName, mb, m_chunks, mb / seconds);
+        }
+    }
+
+    private static final Map<String, TableProgress> s_tables = new TreeMap<String, TableProgress>();
+    private static ScheduledExecutorService s_reporter;
+    private static ScheduledFuture<?> s_reportTask;
+
+    /**
+     * Called when a file for the table starts being read
+     */
+    static synchronized void started(String tableName) {
+        TableProgress progress = s_tables.get(tableName);
+        if (progress == null) {
+            progress = new TableProgress();
+            s_tables.put(tableName, progress);
+        }
+        progress.m_openFiles++;
+
+        if (s_reportTask == null && PROGRESS_INTERVAL_S > 0) {
+            if (s_reporter == null) {
+                s_reporter = CoreUtils.getScheduledThreadPoolExecutor("Snapshot restore progress", 1,
+                        CoreUtils.SMALL_STACK_SIZE);
+            }
+            s_reportTask = s_reporter.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    logProgress();
+                }
+            }, PROGRESS_INTERVAL_S, PROGRESS_INTERVAL_S, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Called for each chunk of uncompressed table data produced
+     */
+    static synchronized void chunkRead(String tableName, int bytes) {
+        final TableProgress progress = s_tables.get(tableName);
+        if (progress != null) {
+            progress.m_bytes += bytes;
+            progress.m_chunks++;
+        }
+    }
+
+    /**
+     * Called when a file for the table is done being read, the last one logs the table's totals
+     */
+    static synchronized void finished(String tableName) {
+        final TableProgress progress = s_tables.get(tableName);
+        if (progress == null || --progress.m_openFiles > 0) {
+            return;
+        }
+        s_tables.remove(tableName);
+        SNAP_LOG.info("Finished reading snapshot data for table " + progress.format(tableName));
+
+        if (s_tables.isEmpty() && s_reportTask != null) {
+            s_reportTask.cancel(false);
+            s_reportTask = null;
+        }
+    }
+
+    private static synchronized void logProgress() {
+        if (s_tables.isEmpty()) {
+            return;
+        }
+        final StringBuilder sb = new StringBuilder("Snapshot restore progress:");
+        for (Map.Entry<String, TableProgress> e : s_tables.entrySet()) {
+            sb.append("\n    ").append(e.getValue().format(e.getKey()));
+        }
+        SNAP_LOG.info(sb.toString());
+    }
+}
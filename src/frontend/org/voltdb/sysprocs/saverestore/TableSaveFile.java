@@ -29,7 +29,9 @@ import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Checksum;
 
 import org.apache.hadoop_voltpatches.util.PureJavaCrc32;
@@ -40,6 +42,7 @@ import org.json_voltpatches.JSONObject;
 import org.voltcore.TransactionIdManager;
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.Bits;
+import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltdb.EELibraryLoader;
@@ -56,6 +59,21 @@ import org.voltdb.utils.PosixAdvise;
  */
 public class TableSaveFile
 {
+    private static final VoltLogger SNAP_LOG = new VoltLogger("SNAPSHOT");
+
+    /**
+     * Read ahead depth for restores, callers reading whole files should pass this
+     */
+    public static final int DEFAULT_READ_AHEAD_CHUNKS = Integer.getInteger("SNAPSHOT_RESTORE_READ_AHEAD_CHUNKS", 10);
+
+    /*
+     * Chunks from all files being read are validated and decompressed by this pool,
+     * 0 threads does it inline on each file's reader thread
+     */
+    static final int DECOMPRESSION_THREADS = Integer.getInteger("SNAPSHOT_RESTORE_DECOMPRESSION_THREADS",
+            Math.min(8, Math.max(1, CoreUtils.availableProcessors() / 2)));
+    private static final ExecutorService s_decompressionPool = DECOMPRESSION_THREADS > 0 ?
+            CoreUtils.getListeningExecutorService("Snapshot restore decompression", DECOMPRESSION_THREADS) : null;
 
     public static enum ChecksumType {
         CRC32, CRC32C
@@ -75,10 +93,13 @@ public class TableSaveFile
         public void discard() {
             checkDoubleFree();
             discarded = true;
-            if (m_hasMoreChunks == false) {
-                m_origin.discard();
-            } else {
-                m_buffers.add(m_origin);
+            // Synchronized so a buffer can't be pooled after close() has freed the pool
+            synchronized (TableSaveFile.this) {
+                if (m_hasMoreChunks == false) {
+                    m_origin.discard();
+                } else {
+                    m_buffers.add(m_origin);
+                }
             }
         }
 
@@ -118,6 +139,7 @@ public class TableSaveFile
                 }
             }
             m_chunkReads = new Semaphore(readAheadChunks);
+            m_readAheadChunks = readAheadChunks;
             m_saveFile = dataIn;
             m_continueOnCorruptedChunk = continueOnCorruptedChunk;
 
@@ -244,6 +266,7 @@ public class TableSaveFile
                 m_tableName = fd.readString();
                 m_isReplicated = fd.readBoolean();
                 m_isCompressed = false;
+                m_compressionCodec = CompressionService.Codec.SNAPPY;
                 m_checksumType = ChecksumType.CRC32;
                 if (!m_isReplicated) {
                     m_partitionIds = (int[])fd.readArray(int.class);
@@ -289,6 +312,9 @@ public class TableSaveFile
                 m_tableName = obj.getString("tableName");
                 m_isReplicated = obj.getBoolean("isReplicated");
                 m_isCompressed = obj.optBoolean("isCompressed", false);
+                // Snapshots written before the codec was recorded are always Snappy
+                m_compressionCodec = CompressionService.Codec.valueOf(
+                        obj.optString("compressionCodec", CompressionService.Codec.SNAPPY.name()));
                 m_checksumType = ChecksumType.valueOf(obj.optString("checksumType", "CRC32"));
                 if (!m_isReplicated) {
                     JSONArray partitionIds = obj.getJSONArray("partitionIds");
@@ -323,6 +349,9 @@ public class TableSaveFile
             throw new IOException(e);
         } catch (JSONException e) {
             throw new IOException(e);
+        } catch (IllegalArgumentException e) {
+            // Codec or checksum type this build doesn't know about
+            throw new IOException(e);
         }
     }
 
@@ -369,6 +398,10 @@ public class TableSaveFile
         return m_isCompressed;
     }
 
+    public CompressionService.Codec getCompressionCodec() {
+        return m_compressionCodec;
+    }
+
     public int getTotalPartitions() {
         return m_totalPartitions;
     }
@@ -402,21 +435,38 @@ public class TableSaveFile
         }
 
         synchronized (this) {
+            // Chunks still being decompressed will land in m_availableChunks
+            while (!m_pendingChunks.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
             while (!m_availableChunks.isEmpty()) {
                 m_availableChunks.poll().discard();
+                m_chunkReads.release();
             }
             notifyAll();
-        }
 
-        /*
-         * Free buffers used to pull snapshot data in process
-         */
-        BBContainer cont;
-        while ((cont = m_buffers.poll()) != null) {
-            cont.discard();
+            /*
+             * Free buffers used to pull snapshot data in process
+             */
+            BBContainer cont;
+            while ((cont = m_buffers.poll()) != null) {
+                cont.discard();
+            }
         }
     }
 
+    int getLiveBufferCountForTest() {
+        return m_liveBuffers.get();
+    }
+
+    int getReadAheadPermitsForTest() {
+        return m_chunkReads.availablePermits();
+    }
+
     public Set<Integer> getCorruptedPartitionIds() {
         return m_corruptedPartitions;
     }
@@ -431,7 +481,7 @@ public class TableSaveFile
         if (m_chunkReaderException != null) {
             throw m_chunkReaderException;
         }
-        if (!m_hasMoreChunks) {
+        if (!m_hasMoreChunks && m_pendingChunks.isEmpty()) {
             final Container c = m_availableChunks.poll();
             return c;
         }
@@ -443,7 +493,7 @@ public class TableSaveFile
         }
 
         Container c = null;
-        while (c == null && (m_hasMoreChunks || !m_availableChunks.isEmpty())) {
+        while (c == null && (m_hasMoreChunks || !m_pendingChunks.isEmpty() || !m_availableChunks.isEmpty())) {
             c = m_availableChunks.poll();
             if (c == null) {
                 try {
@@ -468,7 +518,85 @@ public class TableSaveFile
         if (m_chunkReaderException != null) {
             throw m_chunkReaderException;
         }
-        return m_hasMoreChunks || !m_availableChunks.isEmpty();
+        return m_hasMoreChunks || !m_pendingChunks.isEmpty() || !m_availableChunks.isEmpty();
+    }
+
+    /*
+     * A chunk handed to the decompression pool, kept in file order until it is done
+     */
+    private static class PendingChunk {
+        private boolean m_done = false;
+        // null if the chunk was skipped
+        private Container m_chunk = null;
+    }
+
+    /*
+     * Move chunks that are done to m_availableChunks, stopping at the first one that isn't
+     * so that chunks are consumed in the order they were read
+     */
+    private synchronized void publishChunk(PendingChunk pending, IOException failure) {
+        pending.m_done = true;
+        if (failure != null) {
+            if (m_chunkReaderException == null) {
+                m_chunkReaderException = failure;
+            }
+            m_hasMoreChunks = false;
+        }
+        while (!m_pendingChunks.isEmpty() && m_pendingChunks.peek().m_done) {
+            final Container c = m_pendingChunks.poll().m_chunk;
+            if (c == null) {
+                m_chunkReads.release();
+            } else {
+                m_availableChunks.offer(c);
+            }
+        }
+        finishProgressIfDone();
+        notifyAll();
+    }
+
+    private synchronized BBContainer takeCompressedBuffer() {
+        final BBContainer c = m_compressedBuffers.poll();
+        if (c != null) {
+            return c;
+        }
+        return allocateBuffer(CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
+    }
+
+    /*
+     * Direct buffers are counted until they are discarded so tests can check none leak
+     */
+    private BBContainer allocateBuffer(int size) {
+        final BBContainer origin = DBBPool.allocateDirect(size);
+        m_liveBuffers.incrementAndGet();
+        return new BBContainer(origin.b()) {
+            @Override
+            public void discard() {
+                checkDoubleFree();
+                m_liveBuffers.decrementAndGet();
+                origin.discard();
+            }
+        };
+    }
+
+    private synchronized void returnCompressedBuffer(BBContainer c) {
+        if (m_chunkReaderDone) {
+            c.discard();
+        } else {
+            m_compressedBuffers.offer(c);
+        }
+    }
+
+    private synchronized void markAllPartitionsCorrupted() {
+        for (int partitionId : m_partitionIds) {
+            m_corruptedPartitions.add(partitionId);
+        }
+    }
+
+    private synchronized void finishProgressIfDone() {
+        if (m_chunkReaderDone && m_pendingChunks.isEmpty() && !m_progressFinished) {
+            m_progressFinished = true;
+            SnapshotRestoreProgress.finished(m_tableName);
+        }
     }
 
     private final FileChannel m_saveFile;
@@ -483,13 +611,19 @@ public class TableSaveFile
     private final String m_tableName;
     private final boolean m_isReplicated;
     private final boolean m_isCompressed;
+    private final CompressionService.Codec m_compressionCodec;
     private final int m_partitionIds[];
     private final int m_totalPartitions;
     private final long m_txnId;
     private final long m_timestamp;
     private boolean m_hasMoreChunks = true;
     private ConcurrentLinkedQueue<BBContainer> m_buffers = new ConcurrentLinkedQueue<BBContainer>();
+    private final AtomicInteger m_liveBuffers = new AtomicInteger();
     private final ArrayDeque<Container> m_availableChunks = new ArrayDeque<Container>();
+    // Chunks read from the file that are still being decompressed, in file order
+    private final ArrayDeque<PendingChunk> m_pendingChunks = new ArrayDeque<PendingChunk>();
+    // Buffers for compressed chunks, at most one per read ahead chunk
+    private final ArrayDeque<BBContainer> m_compressedBuffers = new ArrayDeque<BBContainer>();
     private final HashSet<Integer> m_relevantPartitionIds;
     private final ChecksumType m_checksumType;
 
@@ -515,10 +649,13 @@ public class TableSaveFile
      * The thread reading chunks will read at most this number of chunks
      */
     private final Semaphore m_chunkReads;
+    private final int m_readAheadChunks;
 
     private ChunkReader m_chunkReader = null;
     private Thread m_chunkReaderThread = null;
     private IOException m_chunkReaderException = null;
+    private boolean m_chunkReaderDone = false;
+    private boolean m_progressFinished = false;
 
     /**
      * Thread to read chunks from the disk
@@ -528,27 +665,40 @@ public class TableSaveFile
         /*
          * The old method was out of hand. Going to start a new one with a different format
          * that should be easier to understand and validate.
+         *
+         * This thread only does the I/O. Each chunk is handed to the decompression pool to be
+         * validated and decompressed, and chunks are published in file order as they finish.
+         * Read ahead is bounded by m_chunkReads which covers chunks being decompressed as well
+         * as decompressed chunks waiting to be consumed.
          */
         private void readChunksV2() {
-            //For reading the compressed input.
-            final BBContainer fileInputBufferC =
-                    DBBPool.allocateDirect(CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
-            final ByteBuffer fileInputBuffer = fileInputBufferC.b();
+            final ExecutorService decompressor =
+                    s_decompressionPool != null ? s_decompressionPool : CoreUtils.SAMETHREADEXECUTOR;
+            // Advise in windows that cover the read ahead depth, but at least 64 megabytes
+            final long fadviseWindow = Math.max(1024 * 1024 * 64,
+                    (long) m_readAheadChunks * CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
             long sinceLastFAdvise = Long.MAX_VALUE;
             long positionAtLastFAdvise = 0;
+            try {
+                final long retval = PosixAdvise.fadvise(m_fd, 0, 0, PosixAdvise.POSIX_FADV_SEQUENTIAL);
+                if (retval != 0) {
+                    SNAP_LOG.info("Failed to fadvise in TableSaveFile, this is harmless: " + retval);
+                }
+            } catch (Throwable t) {
+                SNAP_LOG.info("Exception attempting fadvise", t);
+            }
             while (m_hasMoreChunks) {
-                if (sinceLastFAdvise > 1024 * 1024 * 48) {
+                if (sinceLastFAdvise > fadviseWindow * 3 / 4) {
                     sinceLastFAdvise = 0;
-                    VoltLogger log = new VoltLogger("SNAPSHOT");
                     try {
                         final long position = m_saveFile.position();
                         long retval = PosixAdvise.fadvise(
                                 m_fd,
                                 position,
-                                position + 1024 * 1024 * 64,
+                                fadviseWindow,
                                 PosixAdvise.POSIX_FADV_WILLNEED);
                         if (retval != 0) {
-                            log.info("Failed to fadvise in TableSaveFile, this is harmless: " + retval);
+                            SNAP_LOG.info("Failed to fadvise in TableSaveFile, this is harmless: " + retval);
                         }
 
                         //Get aligned start and end position
@@ -565,11 +715,11 @@ public class TableSaveFile
                                     PosixAdvise.POSIX_FADV_DONTNEED);
                         }
                         if (retval != 0) {
-                            log.info("Failed to fadvise in TableSaveFile, this is harmless: " + retval);
+                            SNAP_LOG.info("Failed to fadvise in TableSaveFile, this is harmless: " + retval);
                         }
                         positionAtLastFAdvise = position;
                     } catch (Throwable t) {
-                        log.info("Exception attempting fadvise", t);
+                        SNAP_LOG.info("Exception attempting fadvise", t);
                     }
                 }
 
@@ -579,12 +729,13 @@ public class TableSaveFile
                 try {
                     m_chunkReads.acquire();
                 } catch (InterruptedException e) {
-                    fileInputBufferC.discard();
                     return;
                 }
                 boolean expectedAnotherChunk = false;
-                Container c = null;
+                BBContainer fileInputBufferC = null;
                 try {
+                    fileInputBufferC = takeCompressedBuffer();
+                    final ByteBuffer fileInputBuffer = fileInputBufferC.b();
 
                     /*
                      * Get the length of the next chunk, partition id, crc for partition id, and length prefix,
@@ -616,9 +767,7 @@ public class TableSaveFile
                     int generatedValue = (int)partitionIdCRC.getValue();
                     if (generatedValue != nextChunkPartitionIdCRC) {
                         chunkLengthB.position(0);
-                        for (int partitionId : m_partitionIds) {
-                            m_corruptedPartitions.add(partitionId);
-                        }
+                        markAllPartitionsCorrupted();
                         throw new IOException("Chunk partition ID CRC check failed. " +
                                 "This corrupts all partitions in this file");
                     }
@@ -642,10 +791,8 @@ public class TableSaveFile
                     }
 
                     /*
-                     * Go fetch the compressed data so that the uncompressed size is known
-                     * and use that to set nextChunkLength to be the uncompressed length,
-                     * the code ahead that constructs the volt table is expecting
-                     * the uncompressed size/data since it is producing an uncompressed table
+                     * Go fetch the compressed data, the decompression task will validate it and
+                     * produce the uncompressed VoltTable the consumer is expecting
                      */
                     fileInputBuffer.clear();
                     fileInputBuffer.limit(nextChunkLength);
@@ -657,89 +804,19 @@ public class TableSaveFile
                         sinceLastFAdvise += read;
                     }
                     fileInputBuffer.flip();
-                    nextChunkLength = CompressionService.uncompressedLength(fileInputBuffer);
-
-                    /*
-                     * Validate the rest of the chunk. This can fail if the data is corrupted
-                     * or the length value was corrupted.
-                     */
-                    final int calculatedCRC =
-                            DBBPool.getBufferCRC32C(fileInputBuffer, 0, fileInputBuffer.remaining());
-                    if (calculatedCRC != nextChunkCRC) {
-                        m_corruptedPartitions.add(nextChunkPartitionId);
-                        if (m_continueOnCorruptedChunk) {
-                            m_chunkReads.release();
-                            continue;
-                        } else {
-                            throw new IOException("CRC mismatch in saved table chunk");
-                        }
-                    }
-
-                    /*
-                     * Now allocate space to store the chunk using the VoltTable serialization representation.
-                     * The chunk will contain an integer row count preceding it so it can
-                     * be sucked straight in. There is a little funny business to overwrite the
-                     * partition id that is not part of the serialization format
-                     */
-                    c = getOutputBuffer(nextChunkPartitionId);
-
-                    /*
-                     * If the length value is wrong or not all data made it to disk this read will
-                     * not complete correctly. There could be overflow, underflow etc.
-                     * so use a try finally block to indicate that all partitions are now corrupt.
-                     * The enclosing exception handlers will do the right thing WRT to
-                     * propagating the error and closing the file.
-                     */
-                    boolean completedRead = false;
-                    try {
-                        final ByteBuffer buf = c.b();
-                        /*
-                         * Assemble a VoltTable out of the chunk of tuples.
-                         * Put in the header that was cached in the constructor,
-                         * then copy the tuple data.
-                         */
-                        buf.clear();
-                        buf.limit(nextChunkLength  + m_tableHeader.capacity());
-                        m_tableHeader.position(0);
-                        buf.put(m_tableHeader);
-                        //Doesn't move buffer position, does change the limit
-                        CompressionService.decompressBuffer(fileInputBuffer, buf);
-                        completedRead = true;
-                    } finally {
-                        if (!completedRead) {
-                            for (int partitionId : m_partitionIds) {
-                                m_corruptedPartitions.add(partitionId);
-                            }
-                            if (m_continueOnCorruptedChunk) {
-                                m_chunkReads.release();
-                                continue;
-                            } else {
-                                throw new IOException("Failed decompression of saved table chunk");
-                            }
-                        }
-                    }
-
-                    /*
-                     * Skip irrelevant chunks after CRC is calculated. Always calulate the CRC
-                     * in case it is the length value that is corrupted
-                     */
-                    if (m_relevantPartitionIds != null) {
-                        if (!m_relevantPartitionIds.contains(nextChunkPartitionId)) {
-                            m_chunkReads.release();
-                            continue;
-                        }
-                    }
-
-                    /*
-                     * VoltTable wants the buffer at the home position 0
-                     */
-                    c.b().position(0);
 
+                    final PendingChunk pending = new PendingChunk();
                     synchronized (TableSaveFile.this) {
-                        m_availableChunks.offer(c);
-                        c = null;
-                        TableSaveFile.this.notifyAll();
+                        m_pendingChunks.offer(pending);
                     }
+                    final BBContainer compressedC = fileInputBufferC;
+                    fileInputBufferC = null;
+                    decompressor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            decompressChunk(pending, compressedC, nextChunkPartitionId, nextChunkCRC);
+                        }
+                    });
                 } catch (EOFException eof) {
                     synchronized (TableSaveFile.this) {
                         m_hasMoreChunks = false;
@@ -775,16 +852,118 @@ public class TableSaveFile
                         TableSaveFile.this.notifyAll();
                     }
                 } finally {
-                    if (c != null) c.discard();
+                    // The chunk wasn't handed to the decompressor so nothing else will return its permit
+                    if (fileInputBufferC != null) {
+                        returnCompressedBuffer(fileInputBufferC);
+                        m_chunkReads.release();
+                    }
+                }
+            }
+        }
+
+        /*
+         * Validate and decompress one chunk, runs in the decompression pool
+         */
+        private void decompressChunk(PendingChunk pending, BBContainer compressedC,
+                int partitionId, int expectedCRC) {
+            final ByteBuffer fileInputBuffer = compressedC.b();
+            Container c = null;
+            IOException failure = null;
+            try {
+                /*
+                 * Validate the rest of the chunk. This can fail if the data is corrupted
+                 * or the length value was corrupted.
+                 */
+                final int calculatedCRC =
+                        DBBPool.getBufferCRC32C(fileInputBuffer, 0, fileInputBuffer.remaining());
+                if (calculatedCRC != expectedCRC) {
+                    synchronized (TableSaveFile.this) {
+                        m_corruptedPartitions.add(partitionId);
+                    }
+                    if (!m_continueOnCorruptedChunk) {
+                        failure = new IOException("CRC mismatch in saved table chunk");
+                    }
+                    return;
+                }
+
+                /*
+                 * Now allocate space to store the chunk using the VoltTable serialization representation.
+                 * The chunk will contain an integer row count preceding it so it can
+                 * be sucked straight in. There is a little funny business to overwrite the
+                 * partition id that is not part of the serialization format
+                 */
+                c = getOutputBuffer(partitionId);
+
+                /*
+                 * If the length value is wrong or not all data made it to disk this read will
+                 * not complete correctly. There could be overflow, underflow etc.
+                 * so indicate that all partitions are now corrupt.
+                 */
+                try {
+                    final int uncompressedLength =
+                            CompressionService.uncompressedLength(m_compressionCodec, fileInputBuffer);
+                    final ByteBuffer buf = c.b();
+                    /*
+                     * Assemble a VoltTable out of the chunk of tuples.
+                     * Put in the header that was cached in the constructor,
+                     * then copy the tuple data. Chunks are assembled concurrently
+                     * so each uses its own view of the header.
+                     */
+                    buf.clear();
+                    buf.limit(uncompressedLength + m_tableHeader.capacity());
+                    final ByteBuffer tableHeader = m_tableHeader.duplicate();
+                    tableHeader.position(0);
+                    buf.put(tableHeader);
+                    //Doesn't move buffer position, does change the limit
+                    CompressionService.decompressBuffer(m_compressionCodec, fileInputBuffer, buf);
+                } catch (IOException e) {
+                    failedDecompression();
+                    return;
+                } catch (RuntimeException e) {
+                    failedDecompression();
+                    return;
+                }
+                SnapshotRestoreProgress.chunkRead(m_tableName, c.b().limit());
+
+                /*
+                 * Skip irrelevant chunks after CRC is calculated. Always calulate the CRC
+                 * in case it is the length value that is corrupted
+                 */
+                if (m_relevantPartitionIds != null) {
+                    if (!m_relevantPartitionIds.contains(partitionId)) {
+                        return;
+                    }
+                }
+
+                /*
+                 * VoltTable wants the buffer at the home position 0
+                 */
+                c.b().position(0);
+                pending.m_chunk = c;
+                c = null;
+            } finally {
+                if (c != null) c.discard();
+                returnCompressedBuffer(compressedC);
+                publishChunk(pending, failure);
+            }
+        }
+
+        private void failedDecompression() {
+            markAllPartitionsCorrupted();
+            if (!m_continueOnCorruptedChunk) {
+                synchronized (TableSaveFile.this) {
+                    if (m_chunkReaderException == null) {
+                        m_chunkReaderException = new IOException("Failed decompression of saved table chunk");
+                    }
+                    m_hasMoreChunks = false;
                 }
             }
-            fileInputBufferC.discard();
         }
 
         private void readChunks() {
             //For reading the compressed input.
             BBContainer fileInputBufferC =
-                    DBBPool.allocateDirect(CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
+                    allocateBuffer(CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
             ByteBuffer fileInputBuffer = fileInputBufferC.b();
             while (m_hasMoreChunks) {
                 /*
@@ -879,7 +1058,7 @@ public class TableSaveFile
                             }
                         }
                         fileInputBuffer.flip();
-                        nextChunkLength = CompressionService.uncompressedLength(fileInputBuffer);
+                        nextChunkLength = CompressionService.uncompressedLength(m_compressionCodec, fileInputBuffer);
                     }
 
                     /*
@@ -925,7 +1104,7 @@ public class TableSaveFile
                         c.b().position(c.b().position() + 4);//Leave space for row count to be moved into
                         checksumStartPosition = c.b().position();
                         if (isCompressed()) {
-                            CompressionService.decompressBuffer(fileInputBuffer, c.b());
+                            CompressionService.decompressBuffer(m_compressionCodec, fileInputBuffer, c.b());
                             c.b().position(c.b().limit());
                         } else {
                             while (c.b().hasRemaining()) {
@@ -1046,7 +1225,7 @@ public class TableSaveFile
         private Container getOutputBuffer(final int nextChunkPartitionId) {
             BBContainer c = m_buffers.poll();
             if (c == null) {
-                final BBContainer originContainer = DBBPool.allocateDirect(DEFAULT_CHUNKSIZE);
+                final BBContainer originContainer = allocateBuffer(DEFAULT_CHUNKSIZE);
                 final ByteBuffer b = originContainer.b();
                 final Container retcont = new Container(b, originContainer, nextChunkPartitionId);
                 return retcont;
@@ -1062,6 +1241,7 @@ public class TableSaveFile
 
         @Override
         public void run() {
+            SnapshotRestoreProgress.started(m_tableName);
             try {
                 if (m_hasVersion2FormatChunks) {
                     readChunksV2();
@@ -1071,6 +1251,12 @@ public class TableSaveFile
             } finally {
                 synchronized (TableSaveFile.this) {
                     m_hasMoreChunks = false;
+                    m_chunkReaderDone = true;
+                    BBContainer c;
+                    while ((c = m_compressedBuffers.poll()) != null) {
+                        c.discard();
+                    }
+                    finishProgressIfDone();
                     TableSaveFile.this.notifyAll();
                     try {
                         m_saveFile.close();
@@ -1248,7 +1248,7 @@ public abstract class CatalogUtil {
         // Instantiate the Guest Processor
         Class<?> processorClazz = null;
         try {
-            processorClazz = Class.forName(ExportManager.PROCESSOR_CLASS);
+            processorClazz = Class.forName(ExportManager.processorClass());
         } catch (ClassNotFoundException e) {
             throw new DeploymentCheckException("Export is a PRO version only feature");
         }
@@ -1264,10 +1264,12 @@ public abstract class CatalogUtil {
 
             processorProperties.put(ExportManager.CONFIG_CHECK_ONLY, "true");
             processor.checkProcessorConfig(processorProperties);
-            processor.shutdown();
         } catch (Exception e) {
             hostLog.error("Export processor failed its configuration check", e);
             throw new DeploymentCheckException("Export processor failed its configuration check: " + e.getMessage(), e);
+        } finally {
+            // The processor may have started threads of its own, stop them whether or not the check passed
+            processor.shutdown();
         }
 
         processorProperties.remove(ExportManager.CONFIG_CHECK_ONLY);
@@ -1521,7 +1523,7 @@ public abstract class CatalogUtil {
             }
 
             // on-server export always uses the guest processor
-            catconn.setLoaderclass(ExportManager.PROCESSOR_CLASS);
+            catconn.setLoaderclass(ExportManager.processorClass());
             catconn.setEnabled(connectorEnabled);
 
             if (!connectorEnabled) {
@@ -27,6 +27,7 @@ import java.util.concurrent.Future;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterOutputStream;
 
+import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
@@ -34,11 +35,71 @@ import org.voltdb.VoltDB;
 import org.voltdb.VoltDBInterface;
 import org.xerial.snappy.Snappy;
 
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
 import com.google_voltpatches.common.util.concurrent.ListenableFuture;
 import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
 import com.google_voltpatches.common.util.concurrent.MoreExecutors;
 
 public final class CompressionService {
+    private static final VoltLogger hostLog = new VoltLogger("HOST");
+
+    /**
+     * Block formats this service can produce. Snappy blocks carry their own uncompressed
+     * length, LZ4 blocks are prefixed with it as a 4-byte big endian int. LZ4_HIGH spends
+     * more time compressing for a better ratio and writes the same format as LZ4.
+     * The ids are what gets recorded in file and message headers.
+     */
+    public enum Codec {
+        SNAPPY((byte) 0),
+        LZ4((byte) 1),
+        LZ4_HIGH((byte) 2);
+
+        private final byte m_id;
+
+        private Codec(byte id) {
+            m_id = id;
+        }
+
+        public byte getId() {
+            return m_id;
+        }
+
+        public boolean isLz4() {
+            return this != SNAPPY;
+        }
+
+        public static Codec fromId(byte id) {
+            for (Codec codec : values()) {
+                if (codec.m_id == id) {
+                    return codec;
+                }
+            }
+            throw new IllegalArgumentException("Unknown compression codec id " + id);
+        }
+
+        /**
+         * @return the codec named by the system property, SNAPPY if it isn't set
+         * or doesn't name a codec
+         */
+        public static Codec fromProperty(String property) {
+            final String name = System.getProperty(property, SNAPPY.name());
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // Called from static initializers, failing here would leave the class unusable
+                hostLog.warn("Unknown compression codec " + name + " for " + property +
+                        ", using " + SNAPPY.name() + " instead. Valid codecs are " + Arrays.toString(values()));
+                return SNAPPY;
+            }
+        }
+    }
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+    private static final int LZ4_LENGTH_PREFIX = 4;
+    // Every LZ4 sequence takes at least a byte per 255 bytes it expands to
+    private static final int LZ4_MAX_RATIO = 255;
 
     static {
         CoreUtils.m_threadLocalDeallocator = new Runnable() {
@@ -65,10 +126,39 @@ public final class CompressionService {
         }
     };
 
+    /*
+     * The LZ4 library only works on arrays, direct buffers are staged through these
+     */
+    private static class HeapBuffers {
+        private byte[] input = new byte[1024 * 32];
+        private byte[] output = new byte[1024 * 32];
+
+        private byte[] input(int length) {
+            if (input.length < length) {
+                input = new byte[Math.max(input.length * 2, length)];
+            }
+            return input;
+        }
+
+        private byte[] output(int length) {
+            if (output.length < length) {
+                output = new byte[Math.max(output.length * 2, length)];
+            }
+            return output;
+        }
+    }
+    private static ThreadLocal<HeapBuffers> m_heapBuffers = new ThreadLocal<HeapBuffers>() {
+        @Override
+        protected HeapBuffers initialValue() {
+            return new HeapBuffers();
+        }
+    };
+
     public static void releaseThreadLocal() {
         m_buffers.get().input.discard();
         m_buffers.get().output.discard();
         m_buffers.remove();
+        m_heapBuffers.remove();
     }
 
     /*
@@ -128,6 +218,11 @@ public final class CompressionService {
     }
 
     public static Future<BBContainer> compressAndCRC32cBufferAsync(final ByteBuffer inBuffer, final BBContainer outBufferC) {
+        return compressAndCRC32cBufferAsync(Codec.SNAPPY, inBuffer, outBufferC);
+    }
+
+    public static Future<BBContainer> compressAndCRC32cBufferAsync(final Codec codec,
+            final ByteBuffer inBuffer, final BBContainer outBufferC) {
         assert(inBuffer.isDirect());
         assert(outBufferC.b().isDirect());
         return submitCompressionTask(new Callable<BBContainer>() {
@@ -139,7 +234,7 @@ public final class CompressionService {
                 final int crcPosition = outBuffer.position();
                 outBuffer.position(outBuffer.position() + 4);
                 final int crcCalcStart = outBuffer.position();
-                compressBuffer(inBuffer, outBuffer);
+                compressBuffer(codec, inBuffer, outBuffer);
                 final int crc32c =
                         DBBPool.getCRC32C( outBufferC.address(), crcCalcStart, outBuffer.limit() - crcCalcStart);
                 outBuffer.putInt(crcPosition, crc32c);
@@ -150,9 +245,89 @@ public final class CompressionService {
     }
 
     public static int compressBuffer(ByteBuffer buffer, ByteBuffer output) throws IOException {
+        return compressBuffer(Codec.SNAPPY, buffer, output);
+    }
+
+    /**
+     * Compress the remaining bytes of buffer into output starting at its position. Neither
+     * position moves, the limit of output is set to the end of the compressed block.
+     * @return the compressed size
+     */
+    public static int compressBuffer(Codec codec, ByteBuffer buffer, ByteBuffer output) throws IOException {
         assert(buffer.isDirect());
         assert(output.isDirect());
-        return Snappy.compress(buffer, output);
+        if (!codec.isLz4()) {
+            return Snappy.compress(buffer, output);
+        }
+
+        final HeapBuffers heap = m_heapBuffers.get();
+        final int length = buffer.remaining();
+        final byte[] input = heap.input(length);
+        buffer.duplicate().get(input, 0, length);
+        final byte[] compressed = heap.output(maxCompressedLength(codec, length));
+        final int compressedSize = lz4Compress(codec, input, 0, length, compressed);
+
+        final ByteBuffer out = output.duplicate();
+        out.put(compressed, 0, compressedSize);
+        output.limit(output.position() + compressedSize);
+        return compressedSize;
+    }
+
+    /*
+     * Writes the length prefixed block at the start of compressed
+     */
+    private static int lz4Compress(Codec codec, byte[] input, int offset, int length, byte[] compressed) {
+        final int size = (codec == Codec.LZ4_HIGH ? LZ4_FACTORY.highCompressor() : LZ4_FACTORY.fastCompressor())
+                .compress(input, offset, length, compressed, LZ4_LENGTH_PREFIX, compressed.length - LZ4_LENGTH_PREFIX);
+        ByteBuffer.wrap(compressed).putInt(0, length);
+        return size + LZ4_LENGTH_PREFIX;
+    }
+
+    /*
+     * The uncompressed length an LZ4 block is prefixed with. It comes from a file or the
+     * network, so it is checked against what the block can expand to before anything
+     * is allocated for it.
+     */
+    private static int lz4UncompressedLength(ByteBuffer compressed) throws IOException {
+        final int length = compressed.remaining();
+        if (length < LZ4_LENGTH_PREFIX) {
+            throw new IOException("LZ4 block of " + length + " bytes is too short for its length prefix");
+        }
+        // Absolute reads on a duplicate are always big endian
+        final int uncompressedLength = compressed.duplicate().getInt(compressed.position());
+        if (uncompressedLength < 0 || uncompressedLength > (long) (length - LZ4_LENGTH_PREFIX) * LZ4_MAX_RATIO) {
+            throw new IOException("LZ4 block of " + length + " bytes has an invalid uncompressed length of " +
+                    uncompressedLength);
+        }
+        return uncompressedLength;
+    }
+
+    private static int lz4Decompress(byte[] compressed, int offset, int length, byte[] output, int outputOffset)
+            throws IOException {
+        final int uncompressedLength = lz4UncompressedLength(ByteBuffer.wrap(compressed, offset, length));
+        try {
+            final int actual = LZ4_FACTORY.safeDecompressor().decompress(compressed, offset + LZ4_LENGTH_PREFIX,
+                    length - LZ4_LENGTH_PREFIX, output, outputOffset, uncompressedLength);
+            if (actual != uncompressedLength) {
+                throw new IOException("LZ4 block decompressed to " + actual + " bytes, expected " + uncompressedLength);
+            }
+        } catch (LZ4Exception e) {
+            throw new IOException(e);
+        }
+        return uncompressedLength;
+    }
+
+    public static byte[] compressBuffer(Codec codec, ByteBuffer buffer) throws IOException {
+        if (!codec.isLz4()) {
+            return compressBuffer(buffer);
+        }
+        assert(buffer.isDirect());
+        final HeapBuffers heap = m_heapBuffers.get();
+        final int length = buffer.remaining();
+        final byte[] input = heap.input(length);
+        buffer.duplicate().get(input, 0, length);
+        final byte[] compressed = heap.output(maxCompressedLength(codec, length));
+        return Arrays.copyOf(compressed, lz4Compress(codec, input, 0, length, compressed));
     }
 
     public static byte[] compressBuffer(ByteBuffer buffer) throws IOException {
@@ -166,6 +341,14 @@ public final class CompressionService {
         return result;
     }
 
+    public static byte[] compressBytes(Codec codec, byte bytes[], int offset, int length) throws IOException {
+        if (!codec.isLz4()) {
+            return compressBytes(bytes, offset, length);
+        }
+        final byte[] compressed = m_heapBuffers.get().output(maxCompressedLength(codec, length));
+        return Arrays.copyOf(compressed, lz4Compress(codec, bytes, offset, length, compressed));
+    }
+
     public static byte[] compressBytes(byte bytes[], int offset, int length) throws IOException {
         final IOBuffers buffers = getBuffersForCompression(bytes.length, false);
         final ByteBuffer input = buffers.input.b();
@@ -216,20 +399,74 @@ public final class CompressionService {
         return result;
     }
 
+    /**
+     * Large enough for a block produced by any codec, so buffers sized with it don't
+     * depend on which one is configured
+     */
     public static int maxCompressedLength(int uncompressedSize) {
-        return Snappy.maxCompressedLength(uncompressedSize);
+        return Math.max(maxCompressedLength(Codec.SNAPPY, uncompressedSize),
+                        maxCompressedLength(Codec.LZ4, uncompressedSize));
+    }
+
+    public static int maxCompressedLength(Codec codec, int uncompressedSize) {
+        if (!codec.isLz4()) {
+            return Snappy.maxCompressedLength(uncompressedSize);
+        }
+        return LZ4_FACTORY.fastCompressor().maxCompressedLength(uncompressedSize) + LZ4_LENGTH_PREFIX;
     }
 
     public static int uncompressedLength(ByteBuffer compressed) throws IOException {
+        return uncompressedLength(Codec.SNAPPY, compressed);
+    }
+
+    public static int uncompressedLength(Codec codec, ByteBuffer compressed) throws IOException {
         assert(compressed.isDirect());
-        return Snappy.uncompressedLength(compressed);
+        if (!codec.isLz4()) {
+            return Snappy.uncompressedLength(compressed);
+        }
+        return lz4UncompressedLength(compressed);
     }
 
     public static int decompressBuffer(final ByteBuffer compressed, final ByteBuffer uncompressed) throws IOException {
+        return decompressBuffer(Codec.SNAPPY, compressed, uncompressed);
+    }
+
+    /**
+     * Decompress the remaining bytes of compressed into uncompressed starting at its position.
+     * Neither position moves, the limit of uncompressed is set to the end of the data.
+     * @return the uncompressed size
+     */
+    public static int decompressBuffer(Codec codec, final ByteBuffer compressed, final ByteBuffer uncompressed)
+            throws IOException {
         assert(compressed.isDirect());
         assert(uncompressed.isDirect());
+        if (!codec.isLz4()) {
+            return Snappy.uncompress(compressed, uncompressed);
+        }
 
-        return Snappy.uncompress(compressed, uncompressed);
+        final int expectedLength = lz4UncompressedLength(compressed);
+        if (uncompressed.remaining() < expectedLength) {
+            throw new IOException("Buffer of " + uncompressed.remaining() +
+                    " bytes is too small for " + expectedLength + " uncompressed bytes");
+        }
+        final HeapBuffers heap = m_heapBuffers.get();
+        final int length = compressed.remaining();
+        final byte[] input = heap.input(length);
+        compressed.duplicate().get(input, 0, length);
+        final byte[] output = heap.output(expectedLength);
+        final int uncompressedLength = lz4Decompress(input, 0, length, output, 0);
+        uncompressed.duplicate().put(output, 0, uncompressedLength);
+        uncompressed.limit(uncompressed.position() + uncompressedLength);
+        return uncompressedLength;
+    }
+
+    public static byte[] decompressBytes(Codec codec, byte bytes[]) throws IOException {
+        if (!codec.isLz4()) {
+            return decompressBytes(bytes);
+        }
+        final byte[] result = new byte[lz4UncompressedLength(ByteBuffer.wrap(bytes))];
+        lz4Decompress(bytes, 0, bytes.length, result, 0);
+        return result;
     }
 
     public static byte[] decompressBytes(byte bytes[]) throws IOException {
@@ -20,6 +20,7 @@ package org.voltdb.utils;
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltcore.utils.DBBPool.MBBContainer;
 import org.voltcore.utils.DeferredSerialization;
 import org.voltdb.utils.BinaryDeque.OutputContainerFactory;
 
@@ -30,18 +31,32 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Objects placed in the deque are stored in file segments that are up to 64 megabytes.
  * Segments only support appending objects. A segment will throw an IOException if an attempt
  * to insert an object that exceeds the remaining space is made. A segment can be used
  * for reading and writing, but not both at the same time.
+ *
+ * With mapped reads, readers other than the truncator hand out read only slices of a
+ * mapping of the file instead of copying each entry into a new container. The mapping
+ * is shared by the readers of the segment and replaced by a larger one when they read
+ * past its end. A mapping is only unmapped once the segment has let go of it and every
+ * slice of it has been discarded, so closing or deleting the segment while entries are
+ * still held is safe.
  */
 public class PBDRegularSegment extends PBDSegment {
     private static final VoltLogger LOG = new VoltLogger("HOST");
 
+    /**
+     * Default for deques that don't choose, read entries through a mapping of the segment
+     */
+    public static final boolean MMAP_READS = Boolean.getBoolean("PBD_MMAP_READS");
+
     private final Map<String, SegmentReader> m_readCursors = new HashMap<>();
     private final Map<String, SegmentReader> m_closedCursors = new HashMap<>();
 
@@ -53,9 +68,44 @@ public class PBDRegularSegment extends PBDSegment {
 
     private DBBPool.BBContainer m_tmpHeaderBuf = null;
 
+    private final boolean m_mmapReads;
+    // Read only mapping of the file used by the readers, null until first needed
+    private MappedRegion m_mapped = null;
+
+    /**
+     * A mapping of the file that is unmapped when its last reference is released.
+     * The segment holds one reference while the mapping is current, and each entry
+     * handed out as a slice of it holds another.
+     */
+    private static final class MappedRegion {
+        final MBBContainer m_map;
+        final long m_size;
+        private final AtomicInteger m_refs = new AtomicInteger(1);
+
+        MappedRegion(MBBContainer map) {
+            m_map = map;
+            m_size = map.b().capacity();
+        }
+
+        void retain() {
+            m_refs.incrementAndGet();
+        }
+
+        void release() {
+            if (m_refs.decrementAndGet() == 0) {
+                m_map.discard();
+            }
+        }
+    }
+
     public PBDRegularSegment(Long index, File file) {
+        this(index, file, MMAP_READS);
+    }
+
+    public PBDRegularSegment(Long index, File file, boolean mmapReads) {
         super(file);
         m_index = index;
+        m_mmapReads = mmapReads;
         reset();
     }
 
@@ -163,10 +213,34 @@ public class PBDRegularSegment extends PBDSegment {
             initNumEntries(0, 0);
         }
         m_fc.position(SEGMENT_HEADER_BYTES);
+        if (m_mmapReads && !forWrite) {
+            PBDUtils.fadviseSequential(m_ras.getFD());
+        }
 
         m_closed = false;
     }
 
+    /**
+     * Get a mapping of the file that covers it at least up to end, mapping the
+     * whole file again if the current one is too short.
+     */
+    private MappedRegion mapThrough(long end) throws IOException {
+        if (m_mapped == null || m_mapped.m_size < end) {
+            final long size = m_fc.size();
+            if (size < end) {
+                throw new EOFException();
+            }
+            if (m_mapped != null) {
+                m_mapped.release();
+                m_mapped = null;
+            }
+            final MBBContainer map = DBBPool.wrapMBB(m_fc.map(MapMode.READ_ONLY, 0, size));
+            PBDUtils.madviseSequential(map);
+            m_mapped = new MappedRegion(map);
+        }
+        return m_mapped;
+    }
+
 
     @Override
     protected void initNumEntries(int count, int size) throws IOException {
@@ -226,6 +300,10 @@ public class PBDRegularSegment extends PBDSegment {
 
     private void closeReadersAndFile() throws IOException {
         m_readCursors.clear();
+        if (m_mapped != null) {
+            m_mapped.release();
+            m_mapped = null;
+        }
         try {
             if (m_ras != null) {
                 m_ras.close();
@@ -269,7 +347,8 @@ public class PBDRegularSegment extends PBDSegment {
         final ByteBuffer buf = cont.b();
         final int remaining = buf.remaining();
         if (remaining < 32 || !buf.isDirect()) compress = false;
-        final int maxCompressedSize = (compress ? CompressionService.maxCompressedLength(remaining) : remaining) + OBJECT_HEADER_BYTES;
+        final CompressionService.Codec codec = m_compressionCodec;
+        final int maxCompressedSize = (compress ? CompressionService.maxCompressedLength(codec, remaining) : remaining) + OBJECT_HEADER_BYTES;
         if (remaining() < maxCompressedSize) return false;
 
         m_syncedSinceLastEdit = false;
@@ -280,11 +359,11 @@ public class PBDRegularSegment extends PBDSegment {
 
             if (compress) {
                 destBuf = DBBPool.allocateDirectAndPool(maxCompressedSize);
-                final int compressedSize = CompressionService.compressBuffer(buf, destBuf.b());
+                final int compressedSize = CompressionService.compressBuffer(codec, buf, destBuf.b());
                 destBuf.b().limit(compressedSize);
 
                 m_tmpHeaderBuf.b().putInt(compressedSize);
-                m_tmpHeaderBuf.b().putInt(FLAG_COMPRESSED);
+                m_tmpHeaderBuf.b().putInt(codec.isLz4() ? FLAG_COMPRESSED | FLAG_LZ4 : FLAG_COMPRESSED);
             } else {
                 destBuf = cont;
                 m_tmpHeaderBuf.b().putInt(remaining);
@@ -361,6 +440,8 @@ public class PBDRegularSegment extends PBDSegment {
 
     private class SegmentReader implements PBDSegmentReader {
         private final String m_cursorId;
+        // The truncator rewrites the file under itself, it always reads through the channel
+        private final boolean m_mapped;
         private long m_readOffset = SEGMENT_HEADER_BYTES;
         //Index of the next object to read, not an offset into the file
         private int m_objectReadIndex = 0;
@@ -371,6 +452,7 @@ public class PBDRegularSegment extends PBDSegment {
         public SegmentReader(String cursorId) {
             assert(cursorId != null);
             m_cursorId = cursorId;
+            m_mapped = m_mmapReads && !TRUNCATOR_CURSOR.equals(cursorId);
         }
 
         private void resetReader() {
@@ -398,6 +480,10 @@ public class PBDRegularSegment extends PBDSegment {
                 return null;
             }
 
+            if (m_mapped) {
+                return pollMapped(factory);
+            }
+
             final long writePos = m_fc.position();
             m_fc.position(m_readOffset);
 
@@ -414,6 +500,7 @@ public class PBDRegularSegment extends PBDSegment {
                 final int length = m_tmpHeaderBuf.b().getInt();
                 final int flags = m_tmpHeaderBuf.b().getInt();
                 final boolean compressed = (flags & FLAG_COMPRESSED) != 0;
+                final CompressionService.Codec codec = codecForFlags(flags);
                 final int uncompressedLen;
 
                 if (length < 1) {
@@ -432,10 +519,10 @@ public class PBDRegularSegment extends PBDSegment {
                         }
                         compressedBuf.b().flip();
 
-                        uncompressedLen = CompressionService.uncompressedLength(compressedBuf.bDR());
+                        uncompressedLen = CompressionService.uncompressedLength(codec, compressedBuf.bDR());
                         retcont = factory.getContainer(uncompressedLen);
                         retcont.b().limit(uncompressedLen);
-                        CompressionService.decompressBuffer(compressedBuf.bDR(), retcont.b());
+                        CompressionService.decompressBuffer(codec, compressedBuf.bDR(), retcont.b());
                     } finally {
                         compressedBuf.discard();
                     }
@@ -455,26 +542,74 @@ public class PBDRegularSegment extends PBDSegment {
                 m_bytesRead += uncompressedLen;
                 m_objectReadIndex++;
 
-                return new DBBPool.BBContainer(retcont.b()) {
-                    private boolean m_discarded = false;
+                return countingContainer(retcont);
+            } finally {
+                m_readOffset = m_fc.position();
+                m_fc.position(writePos);
+            }
+        }
+
+        private BBContainer pollMapped(OutputContainerFactory factory) throws IOException {
+            final long entryStart = m_readOffset + OBJECT_HEADER_BYTES;
+            ByteBuffer map = mapThrough(entryStart).m_map.b();
+            final int length = map.getInt((int) m_readOffset);
+            final int flags = map.getInt((int) m_readOffset + 4);
+            final boolean compressed = (flags & FLAG_COMPRESSED) != 0;
+            final CompressionService.Codec codec = codecForFlags(flags);
+
+            if (length < 1) {
+                throw new IOException("Read an invalid length");
+            }
 
+            final MappedRegion region = mapThrough(entryStart + length);
+            final ByteBuffer entry = region.m_map.b().duplicate();
+            entry.limit((int) entryStart + length).position((int) entryStart);
+
+            final int uncompressedLen;
+            final DBBPool.BBContainer retcont;
+            if (compressed) {
+                // Decompress straight out of the mapping, skipping the copy of the compressed bytes
+                final ByteBuffer compressedBuf = entry.slice();
+                uncompressedLen = CompressionService.uncompressedLength(codec, compressedBuf);
+                retcont = factory.getContainer(uncompressedLen);
+                retcont.b().limit(uncompressedLen);
+                CompressionService.decompressBuffer(codec, compressedBuf, retcont.b());
+            } else {
+                uncompressedLen = length;
+                region.retain();
+                retcont = new DBBPool.BBContainer(entry.slice()) {
                     @Override
                     public void discard() {
                         checkDoubleFree();
-                        if (m_discarded) {
-                            LOG.error("PBD Container discarded more than once");
-                            return;
-                        }
-
-                        m_discarded = true;
-                        retcont.discard();
-                        m_discardCount++;
+                        region.release();
                     }
                 };
-            } finally {
-                m_readOffset = m_fc.position();
-                m_fc.position(writePos);
             }
+
+            m_readOffset = entryStart + length;
+            m_bytesRead += uncompressedLen;
+            m_objectReadIndex++;
+
+            return countingContainer(retcont);
+        }
+
+        private BBContainer countingContainer(final BBContainer retcont) {
+            return new DBBPool.BBContainer(retcont.b()) {
+                private boolean m_discarded = false;
+
+                @Override
+                public void discard() {
+                    checkDoubleFree();
+                    if (m_discarded) {
+                        LOG.error("PBD Container discarded more than once");
+                        return;
+                    }
+
+                    m_discarded = true;
+                    retcont.discard();
+                    m_discardCount++;
+                }
+            };
         }
 
         @Override
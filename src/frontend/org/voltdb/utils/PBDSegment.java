@@ -96,9 +96,15 @@ public abstract class PBDSegment {
         public boolean isClosed();
     }
 
-    private static final String TRUNCATOR_CURSOR = "__truncator__";
+    static final String TRUNCATOR_CURSOR = "__truncator__";
     static final int NO_FLAGS = 0;
     static final int FLAG_COMPRESSED = 1;
+    // Set along with FLAG_COMPRESSED when the entry is an LZ4 block rather than Snappy
+    static final int FLAG_LZ4 = 2;
+
+    // Codec for newly written entries, the codec of each existing entry is in its flags
+    static volatile CompressionService.Codec m_compressionCodec =
+            CompressionService.Codec.fromProperty("PBD_COMPRESSION_CODEC");
 
     static final int COUNT_OFFSET = 0;
     static final int SIZE_OFFSET = 4;
@@ -244,4 +250,12 @@ public abstract class PBDSegment {
 
         return entriesTruncated;
     }
+
+    static void setCompressionCodecForTest(CompressionService.Codec codec) {
+        m_compressionCodec = codec;
+    }
+
+    static CompressionService.Codec codecForFlags(int flags) {
+        return (flags & FLAG_LZ4) != 0 ? CompressionService.Codec.LZ4 : CompressionService.Codec.SNAPPY;
+    }
 }
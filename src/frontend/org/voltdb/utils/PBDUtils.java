@@ -17,14 +17,22 @@
 
 package org.voltdb.utils;
 
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.DeferredSerialization;
 
 import java.io.EOFException;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 public class PBDUtils {
+    private static final VoltLogger LOG = new VoltLogger("HOST");
+
+    // Read ahead hints are only an optimization, stop trying once the native calls are unavailable
+    private static volatile boolean s_adviseFailed = false;
+
     public static int writeDeferredSerialization(ByteBuffer mbuf, DeferredSerialization ds) throws IOException
     {
         int written = 0;
@@ -62,4 +70,45 @@ public class PBDUtils {
         }
         buf.flip();
     }
+
+    /**
+     * Hint that a mapped segment will be read front to back. Failures are logged once and ignored.
+     */
+    public static void madviseSequential(BBContainer mapping)
+    {
+        if (s_adviseFailed) return;
+        try {
+            final long retval = PosixAdvise.madvise(mapping.address(), mapping.b().capacity(),
+                                                    PosixAdvise.POSIX_MADV_SEQUENTIAL);
+            if (retval != 0) {
+                LOG.debug("Failed to madvise PBD segment, this is harmless: " + retval);
+            }
+        } catch (Throwable t) {
+            adviseFailed(t);
+        }
+    }
+
+    /**
+     * Hint that a segment file will be read front to back. Failures are logged once and ignored.
+     */
+    public static void fadviseSequential(FileDescriptor fd)
+    {
+        if (s_adviseFailed) return;
+        try {
+            final long retval = PosixAdvise.fadvise(fd, 0, 0, PosixAdvise.POSIX_FADV_SEQUENTIAL);
+            if (retval != 0) {
+                LOG.debug("Failed to fadvise PBD segment, this is harmless: " + retval);
+            }
+        } catch (Throwable t) {
+            adviseFailed(t);
+        }
+    }
+
+    private static void adviseFailed(Throwable t)
+    {
+        if (!s_adviseFailed) {
+            s_adviseFailed = true;
+            LOG.info("Unable to advise the kernel about PBD reads, continuing without: " + t);
+        }
+    }
 }
@@ -243,6 +243,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
     private final File m_path;
     private final String m_nonce;
+    private final boolean m_mmapReads;
     private boolean m_initializedFromExistingFiles = false;
     private boolean m_awaitingTruncation = false;
 
@@ -278,9 +279,24 @@ public class PersistentBinaryDeque implements BinaryDeque {
      * @throws IOException
      */
     public PersistentBinaryDeque(final String nonce, final File path, VoltLogger logger, final boolean deleteEmpty) throws IOException {
+        this(nonce, path, logger, deleteEmpty, PBDRegularSegment.MMAP_READS);
+    }
+
+    /**
+     * Create a persistent binary deque with the specified nonce and storage back at the specified path.
+     *
+     * @param nonce
+     * @param path
+     * @param deleteEmpty
+     * @param mmapReads read entries as slices of a read only mapping of each segment
+     * @throws IOException
+     */
+    public PersistentBinaryDeque(final String nonce, final File path, VoltLogger logger, final boolean deleteEmpty,
+            final boolean mmapReads) throws IOException {
         EELibraryLoader.loadExecutionEngineLibrary(true);
         m_path = path;
         m_nonce = nonce;
+        m_mmapReads = mmapReads;
         m_usageSpecificLog = logger;
 
         if (!path.exists() || !path.canRead() || !path.canWrite() || !path.canExecute() || !path.isDirectory()) {
@@ -482,7 +498,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     private PBDSegment newSegment(long segmentId, File file) {
-        return new PBDRegularSegment(segmentId, file);
+        return new PBDRegularSegment(segmentId, file, m_mmapReads);
     }
 
     /**
@@ -0,0 +1,148 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.Random;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltType;
+import org.voltdb.importer.formatter.FormattedRow;
+import org.voltdb.importer.formatter.Formatter;
+import org.voltdb.importer.formatter.builtin.VoltCSVFormatter;
+import org.voltdb.importer.formatter.builtin.VoltSuperCSVFormatter;
+
+/**
+ * Turns a buffer of CSV records into serialized procedure parameters, the work an
+ * importer does per record before a transaction is created. The built in formatters
+ * decode each line to a String, split it into String fields and serialize those as a
+ * ParameterSet; the streaming path splits the raw bytes in place and serializes the
+ * fields as the procedure's parameter types.
+ *
+ * Run with voltdb.jar on the classpath:
+ *   java -cp voltdb.jar:. CSVFormatterBench [records] [quotedPercent]
+ */
+public class CSVFormatterBench {
+
+    private static final VoltType[] TYPES = {
+        VoltType.BIGINT, VoltType.INTEGER, VoltType.FLOAT, VoltType.STRING, VoltType.STRING, VoltType.BIGINT
+    };
+
+    private static ByteBuffer generate(int records, int quotedPercent) {
+        final Random random = new Random(0);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            sb.append(i).append(',')
+              .append(random.nextInt(100000)).append(',')
+              .append(random.nextInt(1000000) / 100.0).append(',');
+            if (random.nextInt(100) < quotedPercent) {
+                sb.append("\"name, ").append(random.nextInt(1000)).append('"');
+            } else {
+                sb.append("name").append(random.nextInt(1000));
+            }
+            sb.append(",some longer text field for record ").append(i).append(',')
+              .append(random.nextBoolean() ? "NULL" : Long.toString(random.nextLong())).append('\n');
+        }
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long transform(Formatter<String> formatter, ByteBuffer source, ByteBuffer out) throws Exception {
+        final byte[] bytes = source.array();
+        long sink = 0;
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            final Object[] fields = formatter.transform(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+            start = i + 1;
+            final ParameterSet params = ParameterSet.fromArrayNoCopy(fields);
+            out.clear();
+            params.flattenToBuffer(out);
+            sink += out.position();
+        }
+        return sink;
+    }
+
+    private static long stream(VoltCSVFormatter formatter, ByteBuffer source, ByteBuffer out) throws Exception {
+        final FormattedRow row = new FormattedRow();
+        final ByteBuffer input = source.duplicate();
+        long sink = 0;
+        while (formatter.next(input, row)) {
+            out.clear();
+            row.flattenToBuffer(out, TYPES);
+            sink += out.position();
+        }
+        return sink;
+    }
+
+    private interface Pass {
+        long run() throws Exception;
+    }
+
+    private static void bench(String name, int records, Pass pass) throws Exception {
+        // First passes warm up the code, then take the best of a few
+        for (int i = 0; i < 3; i++) {
+            pass.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            final long start = System.nanoTime();
+            if (pass.run() == 42) {
+                System.out.print("");
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-10s %8.1f ns/record%n", name, (double) best / records);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int quotedPercent = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        final ByteBuffer source = generate(records, quotedPercent);
+        final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+
+        final VoltCSVFormatter csv = new VoltCSVFormatter("csv", new Properties());
+        final VoltSuperCSVFormatter superCsv = new VoltSuperCSVFormatter("csv", new Properties());
+        System.out.printf("%d records, %d%% with a quoted field%n", records, quotedPercent);
+        bench("csv", records, new Pass() {
+            @Override
+            public long run() throws Exception {
+                return transform(csv, source, out);
+            }
+        });
+        bench("supercsv", records, new Pass() {
+            @Override
+            public long run() throws Exception {
+                return transform(superCsv, source, out);
+            }
+        });
+        bench("streaming", records, new Pass() {
+            @Override
+            public long run() throws Exception {
+                return stream(csv, source, out);
+            }
+        });
+    }
+}
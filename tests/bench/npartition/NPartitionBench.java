@@ -0,0 +1,124 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientFactory;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ClientStats;
+import org.voltdb.client.ClientStatsContext;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Two-partition workload for comparing multi-partition and n-partition
+ * transactions. Each call moves an amount between two random accounts, which
+ * nearly always live in different partitions.
+ *
+ * Load the schema and procedure:
+ *   CREATE TABLE accounts (id BIGINT NOT NULL PRIMARY KEY, balance BIGINT NOT NULL);
+ *   PARTITION TABLE accounts ON COLUMN id;
+ *   CREATE PROCEDURE FROM CLASS NPartitionBench$Transfer;
+ *
+ * Run once with the server started normally, so Transfer is a multi-partition
+ * transaction, and once with -DMP_NPARTITION_PROCEDURES=Transfer:0,1 so it
+ * only involves the partitions of its two accounts:
+ *   java -cp voltdb.jar:. NPartitionBench [host] [seconds] [outstanding] [accounts]
+ */
+public class NPartitionBench {
+
+    public static class Transfer extends VoltProcedure {
+        public final SQLStmt debit = new SQLStmt("UPDATE accounts SET balance = balance - ? WHERE id = ?;");
+        public final SQLStmt credit = new SQLStmt("UPDATE accounts SET balance = balance + ? WHERE id = ?;");
+
+        public long run(long from, long to, long amount) {
+            voltQueueSQL(debit, amount, from);
+            voltQueueSQL(credit, amount, to);
+            voltExecuteSQL(true);
+            return 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String host = args.length > 0 ? args[0] : "localhost";
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        final int outstanding = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        final int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+
+        final Client client = ClientFactory.createClient();
+        client.createConnection(host);
+
+        for (int i = 0; i < accounts; i++) {
+            client.callProcedure(new ProcedureCallback() {
+                @Override
+                public void clientCallback(ClientResponse response) {}
+            }, "ACCOUNTS.upsert", i, 1000000L);
+        }
+        client.drain();
+
+        final Semaphore permits = new Semaphore(outstanding);
+        final ProcedureCallback callback = new ProcedureCallback() {
+            @Override
+            public void clientCallback(ClientResponse response) {
+                permits.release();
+            }
+        };
+        final Random random = new Random();
+
+        // Warm up for a fifth of the run, then measure
+        final ClientStatsContext context = client.createStatsContext();
+        final long warmupEnd = System.currentTimeMillis() + seconds * 200L;
+        final long end = warmupEnd + seconds * 1000L;
+        boolean measuring = false;
+        long now;
+        while ((now = System.currentTimeMillis()) < end) {
+            if (!measuring && now >= warmupEnd) {
+                client.drain();
+                context.fetchAndResetBaseline();
+                measuring = true;
+            }
+            permits.acquire();
+            final long from = random.nextInt(accounts);
+            long to = random.nextInt(accounts);
+            if (to == from) {
+                to = (to + 1) % accounts;
+            }
+            client.callProcedure(callback, "Transfer", from, to, 1L);
+        }
+        client.drain();
+
+        final ClientStats stats = context.fetch().getStats();
+        System.out.printf("Transfer: %d txns/sec, avg %.2f ms, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, aborts %d%n",
+                stats.getTxnThroughput(), stats.getAverageLatency(),
+                stats.kPercentileLatencyAsDouble(0.5), stats.kPercentileLatencyAsDouble(0.99),
+                stats.kPercentileLatencyAsDouble(0.999), stats.getInvocationAborts());
+
+        VoltTable mpStats = client.callProcedure("@Statistics", "MPTRANSACTIONS", 0).getResults()[0];
+        System.out.println(mpStats.toFormattedString());
+        client.close();
+    }
+}
@@ -0,0 +1,113 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.utils.BinaryDeque.BinaryDequeReader;
+import org.voltdb.utils.PersistentBinaryDeque;
+import org.voltdb.utils.VoltFile;
+
+/**
+ * Fills a PersistentBinaryDeque and drains it through a cursor, once reading
+ * segments through the file channel and once through a read only mapping.
+ * The segments are freshly written so both modes read from the page cache,
+ * which isolates the cost of copying entries out of the file.
+ *
+ * Run with voltdb.jar and the native library available:
+ *   java -cp voltdb.jar:. PBDDrainBench [dir] [entries] [entryKB] [compress]
+ */
+public class PBDDrainBench {
+
+    private static final VoltLogger LOG = new VoltLogger("HOST");
+
+    private static void fill(PersistentBinaryDeque pbd, int entries, int entryBytes, boolean compress)
+            throws Exception {
+        for (int i = 0; i < entries; i++) {
+            final ByteBuffer buf = ByteBuffer.allocateDirect(entryBytes);
+            while (buf.remaining() >= 8) {
+                buf.putLong(i);
+            }
+            buf.clear();
+            pbd.offer(DBBPool.wrapBB(buf), compress);
+        }
+        pbd.sync();
+    }
+
+    private static long drain(PersistentBinaryDeque pbd, String cursor) throws Exception {
+        final BinaryDequeReader reader = pbd.openForRead(cursor);
+        long sink = 0;
+        BBContainer cont;
+        while ((cont = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY)) != null) {
+            try {
+                final ByteBuffer b = cont.b();
+                sink += b.getLong(0) + b.getLong(b.limit() - 8);
+            } finally {
+                cont.discard();
+            }
+        }
+        return sink;
+    }
+
+    private static void bench(File dir, boolean mmap, int entries, int entryBytes, boolean compress)
+            throws Exception {
+        final File path = new File(dir, mmap ? "mapped" : "channel");
+        VoltFile.recursivelyDelete(path);
+        path.mkdirs();
+        final PersistentBinaryDeque pbd = new PersistentBinaryDeque("bench", path, LOG, false, mmap);
+        try {
+            fill(pbd, entries, entryBytes, compress);
+
+            // First pass warms up the code, then take the best of a few passes each with a fresh cursor
+            drain(pbd, "warmup");
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                final long start = System.nanoTime();
+                if (drain(pbd, "run" + i) == 42) {
+                    System.out.print("");
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            final double mb = (double) entries * entryBytes / (1024 * 1024);
+            System.out.printf("%-8s %8.1f MB/s  (%d x %d KB%s)%n", mmap ? "mapped" : "channel",
+                    mb / (best / 1e9), entries, entryBytes / 1024, compress ? ", compressed" : "");
+        } finally {
+            pbd.close();
+            VoltFile.recursivelyDelete(path);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "pbdbench");
+        final int entries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        final int entryBytes = (args.length > 2 ? Integer.parseInt(args[2]) : 256) * 1024;
+        final boolean compress = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+        bench(dir, false, entries, entryBytes, compress);
+        bench(dir, true, entries, entryBytes, compress);
+        VoltFile.recursivelyDelete(dir);
+    }
+}
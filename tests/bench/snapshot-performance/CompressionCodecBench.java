@@ -0,0 +1,119 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.voltdb.utils.CompressionService;
+import org.voltdb.utils.CompressionService.Codec;
+
+/**
+ * Compares the compression codecs on buffers shaped like snapshot table chunks:
+ * rows of ids, small integers, timestamps and strings drawn from a small
+ * vocabulary. Reports compression and decompression throughput and the ratio
+ * for each codec, which is what the SNAPSHOT_COMPRESSION_CODEC,
+ * REJOIN_COMPRESSION_CODEC and PBD_COMPRESSION_CODEC properties trade off.
+ *
+ * Run with voltdb.jar and the native library available:
+ *   java -cp voltdb.jar:. CompressionCodecBench [chunkKB] [chunks]
+ */
+public class CompressionCodecBench {
+
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+        "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa"
+    };
+
+    private static ByteBuffer[] makeChunks(int chunkBytes, int chunks) {
+        final Random r = new Random(0);
+        final ByteBuffer[] result = new ByteBuffer[chunks];
+        long id = 0;
+        long timestamp = System.currentTimeMillis() * 1000;
+        for (int i = 0; i < chunks; i++) {
+            final ByteBuffer buf = ByteBuffer.allocateDirect(chunkBytes);
+            while (buf.remaining() >= 64) {
+                final int rowStart = buf.position();
+                buf.putInt(0); // row length, filled in below
+                buf.putLong(id++);
+                buf.putInt(r.nextInt(100));
+                buf.putLong(timestamp += r.nextInt(1000));
+                final byte[] word = WORDS[r.nextInt(WORDS.length)].getBytes();
+                buf.putInt(word.length);
+                buf.put(word);
+                buf.putLong(Double.doubleToLongBits(r.nextInt(100000) / 100.0));
+                buf.putInt(rowStart, buf.position() - rowStart - 4);
+            }
+            buf.flip();
+            result[i] = buf;
+        }
+        return result;
+    }
+
+    private static void bench(Codec codec, ByteBuffer[] chunks) throws Exception {
+        final int chunkBytes = chunks[0].capacity();
+        final ByteBuffer compressed = ByteBuffer.allocateDirect(CompressionService.maxCompressedLength(chunkBytes));
+        final ByteBuffer uncompressed = ByteBuffer.allocateDirect(chunkBytes);
+
+        long inputBytes = 0;
+        long outputBytes = 0;
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        // First pass warms up the code and isn't counted
+        for (int pass = 0; pass < 4; pass++) {
+            for (ByteBuffer chunk : chunks) {
+                compressed.clear();
+                long start = System.nanoTime();
+                final int size = CompressionService.compressBuffer(codec, chunk, compressed);
+                final long compressTime = System.nanoTime() - start;
+
+                uncompressed.clear();
+                start = System.nanoTime();
+                CompressionService.decompressBuffer(codec, compressed, uncompressed);
+                final long decompressTime = System.nanoTime() - start;
+                if (!uncompressed.equals(chunk)) {
+                    throw new AssertionError(codec + " did not round trip");
+                }
+
+                if (pass > 0) {
+                    inputBytes += chunk.remaining();
+                    outputBytes += size;
+                    compressNanos += compressTime;
+                    decompressNanos += decompressTime;
+                }
+            }
+        }
+        final double mb = inputBytes / (1024.0 * 1024.0);
+        System.out.printf("%-9s compress %8.1f MB/s  decompress %8.1f MB/s  ratio %5.2f%n", codec,
+                mb / (compressNanos / 1e9), mb / (decompressNanos / 1e9), (double) inputBytes / outputBytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int chunkBytes = (args.length > 0 ? Integer.parseInt(args[0]) : 2048) * 1024;
+        final int chunks = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+        final ByteBuffer[] data = makeChunks(chunkBytes, chunks);
+        for (Codec codec : Codec.values()) {
+            bench(codec, data);
+        }
+    }
+}
@@ -55,6 +55,7 @@ import java.nio.ByteBuffer;
 import org.voltcore.network.NIOReadStream;
 import junit.framework.TestCase;
 import java.io.IOException;
+import java.util.Arrays;
 
 public class TestNIOReadStream extends TestCase {
     MockReadableByteChannel channel;
@@ -199,6 +200,90 @@ public class TestNIOReadStream extends TestCase {
         assertEquals(252, stream.getInt());
     }
 
+    public void testPeekInt() throws IOException {
+        // Spans several pool buffers, the last one not yet flipped
+        final int SIZE = 4096 * 3 + 100;
+        ByteBuffer data = ByteBuffer.allocate(SIZE);
+        while (data.remaining() >= 4) {
+            data.putInt(data.position());
+        }
+        channel.nextRead = data.array();
+        assertEquals(SIZE, stream.read(channel, SIZE, pool));
+
+        for (int offset = 0; offset + 4 <= SIZE - SIZE % 4; offset += 4) {
+            assertEquals(offset, stream.peekInt(offset));
+        }
+        // Ints straddling a buffer boundary
+        assertEquals(ByteBuffer.wrap(data.array(), 4094, 4).getInt(), stream.peekInt(4094));
+        assertEquals(ByteBuffer.wrap(data.array(), 8191, 4).getInt(), stream.peekInt(8191));
+
+        // Nothing is consumed, and peeking tracks what has been
+        assertEquals(SIZE, stream.dataAvailable());
+        stream.getBytes(new byte[4096]);
+        assertEquals(4100, stream.peekInt(4));
+        assertEquals(4096, stream.getInt());
+        assertEquals(4100, stream.peekInt(0));
+        try {
+            stream.peekInt(stream.dataAvailable() - 3);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+    }
+
+    public void testCoalescedMessages() throws IOException {
+        VoltProtocolHandler handler = new VoltProtocolHandler() {
+            @Override
+            protected boolean coalesceReads() {
+                return true;
+            }
+            @Override
+            public int getMaxRead() { return Integer.MAX_VALUE; }
+            @Override
+            public void handleMessage(ByteBuffer message, Connection c) {}
+            @Override
+            public Runnable onBackPressure() { return null; }
+            @Override
+            public Runnable offBackPressure() { return null; }
+            @Override
+            public QueueMonitor writestreamMonitor() { return null; }
+        };
+
+        // Three whole messages and the start of a fourth in one read
+        ByteBuffer data = ByteBuffer.allocate(4 * 4 + 10 + 4000 + 1 + 20);
+        data.putInt(10);
+        for (int i = 0; i < 10; i++) data.put((byte) 1);
+        data.putInt(4000);
+        for (int i = 0; i < 4000; i++) data.put((byte) 2);
+        data.putInt(1);
+        data.put((byte) 3);
+        data.putInt(30);
+        for (int i = 0; i < 20; i++) data.put((byte) 4);
+        channel.nextRead = data.array();
+        stream.read(channel, data.capacity(), pool);
+
+        for (int i = 1; i <= 3; i++) {
+            ByteBuffer message = handler.retrieveNextMessage(stream);
+            assertNotNull(message);
+            assertEquals(0, message.position());
+            assertEquals(i == 1 ? 10 : i == 2 ? 4000 : 1, message.remaining());
+            while (message.hasRemaining()) {
+                assertEquals(i, message.get());
+            }
+        }
+        assertEquals(3, handler.sequenceId());
+        // The partial message stays in the stream
+        assertNull(handler.retrieveNextMessage(stream));
+        assertEquals(20, stream.dataAvailable());
+
+        byte rest[] = new byte[10];
+        Arrays.fill(rest, (byte) 4);
+        channel.nextRead = rest;
+        stream.read(channel, rest.length, pool);
+        ByteBuffer message = handler.retrieveNextMessage(stream);
+        assertEquals(30, message.remaining());
+        assertNull(handler.retrieveNextMessage(stream));
+        assertStreamIsEmpty();
+    }
+
     public void testEndReadComplete() throws IOException {
         channel.nextRead = new byte[]{1, 2, 3,4 };
         channel.end = true;
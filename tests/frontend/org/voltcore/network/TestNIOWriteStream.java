@@ -50,6 +50,7 @@
 
 package org.voltcore.network;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -126,6 +127,10 @@ public class TestNIOWriteStream extends TestCase {
         public static int SINK = 0;     // accept all data
         public static int FULL = 1;     // accept no data
         public static int PARTIAL = 2;  // accept some data
+        public static int SINK_ALL = 3; // accept all data from every buffer of a gathering write
+
+        public int m_gatheringWrites = 0;
+        public final ByteArrayOutputStream m_sunk = new ByteArrayOutputStream();
 
         @Override
         public int write(ByteBuffer src) throws IOException {
@@ -144,6 +149,13 @@ public class TestNIOWriteStream extends TestCase {
                 src.position(src.limit());
                 return remaining;
             }
+            else if (m_behavior == SINK_ALL) {
+                int remaining = src.remaining();
+                while (src.hasRemaining()) {
+                    m_sunk.write(src.get());
+                }
+                return remaining;
+            }
             else if (m_behavior == FULL) {
                 return 0;
             }
@@ -203,8 +215,16 @@ public class TestNIOWriteStream extends TestCase {
         @Override
         public long write(ByteBuffer[] srcs, int offset, int length)
                 throws IOException {
-            // TODO Auto-generated method stub
-            return 0;
+            m_gatheringWrites++;
+            if (m_behavior == SINK_ALL) {
+                long written = 0;
+                for (int ii = offset; ii < offset + length; ii++) {
+                    written += write(srcs[ii]);
+                }
+                return written;
+            }
+            // Like a socket that fills up partway, only the first buffer is taken
+            return write(srcs[offset]);
         }
     }
 
@@ -452,4 +472,85 @@ public class TestNIOWriteStream extends TestCase {
         assertEquals(0, queue.get());
     }
 
+    public void testGatheringWrite() throws IOException {
+        MockChannel channel = new MockChannel(MockChannel.SINK_ALL, 0);
+        MockPort port = new MockPort();
+        NIOWriteStream wstream = new NIOWriteStream(port);
+
+        for (int ii = 0; ii < 10; ii++) {
+            wstream.enqueue(ByteBuffer.allocate(4));
+        }
+        wstream.serializeQueuedWrites(pool);
+        assertEquals(40, wstream.drainTo(channel));
+        assertTrue(wstream.isEmpty());
+        assertEquals(1, channel.m_gatheringWrites);
+
+        final long writeInfo[] = wstream.getBytesAndMessagesWritten(false);
+        assertEquals(40, writeInfo[0]);
+        assertEquals(1, writeInfo[2]);
+        assertEquals(10, writeInfo[3]);
+        wstream.shutdown();
+    }
+
+    public void testGatheringWriteCeiling() throws IOException {
+        MockChannel channel = new MockChannel(MockChannel.SINK_ALL, 0);
+        MockPort port = new MockPort();
+        NIOWriteStream wstream = new NIOWriteStream(port);
+        wstream.m_gatheringWriteBytes = 8;
+
+        for (int ii = 0; ii < 10; ii++) {
+            wstream.enqueue(ByteBuffer.allocate(4));
+        }
+        wstream.serializeQueuedWrites(pool);
+        assertEquals(40, wstream.drainTo(channel));
+        assertTrue(wstream.isEmpty());
+        // Two 4 byte buffers per write
+        assertEquals(5, channel.m_gatheringWrites);
+        assertEquals(5, wstream.getBytesAndMessagesWritten(true)[2]);
+        assertEquals(0, wstream.getBytesAndMessagesWritten(true)[2]);
+        wstream.shutdown();
+    }
+
+    /*
+     * Buffers that a gathering write didn't reach go back on the queue and can still
+     * be appended to, the bytes must come out in order.
+     */
+    public void testPartialGatheringWrite() throws IOException {
+        MockChannel channel = new MockChannel(MockChannel.PARTIAL, 0);
+        MockPort port = new MockPort();
+        NIOWriteStream wstream = new NIOWriteStream(port);
+
+        byte next = 0;
+        for (int ii = 0; ii < 3; ii++) {
+            ByteBuffer buf = ByteBuffer.allocate(6);
+            while (buf.hasRemaining()) {
+                buf.put(next++);
+            }
+            buf.flip();
+            wstream.enqueue(buf);
+        }
+        wstream.serializeQueuedWrites(pool);
+        // Half the first buffer, then nothing
+        assertEquals(2, wstream.drainTo(channel));
+        assertEquals(2, channel.m_gatheringWrites);
+        assertFalse(wstream.isEmpty());
+
+        ByteBuffer buf = ByteBuffer.allocate(2);
+        buf.put(next++);
+        buf.put(next++);
+        buf.flip();
+        wstream.enqueue(buf);
+        wstream.serializeQueuedWrites(pool);
+
+        channel.m_behavior = MockChannel.SINK_ALL;
+        assertEquals(18, wstream.drainTo(channel));
+        assertTrue(wstream.isEmpty());
+        final byte sunk[] = channel.m_sunk.toByteArray();
+        assertEquals(18, sunk.length);
+        for (int ii = 0; ii < sunk.length; ii++) {
+            assertEquals(ii + 2, sunk[ii]);
+        }
+        wstream.shutdown();
+    }
+
 }
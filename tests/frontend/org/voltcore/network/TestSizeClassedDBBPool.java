@@ -0,0 +1,158 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltcore.network;
+
+import java.nio.ByteBuffer;
+
+import org.voltcore.network.SizeClassedDBBPool.ClassStats;
+import org.voltcore.utils.DBBPool.BBContainer;
+
+import junit.framework.TestCase;
+
+public class TestSizeClassedDBBPool extends TestCase {
+
+    /*
+     * Buffers still pooled when a test's pool is collected were never discarded,
+     * give the pool ones that memcheck builds don't exit on when they are finalized.
+     */
+    private static SizeClassedDBBPool newPool(int threadCacheBytes, int sharedBytes, boolean leakDetection) {
+        return new SizeClassedDBBPool(threadCacheBytes, sharedBytes, leakDetection) {
+            @Override
+            BBContainer allocateOrigin(int size) {
+                return new BBContainer(ByteBuffer.allocateDirect(size)) {
+                    // No @Override, BBContainer only has a finalizer in memcheck builds
+                    public void finalize() {}
+                };
+            }
+        };
+    }
+
+    public void testClassIndex() {
+        assertEquals(0, SizeClassedDBBPool.classIndex(1));
+        assertEquals(0, SizeClassedDBBPool.classIndex(4096));
+        assertEquals(1, SizeClassedDBBPool.classIndex(4097));
+        assertEquals(3, SizeClassedDBBPool.classIndex(32 * 1024));
+        assertEquals(SizeClassedDBBPool.NUM_CLASSES - 1, SizeClassedDBBPool.classIndex(4 * 1024 * 1024));
+        assertEquals(SizeClassedDBBPool.NUM_CLASSES - 1, SizeClassedDBBPool.classIndex(Integer.MAX_VALUE));
+    }
+
+    public void testReuseFromThreadCache() {
+        SizeClassedDBBPool pool = newPool(1024 * 1024, 1024 * 1024, false);
+        pool.enableThreadCache();
+        BBContainer first = pool.acquire(5000);
+        assertEquals(8192, first.b().capacity());
+        first.b().putInt(42);
+        first.discard();
+
+        BBContainer second = pool.acquire(8000);
+        assertEquals(0, second.b().position());
+        assertEquals(8192, second.b().limit());
+
+        ClassStats stats = pool.getStats()[1];
+        assertEquals(1, stats.misses);
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.outstanding);
+        second.discard();
+        assertEquals(0, pool.getStats()[1].outstanding);
+        // Cached buffers count as pooled
+        assertEquals(1, pool.getStats()[1].pooled);
+        pool.releaseThreadCache();
+        assertEquals(1, pool.getStats()[1].pooled);
+    }
+
+    public void testOversizeRequestGetsLargestClass() {
+        SizeClassedDBBPool pool = newPool(0, 0, false);
+        BBContainer cont = pool.acquire(10 * 1024 * 1024);
+        assertEquals(SizeClassedDBBPool.MAX_BUFFER_SIZE, cont.b().capacity());
+        cont.discard();
+    }
+
+    public void testSharedAcrossThreads() throws Exception {
+        // One buffer per thread cache, so the second discard spills into the shared depot
+        final SizeClassedDBBPool pool = newPool(4096, 1024 * 1024, false);
+        pool.enableThreadCache();
+        BBContainer a = pool.acquire(4096);
+        BBContainer b = pool.acquire(4096);
+        a.discard();
+        b.discard();
+        assertEquals(2, pool.getStats()[0].pooled);
+
+        final BBContainer[] fromOther = new BBContainer[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                fromOther[0] = pool.acquire(100);
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals(1, pool.getStats()[0].pooled);
+        assertEquals(2, pool.getStats()[0].misses);
+        assertEquals(1, pool.getStats()[0].hits);
+        // Discarded on a different thread than it was acquired on
+        fromOther[0].discard();
+        assertEquals(0, pool.getStats()[0].outstanding);
+        pool.releaseThreadCache();
+    }
+
+    public void testThreadsWithoutCacheUseDepot() throws Exception {
+        final SizeClassedDBBPool pool = newPool(1024 * 1024, 1024 * 1024, false);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                // Never enabled a cache, so the discard must be visible to other threads
+                pool.acquire(4096).discard();
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals(1, pool.getStats()[0].pooled);
+        pool.acquire(4096).discard();
+        assertEquals(1, pool.getStats()[0].hits);
+        assertEquals(1, pool.getStats()[0].pooled);
+        // Nothing to release for a thread without a cache
+        pool.releaseThreadCache();
+        assertEquals(1, pool.getStats()[0].pooled);
+    }
+
+    public void testLeakDetection() throws Exception {
+        SizeClassedDBBPool pool = newPool(1024 * 1024, 1024 * 1024, true);
+        BBContainer leaked = pool.acquire(4096);
+        pool.leakForTest(leaked);
+        ClassStats stats = pool.getStats()[0];
+        assertEquals(1, stats.leaked);
+        assertEquals(0, stats.outstanding);
+
+        // The leaked buffer went back into the pool
+        pool.acquire(4096).discard();
+        assertEquals(1, pool.getStats()[0].hits);
+        assertEquals(1, pool.getStats()[0].pooled);
+
+        // Discarding it afterwards doesn't return the buffer a second time
+        leaked.discard();
+        assertEquals(1, pool.getStats()[0].pooled);
+        assertEquals(0, pool.getStats()[0].outstanding);
+        pool.releaseThreadCache();
+    }
+}
@@ -0,0 +1,168 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltcore.network;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class TestVoltNetworkPool extends TestCase {
+
+    private static class RecordingHandler extends VoltProtocolHandler {
+        final List<Integer> m_received = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<String> m_threads = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch m_release;
+        final CountDownLatch m_done;
+
+        RecordingHandler(CountDownLatch release, int expected) {
+            m_release = release;
+            m_done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public int getMaxRead() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void handleMessage(ByteBuffer message, Connection c) throws IOException {
+            try {
+                m_release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            m_received.add(message.getInt());
+            m_threads.add(Thread.currentThread().getName());
+            m_done.countDown();
+        }
+
+        @Override
+        public Runnable offBackPressure() {
+            return new Runnable() {
+                @Override
+                public void run() {}
+            };
+        }
+
+        @Override
+        public Runnable onBackPressure() {
+            return offBackPressure();
+        }
+
+        @Override
+        public QueueMonitor writestreamMonitor() {
+            return null;
+        }
+    }
+
+    private static void sendMessages(Socket socket, int count) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        for (int i = 0; i < count; i++) {
+            out.writeInt(4);
+            out.writeInt(i);
+        }
+        out.flush();
+    }
+
+    public void testHandoffPreservesOrderUnderBackpressure() throws Exception {
+        final int count = 5000;
+        VoltNetworkPool pool = new VoltNetworkPool(2, 0, null, "Test", 2);
+        pool.start();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        Socket client = null;
+        try {
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            client = new Socket("127.0.0.1", server.socket().getLocalPort());
+            SocketChannel accepted = server.accept();
+
+            // Hold the workers so the decoded messages back up past the high watermark
+            CountDownLatch release = new CountDownLatch(1);
+            RecordingHandler handler = new RecordingHandler(release, count);
+            pool.registerChannel(accepted, handler);
+            sendMessages(client, count);
+            Thread.sleep(200);
+            release.countDown();
+
+            assertTrue(handler.m_done.await(60, TimeUnit.SECONDS));
+            for (int i = 0; i < count; i++) {
+                assertEquals(Integer.valueOf(i), handler.m_received.get(i));
+            }
+            for (String thread : handler.m_threads) {
+                assertTrue(thread, thread.contains("Network Worker"));
+            }
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+            server.close();
+            pool.shutdown();
+        }
+    }
+
+    public void testInlineHandlingWithoutHandoff() throws Exception {
+        final int count = 100;
+        VoltNetworkPool pool = new VoltNetworkPool(1, 0, null, "Test", 0);
+        pool.start();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        Socket client = null;
+        try {
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            client = new Socket("127.0.0.1", server.socket().getLocalPort());
+            RecordingHandler handler = new RecordingHandler(new CountDownLatch(0), count);
+            pool.registerChannel(server.accept(), handler);
+            sendMessages(client, count);
+
+            assertTrue(handler.m_done.await(60, TimeUnit.SECONDS));
+            for (String thread : handler.m_threads) {
+                assertTrue(thread, thread.startsWith("Volt Test Network"));
+            }
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+            server.close();
+            pool.shutdown();
+        }
+    }
+
+    public void testPlacementFallsBackToPortCount() throws Exception {
+        VoltNetwork idle = new VoltNetwork(0, null, "Test");
+        VoltNetwork other = new VoltNetwork(1, null, "Test");
+        // Neither network has moved any bytes, so the port count decides
+        assertFalse(VoltNetworkPool.isLessLoaded(idle, other));
+        assertFalse(VoltNetworkPool.isLessLoaded(other, idle));
+        assertEquals(0, idle.byteRate());
+    }
+}
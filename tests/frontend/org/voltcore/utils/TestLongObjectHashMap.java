@@ -0,0 +1,91 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltcore.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestLongObjectHashMap extends TestCase {
+
+    public void testBasics() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(0, "zero"));
+        assertNull(map.put(-1, "minus one"));
+        assertNull(map.put(Long.MAX_VALUE, "max"));
+        assertEquals("zero", map.put(0, "ZERO"));
+        assertEquals(3, map.size());
+        assertEquals("ZERO", map.get(0));
+        assertEquals("minus one", map.get(-1));
+        assertTrue(map.containsKey(Long.MAX_VALUE));
+        assertFalse(map.containsKey(1));
+
+        long keys[] = map.keys();
+        Arrays.sort(keys);
+        assertTrue(Arrays.equals(new long[] { -1, 0, Long.MAX_VALUE }, keys));
+
+        assertEquals("minus one", map.remove(-1));
+        assertNull(map.remove(-1));
+        assertEquals(2, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+
+        try {
+            map.put(1, null);
+            fail();
+        } catch (NullPointerException expected) {}
+    }
+
+    /*
+     * Keys that only differ in the high bits, like transaction ids from one
+     * partition, must survive growth and removal in the middle of probe runs.
+     */
+    public void testRandomAgainstHashMap() {
+        final long seed = System.nanoTime();
+        final Random r = new Random(seed);
+        LongObjectHashMap<Long> map = new LongObjectHashMap<Long>(4);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (int ii = 0; ii < 200000; ii++) {
+            final long key = ((long)r.nextInt(2000) << 14) | 3;
+            final int op = r.nextInt(3);
+            if (op == 0) {
+                assertEquals("Seed " + seed, expected.put(key, (long)ii), map.put(key, (long)ii));
+            } else if (op == 1) {
+                assertEquals("Seed " + seed, expected.remove(key), map.remove(key));
+            } else {
+                assertEquals("Seed " + seed, expected.get(key), map.get(key));
+            }
+            assertEquals("Seed " + seed, expected.size(), map.size());
+        }
+        for (Map.Entry<Long, Long> e : expected.entrySet()) {
+            assertEquals("Seed " + seed, e.getValue(), map.get(e.getKey()));
+        }
+        assertEquals(expected.size(), map.keys().length);
+    }
+}
@@ -0,0 +1,245 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.messaging.VoltMessage;
+import org.voltcore.utils.InstanceId;
+import org.voltdb.CommandLog.CompletionChecks;
+import org.voltdb.CommandLog.DurabilityListener;
+import org.voltdb.iv2.TransactionTask;
+import org.voltdb.iv2.TxnEgo;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.utils.VoltFile;
+
+import com.google_voltpatches.common.collect.ImmutableSet;
+
+public class TestFileCommandLog {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name") + "/commandlog_test");
+
+    @Before
+    public void setUp() throws Exception {
+        if (TEST_DIR.exists()) {
+            VoltFile.recursivelyDelete(TEST_DIR);
+        }
+        assertTrue(TEST_DIR.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    private static Iv2InitiateTaskMessage makeInitiate(long txnId, long uniqueId, String procName, boolean isSP) {
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation();
+        invocation.setProcName(procName);
+        invocation.setParams(uniqueId, procName);
+        return new Iv2InitiateTaskMessage(0, 0, 0, txnId, uniqueId, false, isSP, invocation, 0, 0, false);
+    }
+
+    private static void appendInitiate(CommandLogSegment segment, Iv2InitiateTaskMessage msg,
+                                       long spHandle, int[] involved) throws Exception
+    {
+        ByteBuffer body = VoltMessage.toBuffer(msg);
+        ByteBuffer header = CommandLogSegment.initiateEntryHeader(spHandle, involved, body);
+        segment.append(new ByteBuffer[] { header, body }, spHandle);
+    }
+
+    @Test
+    public void testSegmentRoundTrip() throws Exception {
+        final InstanceId instanceId = new InstanceId(3, 12345);
+        TxnEgo ego = TxnEgo.makeZero(2).makeNext();
+        CommandLogSegment segment = CommandLogSegment.create(TEST_DIR, 2, 7, ego.getTxnId(), instanceId);
+
+        long firstSpHandle = ego.getTxnId();
+        appendInitiate(segment, makeInitiate(firstSpHandle, 100, "SpProc", true), firstSpHandle, null);
+        ego = ego.makeNext();
+        long secondSpHandle = ego.getTxnId();
+        appendInitiate(segment, makeInitiate(secondSpHandle, 101, "MpProc", false), secondSpHandle, new int[] { 0, 1, 2 });
+        segment.append(new ByteBuffer[] {
+                CommandLogSegment.faultEntry(42, ImmutableSet.of(1L, 2L), 2, secondSpHandle) }, secondSpHandle);
+        segment.sync();
+        assertEquals(secondSpHandle, segment.lastSpHandle());
+        segment.close();
+
+        List<CommandLogSegment> segments = CommandLogSegment.openAll(TEST_DIR, null);
+        assertEquals(1, segments.size());
+        CommandLogSegment reader = segments.get(0);
+        assertEquals(2, reader.partitionId());
+        assertEquals(7, reader.segmentId());
+        assertEquals(instanceId, reader.instanceId());
+        assertEquals(7, CommandLogSegment.maxSegmentId(TEST_DIR));
+
+        CommandLogSegment.Entry entry = reader.next();
+        assertNotNull(entry);
+        assertTrue(entry.isInitiate());
+        assertFalse(entry.isMultiPartition());
+        assertEquals(firstSpHandle, entry.spHandle);
+        assertEquals(100, entry.message.getUniqueId());
+        assertEquals("SpProc", entry.message.getStoredProcedureInvocation().getProcName());
+
+        entry = reader.next();
+        assertNotNull(entry);
+        assertTrue(entry.isMultiPartition());
+        assertEquals(3, entry.involvedPartitions.length);
+        assertEquals(101, entry.message.getUniqueId());
+        assertEquals("MpProc", entry.message.getStoredProcedureInvocation().getProcName());
+
+        entry = reader.next();
+        assertNotNull(entry);
+        assertEquals(CommandLogSegment.FAULT_ENTRY, entry.type);
+        assertFalse(entry.isInitiate());
+
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testTornTailIsIgnored() throws Exception {
+        TxnEgo ego = TxnEgo.makeZero(0).makeNext();
+        CommandLogSegment segment = CommandLogSegment.create(TEST_DIR, 0, 0, ego.getTxnId(), null);
+        for (int i = 0; i < 10; i++) {
+            appendInitiate(segment, makeInitiate(ego.getTxnId(), i, "Proc", true), ego.getTxnId(), null);
+            ego = ego.makeNext();
+        }
+        segment.sync();
+        final File file = segment.file();
+        segment.close();
+
+        // A partially written final entry is dropped
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        CommandLogSegment reader = CommandLogSegment.open(file);
+        int count = 0;
+        while (reader.next() != null) {
+            count++;
+        }
+        reader.close();
+        assertEquals(9, count);
+
+        // So is one whose checksum doesn't match, flip a payload byte of the last whole entry
+        raf = new RandomAccessFile(file, "rw");
+        long entryOffset = CommandLogSegment.HEADER_BYTES;
+        for (int i = 0; i < 8; i++) {
+            raf.seek(entryOffset);
+            entryOffset += CommandLogSegment.ENTRY_HEADER_BYTES + raf.readInt();
+        }
+        raf.seek(entryOffset);
+        final int payloadLength = raf.readInt();
+        final long corruptOffset = entryOffset + CommandLogSegment.ENTRY_HEADER_BYTES + payloadLength / 2;
+        assertTrue(corruptOffset < raf.length());
+        raf.seek(corruptOffset);
+        final int b = raf.read();
+        raf.seek(corruptOffset);
+        raf.write(~b);
+        raf.close();
+
+        reader = CommandLogSegment.open(file);
+        count = 0;
+        while (reader.next() != null) {
+            count++;
+        }
+        reader.close();
+        assertEquals(8, count);
+    }
+
+    @Test
+    public void testUnreadableSegmentsAreReported() throws Exception {
+        CommandLogSegment.create(TEST_DIR, 1, 0, 0, null).close();
+        File bogus = new File(TEST_DIR, CommandLogSegment.fileName(1, 1));
+        RandomAccessFile raf = new RandomAccessFile(bogus, "rw");
+        raf.writeLong(0);
+        raf.close();
+
+        Set<File> unreadable = new HashSet<File>();
+        List<CommandLogSegment> segments = CommandLogSegment.openAll(TEST_DIR, unreadable);
+        assertEquals(1, segments.size());
+        assertEquals(ImmutableSet.of(bogus), unreadable);
+        for (CommandLogSegment s : segments) {
+            s.close();
+        }
+    }
+
+    /*
+     * Sync mode releases transactions through the durability listener, the handshake has to
+     * happen even before the log is initialized or the schedulers would never make progress.
+     */
+    @Test
+    public void testSyncHandshakeBeforeInit() throws Exception {
+        FileCommandLog log = new FileCommandLog(true, 1, 10, TEST_DIR.getPath(), TEST_DIR.getPath());
+        try {
+            CompletionChecks checks = mock(CompletionChecks.class);
+            DurabilityListener listener = mock(DurabilityListener.class);
+            when(listener.startNewTaskList(anyInt())).thenReturn(checks);
+            log.registerDurabilityListener(listener);
+
+            assertNull(log.log(makeInitiate(1, 1, "Proc", true), 1, null, listener, null));
+            assertFalse(log.canOfferTask());
+            verify(listener).addTransaction(null);
+            verify(listener, timeout(5000)).processDurabilityChecks(checks);
+        } finally {
+            log.shutdown();
+        }
+        // Nothing may be written until init has been called
+        assertEquals(0, TEST_DIR.listFiles(CommandLogSegment.SEGMENT_FILTER).length);
+    }
+
+    @Test
+    public void testAsyncReturnsFutureBeforeInit() throws Exception {
+        FileCommandLog log = new FileCommandLog(false, 1, 10, TEST_DIR.getPath(), TEST_DIR.getPath());
+        try {
+            DurabilityListener listener = mock(DurabilityListener.class);
+            when(listener.startNewTaskList(anyInt())).thenReturn(mock(CompletionChecks.class));
+            log.registerDurabilityListener(listener);
+            assertNotNull(log.log(makeInitiate(1, 1, "Proc", true), 1, null, listener, mock(TransactionTask.class)));
+            verify(listener).addTransaction(any(TransactionTask.class));
+        } finally {
+            log.shutdown();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.voltcore.messaging.HostMessenger;
+import org.voltdb.AuthSystem.AuthUser;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+import org.voltdb.common.Permission;
+import org.voltdb.compiler.VoltProjectBuilder;
+import org.voltdb.importer.ImporterStatsCollector;
+import org.voltdb.settings.DbSettings;
+import org.voltdb.utils.CatalogUtil;
+import org.voltdb.utils.MiscUtils;
+
+public class TestInternalConnectionHandler {
+
+    private static CatalogContext m_context;
+
+    private RecordingAdapter m_adapter;
+    private InternalConnectionHandler m_handler;
+    private final ImporterStatsCollector m_stats = new ImporterStatsCollector(0);
+    private final AtomicInteger m_callbacks = new AtomicInteger();
+
+    private final InternalConnectionContext m_importer = new InternalConnectionContext() {
+        @Override
+        public String getName() {
+            return "importer";
+        }
+
+        @Override
+        public void setBackPressure(boolean hasBackPressure) {
+        }
+    };
+
+    private final ProcedureCallback m_callback = new ProcedureCallback() {
+        @Override
+        public void clientCallback(ClientResponse response) throws Exception {
+            m_callbacks.incrementAndGet();
+        }
+    };
+
+    /*
+     * What the handler asked the adapter to initiate
+     */
+    private static class Submission {
+        final String m_procName;
+        final StoredProcedureInvocation m_task;
+        final AuthUser m_user;
+        final int m_partition;
+        final int m_batchRows;
+
+        Submission(String procName, StoredProcedureInvocation task, AuthUser user, int partition, int batchRows) {
+            m_procName = procName;
+            m_task = task;
+            m_user = user;
+            m_partition = partition;
+            m_batchRows = batchRows;
+        }
+
+        VoltTable table() {
+            return (VoltTable) m_task.getParams().toArray()[3];
+        }
+    }
+
+    private static class RecordingAdapter extends InternalClientResponseAdapter {
+        final List<Submission> m_submitted = new ArrayList<>();
+        boolean m_accept = true;
+
+        RecordingAdapter() {
+            super(1);
+        }
+
+        @Override
+        public boolean createTransaction(InternalAdapterTaskAttributes kattrs, String procName, Procedure catProc,
+                ProcedureCallback proccb, InternalConnectionStatsCollector statsCollector,
+                StoredProcedureInvocation task, AuthUser user, int partition, long nowNanos, int batchRows) {
+            if (!m_accept) {
+                return false;
+            }
+            m_submitted.add(new Submission(procName, task, user, partition, batchRows));
+            return true;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpOnce() throws Exception {
+        File cat = File.createTempFile("temp-internal-connection-handler", "catalog");
+        cat.deleteOnExit();
+
+        VoltProjectBuilder builder = new VoltProjectBuilder();
+        builder.addLiteralSchema("create table P (id integer not null, name varchar(16), primary key (id));" +
+                                 "create table R (id integer not null, name varchar(16));");
+        builder.addPartitionInfo("P", "id");
+        builder.addStmtProcedure("CountP", "select count(*) from P where id = ?", "P.id: 0");
+        if (!builder.compile(cat.getAbsolutePath())) {
+            throw new IOException();
+        }
+
+        byte[] bytes = MiscUtils.fileToBytes(cat);
+        String serializedCat =
+            CatalogUtil.getSerializedCatalogStringFromJar(CatalogUtil.loadAndUpgradeCatalogFromJar(bytes).getFirst());
+        Catalog catalog = new Catalog();
+        catalog.execute(serializedCat);
+        String deploymentPath = builder.getPathToDeployment();
+        CatalogUtil.compileDeployment(catalog, deploymentPath, false);
+        DbSettings dbSettings = CatalogUtil.asDbSettings(deploymentPath);
+        m_context = new CatalogContext(0, 0, catalog, dbSettings, bytes, null, new byte[] {}, 0, mock(HostMessenger.class));
+        TheHashinator.initialize(TheHashinator.getConfiguredHashinatorClass(), TheHashinator.getConfigureBytes(8));
+    }
+
+    @Before
+    public void setUp() {
+        VoltDBInterface volt = mock(VoltDBInterface.class);
+        when(volt.getCatalogContext()).thenReturn(m_context);
+        VoltDB.replaceVoltDBInstanceForTest(volt);
+        m_adapter = new RecordingAdapter();
+        m_handler = spy(new InternalConnectionHandler(m_adapter, null));
+        m_callbacks.set(0);
+    }
+
+    private static List<Object[]> rows(int count, int firstId, int idStep) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Object[] { firstId + i * idStep, "row" + i });
+        }
+        return rows;
+    }
+
+    @Test
+    public void testDefaultInsertGroupedByPartition() throws Exception {
+        List<Object[]> rows = rows(200, 0, 1);
+        // Values are converted to the column types before they are hashed
+        rows.add(new Object[] { "1000", "string id" });
+        assertEquals(201, m_handler.callProcedureBatch(m_importer, m_stats, m_callback, "P.insert", rows));
+
+        Set<Integer> partitions = new HashSet<>();
+        int loaded = 0;
+        for (Submission s : m_adapter.m_submitted) {
+            assertEquals("P.insert", s.m_procName);
+            assertEquals(InternalConnectionHandler.LOAD_PROCEDURE, s.m_task.getProcName());
+            assertSame(m_context.authSystem.getInternalAdminUser(), s.m_user);
+            assertTrue("one transaction per partition", partitions.add(s.m_partition));
+            Object[] params = s.m_task.getParams().toArray();
+            assertEquals("P", params[1]);
+            assertEquals((byte) 0, params[2]);
+            VoltTable table = s.table();
+            assertEquals(s.m_batchRows, table.getRowCount());
+            while (table.advanceRow()) {
+                assertEquals(s.m_partition, TheHashinator.getPartitionForParameter(VoltType.INTEGER, (int) table.getLong(0)));
+            }
+            loaded += s.m_batchRows;
+        }
+        assertEquals(201, loaded);
+        assertTrue(partitions.size() > 1);
+    }
+
+    @Test
+    public void testDefaultUpsertLoadsInUpsertMode() throws Exception {
+        assertEquals(10, m_handler.callProcedureBatch(m_importer, m_stats, m_callback, "P.upsert", rows(10, 0, 1)));
+        for (Submission s : m_adapter.m_submitted) {
+            assertEquals("P.upsert", s.m_procName);
+            assertEquals((byte) 1, s.m_task.getParams().toArray()[2]);
+        }
+    }
+
+    @Test
+    public void testSplitAtBatchRowCap() throws Exception {
+        final int cap = InternalConnectionHandler.BATCH_MAX_ROWS;
+        // Every row hashes to the same partition
+        List<Object[]> rows = rows(2 * cap + 7, 42, 0);
+        assertEquals(rows.size(), m_handler.callProcedureBatch(m_importer, m_stats, m_callback, "P.insert", rows));
+        assertEquals(3, m_adapter.m_submitted.size());
+        assertEquals(cap, m_adapter.m_submitted.get(0).m_batchRows);
+        assertEquals(cap, m_adapter.m_submitted.get(1).m_batchRows);
+        assertEquals(7, m_adapter.m_submitted.get(2).m_batchRows);
+        for (Submission s : m_adapter.m_submitted) {
+            assertEquals(m_adapter.m_submitted.get(0).m_partition, s.m_partition);
+            assertEquals(s.m_batchRows, s.table().getRowCount());
+        }
+    }
+
+    private void assertOneTransactionPerRow(String proc, int rows) {
+        assertEquals(rows, m_adapter.m_submitted.size());
+        for (Submission s : m_adapter.m_submitted) {
+            assertEquals(proc, s.m_procName);
+            assertEquals(proc, s.m_task.getProcName());
+            assertEquals(0, s.m_batchRows);
+        }
+    }
+
+    @Test
+    public void testOtherProceduresRunPerRow() throws Exception {
+        List<Object[]> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(new Object[] { i });
+        }
+        assertEquals(5, m_handler.callProcedureBatch(m_importer, m_stats, m_callback, "CountP", ids));
+        assertOneTransactionPerRow("CountP", 5);
+
+        // Default procedures of replicated tables aren't batched either
+        m_adapter.m_submitted.clear();
+        assertEquals(5, m_handler.callProcedureBatch(m_importer, m_stats, m_callback, "R.insert", rows(5, 0, 1)));
+        assertOneTransactionPerRow("R.insert", 5);
+    }
+
+    @Test
+    public void testImporterWithoutDefaultProcRunsPerRow() throws Exception {
+        AuthUser user = mock(AuthUser.class);
+        when(user.hasPermission(Permission.DEFAULTPROC)).thenReturn(false);
+        doReturn(user).when(m_handler).getImporterUser();
+
+        assertEquals(5, m_handler.callProcedureBatch(m_importer, m_stats, m_callback, "P.insert", rows(5, 0, 1)));
+        assertOneTransactionPerRow("P.insert", 5);
+        for (Submission s : m_adapter.m_submitted) {
+            assertSame(user, s.m_user);
+        }
+    }
+
+    @Test
+    public void testInvalidAndRejectedRowsAreNotQueued() throws Exception {
+        List<Object[]> rows = rows(10, 42, 0);
+        rows.add(new Object[] { "not a number", "bad" });
+        rows.add(new Object[] { 1 });
+        assertEquals(10, m_handler.callProcedureBatch(m_importer, m_stats, m_callback, "P.insert", rows));
+        assertEquals(1, m_adapter.m_submitted.size());
+        assertEquals(10, m_adapter.m_submitted.get(0).m_batchRows);
+
+        m_adapter.m_accept = false;
+        assertEquals(0, m_handler.callProcedureBatch(m_importer, m_stats, m_callback, "P.insert", rows(10, 0, 1)));
+    }
+
+    @Test
+    public void testOneCallbackPerFailedBatch() throws Exception {
+        // The real adapter, with every transaction failing as soon as it is dispatched
+        final InternalClientResponseAdapter adapter = new InternalClientResponseAdapter(2) {
+            @Override
+            ClientResponseImpl dispatch(StoredProcedureInvocation task, InternalAdapterTaskAttributes kattrs,
+                    AuthUser user) {
+                return new ClientResponseImpl(ClientResponse.GRACEFUL_FAILURE, new VoltTable[0], "failed");
+            }
+        };
+        final InternalConnectionHandler handler = new InternalConnectionHandler(adapter, null);
+        final int cap = InternalConnectionHandler.BATCH_MAX_ROWS;
+        final int count = 2 * cap + 7;
+        m_stats.reportQueued(m_importer.getName(), "P.insert",
+                handler.callProcedureBatch(m_importer, m_stats, m_callback, "P.insert", rows(count, 42, 0)));
+        // Responses are handled on the partition's executor
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (m_callbacks.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, m_callbacks.get());
+
+        Object[][] stats = m_stats.getStatsRows(false, System.currentTimeMillis());
+        assertEquals(1, stats.length);
+        VoltTable row = new VoltTable(m_stats.getColumnSchema().toArray(new VoltTable.ColumnInfo[0]));
+        row.addRow(stats[0]);
+        row.advanceRow();
+        assertEquals(count, row.getLong(ImporterStatsCollector.FAILURE_COUNT_COL));
+        assertEquals(0, row.getLong(ImporterStatsCollector.SUCCESS_COUNT_COL));
+        assertEquals(0, row.getLong(ImporterStatsCollector.PENDING_COUNT_COL));
+        assertEquals(3, row.getLong(ImporterStatsCollector.BATCH_COUNT_COL));
+    }
+}
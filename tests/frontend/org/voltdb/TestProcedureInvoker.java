@@ -0,0 +1,77 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+public class TestProcedureInvoker extends TestCase {
+
+    public static class Adder {
+        public long run(long a, int b, String c) {
+            if (c == null) {
+                throw new IllegalStateException("no string");
+            }
+            return a + b + c.length();
+        }
+    }
+
+    static class Hidden {
+        public String run(String s) {
+            return s + "!";
+        }
+    }
+
+    private static Method runMethod(Class<?> clz) throws Exception {
+        for (Method m : clz.getDeclaredMethods()) {
+            if (m.getName().equals("run")) {
+                m.setAccessible(true);
+                return m;
+            }
+        }
+        throw new NoSuchMethodException("run");
+    }
+
+    public void testBothPathsAgree() throws Exception {
+        Adder adder = new Adder();
+        Method run = runMethod(Adder.class);
+        for (boolean reflective : new boolean[] { true, false }) {
+            ProcedureInvoker invoker = ProcedureInvoker.create(adder, run, reflective);
+            assertEquals(8L, invoker.invoke(new Object[] { 3L, 2, "abc" }));
+            try {
+                invoker.invoke(new Object[] { 3L, 2, null });
+                fail();
+            } catch (InvocationTargetException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    public void testNonPublicClass() throws Exception {
+        ProcedureInvoker invoker = ProcedureInvoker.create(new Hidden(), runMethod(Hidden.class), false);
+        assertEquals("hi!", invoker.invoke(new Object[] { "hi" }));
+    }
+}
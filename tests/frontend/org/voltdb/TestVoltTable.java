@@ -1435,4 +1435,87 @@ public class TestVoltTable extends TestCase {
             }
         }
     }
+
+    public void testColumnarAccess() {
+        VoltTable table = new VoltTable(
+                new ColumnInfo("ID", VoltType.INTEGER),
+                new ColumnInfo("NAME", VoltType.STRING),
+                new ColumnInfo("SMALL", VoltType.SMALLINT),
+                new ColumnInfo("SCORE", VoltType.FLOAT),
+                new ColumnInfo("DATA", VoltType.VARBINARY));
+        table.addRow(1, "one", 10, 1.5, new byte[] { 1 });
+        table.addRow(null, null, null, null, null);
+        table.addRow(3, "three", 30, 3.5, new byte[] { 3, 3, 3 });
+
+        assertTrue(Arrays.equals(new long[] { 1, VoltType.NULL_BIGINT, 3 }, table.getLongColumn(0)));
+        // Behind a variable length column
+        assertTrue(Arrays.equals(new long[] { 10, VoltType.NULL_BIGINT, 30 }, table.getLongColumn("SMALL")));
+        double[] scores = table.getDoubleColumn("SCORE");
+        assertEquals(1.5, scores[0]);
+        assertEquals(3.5, scores[2]);
+
+        VoltTable.ColumnIterator names = table.iterateColumn("NAME");
+        assertTrue(names.advance());
+        assertEquals("one", names.getString());
+        assertFalse(names.wasNull());
+        assertTrue(names.advance());
+        assertNull(names.getString());
+        assertTrue(names.wasNull());
+        assertTrue(names.advance());
+        assertEquals(2, names.getRowIndex());
+        assertEquals("three", names.getString());
+        assertFalse(names.advance());
+
+        VoltTable.ColumnIterator data = table.iterateColumn(4);
+        data.advance();
+        data.advance();
+        assertNull(data.getVarbinary());
+        data.advance();
+        assertTrue(Arrays.equals(new byte[] { 3, 3, 3 }, data.getVarbinary()));
+
+        try {
+            table.getLongColumn("NAME");
+            fail();
+        } catch (IllegalArgumentException e) {}
+        try {
+            table.iterateColumn(0).getLong();
+            fail();
+        } catch (IllegalStateException e) {}
+
+        // The row index follows rows added after it was built and a reset
+        table.addRow(4, "four", 40, 4.5, new byte[0]);
+        assertTrue(Arrays.equals(new long[] { 10, VoltType.NULL_BIGINT, 30, 40 }, table.getLongColumn(2)));
+        VoltTable copy = new VoltTable(table.getBuffer(), true);
+        assertTrue(Arrays.equals(table.getLongColumn(0), copy.getLongColumn(0)));
+        table.clearRowData();
+        assertEquals(0, table.getLongColumn(0).length);
+        table.addRow(5, "five", 50, 5.5, new byte[0]);
+        assertTrue(Arrays.equals(new long[] { 50 }, table.getLongColumn(2)));
+    }
+
+    public void testColumnarMatchesRowAccess() {
+        VoltTable table = new VoltTable(
+                new ColumnInfo("ID", VoltType.BIGINT),
+                new ColumnInfo("TS", VoltType.TIMESTAMP),
+                new ColumnInfo("S", VoltType.STRING));
+        Random r = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            table.addRow(r.nextLong(), new TimestampType(r.nextInt(Integer.MAX_VALUE)),
+                    i % 7 == 0 ? null : Integer.toString(i));
+        }
+        long[] ids = table.getLongColumn("ID");
+        long[] timestamps = table.getLongColumn("TS");
+        VoltTable.ColumnIterator strings = table.iterateColumn(2);
+        table.resetRowPosition();
+        int i = 0;
+        while (table.advanceRow()) {
+            assertTrue(strings.advance());
+            assertEquals(table.getLong(0), ids[i]);
+            assertEquals(table.getTimestampAsLong(1), timestamps[i]);
+            assertEquals(table.getString(2), strings.getString());
+            i++;
+        }
+        assertEquals(1000, i);
+        assertFalse(strings.advance());
+    }
 }
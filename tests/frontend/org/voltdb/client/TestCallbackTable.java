@@ -0,0 +1,240 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.voltdb.client.CallbackTable.SlotTable;
+import org.voltdb.client.Distributer.CallbackBookeeping;
+
+public class TestCallbackTable extends TestCase {
+
+    private static final ProcedureCallback NOOP = new ProcedureCallback() {
+        @Override
+        public void clientCallback(ClientResponse clientResponse) throws Exception {}
+    };
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    static class Collector implements CallbackTable.Handler {
+        final CallbackTable m_table;
+        final List<Long> m_handles = new ArrayList<Long>();
+
+        Collector(CallbackTable table) {
+            m_table = table;
+        }
+
+        @Override
+        public void claimed(CallbackBookeeping cb, long nowNanos) {
+            m_handles.add(cb.handle);
+            m_table.release(cb);
+        }
+    }
+
+    private static void put(CallbackTable table, long handle, long nowNanos, long timeoutNanos) {
+        table.put(handle, nowNanos, NOOP, "Proc" + handle, timeoutNanos, timeoutNanos, false);
+    }
+
+    public void testClaimOnce() {
+        for (CallbackTable table : new CallbackTable[] { CallbackTable.create(0), CallbackTable.create(16) }) {
+            final long now = System.nanoTime();
+            put(table, 5, now, SECOND);
+            put(table, -3, now, SECOND);
+            assertTrue(table.contains(5));
+            assertTrue(table.contains(-3));
+            assertFalse(table.contains(6));
+
+            CallbackBookeeping cb = table.remove(5);
+            assertEquals(5, cb.handle);
+            assertEquals("Proc5", cb.name);
+            assertSame(NOOP, cb.callback);
+            table.release(cb);
+            assertNull(table.remove(5));
+            assertFalse(table.contains(5));
+
+            cb = table.remove(-3);
+            assertEquals(-3, cb.handle);
+            table.release(cb);
+            assertNull(table.remove(-3));
+        }
+    }
+
+    public void testSlotsAreRecycled() {
+        SlotTable table = (SlotTable)CallbackTable.create(5);
+        assertEquals(8, table.capacity());
+        final long now = System.nanoTime();
+        put(table, 1, now, SECOND);
+        CallbackBookeeping first = table.remove(1);
+        table.release(first);
+        assertNull(first.callback);
+
+        // Same slot, same bookkeeping object
+        put(table, 9, now, SECOND);
+        CallbackBookeeping second = table.remove(9);
+        assertSame(first, second);
+        assertEquals(9, second.handle);
+        table.release(second);
+        assertEquals(0, table.overflowSize());
+    }
+
+    public void testCollisionsOverflow() {
+        SlotTable table = (SlotTable)CallbackTable.create(8);
+        final long now = System.nanoTime();
+        put(table, 3, now, SECOND);
+        put(table, 11, now, SECOND);
+        put(table, 19, now, SECOND);
+        assertEquals(2, table.overflowSize());
+
+        // The slot holder leaving doesn't strand the overflowed calls
+        table.release(table.remove(3));
+        assertEquals(19, table.remove(19).handle);
+        assertEquals(11, table.remove(11).handle);
+        assertNull(table.remove(3));
+        assertEquals(0, table.overflowSize());
+    }
+
+    public void testExpiration() {
+        for (CallbackTable table : new CallbackTable[] { CallbackTable.create(0), CallbackTable.create(64) }) {
+            final long start = System.nanoTime();
+            put(table, 1, start, SECOND);
+            put(table, 2, start, 10 * SECOND);
+            put(table, 3, start, 300 * SECOND);
+            put(table, 4, start, Long.MAX_VALUE);
+            // Overflows, must still expire
+            put(table, 65, start, SECOND);
+            // Answered before its deadline
+            put(table, 5, start, SECOND);
+            table.release(table.remove(5));
+
+            Collector collector = new Collector(table);
+            table.expire(start, collector);
+            assertTrue(collector.m_handles.isEmpty());
+
+            table.expire(start + 3 * SECOND, collector);
+            assertEquals(2, collector.m_handles.size());
+            assertTrue(collector.m_handles.contains(1L));
+            assertTrue(collector.m_handles.contains(65L));
+
+            collector.m_handles.clear();
+            table.expire(start + 12 * SECOND, collector);
+            assertEquals(1, collector.m_handles.size());
+            assertEquals(2L, (long)collector.m_handles.get(0));
+
+            // Takes more than a revolution of the wheel
+            collector.m_handles.clear();
+            for (int seconds = 20; seconds < 400; seconds += 20) {
+                table.expire(start + seconds * SECOND, collector);
+            }
+            assertEquals(1, collector.m_handles.size());
+            assertEquals(3L, (long)collector.m_handles.get(0));
+
+            // Calls without a timeout only leave when the connection closes
+            collector.m_handles.clear();
+            table.removeAll(start, collector);
+            assertEquals(1, collector.m_handles.size());
+            assertEquals(4L, (long)collector.m_handles.get(0));
+            assertFalse(table.contains(4));
+        }
+    }
+
+    /*
+     * Responses, timeouts and the reaper race for every call, each must be claimed once
+     */
+    public void testConcurrentClaims() throws Exception {
+        final SlotTable table = (SlotTable)CallbackTable.create(1024);
+        final int calls = 200000;
+        final AtomicLong nextToAnswer = new AtomicLong(0);
+        final AtomicLong issued = new AtomicLong(0);
+        final AtomicInteger claims = new AtomicInteger();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final boolean[] claimed = new boolean[calls];
+        final CallbackTable.Handler handler = new CallbackTable.Handler() {
+            @Override
+            public void claimed(CallbackBookeeping cb, long nowNanos) {
+                final int handle = (int)cb.handle;
+                table.release(cb);
+                synchronized (claimed) {
+                    if (claimed[handle]) {
+                        duplicates.incrementAndGet();
+                    }
+                    claimed[handle] = true;
+                }
+                claims.incrementAndGet();
+            }
+        };
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (long handle = 0; handle < calls; handle++) {
+                    // Every tenth call is already due, the rest time out much later
+                    put(table, handle, System.nanoTime(), handle % 10 == 0 ? 0 : 600 * SECOND);
+                    issued.set(handle + 1);
+                }
+            }
+        };
+        Thread responder = new Thread() {
+            @Override
+            public void run() {
+                long handle;
+                while ((handle = nextToAnswer.get()) < calls) {
+                    if (handle >= issued.get()) {
+                        continue;
+                    }
+                    nextToAnswer.set(handle + 1);
+                    CallbackBookeeping cb = table.remove(handle);
+                    if (cb != null) {
+                        handler.claimed(cb, 0);
+                    }
+                }
+            }
+        };
+        Thread reaper = new Thread() {
+            @Override
+            public void run() {
+                long fakeNow = System.nanoTime();
+                while (nextToAnswer.get() < calls) {
+                    fakeNow += SlotTable.TICK_NANOS;
+                    table.expire(Math.min(fakeNow, System.nanoTime() + SECOND), handler);
+                }
+            }
+        };
+        producer.start();
+        responder.start();
+        reaper.start();
+        producer.join();
+        responder.join();
+        reaper.join();
+
+        assertEquals(0, duplicates.get());
+        assertEquals(calls, claims.get());
+        assertEquals(0, table.overflowSize());
+    }
+}
@@ -64,6 +64,12 @@ public class TestDistributer extends TestCase {
             return 8192;
         }
 
+        // Like the client interface, accept invocations that arrive together as slices of one buffer
+        @Override
+        protected boolean coalesceReads() {
+            return true;
+        }
+
         @Override
         public void handleMessage(ByteBuffer message, Connection c) {
             try {
@@ -820,6 +826,37 @@ public class TestDistributer extends TestCase {
        }
     }
 
+    public void testClientCoalescing() throws Exception {
+       MockVolt volt = null;
+
+       try {
+           volt = new MockVolt(21212);
+           volt.start();
+
+           ClientConfig config = new ClientConfig();
+           config.setRequestCoalescing(500, 4096);
+           Client clt = ClientFactory.createClient(config);
+           clt.createConnection("localhost");
+
+           // Held invocations still go out once the window passes
+           clt.callProcedure("Foo", new Integer(1));
+           assertEquals(5, volt.handler.roundTrips.get());
+
+           // Enough of these to cross the byte threshold several times
+           for (int i = 0; i < 500; i++) {
+               clt.callProcedure(new ProcCallback(), "Bar", new Integer(i));
+           }
+           clt.drain();
+           assertEquals(505, volt.handler.roundTrips.get());
+           clt.close();
+       }
+       finally {
+           if (volt != null) {
+               volt.shutdown();
+           }
+       }
+    }
+
     @Test
     public void testClientBlockedOnMaxOutstanding() throws Exception {
         // create a fake server and connect to it.
@@ -0,0 +1,161 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.compiler;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltType;
+import org.voltdb.common.Constants;
+import org.voltdb.planner.BoundPlan;
+import org.voltdb.planner.CorePlan;
+
+public class TestAdHocCompilerCache extends TestCase {
+
+    private static final byte[] CATALOG_HASH = new byte[20];
+    static {
+        for (int i = 0; i < CATALOG_HASH.length; i++) {
+            CATALOG_HASH[i] = (byte) i;
+        }
+    }
+
+    private static final ConcurrentPlanCache.Weigher<String> LENGTH = new ConcurrentPlanCache.Weigher<String>() {
+        @Override
+        public int weigh(String value) {
+            return value.length();
+        }
+    };
+
+    private static AdHocPlannedStatement makeStatement(String sql, int partitioningParam) {
+        byte[] fragment = sql.getBytes(Constants.UTF8ENCODING);
+        CorePlan core = new CorePlan(fragment, null, new byte[20], null, false, true,
+                new VoltType[] { VoltType.BIGINT }, CATALOG_HASH);
+        core.setPartitioningParamIndex(partitioningParam);
+        core.setPartitioningParamValue(partitioningParam < 0 ? null : 42L);
+        return new AdHocPlannedStatement(fragment, core, ParameterSet.emptyParameterSet(), null);
+    }
+
+    public void testAdmissionFavorsFrequentKeys() {
+        ConcurrentPlanCache<String> cache = new ConcurrentPlanCache<String>(4, 1024, LENGTH);
+        for (int i = 0; i < 4; i++) {
+            String key = "hot" + i;
+            for (int j = 0; j < 5; j++) {
+                cache.get(key);
+            }
+            assertTrue(cache.put(key, key));
+        }
+
+        // A stream of one-off keys can't displace entries that keep being used
+        for (int i = 0; i < 100; i++) {
+            String key = "cold" + i;
+            assertNull(cache.get(key));
+            cache.put(key, key);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals("hot" + i, cache.get("hot" + i));
+        }
+        assertEquals(4, cache.size());
+        assertTrue(cache.m_rejections.get() > 0);
+
+        // But a key that becomes popular gets in
+        for (int j = 0; j < 10; j++) {
+            cache.get("rising");
+        }
+        assertTrue(cache.put("rising", "rising"));
+        assertEquals("rising", cache.get("rising"));
+        assertEquals(4, cache.size());
+    }
+
+    public void testWeightBound() {
+        ConcurrentPlanCache<String> cache = new ConcurrentPlanCache<String>(100, 10, LENGTH);
+        assertFalse(cache.put("big", "01234567890"));
+        for (int i = 0; i < 5; i++) {
+            String key = "k" + i;
+            for (int j = 0; j <= i; j++) {
+                cache.get(key);
+            }
+            cache.put(key, "abcd");
+            assertTrue(cache.weight() <= 10);
+        }
+        assertEquals(2, cache.size());
+
+        // Replacing a value re-weighs it
+        cache.put("k4", "a");
+        assertTrue(cache.weight() <= 10);
+        assertEquals("a", cache.peek("k4"));
+    }
+
+    public void testVariantsAccumulate() {
+        AdHocCompilerCache cache = new AdHocCompilerCache(10, 10);
+        cache.put("select 1", "token", makeStatement("select 1", -1), null, false, false);
+        cache.put("select 2", "token", makeStatement("select 2", 0), null, false, false);
+        List<BoundPlan> variants = cache.getWithParsedToken("token");
+        assertEquals(2, variants.size());
+        assertNotNull(cache.getWithSQL("select 1"));
+        assertNotNull(cache.getWithSQL("select 2"));
+        assertEquals(2, cache.getLiteralCacheSize());
+        assertEquals(1, cache.getCoreCacheSize());
+    }
+
+    public void testWarmStart() throws Exception {
+        File file = File.createTempFile("adhoc", AdHocCompilerCache.PLAN_FILE_SUFFIX);
+        try {
+            AdHocCompilerCache cache = new AdHocCompilerCache(10, 10, CATALOG_HASH);
+            cache.put("select 1", "token1", makeStatement("select 1", -1), null, false, false);
+            cache.put("select 2", "token1", makeStatement("select 2", 0), null, false, false);
+            cache.put("select 3", "token2", makeStatement("select 3", 0), null, false, false);
+            cache.savePlans(file);
+
+            AdHocCompilerCache restarted = new AdHocCompilerCache(10, 10, CATALOG_HASH);
+            assertEquals(2, restarted.loadPlans(file));
+            assertEquals(0, restarted.getLiteralCacheSize());
+            List<BoundPlan> variants = restarted.getWithParsedToken("token1");
+            assertEquals(2, variants.size());
+            assertEquals(cache.getWithParsedToken("token1"), variants);
+            CorePlan core = restarted.getWithParsedToken("token2").get(0).m_core;
+            assertEquals(0, core.getPartitioningParamIndex());
+            assertEquals(42L, core.getPartitioningParamValue());
+
+            // Plans from another catalog are ignored
+            byte[] otherHash = CATALOG_HASH.clone();
+            otherHash[0] = 99;
+            assertEquals(0, new AdHocCompilerCache(10, 10, otherHash).loadPlans(file));
+
+            // So is a damaged file
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.seek(raf.length() / 2);
+            final int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(~b);
+            raf.close();
+            assertEquals(0, new AdHocCompilerCache(10, 10, CATALOG_HASH).loadPlans(file));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -25,12 +25,17 @@ package org.voltdb.compiler;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -41,6 +46,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.voltcore.messaging.HostMessenger;
 import org.voltcore.messaging.LocalObjectMessage;
+import org.voltdb.CatalogContext;
 import org.voltdb.compiler.AsyncCompilerWork.AsyncCompilerWorkCompletionHandler;
 import org.voltdb.licensetool.LicenseApi;
 import org.voltdb.utils.MiscUtils;
@@ -133,4 +139,54 @@ public class TestAsyncCompilerAgent {
         m_agent.shutdown();
         assertEquals(AsyncCompilerAgent.MAX_QUEUE_DEPTH + 2, completedRequests.get());
     }
+
+    /**
+     * Work from a connection always lands on the same planner worker, so its
+     * statements are planned in order, while connections are spread over all of them.
+     */
+    @Test
+    public void testPlannerPoolRouting() throws InterruptedException {
+        final int workers = 4;
+        final int connections = 16;
+        final AdHocPlannerPool pool = new AdHocPlannerPool(workers, 100);
+        final Map<Long, String> threadByConnection = new ConcurrentHashMap<Long, String>();
+        final Map<String, Integer> connectionsByThread = new ConcurrentHashMap<String, Integer>();
+        final AtomicInteger misrouted = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(connections * 10);
+        try {
+            for (int round = 0; round < 10; round++) {
+                for (long connectionId = 0; connectionId < connections; connectionId++) {
+                    final long id = connectionId;
+                    pool.execute(connectionId, new Runnable() {
+                        @Override
+                        public void run() {
+                            final String thread = Thread.currentThread().getName();
+                            final String previous = threadByConnection.putIfAbsent(id, thread);
+                            if (previous == null) {
+                                connectionsByThread.merge(thread, 1, Integer::sum);
+                            } else if (!previous.equals(thread)) {
+                                misrouted.incrementAndGet();
+                            }
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+            done.await(1, TimeUnit.MINUTES);
+            assertEquals(0, misrouted.get());
+            assertEquals(workers, connectionsByThread.size());
+            for (int count : connectionsByThread.values()) {
+                assertEquals(connections / workers, count);
+            }
+
+            // Not on a worker, so planning uses the catalog's own planner
+            CatalogContext context = mock(CatalogContext.class);
+            assertNull(AdHocPlannerPool.plannerFor(context));
+            for (AdHocPlannerPool.Worker worker : pool.getWorkers()) {
+                assertEquals(0, worker.getQueueDepth());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
@@ -0,0 +1,333 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.export.processors;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.VoltType;
+import org.voltdb.common.Constants;
+import org.voltdb.export.AdvertisedDataSource;
+import org.voltdb.export.AdvertisedDataSource.ExportFormat;
+import org.voltdb.types.TimestampType;
+import org.voltdb.utils.VoltFile;
+
+import junit.framework.TestCase;
+
+public class TestExportFileWriter extends TestCase {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name") + "/export_file_test");
+
+    private AdvertisedDataSource m_source;
+    private int m_acked;
+
+    @Override
+    public void setUp() throws Exception {
+        if (TEST_DIR.exists()) {
+            VoltFile.recursivelyDelete(TEST_DIR);
+        }
+        assertTrue(TEST_DIR.mkdirs());
+        final ArrayList<String> names = new ArrayList<String>(Arrays.asList(
+                "VOLT_TRANSACTION_ID", "VOLT_EXPORT_TIMESTAMP", "VOLT_EXPORT_SEQUENCE_NUMBER",
+                "VOLT_PARTITION_ID", "VOLT_SITE_ID", "VOLT_EXPORT_OPERATION",
+                "ID", "NAME", "PRICE", "TS"));
+        final ArrayList<VoltType> types = new ArrayList<VoltType>(Arrays.asList(
+                VoltType.BIGINT, VoltType.BIGINT, VoltType.BIGINT,
+                VoltType.BIGINT, VoltType.BIGINT, VoltType.TINYINT,
+                VoltType.INTEGER, VoltType.STRING, VoltType.DECIMAL, VoltType.TIMESTAMP));
+        final List<Integer> lengths = new ArrayList<Integer>(Arrays.asList(8, 8, 8, 8, 8, 1, 4, 64, 16, 8));
+        m_source = new AdvertisedDataSource(3, "sig", "ORDERS", "ID", 0, 7, names, types, lengths,
+                ExportFormat.FOURDOTFOUR);
+        m_acked = 0;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    /*
+     * Serialize rows the way ExportTupleStream does, id and name may be null
+     */
+    private static void appendRow(ByteBuffer buf, long seq, Integer id, String name, BigDecimal price, long ts) {
+        final int start = buf.position();
+        buf.putInt(0);
+        final int mask = buf.position();
+        buf.putShort((short) 0);
+        buf.putLong(seq).putLong(1000 + seq).putLong(seq).putLong(3).putLong(0).put((byte) 1);
+        if (id == null) {
+            // columns 6 and 7 are the last bits of the first mask byte
+            buf.put(mask, (byte) (0x80 >>> 6));
+        } else {
+            buf.putInt(id);
+        }
+        if (name == null) {
+            buf.put(mask, (byte) (buf.get(mask) | (0x80 >>> 7)));
+        } else {
+            final byte[] bytes = name.getBytes(Constants.UTF8ENCODING);
+            buf.putInt(bytes.length).put(bytes);
+        }
+        final byte[] unscaled = price.setScale(12).unscaledValue().toByteArray();
+        final byte[] padded = new byte[16];
+        final byte fill = (byte) (unscaled[0] < 0 ? -1 : 0);
+        Arrays.fill(padded, fill);
+        System.arraycopy(unscaled, 0, padded, 16 - unscaled.length, unscaled.length);
+        buf.put((byte) 12).put((byte) 16).put(padded);
+        buf.putLong(ts);
+        buf.putInt(start, buf.position() - start - 4);
+    }
+
+    private BBContainer block(int firstSeq, int rows, String name) {
+        final ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < rows; i++) {
+            appendRow(buf, firstSeq + i, firstSeq + i, name, new BigDecimal("12.50"), 1234567L);
+        }
+        buf.flip();
+        return new BBContainer(buf.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN)) {
+            @Override
+            public void discard() {
+                checkDoubleFree();
+                m_acked++;
+            }
+        };
+    }
+
+    private Properties props(String... keyValues) {
+        final Properties props = new Properties();
+        props.setProperty("outdir", TEST_DIR.getPath());
+        props.setProperty("nonce", "test");
+        for (int i = 0; i < keyValues.length; i += 2) {
+            props.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return props;
+    }
+
+    private File[] files(final boolean active) {
+        final File[] files = TEST_DIR.listFiles();
+        final ArrayList<File> matching = new ArrayList<File>();
+        for (File f : files) {
+            if (f.getName().startsWith(ExportFileWriter.ACTIVE_PREFIX) == active) {
+                matching.add(f);
+            }
+        }
+        return matching.toArray(new File[matching.size()]);
+    }
+
+    private static List<String> readLines(File f, boolean gzip) throws Exception {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                gzip ? new GZIPInputStream(new FileInputStream(f)) : new FileInputStream(f), Constants.UTF8ENCODING));
+        final ArrayList<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    public void testDecoder() throws Exception {
+        final ExportRowDecoder decoder = new ExportRowDecoder(m_source);
+        final BBContainer cont = block(10, 2, null);
+        decoder.reset(cont.b());
+        assertTrue(decoder.advance());
+        Object[] row = decoder.decode();
+        assertEquals(10L, row[0]);
+        assertEquals(1010L, decoder.exportTimestamp());
+        assertEquals((byte) 1, row[5]);
+        assertEquals(10, row[6]);
+        assertNull(row[7]);
+        assertEquals(0, new BigDecimal("12.5").compareTo((BigDecimal) row[8]));
+        assertEquals(new TimestampType(1234567L), row[9]);
+        assertTrue(decoder.advance());
+        assertEquals(11, decoder.decode()[6]);
+        assertFalse(decoder.advance());
+        // The block itself isn't moved
+        assertEquals(0, cont.b().position());
+    }
+
+    public void testCsvBatchedAcksAndRoll() throws Exception {
+        final ExportFileWriter writer = new ExportFileWriter(ExportFileWriter.Config.fromProperties(
+                props("skipinternals", "true", "ackbatchbytes", "1000000", "ackbatchms", "100"), null), m_source);
+        writer.write(block(0, 2, "plain"), 1000);
+        writer.write(block(2, 1, "has, \"quotes\""), 1010);
+        // Nothing is acked until the batch is flushed
+        assertEquals(0, m_acked);
+        assertEquals(1, files(true).length);
+        writer.tick(1050);
+        assertEquals(0, m_acked);
+        writer.tick(1100);
+        assertEquals(2, m_acked);
+        assertEquals(3, writer.m_rows);
+        assertEquals(1010 - 1002, writer.m_lastLag);
+
+        writer.write(block(3, 1, ""), 2000);
+        writer.close();
+        assertEquals(3, m_acked);
+        assertEquals(0, files(true).length);
+        final File[] rolled = files(false);
+        assertEquals(1, rolled.length);
+        assertTrue(rolled[0].getName().startsWith("test-ORDERS-3-7-"));
+        assertTrue(rolled[0].getName().endsWith(".csv"));
+        final List<String> lines = readLines(rolled[0], false);
+        assertEquals(Arrays.asList(
+                "0,plain,12.500000000000,1970-01-01 00:00:01.234567",
+                "1,plain,12.500000000000,1970-01-01 00:00:01.234567",
+                "2,\"has, \"\"quotes\"\"\",12.500000000000,1970-01-01 00:00:01.234567",
+                "3,\"\",12.500000000000,1970-01-01 00:00:01.234567"), lines);
+    }
+
+    public void testCsvLeadingNulls() throws Exception {
+        final ExportFileWriter writer = new ExportFileWriter(ExportFileWriter.Config.fromProperties(
+                props("skipinternals", "true"), null), m_source);
+        final ByteBuffer buf = ByteBuffer.allocateDirect(1024).order(ByteOrder.LITTLE_ENDIAN);
+        appendRow(buf, 0, null, null, new BigDecimal("3"), 1234567L);
+        appendRow(buf, 1, null, "a", new BigDecimal("3"), 1234567L);
+        buf.flip();
+        writer.write(new BBContainer(buf.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN)) {
+            @Override
+            public void discard() {
+                checkDoubleFree();
+                m_acked++;
+            }
+        }, 0);
+        writer.close();
+        // Null columns are empty but keep their separators, even before the first value
+        assertEquals(Arrays.asList(
+                ",,3.000000000000,1970-01-01 00:00:01.234567",
+                ",a,3.000000000000,1970-01-01 00:00:01.234567"), readLines(files(false)[0], false));
+    }
+
+    public void testTsvCompressedWithNulls() throws Exception {
+        final ExportFileWriter writer = new ExportFileWriter(ExportFileWriter.Config.fromProperties(
+                props("type", "tsv", "compression", "gzip", "ackbatchbytes", "1"), null), m_source);
+        writer.write(block(0, 1, null), 0);
+        // Acked as soon as a batch fills up, and what is acked is readable
+        assertEquals(1, m_acked);
+        // The file has no gzip trailer yet, read up to the end of the first line only
+        final GZIPInputStream partial = new GZIPInputStream(new FileInputStream(files(true)[0]));
+        final StringBuilder firstLine = new StringBuilder();
+        int c;
+        while ((c = partial.read()) != '\n') {
+            firstLine.append((char) c);
+        }
+        partial.close();
+        assertTrue(firstLine.toString().startsWith("0\t1000\t"));
+        writer.write(block(1, 1, "tab\there"), 0);
+        writer.close();
+        final List<String> lines = readLines(files(false)[0], true);
+        assertEquals("0\t1000\t0\t3\t0\t1\t0\t\\N\t12.500000000000\t1970-01-01 00:00:01.234567", lines.get(0));
+        assertTrue(lines.get(1).contains("\ttab\\there\t"));
+    }
+
+    public void testBinaryRollsByPeriod() throws Exception {
+        final ExportFileWriter writer = new ExportFileWriter(ExportFileWriter.Config.fromProperties(
+                props("type", "binary", "rollbytes", "1"), null), m_source);
+        final BBContainer first = block(0, 2, "a");
+        final int firstSize = first.b().remaining();
+        writer.write(first, 0);
+        writer.write(block(2, 3, "b"), 0);
+        // rollbytes is in megabytes, both blocks share a file until the hour long period ends
+        writer.tick(60 * 60 * 1000);
+        assertEquals(2, m_acked);
+        assertEquals(1, writer.m_filesRolled);
+        writer.close();
+
+        final File[] rolled = files(false);
+        assertEquals(1, rolled.length);
+        final DataInputStream in = new DataInputStream(new FileInputStream(rolled[0]));
+        assertEquals(ExportFileWriter.BINARY_FORMAT_VERSION, in.readInt());
+        assertEquals(10, in.readInt());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(m_source.columnTypes.get(i).getValue(), in.readByte());
+            assertEquals(m_source.columnNames.get(i), in.readUTF());
+        }
+        final byte[] rows = new byte[firstSize];
+        in.readFully(rows);
+        in.close();
+        final ExportRowDecoder decoder = new ExportRowDecoder(m_source);
+        decoder.reset(ByteBuffer.wrap(rows));
+        int count = 0;
+        while (decoder.advance()) {
+            assertEquals("a", decoder.decode()[7]);
+            count++;
+        }
+        assertEquals(2, count);
+    }
+
+    public void testAbandonReleasesWithoutAcking() throws Exception {
+        final ExportFileWriter writer = new ExportFileWriter(ExportFileWriter.Config.fromProperties(
+                props("ackbatchbytes", "1000000"), null), m_source);
+        writer.write(block(0, 1, "a"), 0);
+        final BBContainer pending = block(1, 1, "b");
+        writer.write(pending, 0);
+        // The failed block is already pending, it is only released once
+        writer.abandon(pending);
+        assertEquals(2, m_acked);
+        assertEquals(0, writer.m_blocksAcked);
+        assertEquals(0, writer.m_pendingAckBytes);
+        writer.tick(60 * 60 * 1000);
+        assertEquals(0, writer.m_blocksAcked);
+        try {
+            writer.write(block(2, 1, "c"), 0);
+            fail();
+        } catch (IOException e) {}
+
+        // A write that fails before the block is pending
+        final File notADir = new File(TEST_DIR, "file");
+        assertTrue(notADir.createNewFile());
+        final ExportFileWriter failing = new ExportFileWriter(ExportFileWriter.Config.fromProperties(
+                props("outdir", notADir.getPath()), null), m_source);
+        final BBContainer failed = block(3, 1, "d");
+        try {
+            failing.write(failed, 0);
+            fail();
+        } catch (IOException e) {}
+        failing.abandon(failed);
+        assertEquals(3, m_acked);
+        assertEquals(0, failing.m_blocksAcked);
+    }
+
+    public void testBadConfig() {
+        for (String[] bad : new String[][] { { "type", "xml" }, { "compression", "zip" }, { "period", "0" },
+                                             { "nonce", "a/b" }, { "ackbatchms", "soon" } }) {
+            try {
+                ExportFileWriter.Config.fromProperties(props(bad), null);
+                fail(Arrays.toString(bad));
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.importer;
+
+import java.util.ArrayList;
+
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.client.ClientResponse;
+
+import junit.framework.TestCase;
+
+public class TestImporterStatsCollector extends TestCase {
+
+    private static ClientResponse response(byte status) {
+        return new ClientResponseImpl(status, new VoltTable[0], "", 0);
+    }
+
+    private static VoltTable onlyRow(ImporterStatsCollector stats, boolean interval) {
+        Object[][] rows = stats.getStatsRows(interval, System.currentTimeMillis());
+        assertEquals(1, rows.length);
+        ArrayList<ColumnInfo> columns = stats.getColumnSchema();
+        VoltTable table = new VoltTable(columns.toArray(new ColumnInfo[columns.size()]));
+        table.addRow(rows[0]);
+        table.advanceRow();
+        return table;
+    }
+
+    public void testBatchAccounting() throws Exception {
+        ImporterStatsCollector stats = new ImporterStatsCollector(0);
+
+        stats.reportQueued("imp", "T.insert", 250);
+        stats.reportFailure("imp", "T.insert", false, 2);
+        stats.reportBatchCompletion("imp", "T.insert", response(ClientResponse.SUCCESS), 100);
+        stats.reportBatchCompletion("imp", "T.insert", response(ClientResponse.RESPONSE_UNKNOWN), 100);
+        stats.reportBatchCompletion("imp", "T.insert", response(ClientResponse.SUCCESS), 100);
+        stats.reportBatchCompletion("imp", "T.insert", response(ClientResponse.USER_ABORT), 50);
+
+        VoltTable row = onlyRow(stats, true);
+        assertEquals(200, row.getLong(ImporterStatsCollector.SUCCESS_COUNT_COL));
+        assertEquals(52, row.getLong(ImporterStatsCollector.FAILURE_COUNT_COL));
+        assertEquals(0, row.getLong(ImporterStatsCollector.PENDING_COUNT_COL));
+        assertEquals(1, row.getLong(ImporterStatsCollector.RETRY_COUNT_COL));
+        assertEquals(3, row.getLong(ImporterStatsCollector.BATCH_COUNT_COL));
+        assertEquals(83, row.getLong(ImporterStatsCollector.ROWS_PER_BATCH_COL));
+
+        // Interval counts restart, single invocations don't count as batches
+        stats.reportQueued("imp", "T.insert");
+        stats.reportCompletion("imp", "T.insert", response(ClientResponse.SUCCESS));
+        stats.reportQueued("imp", "T.insert", 10);
+        stats.reportBatchCompletion("imp", "T.insert", response(ClientResponse.SUCCESS), 10);
+        row = onlyRow(stats, true);
+        assertEquals(11, row.getLong(ImporterStatsCollector.SUCCESS_COUNT_COL));
+        assertEquals(1, row.getLong(ImporterStatsCollector.BATCH_COUNT_COL));
+        assertEquals(10, row.getLong(ImporterStatsCollector.ROWS_PER_BATCH_COL));
+
+        row = onlyRow(stats, false);
+        assertEquals(211, row.getLong(ImporterStatsCollector.SUCCESS_COUNT_COL));
+        assertEquals(4, row.getLong(ImporterStatsCollector.BATCH_COUNT_COL));
+        assertEquals(65, row.getLong(ImporterStatsCollector.ROWS_PER_BATCH_COL));
+    }
+}
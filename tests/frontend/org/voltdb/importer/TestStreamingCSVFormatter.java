@@ -0,0 +1,172 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.importer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltType;
+import org.voltdb.importer.formatter.FormatException;
+import org.voltdb.importer.formatter.FormattedRow;
+import org.voltdb.importer.formatter.builtin.VoltCSVFormatter;
+
+import junit.framework.TestCase;
+
+public class TestStreamingCSVFormatter extends TestCase {
+
+    private static ByteBuffer buffer(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertSameAsTransform(VoltCSVFormatter formatter, String... lines) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        ByteBuffer source = buffer(sb.toString());
+        FormattedRow row = new FormattedRow();
+        for (String line : lines) {
+            assertTrue(formatter.next(source, row));
+            assertEquals(line, Arrays.asList(formatter.transform(line)), Arrays.asList(row.toArray()));
+        }
+        assertFalse(formatter.next(source, row));
+    }
+
+    public void testMatchesTransform() throws Exception {
+        VoltCSVFormatter formatter = new VoltCSVFormatter("csv", new Properties());
+        assertSameAsTransform(formatter,
+                "12,10.05,test",
+                "1,\"quoted, with separator\",3",
+                "1,\"escaped \\\"quote\\\"\",3",
+                "NULL,\\N,\"\\N\",x",
+                "",
+                "a,,b,",
+                "  leading, trailing  ",
+                "ünïcødé,の");
+
+        VoltCSVFormatter tsv = new VoltCSVFormatter("tsv", new Properties());
+        assertSameAsTransform(tsv, "12\t10.05\ttest", "a,b\t\"c\td\"");
+
+        Properties prop = new Properties();
+        prop.setProperty("separator", "の");
+        assertSameAsTransform(new VoltCSVFormatter("csv", prop), "12の10.05のtest");
+
+        prop = new Properties();
+        prop.setProperty("strictquotes", "true");
+        assertSameAsTransform(new VoltCSVFormatter("csv", prop), "\"12\",\"10.05\",\"es\"");
+    }
+
+    public void testCustomEscapeAndQuote() throws Exception {
+        // Backslashes and double quotes are plain characters here, so these lines are split in place
+        Properties prop = new Properties();
+        prop.setProperty("escape", "|");
+        prop.setProperty("quotechar", "'");
+        VoltCSVFormatter formatter = new VoltCSVFormatter("csv", prop);
+        assertSameAsTransform(formatter,
+                "1,\\N,x",
+                "\\N,\"\\N\",NULL",
+                "a\\b,\"c\"",
+                "'quoted, with separator',\\N");
+
+        FormattedRow row = new FormattedRow();
+        assertTrue(formatter.next(buffer("\\N,\"\\N\",NULL,\\Nx"), row));
+        assertEquals(Arrays.asList(null, null, null, "\\Nx"), Arrays.asList(row.toArray()));
+    }
+
+    public void testLineTerminators() throws Exception {
+        VoltCSVFormatter formatter = new VoltCSVFormatter("csv", new Properties());
+        ByteBuffer source = buffer("1,2\r\n3,4");
+        FormattedRow row = new FormattedRow();
+        assertTrue(formatter.next(source, row));
+        assertEquals(Arrays.asList("1", "2"), Arrays.asList(row.toArray()));
+        assertTrue(formatter.next(source, row));
+        assertEquals(Arrays.asList("3", "4"), Arrays.asList(row.toArray()));
+        assertFalse(formatter.next(source, row));
+    }
+
+    public void testNumbers() throws Exception {
+        VoltCSVFormatter formatter = new VoltCSVFormatter("csv", new Properties());
+        FormattedRow row = new FormattedRow();
+        assertTrue(formatter.next(buffer("42,-9223372036854775808,+7,9223372036854775808,1.5,-0.001,1e3,abc"), row));
+        assertEquals(42, row.getLong(0));
+        assertEquals(Long.MIN_VALUE, row.getLong(1));
+        assertEquals(7, row.getLong(2));
+        try {
+            row.getLong(3);
+            fail();
+        } catch (FormatException expected) {
+        }
+        assertEquals(1.5, row.getDouble(4));
+        assertEquals(-0.001, row.getDouble(5));
+        assertEquals(1000.0, row.getDouble(6));
+        assertEquals(42.0, row.getDouble(0));
+        try {
+            row.getDouble(7);
+            fail();
+        } catch (FormatException expected) {
+        }
+
+        // Fractions beyond the fast path still round exactly like Double.parseDouble
+        String[] values = { "0.1", "3.141592653589793", "123456789.123456789", "0.30000000000000004" };
+        for (String value : values) {
+            assertTrue(formatter.next(buffer(value), row));
+            assertEquals(Double.parseDouble(value), row.getDouble(0));
+        }
+    }
+
+    public void testSerializedParameters() throws Exception {
+        VoltCSVFormatter formatter = new VoltCSVFormatter("csv", new Properties());
+        FormattedRow row = new FormattedRow();
+        assertTrue(formatter.next(buffer("1,300,70000,5000000000,2.5,\"a,b\",NULL,x,999"), row));
+
+        VoltType[] types = { VoltType.TINYINT, VoltType.SMALLINT, VoltType.INTEGER, VoltType.BIGINT,
+                             VoltType.FLOAT, VoltType.STRING, VoltType.BIGINT, VoltType.INTEGER, VoltType.TINYINT };
+        ByteBuffer buf = ByteBuffer.allocate(row.getSerializedSize(types));
+        row.flattenToBuffer(buf, types);
+        assertFalse(buf.hasRemaining());
+        buf.flip();
+
+        Object[] params = ParameterSet.fromByteBuffer(buf).toArray();
+        assertEquals(9, params.length);
+        assertEquals((byte) 1, params[0]);
+        assertEquals((short) 300, params[1]);
+        assertEquals(70000, params[2]);
+        assertEquals(5000000000L, params[3]);
+        assertEquals(2.5, params[4]);
+        assertEquals("a,b", params[5]);
+        assertNull(params[6]);
+        // Values that don't parse or are out of range are left for the procedure to reject
+        assertEquals("x", params[7]);
+        assertEquals("999", params[8]);
+
+        // Without types everything is a string
+        buf = ByteBuffer.allocate(row.getSerializedSize(null));
+        row.flattenToBuffer(buf, null);
+        buf.flip();
+        assertEquals(Arrays.asList(row.toArray()), Arrays.asList(ParameterSet.fromByteBuffer(buf).toArray()));
+    }
+}
@@ -0,0 +1,114 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import org.voltdb.SiteProcedureConnection;
+import org.voltdb.StarvationTracker;
+import org.voltdb.rejoin.TaskLog;
+
+/**
+ * Manual microbenchmark comparing the LinkedTransferQueue and ring buffer
+ * SiteTaskerQueue implementations. Reports offer/take throughput and the
+ * handoff latency between offer and take for 1, 4 and 16 producer threads.
+ *
+ * Usage: SiteTaskerQueueBenchmark [tasks per run] [ring capacity]
+ */
+public class SiteTaskerQueueBenchmark {
+
+    static class TimedTask extends SiteTasker {
+        final long m_offerNanos = System.nanoTime();
+
+        @Override
+        public void run(SiteProcedureConnection siteConnection) {}
+
+        @Override
+        public void runForRejoin(SiteProcedureConnection siteConnection, TaskLog rejoinTaskLog) {}
+    }
+
+    static void runOnce(String name, final SiteTaskerQueue queue, final int producers, final int tasks)
+    throws Exception
+    {
+        queue.setStarvationTracker(new StarvationTracker(0));
+        final int perProducer = tasks / producers;
+        final int total = perProducer * producers;
+        final CyclicBarrier barrier = new CyclicBarrier(producers + 1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer(new TimedTask());
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+
+        final long[] latencies = new long[total];
+        barrier.await();
+        final long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            TimedTask task = (TimedTask) queue.take();
+            latencies[i] = System.nanoTime() - task.m_offerNanos;
+        }
+        final long elapsed = System.nanoTime() - start;
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%-24s producers=%-3d %,12.0f tasks/sec  p50=%,8dns  p99=%,10dns  max=%,12dns%n",
+                name, producers, total / (elapsed / 1000000000.0),
+                latencies[total / 2], latencies[(int) (total * 0.99)], latencies[total - 1]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        final int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 16384;
+        final int[] producerCounts = new int[] { 1, 4, 16 };
+
+        // First pass warms up the JIT, only the second one is interesting
+        for (int pass = 0; pass < 2; pass++) {
+            System.out.println(pass == 0 ? "Warmup" : "Measured");
+            for (int producers : producerCounts) {
+                runOnce("LinkedTransferQueue", new SiteTaskerQueue(0, null), producers, tasks);
+                for (SiteTaskerQueue.WaitStrategy strategy : SiteTaskerQueue.WaitStrategy.values()) {
+                    runOnce("Ring " + strategy, new SiteTaskerQueue(capacity, strategy), producers, tasks);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+import org.voltcore.utils.LongObjectHashMap;
+
+/**
+ * Manual microbenchmark for the per transaction bookkeeping SpScheduler does on a
+ * replicated partition: an outstanding transaction entry and a pending durability
+ * entry for MP fragments, and a duplicate counter consulted once per replica
+ * response. Runs the same access pattern against the boxed HashMap/TreeMap
+ * structures SpScheduler used to have and the primitive keyed ones it has now,
+ * and reports heap bytes allocated per transaction for k-safety 1 and 2.
+ *
+ * Usage: SpSchedulerMapsBenchmark [transactions per run] [transactions in flight]
+ */
+public class SpSchedulerMapsBenchmark {
+
+    // Stand-in for the DuplicateCounterKey SpScheduler allocated per lookup
+    static class LegacyKey implements Comparable<LegacyKey> {
+        final long m_txnId;
+        final long m_spHandle;
+
+        LegacyKey(long txnId, long spHandle) {
+            m_txnId = txnId;
+            m_spHandle = spHandle;
+        }
+
+        @Override
+        public int compareTo(LegacyKey o) {
+            if (m_txnId != o.m_txnId) {
+                return m_txnId < o.m_txnId ? -1 : 1;
+            }
+            return Long.compare(m_spHandle, o.m_spHandle);
+        }
+    }
+
+    interface Bookkeeping {
+        void begin(long txnId, long spHandle, boolean mp);
+        void response(long txnId, long spHandle);
+        void end(long txnId, long spHandle, boolean mp);
+    }
+
+    static class Legacy implements Bookkeeping {
+        final Map<Long, Object> m_outstandingTxns = new HashMap<Long, Object>();
+        final Map<LegacyKey, Object> m_duplicateCounters = new TreeMap<LegacyKey, Object>();
+        final Map<Long, Queue<Object>> m_mpsPendingDurability = new HashMap<Long, Queue<Object>>();
+        final Object m_value = new Object();
+
+        @Override
+        public void begin(long txnId, long spHandle, boolean mp) {
+            if (mp) {
+                m_outstandingTxns.get(txnId);
+                m_outstandingTxns.put(txnId, m_value);
+                m_mpsPendingDurability.put(txnId, new ArrayDeque<Object>());
+            }
+            if (m_duplicateCounters.get(new LegacyKey(txnId, spHandle)) == null) {
+                m_duplicateCounters.put(new LegacyKey(txnId, spHandle), m_value);
+            }
+        }
+
+        @Override
+        public void response(long txnId, long spHandle) {
+            m_duplicateCounters.get(new LegacyKey(txnId, spHandle));
+            m_outstandingTxns.get(txnId);
+        }
+
+        @Override
+        public void end(long txnId, long spHandle, boolean mp) {
+            m_duplicateCounters.remove(new LegacyKey(txnId, spHandle));
+            if (mp) {
+                m_mpsPendingDurability.remove(txnId);
+                m_outstandingTxns.remove(txnId);
+            }
+        }
+    }
+
+    static class Primitive implements Bookkeeping {
+        final LongObjectHashMap<Object> m_outstandingTxns = new LongObjectHashMap<Object>(1024);
+        final DuplicateCounterMap m_duplicateCounters = new DuplicateCounterMap();
+        final LongObjectHashMap<Queue<Object>> m_mpsPendingDurability = new LongObjectHashMap<Queue<Object>>();
+        // Emptied pending durability queues are reused the way SpScheduler does
+        final ArrayDeque<Queue<Object>> m_freeQueues = new ArrayDeque<Queue<Object>>();
+        final Object m_value = new Object();
+        final DuplicateCounter m_counter = new DuplicateCounter(0, 0, new ArrayList<Long>(), null);
+
+        @Override
+        public void begin(long txnId, long spHandle, boolean mp) {
+            if (mp) {
+                m_outstandingTxns.get(txnId);
+                m_outstandingTxns.put(txnId, m_value);
+                Queue<Object> pending = m_freeQueues.poll();
+                if (pending == null) {
+                    pending = new ArrayDeque<Object>();
+                }
+                m_mpsPendingDurability.put(txnId, pending);
+            }
+            if (m_duplicateCounters.get(txnId, spHandle) == null) {
+                m_duplicateCounters.put(txnId, spHandle, m_counter);
+            }
+        }
+
+        @Override
+        public void response(long txnId, long spHandle) {
+            m_duplicateCounters.get(txnId, spHandle);
+            m_outstandingTxns.get(txnId);
+        }
+
+        @Override
+        public void end(long txnId, long spHandle, boolean mp) {
+            m_duplicateCounters.remove(txnId, spHandle);
+            if (mp) {
+                final Queue<Object> pending = m_mpsPendingDurability.get(txnId);
+                m_mpsPendingDurability.remove(txnId);
+                pending.clear();
+                if (m_freeQueues.size() < 16) {
+                    m_freeQueues.offer(pending);
+                }
+                m_outstandingTxns.remove(txnId);
+            }
+        }
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /*
+     * Transactions start in txnId order and finish inflight transactions later, each
+     * gets a response from every copy of the partition in between.
+     */
+    static void run(Bookkeeping bk, int txns, int inflight, int kfactor, boolean mp) {
+        // Successive TxnEgos for one partition, without allocating one per txn
+        final long firstTxnId = TxnEgo.makeZero(3).makeNext().getTxnId();
+        final long txnIds[] = new long[inflight];
+        for (int ii = 0; ii < txns + inflight; ii++) {
+            final int slot = ii % inflight;
+            if (ii >= inflight) {
+                final long old = txnIds[slot];
+                for (int r = 0; r <= kfactor; r++) {
+                    bk.response(old, old);
+                }
+                bk.end(old, old, mp);
+            }
+            if (ii < txns) {
+                txnIds[slot] = firstTxnId + ((long)ii << TxnEgo.PARTITIONID_BITS);
+                bk.begin(txnIds[slot], txnIds[slot], mp);
+            }
+        }
+    }
+
+    static void measure(String name, Bookkeeping bk, int txns, int inflight, int kfactor, boolean mp) {
+        // Warm up so the JIT and table sizes settle
+        run(bk, txns, inflight, kfactor, mp);
+        final long start = allocatedBytes();
+        final long startNanos = System.nanoTime();
+        run(bk, txns, inflight, kfactor, mp);
+        final long nanos = System.nanoTime() - startNanos;
+        final long bytes = allocatedBytes() - start;
+        System.out.printf("%-10s k=%d %s: %8.1f bytes/txn %8.1f ns/txn%n",
+                name, kfactor, mp ? "MP" : "SP", (double)bytes / txns, (double)nanos / txns);
+    }
+
+    public static void main(String[] args) {
+        final int txns = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        final int inflight = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        for (int kfactor = 1; kfactor <= 2; kfactor++) {
+            for (boolean mp : new boolean[] { false, true }) {
+                measure("boxed", new Legacy(), txns, inflight, kfactor, mp);
+                measure("primitive", new Primitive(), txns, inflight, kfactor, mp);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class TestDuplicateCounterMap extends TestCase {
+
+    public void testOrderedByTxnIdThenSpHandle() {
+        final Random r = new Random(0);
+        DuplicateCounterMap map = new DuplicateCounterMap();
+        List<Long> txnIds = new ArrayList<Long>();
+        for (long ii = 0; ii < 500; ii++) {
+            txnIds.add(ii);
+        }
+        Collections.shuffle(txnIds, r);
+        for (long txnId : txnIds) {
+            // Two counters per txn, spHandle descending relative to insertion
+            assertNull(map.put(txnId, 2, mock(DuplicateCounter.class)));
+            assertNull(map.put(txnId, 1, mock(DuplicateCounter.class)));
+        }
+        assertEquals(1000, map.size());
+        for (int ii = 0; ii < map.size(); ii++) {
+            assertEquals(ii / 2, map.txnIdAt(ii));
+            assertEquals(ii % 2 + 1, map.spHandleAt(ii));
+        }
+
+        DuplicateCounter counter = map.get(42, 2);
+        assertNotNull(counter);
+        assertNull(map.get(42, 3));
+        assertSame(counter, map.remove(42, 2));
+        assertNull(map.remove(42, 2));
+        assertNull(map.get(42, 2));
+        assertNotNull(map.get(42, 1));
+        assertEquals(999, map.size());
+        assertEquals(43, map.txnIdAt(86));
+
+        DuplicateCounter replacement = mock(DuplicateCounter.class);
+        DuplicateCounter old = map.get(499, 2);
+        assertSame(old, map.put(499, 2, replacement));
+        assertSame(replacement, map.get(499, 2));
+        assertEquals(999, map.size());
+    }
+
+    /*
+     * Mostly in order adds and oldest first removes, like SpScheduler, mixed with
+     * random ones, checked against a TreeMap after every operation.
+     */
+    public void testRandomAgainstTreeMap() {
+        final long seed = System.nanoTime();
+        final Random r = new Random(seed);
+        final DuplicateCounter counters[] = new DuplicateCounter[4];
+        for (int ii = 0; ii < counters.length; ii++) {
+            counters[ii] = mock(DuplicateCounter.class);
+        }
+        DuplicateCounterMap map = new DuplicateCounterMap();
+        TreeMap<Long, DuplicateCounter> expected = new TreeMap<Long, DuplicateCounter>();
+        long nextTxnId = 0;
+        for (int ii = 0; ii < 100000; ii++) {
+            final int op = r.nextInt(4);
+            final long txnId;
+            final long spHandle = r.nextInt(4);
+            if (op == 0 && !expected.isEmpty()) {
+                final long oldest = expected.firstKey();
+                assertSame("Seed " + seed, expected.remove(oldest), map.remove(oldest / 4, oldest % 4));
+            } else if (op == 1) {
+                txnId = nextTxnId++;
+                final DuplicateCounter counter = counters[r.nextInt(counters.length)];
+                assertSame("Seed " + seed, expected.put(txnId * 4 + spHandle, counter),
+                        map.put(txnId, spHandle, counter));
+            } else if (op == 2) {
+                txnId = r.nextInt((int)nextTxnId + 1);
+                assertSame("Seed " + seed, expected.remove(txnId * 4 + spHandle), map.remove(txnId, spHandle));
+            } else {
+                txnId = r.nextInt((int)nextTxnId + 1);
+                final DuplicateCounter counter = counters[r.nextInt(counters.length)];
+                assertSame("Seed " + seed, expected.put(txnId * 4 + spHandle, counter),
+                        map.put(txnId, spHandle, counter));
+            }
+            assertEquals("Seed " + seed, expected.size(), map.size());
+        }
+        int index = 0;
+        for (Map.Entry<Long, DuplicateCounter> e : expected.entrySet()) {
+            assertEquals(e.getKey() / 4, map.txnIdAt(index));
+            assertEquals(e.getKey() % 4, map.spHandleAt(index));
+            assertSame(e.getValue(), map.counterAt(index));
+            assertSame(e.getValue(), map.get(e.getKey() / 4, e.getKey() % 4));
+            index++;
+        }
+    }
+}
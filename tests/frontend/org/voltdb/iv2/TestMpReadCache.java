@@ -0,0 +1,130 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import junit.framework.TestCase;
+
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+import org.voltdb.client.ClientResponse;
+
+public class TestMpReadCache extends TestCase
+{
+    private static final String[] TABLES = new String[] { "T_READ_CACHE" };
+
+    private static ClientResponseImpl response(long value)
+    {
+        VoltTable table = new VoltTable(new ColumnInfo("C", VoltType.BIGINT));
+        table.addRow(value);
+        return new ClientResponseImpl(ClientResponse.SUCCESS, new VoltTable[] { table }, null);
+    }
+
+    private static MpReadCache.Key key(String proc, int param)
+    {
+        return new MpReadCache.Key(proc, new byte[] { (byte) param });
+    }
+
+    private static void fill(MpReadCache cache, long txnId, MpReadCache.Key key, long value)
+    {
+        cache.beginFill(txnId, key, TABLES);
+        cache.completeFill(txnId, response(value));
+    }
+
+    public void testHitReturnsCopy()
+    {
+        MpReadCache cache = new MpReadCache(10, 1024 * 1024, 60000);
+        assertNull(cache.get(key("Proc", 1)));
+        fill(cache, 1, key("Proc", 1), 42);
+
+        ClientResponseImpl first = cache.get(key("Proc", 1));
+        assertNotNull(first);
+        assertEquals(42, first.getResults()[0].asScalarLong());
+        ClientResponseImpl second = cache.get(key("Proc", 1));
+        assertNotSame(first, second);
+        assertNotSame(first.getResults()[0], second.getResults()[0]);
+
+        assertNull(cache.get(key("Proc", 2)));
+        assertNull(cache.get(key("Other", 1)));
+        assertEquals(2, cache.m_hits.get());
+        assertEquals(3, cache.m_misses.get());
+    }
+
+    public void testWriteInvalidates()
+    {
+        MpReadCache cache = new MpReadCache(10, 1024 * 1024, 60000);
+        fill(cache, 1, key("Proc", 1), 42);
+        TableWriteVersions.bumpAll();
+        assertNull(cache.get(key("Proc", 1)));
+        assertEquals(1, cache.m_invalidations.get());
+        assertEquals(0, cache.m_entryCount);
+    }
+
+    public void testWriteDuringFillIsNotCached()
+    {
+        MpReadCache cache = new MpReadCache(10, 1024 * 1024, 60000);
+        cache.beginFill(1, key("Proc", 1), TABLES);
+        TableWriteVersions.bumpAll();
+        cache.completeFill(1, response(42));
+        assertNull(cache.get(key("Proc", 1)));
+
+        // Nor are failures
+        cache.beginFill(2, key("Proc", 1), TABLES);
+        cache.completeFill(2, null);
+        assertNull(cache.get(key("Proc", 1)));
+        assertEquals(0, cache.m_entryCount);
+    }
+
+    public void testTtl() throws Exception
+    {
+        MpReadCache cache = new MpReadCache(10, 1024 * 1024, 5);
+        fill(cache, 1, key("Proc", 1), 42);
+        Thread.sleep(20);
+        assertNull(cache.get(key("Proc", 1)));
+        assertEquals(1, cache.m_expirations.get());
+    }
+
+    public void testBounds()
+    {
+        MpReadCache cache = new MpReadCache(2, 1024 * 1024, 60000);
+        fill(cache, 1, key("Proc", 1), 1);
+        fill(cache, 2, key("Proc", 2), 2);
+        // Touch 1 so 2 is the least recently used
+        assertNotNull(cache.get(key("Proc", 1)));
+        fill(cache, 3, key("Proc", 3), 3);
+        assertEquals(2, cache.m_entryCount);
+        assertEquals(1, cache.m_evictions.get());
+        assertNull(cache.get(key("Proc", 2)));
+        assertNotNull(cache.get(key("Proc", 1)));
+
+        cache.clear();
+        assertEquals(0, cache.m_bytes.get());
+
+        // An entry bigger than the byte bound is never kept
+        MpReadCache tiny = new MpReadCache(10, 16, 60000);
+        fill(tiny, 1, key("Proc", 1), 1);
+        assertEquals(0, tiny.m_entryCount);
+    }
+}
@@ -0,0 +1,169 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.iv2;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.voltdb.CommandLog;
+import org.voltdb.MockVoltDB;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.TheHashinator;
+import org.voltdb.VoltDB;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+
+import com.google_voltpatches.common.collect.Sets;
+
+public class TestMpSchedulerNPartition extends TestCase
+{
+    MockVoltDB m_volt;
+    MpScheduler m_scheduler;
+
+    @Override
+    public void setUp()
+    {
+        m_volt = new MockVoltDB();
+        VoltDB.replaceVoltDBInstanceForTest(m_volt);
+        TheHashinator.initialize(TheHashinator.getConfiguredHashinatorClass(), TheHashinator.getConfigureBytes(8));
+
+        addProcedure("Transfer", false, VoltType.BIGINT, VoltType.BIGINT, VoltType.FLOAT);
+        addProcedure("ByName", false, VoltType.STRING, VoltType.STRING);
+        m_volt.addTable("ACCOUNTS", false);
+        m_volt.addColumnToTable("ACCOUNTS", "ID", VoltType.BIGINT, false, "", VoltType.BIGINT);
+        Procedure single = addProcedure("Single", true, VoltType.BIGINT);
+        single.setPartitiontable(m_volt.getTable("ACCOUNTS"));
+        single.setPartitioncolumn(m_volt.getTable("ACCOUNTS").getColumns().get("ID"));
+        single.setPartitionparameter(0);
+        Procedure array = addProcedure("Batch", false, VoltType.BIGINT);
+        array.getParameters().get("param0").setIsarray(true);
+        Procedure replicated = addProcedure("Replicate", false, VoltType.BIGINT);
+        Statement stmt = replicated.getStatements().add("stmt");
+        stmt.setReadonly(false);
+        stmt.setReplicatedtabledml(true);
+
+        m_scheduler = new MpScheduler(MpInitiator.MP_INIT_PID, new ArrayList<Long>(), new SiteTaskerQueue());
+        m_scheduler.setNPartitionProceduresForTestOnly(MpScheduler.parseNpProcedures(
+                "Transfer:0,1;ByAmount:2;ByName:0,1;Single:0;Batch:0;Replicate:0;Missing:0"));
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        m_volt.shutdown(null);
+    }
+
+    private Procedure addProcedure(String name, boolean singlePartition, VoltType... types)
+    {
+        Procedure proc = m_volt.addProcedureForTest(name);
+        proc.setSinglepartition(singlePartition);
+        for (int i = 0; i < types.length; i++) {
+            ProcParameter param = proc.getParameters().add("param" + i);
+            param.setIndex(i);
+            param.setType(types[i].getValue());
+            param.setIsarray(false);
+        }
+        return proc;
+    }
+
+    private Set<Integer> route(String procName, Object... params)
+    {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setProcName(procName);
+        spi.setParams(params);
+        Iv2InitiateTaskMessage msg = new Iv2InitiateTaskMessage(1, 2, Long.MIN_VALUE, 3, 4, false, false,
+                spi, 5, 6, false);
+        return m_scheduler.getInvolvedPartitions(msg);
+    }
+
+    private static int partitionOf(VoltType type, Object value)
+    {
+        return TheHashinator.getPartitionForParameter(type, value);
+    }
+
+    public void testHashesDeclaredTypes()
+    {
+        Set<Integer> expected = Sets.newHashSet(partitionOf(VoltType.BIGINT, 5L), partitionOf(VoltType.BIGINT, 7L));
+        assertEquals(expected, route("Transfer", 5L, 7L, 1.0));
+        // The procedure sees BIGINTs whatever the client sent, so they must hash the same
+        assertEquals(expected, route("Transfer", 5, (short) 7, 1.0));
+        assertEquals(expected, route("Transfer", "5", "7", 1.0));
+        assertEquals(Sets.newHashSet(partitionOf(VoltType.STRING, "a"), partitionOf(VoltType.STRING, "b")),
+                route("ByName", "a", "b"));
+    }
+
+    public void testConversionFailuresRunAsMp()
+    {
+        assertNull(route("Transfer", "five", 7L, 1.0));
+        assertNull(route("Transfer", 1.5, 7L, 1.0));
+        assertNull(route("Transfer", new long[] { 5 }, 7L, 1.0));
+        assertNull(route("Transfer", null, 7L, 1.0));
+        assertNull(route("Transfer", 5L));
+        // FLOAT isn't a partitioning type
+        m_scheduler.setNPartitionProceduresForTestOnly(MpScheduler.parseNpProcedures("Transfer:2"));
+        assertNull(route("Transfer", 5L, 7L, 1.0));
+        assertNull(route("Batch", new long[] { 1, 2 }));
+    }
+
+    public void testIneligibleProceduresRunAsMp()
+    {
+        assertNull(route("Single", 1L));
+        assertNull(route("Replicate", 1L));
+        assertNull(route("Missing", 1L));
+        assertNull(route("ByAmount", 1L, 2L, 3L));
+    }
+
+    public void testNotWithCommandLogging()
+    {
+        assertNotNull(route("Transfer", 5L, 7L, 1.0));
+        CommandLog cl = mock(CommandLog.class);
+        doReturn(true).when(cl).isEnabled();
+        m_scheduler.setCommandLog(cl);
+        // Replay could miss a write that skips the partitions of the MPI's host
+        assertNull(route("Transfer", 5L, 7L, 1.0));
+
+        doReturn(false).when(cl).isEnabled();
+        m_scheduler.setCommandLog(cl);
+        assertNotNull(route("Transfer", 5L, 7L, 1.0));
+    }
+
+    public void testParseNpProcedures()
+    {
+        Map<String, int[]> procs = MpScheduler.parseNpProcedures("Transfer:0,2; Audit : 1;Bad:x;Neg:-1;NoIndexes;");
+        assertEquals(2, procs.size());
+        assertEquals(2, procs.get("Transfer").length);
+        assertEquals(0, procs.get("Transfer")[0]);
+        assertEquals(2, procs.get("Transfer")[1]);
+        assertEquals(1, procs.get("Audit")[0]);
+        assertTrue(MpScheduler.parseNpProcedures("").isEmpty());
+    }
+}
@@ -0,0 +1,87 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import junit.framework.TestCase;
+
+import org.voltdb.VoltTable;
+
+public class TestMpTransactionStats extends TestCase
+{
+    private static VoltTable poll(MpTransactionStats stats, boolean interval)
+    {
+        VoltTable table = new VoltTable(stats.getColumnSchema().toArray(new VoltTable.ColumnInfo[0]));
+        for (Object[] row : stats.getStatsRows(interval, System.currentTimeMillis())) {
+            table.addRow(row);
+        }
+        return table;
+    }
+
+    private static VoltTable findRow(VoltTable table, String type)
+    {
+        table.resetRowPosition();
+        while (table.advanceRow()) {
+            if (type.equals(table.getString("TRANSACTION_TYPE"))) {
+                return table;
+            }
+        }
+        fail("No " + type + " row");
+        return null;
+    }
+
+    public void testSeparateRowsForMpAndNp()
+    {
+        MpTransactionStats stats = new MpTransactionStats();
+        stats.recordCompletion(false, 8, 2000000, true);
+        stats.recordCompletion(true, 2, 500000, true);
+        stats.recordCompletion(true, 3, 700000, false);
+
+        VoltTable table = poll(stats, false);
+        assertEquals(2, table.getRowCount());
+
+        VoltTable mp = findRow(table, MpTransactionStats.MP);
+        assertEquals(1, mp.getLong("INVOCATIONS"));
+        assertEquals(0, mp.getLong("ABORTS"));
+        assertEquals(8.0, mp.getDouble("AVG_PARTITIONS"), 0.001);
+        // findRow moves the cursor of the same table, keep what is compared later
+        final long mpLatencyMax = mp.getLong("LATENCY_MAX");
+        assertTrue(mpLatencyMax >= 1900);
+
+        VoltTable np = findRow(table, MpTransactionStats.NP);
+        assertEquals(2, np.getLong("INVOCATIONS"));
+        assertEquals(1, np.getLong("ABORTS"));
+        assertEquals(2.5, np.getDouble("AVG_PARTITIONS"), 0.001);
+        assertTrue(np.getLong("LATENCY_MAX") < mpLatencyMax);
+    }
+
+    public void testIntervalTps()
+    {
+        MpTransactionStats stats = new MpTransactionStats();
+        stats.recordCompletion(true, 2, 1000, true);
+        assertTrue(findRow(poll(stats, true), MpTransactionStats.NP).getDouble("TPS") > 0.0);
+        // Nothing completed since the last interval
+        assertEquals(0.0, findRow(poll(stats, true), MpTransactionStats.NP).getDouble("TPS"), 0.0);
+        assertEquals(1, findRow(poll(stats, false), MpTransactionStats.NP).getLong("INVOCATIONS"));
+    }
+}
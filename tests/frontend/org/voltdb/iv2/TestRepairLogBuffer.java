@@ -0,0 +1,202 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.TheHashinator;
+import org.voltdb.TheHashinator.HashinatorType;
+import org.voltdb.messaging.CompleteTransactionMessage;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.messaging.Iv2RepairLogResponseMessage;
+
+public class TestRepairLogBuffer
+{
+    @BeforeClass
+    static public void initializeHashinator() {
+        TheHashinator.setConfiguredHashinatorType(HashinatorType.ELASTIC);
+        TheHashinator.initialize(TheHashinator.getConfiguredHashinatorClass(), TheHashinator.getConfigureBytes(8));
+    }
+
+    static Iv2InitiateTaskMessage initiate(long truncPt, long spHandle, String payload)
+    {
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation();
+        invocation.setProcName("Proc");
+        invocation.setParams(spHandle, payload);
+        Iv2InitiateTaskMessage msg =
+            new Iv2InitiateTaskMessage(1, 2, truncPt, spHandle, spHandle, false, true, invocation, 3, 4, false);
+        msg.setSpHandle(spHandle);
+        msg.m_sourceHSId = 5;
+        return msg;
+    }
+
+    static CompleteTransactionMessage complete(long truncPt, long txnId, long spHandle)
+    {
+        CompleteTransactionMessage msg = new CompleteTransactionMessage(1, 2, txnId, false, 0, false, false, false, false);
+        msg.setSpHandle(spHandle);
+        msg.setTruncationHandle(truncPt);
+        return msg;
+    }
+
+    static String payload(Random rand)
+    {
+        StringBuilder sb = new StringBuilder();
+        final int len = rand.nextInt(2000);
+        for (int i = 0; i < len; i++) {
+            sb.append((char)('a' + rand.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testContentsAreDeserialized()
+    {
+        final long baseline = RepairLog.getTotalBytes();
+        RepairLog rl = new RepairLog(true);
+        rl.deliver(initiate(Long.MIN_VALUE, 10L, "first"));
+        rl.deliver(complete(Long.MIN_VALUE, 1000L, 11L));
+        rl.deliver(initiate(Long.MIN_VALUE, 12L, "second"));
+        assertTrue(RepairLog.getTotalBytes() > baseline);
+
+        List<Iv2RepairLogResponseMessage> contents = rl.contents(1L, false);
+        assertEquals(4, contents.size());
+        Iv2InitiateTaskMessage first = (Iv2InitiateTaskMessage)contents.get(1).getPayload();
+        assertEquals(10L, first.getSpHandle());
+        assertEquals(5L, first.m_sourceHSId);
+        assertEquals("first", first.getStoredProcedureInvocation().getParams().toArray()[1]);
+        CompleteTransactionMessage ctm = (CompleteTransactionMessage)contents.get(2).getPayload();
+        assertEquals(1000L, ctm.getTxnId());
+        assertEquals(1000L, contents.get(2).getTxnId());
+        assertEquals(12L, contents.get(3).getHandle());
+
+        // the MPI only gets the MP log
+        assertEquals(2, rl.contents(1L, true).size());
+
+        // truncating the SP log gives its bytes back
+        rl.deliver(initiate(12L, 13L, "third"));
+        contents = rl.contents(1L, false);
+        assertEquals(3, contents.size());
+        assertEquals(13L, contents.get(2).getHandle());
+
+        rl.shutdown();
+        assertEquals(baseline, RepairLog.getTotalBytes());
+    }
+
+    @Test
+    public void testWrapGrowAndShrink()
+    {
+        final long baseline = RepairLog.getTotalBytes();
+        final Random rand = new Random();
+        final RepairLogBuffer buffer = new RepairLogBuffer();
+        final ArrayDeque<Iv2InitiateTaskMessage> expected = new ArrayDeque<Iv2InitiateTaskMessage>();
+        long spHandle = 0;
+        int maxCapacity = 0;
+        for (int round = 0; round < 5000; round++) {
+            // Grow the log for a while, then drain it down again
+            final boolean adding = (round / 500) % 2 == 0 ? rand.nextInt(4) != 0 : rand.nextInt(4) == 0;
+            if (adding || expected.isEmpty()) {
+                Iv2InitiateTaskMessage msg = initiate(Long.MIN_VALUE, ++spHandle, payload(rand));
+                buffer.add(true, msg, msg.getSpHandle(), msg.getTxnId());
+                expected.add(msg);
+            } else {
+                assertEquals(expected.poll().getSpHandle(), buffer.firstHandle());
+                buffer.removeFirst();
+            }
+            maxCapacity = Math.max(maxCapacity, buffer.capacity());
+            assertEquals(expected.size(), buffer.size());
+            if (!expected.isEmpty()) {
+                assertEquals(expected.peekLast().getSpHandle(), buffer.lastHandle());
+            }
+            assertEquals(baseline + buffer.bytesUsed(), RepairLog.getTotalBytes());
+
+            if (round % 250 == 0) {
+                List<RepairLog.Item> items = new ArrayList<RepairLog.Item>();
+                buffer.addItemsTo(items);
+                assertEquals(expected.size(), items.size());
+                int i = 0;
+                for (Iv2InitiateTaskMessage msg : expected) {
+                    RepairLog.Item item = items.get(i++);
+                    assertTrue(item.isSP());
+                    Iv2InitiateTaskMessage copy = (Iv2InitiateTaskMessage)item.getMessage();
+                    assertEquals(msg.getSpHandle(), item.getHandle());
+                    assertEquals(msg.getSpHandle(), copy.getSpHandle());
+                    assertEquals(msg.getStoredProcedureInvocation().getParams().toArray()[1],
+                                 copy.getStoredProcedureInvocation().getParams().toArray()[1]);
+                }
+            }
+        }
+        assertTrue(maxCapacity > RepairLogBuffer.INITIAL_CAPACITY);
+
+        while (!buffer.isEmpty()) {
+            buffer.removeFirst();
+        }
+        // An empty log holds no memory
+        assertEquals(0, buffer.capacity());
+        assertEquals(baseline, RepairLog.getTotalBytes());
+    }
+
+    @Test
+    public void testBackpressureListener()
+    {
+        final boolean[] backpressure = new boolean[1];
+        RepairLog.BackpressureListener listener = new RepairLog.BackpressureListener() {
+            @Override
+            public void onBackpressure() {
+                backpressure[0] = true;
+            }
+
+            @Override
+            public void offBackpressure() {
+                backpressure[0] = false;
+            }
+        };
+        RepairLog.addBackpressureListener(listener);
+        try {
+            final long over = RepairLog.MAX_BYTES + 1 - RepairLog.getTotalBytes();
+            RepairLog.updateTotalBytes(over);
+            assertTrue(backpressure[0]);
+            assertTrue(RepairLog.hasBackpressure());
+
+            // Still above the low water mark
+            RepairLog.updateTotalBytes(-over / 10);
+            assertTrue(RepairLog.hasBackpressure());
+
+            RepairLog.updateTotalBytes(-over + over / 10);
+            assertFalse(backpressure[0]);
+            assertFalse(RepairLog.hasBackpressure());
+        } finally {
+            RepairLog.removeBackpressureListener(listener);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.voltcore.utils.MpscArrayQueue;
+import org.voltdb.SiteProcedureConnection;
+import org.voltdb.StarvationTracker;
+import org.voltdb.rejoin.TaskLog;
+
+public class TestSiteTaskerQueue {
+
+    static class NumberedTask extends SiteTasker {
+        final int m_producer;
+        final int m_seq;
+
+        NumberedTask(int producer, int seq) {
+            m_producer = producer;
+            m_seq = seq;
+        }
+
+        @Override
+        public void run(SiteProcedureConnection siteConnection) {}
+
+        @Override
+        public void runForRejoin(SiteProcedureConnection siteConnection, TaskLog rejoinTaskLog) {}
+    }
+
+    private static SiteTaskerQueue makeQueue(int capacity, SiteTaskerQueue.WaitStrategy strategy) {
+        SiteTaskerQueue queue = new SiteTaskerQueue(capacity, strategy);
+        queue.setStarvationTracker(new StarvationTracker(0));
+        return queue;
+    }
+
+    @Test
+    public void testMpscArrayQueueBounds() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(3);
+        assertEquals(4, queue.capacity());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        assertEquals(Integer.valueOf(0), queue.peek());
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRingOverflowKeepsOrder() throws Exception {
+        SiteTaskerQueue queue = makeQueue(4, SiteTaskerQueue.WaitStrategy.SPIN_PARK);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(new NumberedTask(0, i)));
+        }
+        assertEquals(0, ((NumberedTask) queue.peek()).m_seq);
+        // Room frees up in the ring, but later offers must still queue behind the overflow
+        assertEquals(0, ((NumberedTask) queue.take()).m_seq);
+        queue.offer(new NumberedTask(0, 10));
+        for (int i = 1; i <= 10; i++) {
+            assertFalse(queue.isEmpty());
+            assertEquals(i, ((NumberedTask) queue.poll()).m_seq);
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testDrainTo() throws Exception {
+        for (int capacity : new int[] { 0, 4 }) {
+            SiteTaskerQueue queue = makeQueue(capacity, SiteTaskerQueue.WaitStrategy.SPIN_PARK);
+            for (int i = 0; i < 7; i++) {
+                queue.offer(new NumberedTask(0, i));
+            }
+            SiteTasker[] batch = new SiteTasker[5];
+            assertEquals(3, queue.drainTo(batch, 3));
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i, ((NumberedTask) batch[i]).m_seq);
+            }
+            assertNull(batch[3]);
+            assertEquals(4, queue.drainTo(batch, 5));
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i + 3, ((NumberedTask) batch[i]).m_seq);
+            }
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void testTakeWakesFromPark() throws Exception {
+        final SiteTaskerQueue queue = makeQueue(16, SiteTaskerQueue.WaitStrategy.SPIN_PARK);
+        final NumberedTask task = new NumberedTask(0, 0);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignore) {}
+                queue.offer(task);
+            }
+        };
+        producer.start();
+        assertSame(task, queue.take());
+        producer.join();
+    }
+
+    @Test
+    public void testMultipleProducersPreserveProducerOrder() throws Exception {
+        for (SiteTaskerQueue.WaitStrategy strategy : SiteTaskerQueue.WaitStrategy.values()) {
+            final int producers = 4;
+            final int perProducer = 20000;
+            // Small ring so the overflow path gets exercised too
+            final SiteTaskerQueue queue = makeQueue(64, strategy);
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int p = 0; p < producers; p++) {
+                final int producer = p;
+                Thread t = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.offer(new NumberedTask(producer, i));
+                        }
+                    }
+                };
+                t.start();
+                threads.add(t);
+            }
+            start.countDown();
+
+            int[] next = new int[producers];
+            for (int i = 0; i < producers * perProducer; i++) {
+                NumberedTask task = (NumberedTask) queue.take();
+                assertEquals(next[task.m_producer]++, task.m_seq);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertTrue(queue.isEmpty());
+        }
+    }
+}
@@ -25,6 +25,7 @@ package org.voltdb.messaging;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
@@ -39,6 +40,8 @@ import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.exceptions.EEException;
+import org.voltdb.rejoin.RejoinDataMessage;
+import org.voltdb.utils.CompressionService;
 
 import com.google_voltpatches.common.collect.Sets;
 
@@ -458,6 +461,22 @@ public class TestVoltMessageSerialization extends TestCase {
         assertEquals(r1.getHashinatorVersionedConfig().getFirst(),new Long(2));
     }
 
+    public void testRejoinDataMessage() throws Exception
+    {
+        byte[] data = CompressionService.compressBytes(CompressionService.Codec.LZ4, new byte[] {1, 2, 3, 4}, 0, 4);
+        RejoinDataMessage r1 = new RejoinDataMessage(55, CompressionService.Codec.LZ4, data);
+        RejoinDataMessage r2 = (RejoinDataMessage)checkVoltMessage(r1);
+        assertEquals(55, r2.getTargetId());
+        assertEquals(CompressionService.Codec.LZ4, r2.getCodec());
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3, 4},
+                CompressionService.decompressBytes(r2.getCodec(), r2.getData())));
+
+        // Senders that don't pick a codec use Snappy
+        r2 = (RejoinDataMessage)checkVoltMessage(new RejoinDataMessage(55, new byte[] {5}));
+        assertEquals(CompressionService.Codec.SNAPPY, r2.getCodec());
+        assertTrue(Arrays.equals(new byte[] {5}, r2.getData()));
+    }
+
     public void testInvalidTableCount() throws Exception
     {
         int size = 1 // version
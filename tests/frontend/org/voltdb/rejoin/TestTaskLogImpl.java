@@ -0,0 +1,158 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.rejoin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.messaging.TransactionInfoBaseMessage;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.messaging.CompleteTransactionMessage;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.utils.VoltFile;
+
+public class TestTaskLogImpl {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name") + "/tasklog_test");
+    private static final String PADDING = new String(new char[1000]).replace('\0', 'x');
+
+    private TaskLogImpl m_log;
+
+    @Before
+    public void setUp() throws Exception {
+        VoltFile.recursivelyDelete(TEST_DIR);
+        m_log = new TaskLogImpl(3, TEST_DIR);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_log.close();
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    private static Iv2InitiateTaskMessage initiate(long spHandle) {
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation();
+        invocation.setProcName("Proc");
+        invocation.setParams(spHandle, PADDING);
+        Iv2InitiateTaskMessage msg = new Iv2InitiateTaskMessage(0, 0, 0, spHandle, spHandle, false, true,
+                                                                invocation, 0, 0, false);
+        msg.setSpHandle(spHandle);
+        return msg;
+    }
+
+    private void assertNextInitiate(long spHandle) throws Exception {
+        assertFalse(m_log.isEmpty());
+        TransactionInfoBaseMessage msg = m_log.getNextMessage();
+        assertTrue(msg instanceof Iv2InitiateTaskMessage);
+        assertEquals(spHandle, msg.getSpHandle());
+        Object[] params = ((Iv2InitiateTaskMessage) msg).getParameters();
+        assertEquals(spHandle, ((Number) params[0]).longValue());
+        assertEquals(PADDING, params[1]);
+    }
+
+    @Test
+    public void testDropsUntilRecording() throws Exception {
+        m_log.logTask(initiate(1));
+        assertTrue(m_log.isEmpty());
+        assertNull(m_log.getNextMessage());
+
+        m_log.enableRecording(2);
+        m_log.logTask(initiate(1));
+        m_log.logTask(initiate(2));
+        m_log.logTask(initiate(3));
+        assertNextInitiate(2);
+        assertNextInitiate(3);
+        assertTrue(m_log.isEmpty());
+        assertNull(m_log.getNextMessage());
+    }
+
+    @Test
+    public void testReplayInOrderAcrossSpooledBuffers() throws Exception {
+        m_log.enableRecording(0);
+        // Several buffers worth of messages, so most of them are read back from disk
+        final int count = TaskLogImpl.BUFFER_SIZE / PADDING.length() * 4;
+        for (int i = 1; i <= count; i++) {
+            m_log.logTask(initiate(i));
+        }
+        CompleteTransactionMessage complete = new CompleteTransactionMessage(0, 0, 100, false, 0, false,
+                                                                             false, false, false);
+        complete.setSpHandle(count + 1);
+        m_log.logTask(complete);
+        assertTrue(m_log.sizeInBytes() > TaskLogImpl.BUFFER_SIZE);
+        assertTrue(TEST_DIR.list().length > 0);
+
+        // Keep logging while replaying, the way the site does
+        for (int i = 1; i <= count; i++) {
+            assertNextInitiate(i);
+            if (i % 100 == 0) {
+                m_log.logTask(initiate(count + 1 + i));
+            }
+        }
+        TransactionInfoBaseMessage msg = m_log.getNextMessage();
+        assertTrue(msg instanceof CompleteTransactionMessage);
+        assertEquals(100, msg.getTxnId());
+        for (int i = 100; i <= count; i += 100) {
+            assertNextInitiate(count + 1 + i);
+        }
+        assertTrue(m_log.isEmpty());
+        assertNull(m_log.getNextMessage());
+    }
+
+    @Test
+    public void testRetriedSnapshotSkipsEarlierMessages() throws Exception {
+        m_log.enableRecording(10);
+        for (int i = 10; i < 20; i++) {
+            m_log.logTask(initiate(i));
+        }
+        // The first snapshot collided and was retried at a later spHandle
+        m_log.enableRecording(15);
+        for (int i = 20; i < 25; i++) {
+            m_log.logTask(initiate(i));
+        }
+        for (int i = 15; i < 25; i++) {
+            assertNextInitiate(i);
+        }
+        assertTrue(m_log.isEmpty());
+    }
+
+    @Test
+    public void testCloseRemovesSpoolFiles() throws Exception {
+        m_log.enableRecording(0);
+        for (int i = 1; i <= TaskLogImpl.BUFFER_SIZE / PADDING.length() * 2; i++) {
+            m_log.logTask(initiate(i));
+        }
+        m_log.close();
+        assertEquals(0, TEST_DIR.list().length);
+        // A new log in the same directory starts out empty
+        m_log = new TaskLogImpl(3, TEST_DIR);
+        assertTrue(m_log.isEmpty());
+    }
+}
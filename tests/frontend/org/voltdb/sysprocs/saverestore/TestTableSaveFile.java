@@ -0,0 +1,382 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.sysprocs.saverestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop_voltpatches.util.PureJavaCrc32;
+import org.apache.hadoop_voltpatches.util.PureJavaCrc32C;
+import org.json_voltpatches.JSONStringer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.utils.CompressionService;
+
+public class TestTableSaveFile {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name"));
+    private static final int ROWS_PER_CHUNK = 100;
+
+    private File m_file;
+
+    @Before
+    public void setUp() throws Exception {
+        TEST_DIR.mkdirs();
+        m_file = new File(TEST_DIR, "TestTableSaveFile.vpt");
+        m_file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_file.delete();
+    }
+
+    private static VoltTable makeTable() {
+        return new VoltTable(
+                new VoltTable.ColumnInfo("PARTITION_ID", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("ROW_ID", VoltType.BIGINT));
+    }
+
+    /**
+     * Write a save file in the format DefaultSnapshotDataTarget produces, with one chunk per entry of
+     * chunkPartitionIds. A null codecName leaves compressionCodec out of the header like older
+     * snapshots do. The chunk at index corruptChunk gets a payload that doesn't match its CRC.
+     */
+    private void writeSaveFile(CompressionService.Codec codec, String codecName,
+            int[] chunkPartitionIds, int corruptChunk) throws Exception {
+        final TreeSet<Integer> partitionIds = new TreeSet<Integer>();
+        for (int partitionId : chunkPartitionIds) {
+            partitionIds.add(partitionId);
+        }
+        JSONStringer stringer = new JSONStringer();
+        stringer.object();
+        stringer.keySymbolValuePair("txnId", 1L);
+        stringer.keySymbolValuePair("hostId", 0);
+        stringer.keySymbolValuePair("hostname", "localhost");
+        stringer.keySymbolValuePair("clusterName", "cluster");
+        stringer.keySymbolValuePair("databaseName", "database");
+        stringer.keySymbolValuePair("tableName", "TABLE");
+        stringer.keySymbolValuePair("isReplicated", false);
+        stringer.keySymbolValuePair("isCompressed", true);
+        if (codecName != null) {
+            stringer.keySymbolValuePair("compressionCodec", codecName);
+        }
+        stringer.keySymbolValuePair("checksumType", "CRC32C");
+        stringer.keySymbolValuePair("timestamp", 1L);
+        stringer.key("partitionIds").array();
+        for (int partitionId : partitionIds) {
+            stringer.value(partitionId);
+        }
+        stringer.endArray();
+        stringer.keySymbolValuePair("numPartitions", partitionIds.last() + 1);
+        stringer.endObject();
+        final byte jsonBytes[] = stringer.toString().getBytes("UTF-8");
+        final byte schemaBytes[] = PrivateVoltTableFactory.getSchemaBytes(makeTable());
+
+        final ByteBuffer header = ByteBuffer.allocate(8 + 1 + 16 + 4 + jsonBytes.length + schemaBytes.length);
+        header.putInt(0);//CRC
+        header.putInt(1 + 16 + 4 + jsonBytes.length);
+        header.put((byte)1);//Completed
+        header.putInt(0).putInt(0).putInt(0).putInt(2);//Version
+        header.putInt(jsonBytes.length);
+        header.put(jsonBytes);
+        header.put(schemaBytes);
+        final PureJavaCrc32 headerCRC = new PureJavaCrc32();
+        headerCRC.update(header.array(), 4, header.capacity() - 4);
+        header.putInt(0, (int)headerCRC.getValue());
+
+        final FileOutputStream fos = new FileOutputStream(m_file);
+        try {
+            fos.write(header.array());
+            for (int ii = 0; ii < chunkPartitionIds.length; ii++) {
+                final VoltTable rows = makeTable();
+                for (int jj = 0; jj < ROWS_PER_CHUNK; jj++) {
+                    rows.addRow(chunkPartitionIds[ii], (long)(ii * ROWS_PER_CHUNK + jj));
+                }
+                //The chunk is the row count and rows that follow the table header
+                final ByteBuffer rowBuffer = rows.getBuffer();
+                rowBuffer.position(rowBuffer.getInt(0) + 4);
+                final ByteBuffer tuples = ByteBuffer.allocateDirect(rowBuffer.remaining());
+                tuples.put(rowBuffer).flip();
+                final ByteBuffer compressed =
+                        ByteBuffer.allocateDirect(CompressionService.maxCompressedLength(codec, tuples.remaining()));
+                CompressionService.compressBuffer(codec, tuples, compressed);
+                final byte payload[] = new byte[compressed.remaining()];
+                compressed.get(payload);
+
+                final ByteBuffer chunkHeader = ByteBuffer.allocate(16);
+                chunkHeader.putInt(payload.length);
+                chunkHeader.putInt(chunkPartitionIds[ii]);
+                final PureJavaCrc32C partitionIdCRC = new PureJavaCrc32C();
+                partitionIdCRC.update(chunkHeader.array(), 0, 8);
+                chunkHeader.putInt((int)partitionIdCRC.getValue());
+                final PureJavaCrc32C payloadCRC = new PureJavaCrc32C();
+                payloadCRC.update(payload, 0, payload.length);
+                chunkHeader.putInt((int)payloadCRC.getValue());
+                if (ii == corruptChunk) {
+                    payload[payload.length / 2] ^= 1;
+                }
+                fos.write(chunkHeader.array());
+                fos.write(payload);
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Read the remaining chunks, checking each row belongs to the chunk's partition
+     * @return the row ids in the order they were read
+     */
+    private static List<Long> readRowIds(TableSaveFile saveFile) throws IOException {
+        final List<Long> rowIds = new ArrayList<Long>();
+        while (saveFile.hasMoreChunks()) {
+            final BBContainer c = saveFile.getNextChunk();
+            if (c == null) {
+                break;
+            }
+            try {
+                final int partitionId = ((TableSaveFile.Container)c).partitionId;
+                final VoltTable vt = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b(), true);
+                while (vt.advanceRow()) {
+                    assertEquals(partitionId, vt.getLong(0));
+                    rowIds.add(vt.getLong(1));
+                }
+            } finally {
+                c.discard();
+            }
+        }
+        return rowIds;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        final int array[] = new int[values.size()];
+        for (int ii = 0; ii < array.length; ii++) {
+            array[ii] = values.get(ii);
+        }
+        return array;
+    }
+
+    private static List<Long> expectedRowIds(int[] chunks) {
+        final List<Long> rowIds = new ArrayList<Long>();
+        for (int ii : chunks) {
+            for (int jj = 0; jj < ROWS_PER_CHUNK; jj++) {
+                rowIds.add((long)(ii * ROWS_PER_CHUNK + jj));
+            }
+        }
+        return rowIds;
+    }
+
+    /*
+     * Partitions 0, 1 and 2 in turn
+     */
+    private static int[] roundRobinChunks(int count) {
+        final int partitionIds[] = new int[count];
+        for (int ii = 0; ii < count; ii++) {
+            partitionIds[ii] = ii % 3;
+        }
+        return partitionIds;
+    }
+
+    private static void assertClosedCleanly(TableSaveFile saveFile, int readAheadChunks) {
+        assertEquals(0, saveFile.getLiveBufferCountForTest());
+        assertEquals(readAheadChunks, saveFile.getReadAheadPermitsForTest());
+    }
+
+    @Test
+    public void testParallelDecompressionKeepsFileOrder() throws Exception {
+        assertTrue(TableSaveFile.DECOMPRESSION_THREADS > 0);
+        final int chunkPartitionIds[] = roundRobinChunks(50);
+        writeSaveFile(CompressionService.Codec.LZ4, "LZ4", chunkPartitionIds, -1);
+        final List<Integer> allChunks = new ArrayList<Integer>();
+        for (int ii = 0; ii < chunkPartitionIds.length; ii++) {
+            allChunks.add(ii);
+        }
+        final FileInputStream fis = new FileInputStream(m_file);
+        try {
+            final TableSaveFile saveFile = new TableSaveFile(fis, 4, null);
+            assertEquals(expectedRowIds(toArray(allChunks)), readRowIds(saveFile));
+            assertTrue(saveFile.getCorruptedPartitionIds().isEmpty());
+            saveFile.close();
+            assertClosedCleanly(saveFile, 4);
+        } finally {
+            fis.close();
+        }
+    }
+
+    @Test
+    public void testRelevantPartitions() throws Exception {
+        final int chunkPartitionIds[] = roundRobinChunks(30);
+        writeSaveFile(CompressionService.Codec.SNAPPY, "SNAPPY", chunkPartitionIds, -1);
+        final List<Integer> relevantChunks = new ArrayList<Integer>();
+        for (int ii = 0; ii < chunkPartitionIds.length; ii++) {
+            if (chunkPartitionIds[ii] != 1) {
+                relevantChunks.add(ii);
+            }
+        }
+        final FileInputStream fis = new FileInputStream(m_file);
+        try {
+            final TableSaveFile saveFile = new TableSaveFile(fis, 3, new Integer[] { 0, 2 });
+            // readRowIds checks the rows match the partition of their chunk
+            assertEquals(expectedRowIds(toArray(relevantChunks)), readRowIds(saveFile));
+            saveFile.close();
+            assertClosedCleanly(saveFile, 3);
+        } finally {
+            fis.close();
+        }
+    }
+
+    @Test
+    public void testCorruptChunk() throws Exception {
+        final int chunkPartitionIds[] = roundRobinChunks(30);
+        // Chunk 13 is in partition 1
+        writeSaveFile(CompressionService.Codec.LZ4, "LZ4", chunkPartitionIds, 13);
+        final FileInputStream fis = new FileInputStream(m_file);
+        try {
+            final TableSaveFile saveFile = new TableSaveFile(fis, 4, null);
+            try {
+                readRowIds(saveFile);
+                fail("Corrupt chunk must fail the read");
+            } catch (IOException expected) {
+            } finally {
+                saveFile.close();
+            }
+            assertTrue(saveFile.getCorruptedPartitionIds().contains(1));
+            assertClosedCleanly(saveFile, 4);
+        } finally {
+            fis.close();
+        }
+    }
+
+    @Test
+    public void testContinueOnCorruptChunk() throws Exception {
+        final int chunkPartitionIds[] = roundRobinChunks(30);
+        writeSaveFile(CompressionService.Codec.LZ4, "LZ4", chunkPartitionIds, 13);
+        final List<Integer> goodChunks = new ArrayList<Integer>();
+        for (int ii = 0; ii < chunkPartitionIds.length; ii++) {
+            if (ii != 13) {
+                goodChunks.add(ii);
+            }
+        }
+        final FileInputStream fis = new FileInputStream(m_file);
+        try {
+            final TableSaveFile saveFile = new TableSaveFile(fis, 4, null, true);
+            assertEquals(expectedRowIds(toArray(goodChunks)), readRowIds(saveFile));
+            assertEquals(Collections.singleton(1), saveFile.getCorruptedPartitionIds());
+            saveFile.close();
+            assertClosedCleanly(saveFile, 4);
+        } finally {
+            fis.close();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testCloseDuringDecompression() throws Exception {
+        assertTrue(TableSaveFile.DECOMPRESSION_THREADS > 0);
+        writeSaveFile(CompressionService.Codec.LZ4_HIGH, "LZ4_HIGH", roundRobinChunks(40), -1);
+        // Close at different points of the read ahead
+        for (int consumed = 0; consumed < 10; consumed++) {
+            final FileInputStream fis = new FileInputStream(m_file);
+            try {
+                final TableSaveFile saveFile = new TableSaveFile(fis, 8, null);
+                final BBContainer held = saveFile.getNextChunk();
+                for (int ii = 0; ii < consumed; ii++) {
+                    saveFile.getNextChunk().discard();
+                }
+                saveFile.close();
+                // A chunk still held by the caller is freed when it is discarded
+                held.discard();
+                assertClosedCleanly(saveFile, 8);
+            } finally {
+                fis.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionCodecInHeader() throws Exception {
+        for (CompressionService.Codec codec : CompressionService.Codec.values()) {
+            writeSaveFile(codec, codec.name(), new int[] { 0, 1, 0, 1 }, -1);
+            final FileInputStream fis = new FileInputStream(m_file);
+            try {
+                final TableSaveFile saveFile = new TableSaveFile(fis, 2, null);
+                try {
+                    assertTrue(saveFile.isCompressed());
+                    assertEquals(codec, saveFile.getCompressionCodec());
+                    assertEquals(expectedRowIds(new int[] { 0, 1, 2, 3 }), readRowIds(saveFile));
+                    assertTrue(saveFile.getCorruptedPartitionIds().isEmpty());
+                } finally {
+                    saveFile.close();
+                }
+            } finally {
+                fis.close();
+            }
+        }
+    }
+
+    @Test
+    public void testHeaderWithoutCompressionCodec() throws Exception {
+        writeSaveFile(CompressionService.Codec.SNAPPY, null, new int[] { 0, 1 }, -1);
+        final FileInputStream fis = new FileInputStream(m_file);
+        try {
+            final TableSaveFile saveFile = new TableSaveFile(fis, 2, null);
+            try {
+                assertEquals(CompressionService.Codec.SNAPPY, saveFile.getCompressionCodec());
+                assertEquals(expectedRowIds(new int[] { 0, 1 }), readRowIds(saveFile));
+            } finally {
+                saveFile.close();
+            }
+        } finally {
+            fis.close();
+        }
+    }
+
+    @Test
+    public void testUnknownCompressionCodec() throws Exception {
+        writeSaveFile(CompressionService.Codec.LZ4, "LZ5", new int[] { 0 }, -1);
+        final FileInputStream fis = new FileInputStream(m_file);
+        try {
+            new TableSaveFile(fis, 2, null);
+            fail("Save file with an unknown codec must be rejected");
+        } catch (IOException expected) {
+        } finally {
+            fis.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+import org.voltdb.utils.CompressionService.Codec;
+
+public class TestCompressionService {
+
+    private static ByteBuffer makeInput(int length) {
+        final Random r = new Random(0);
+        final ByteBuffer buf = ByteBuffer.allocateDirect(length);
+        while (buf.hasRemaining()) {
+            buf.put((byte) ('a' + r.nextInt(8)));
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Test
+    public void testBufferRoundTrip() throws Exception {
+        for (Codec codec : Codec.values()) {
+            final ByteBuffer input = makeInput(100000);
+            input.position(17);
+            final ByteBuffer compressed = ByteBuffer.allocateDirect(CompressionService.maxCompressedLength(100000));
+            compressed.position(3);
+
+            final int size = CompressionService.compressBuffer(codec, input, compressed);
+            // Positions don't move, the limit marks the end of the block
+            assertEquals(17, input.position());
+            assertEquals(3, compressed.position());
+            assertEquals(3 + size, compressed.limit());
+            assertTrue(size < input.remaining());
+            assertEquals(input.remaining(), CompressionService.uncompressedLength(codec, compressed));
+
+            final ByteBuffer uncompressed = ByteBuffer.allocateDirect(100000);
+            assertEquals(input.remaining(), CompressionService.decompressBuffer(codec, compressed, uncompressed));
+            assertEquals(input, uncompressed);
+        }
+    }
+
+    @Test
+    public void testBytesRoundTrip() throws Exception {
+        final byte[] input = new byte[5000];
+        makeInput(input.length).get(input);
+        for (Codec codec : Codec.values()) {
+            final byte[] compressed = CompressionService.compressBytes(codec, input, 0, input.length);
+            assertArrayEquals(input, CompressionService.decompressBytes(codec, compressed));
+
+            final ByteBuffer direct = makeInput(input.length);
+            assertArrayEquals(input, CompressionService.decompressBytes(codec,
+                    CompressionService.compressBuffer(codec, direct)));
+        }
+    }
+
+    @Test
+    public void testLz4VariantsShareFormat() throws Exception {
+        final byte[] input = new byte[5000];
+        makeInput(input.length).get(input);
+        final byte[] compressed = CompressionService.compressBytes(Codec.LZ4_HIGH, input, 0, input.length);
+        assertArrayEquals(input, CompressionService.decompressBytes(Codec.LZ4, compressed));
+    }
+
+    @Test
+    public void testCorruptLz4Block() throws Exception {
+        final ByteBuffer input = makeInput(10000);
+        final ByteBuffer compressed = ByteBuffer.allocateDirect(CompressionService.maxCompressedLength(10000));
+        CompressionService.compressBuffer(Codec.LZ4, input, compressed);
+        compressed.limit(compressed.limit() / 2);
+        try {
+            CompressionService.decompressBuffer(Codec.LZ4, compressed, ByteBuffer.allocateDirect(10000));
+            fail();
+        } catch (IOException expected) {}
+    }
+
+    @Test
+    public void testBadLz4LengthPrefix() throws Exception {
+        final byte[] input = new byte[5000];
+        makeInput(input.length).get(input);
+        final byte[] compressed = CompressionService.compressBytes(Codec.LZ4, input, 0, input.length);
+        for (int bad : new int[] { -1, Integer.MAX_VALUE, (compressed.length - 4) * 255 + 1 }) {
+            ByteBuffer.wrap(compressed).putInt(0, bad);
+            try {
+                CompressionService.decompressBytes(Codec.LZ4, compressed);
+                fail();
+            } catch (IOException expected) {}
+            final ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length);
+            direct.put(compressed).flip();
+            try {
+                CompressionService.uncompressedLength(Codec.LZ4, direct);
+                fail();
+            } catch (IOException expected) {}
+        }
+        try {
+            CompressionService.decompressBytes(Codec.LZ4, new byte[3]);
+            fail();
+        } catch (IOException expected) {}
+
+        // A valid length that doesn't fit the output is rejected up front
+        ByteBuffer.wrap(compressed).putInt(0, input.length);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length);
+        direct.put(compressed).flip();
+        try {
+            CompressionService.decompressBuffer(Codec.LZ4, direct, ByteBuffer.allocateDirect(input.length - 1));
+            fail();
+        } catch (IOException expected) {}
+    }
+
+    @Test
+    public void testHighlyCompressibleLz4Block() throws Exception {
+        // Long runs come close to the most a block can expand to
+        final byte[] input = new byte[4 * 1024 * 1024];
+        for (Codec codec : new Codec[] { Codec.LZ4, Codec.LZ4_HIGH }) {
+            final byte[] compressed = CompressionService.compressBytes(codec, input, 0, input.length);
+            assertArrayEquals(input, CompressionService.decompressBytes(codec, compressed));
+        }
+    }
+
+    @Test
+    public void testCodecIds() throws Exception {
+        for (Codec codec : Codec.values()) {
+            assertEquals(codec, Codec.fromId(codec.getId()));
+        }
+        try {
+            Codec.fromId((byte) 42);
+            fail();
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    @Test
+    public void testCodecFromProperty() throws Exception {
+        final String property = "TEST_COMPRESSION_CODEC";
+        try {
+            assertEquals(Codec.SNAPPY, Codec.fromProperty(property));
+            System.setProperty(property, "lz4_high");
+            assertEquals(Codec.LZ4_HIGH, Codec.fromProperty(property));
+            // A typo falls back to the default rather than failing static initialization
+            System.setProperty(property, "lz5");
+            assertEquals(Codec.SNAPPY, Codec.fromProperty(property));
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+}
@@ -31,6 +31,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.Set;
@@ -1054,6 +1055,91 @@ public class TestPersistentBinaryDeque {
         assert(files[0].getName().equals("pbd_nonce.1.pbd"));
     }
 
+    @Test
+    public void testMappedReads() throws Exception {
+        System.out.println("Running testMappedReads");
+        m_pbd.close();
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger, true, true );
+
+        //Alternate compressed and uncompressed entries, spilling into a second segment
+        for (int ii = 0; ii < 48; ii++) {
+            m_pbd.offer( DBBPool.wrapBB(getFilledBuffer(ii)), ii % 2 == 0 );
+        }
+
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+        BBContainer held = null;
+        for (int ii = 0; ii < 48; ii++) {
+            BBContainer cont = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertNotNull(cont);
+            assertEquals(getFilledBuffer(ii), cont.b());
+            if (ii == 47) {
+                held = cont;
+            } else {
+                cont.discard();
+            }
+        }
+        assertNull(reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY));
+
+        //Entries appended after the tail was mapped are read through a new mapping
+        m_pbd.offer( DBBPool.wrapBB(getFilledBuffer(100)) );
+        m_pbd.offer( DBBPool.wrapBB(getFilledBuffer(101)), true );
+        for (int ii = 100; ii < 102; ii++) {
+            BBContainer cont = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertNotNull(cont);
+            assertEquals(getFilledBuffer(ii), cont.b());
+            cont.discard();
+        }
+
+        //An entry that is still held stays readable after its segment is closed
+        m_pbd.close();
+        assertEquals(getFilledBuffer(47), held.b());
+        held.discard();
+    }
+
+    @Test
+    public void testLz4Entries() throws Exception {
+        System.out.println("Running testLz4Entries");
+        final CompressionService.Codec defaultCodec = PBDSegment.m_compressionCodec;
+        try {
+            for (boolean mmapReads : new boolean[] { false, true }) {
+                m_pbd.close();
+                setupTestDir();
+                m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger, true, mmapReads );
+
+                //Mix LZ4, Snappy and uncompressed entries, each is read with the codec in its flags
+                for (int ii = 0; ii < 48; ii++) {
+                    PBDSegment.setCompressionCodecForTest(
+                            ii % 3 == 0 ? CompressionService.Codec.SNAPPY : CompressionService.Codec.LZ4);
+                    m_pbd.offer( DBBPool.wrapBB(getFilledBuffer(ii)), ii % 4 != 3 );
+                }
+
+                RandomAccessFile segment =
+                        new RandomAccessFile(new File(TEST_DIR, getSortedDirectoryListing().first()), "r");
+                try {
+                    //The first entry is Snappy, the second one LZ4
+                    segment.seek(PBDSegment.SEGMENT_HEADER_BYTES);
+                    final int firstLength = segment.readInt();
+                    assertEquals(PBDSegment.FLAG_COMPRESSED, segment.readInt());
+                    segment.seek(PBDSegment.SEGMENT_HEADER_BYTES + PBDSegment.OBJECT_HEADER_BYTES + firstLength + 4);
+                    assertEquals(PBDSegment.FLAG_COMPRESSED | PBDSegment.FLAG_LZ4, segment.readInt());
+                } finally {
+                    segment.close();
+                }
+
+                BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+                for (int ii = 0; ii < 48; ii++) {
+                    BBContainer cont = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+                    assertNotNull(cont);
+                    assertEquals(getFilledBuffer(ii), cont.b());
+                    cont.discard();
+                }
+                assertNull(reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY));
+            }
+        } finally {
+            PBDSegment.setCompressionCodecForTest(defaultCodec);
+        }
+    }
+
     @Before
     public void setUp() throws Exception {
         setupTestDir();